@@ -0,0 +1,46 @@
+package macsy.benchmark;
+
+/**
+ * A single micro benchmark: an operation that BenchmarkRunner calls
+ * repeatedly and measures.
+ *
+ * Subclasses prepare their input in setUp() (not measured) and do one unit of
+ * work per op(). op() must return something derived from its work, so that
+ * the JIT can not remove the work as dead code; the runner consumes it.
+ */
+public abstract class Benchmark {
+
+	private String name;
+
+	/**
+	 * @param name The name of the benchmark, e.g. "DataPoint.getDotProduct".
+	 */
+	protected Benchmark(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Prepares the input of the benchmark. Called once, before warm up.
+	 *
+	 * @throws Exception
+	 */
+	public void setUp() throws Exception
+	{
+	}
+
+	/**
+	 * Performs the i-th operation.
+	 *
+	 * @param i The number of the operation (0,1,2...). Use it to cycle over
+	 * the prepared input.
+	 * @return Any value that depends on the work done.
+	 * @throws Exception
+	 */
+	public abstract double op(int i) throws Exception;
+}
@@ -0,0 +1,430 @@
+package macsy.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs benchmarks in timed iterations and reports throughput and allocation.
+ *
+ * Each benchmark runs in forks: fresh JVMs, one after the other, so that
+ * the JIT profile and the heap left by one benchmark do not affect the next,
+ * and so that the variance between JVMs shows. In each fork the benchmark is
+ * first warmed up (so that the JIT compiles it) and then measured for a
+ * number of iterations of fixed duration. With 0 forks everything runs in
+ * this JVM. For each benchmark it reports:
+ *  ops/s   - throughput: mean, standard deviation, min and max over the
+ *            measured iterations of all forks
+ *  ns/op   - average time of one operation
+ *  MB/s    - allocation rate of the benchmark thread
+ *  B/op    - bytes allocated per operation
+ *  gc      - number of collections and total collection time
+ *
+ * Allocation is read from the HotSpot thread MXBean; on other JVMs it is
+ * reported as n/a.
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * Operations between two checks of the clock.
+	 */
+	private static final int BATCH = 16;
+
+	/**
+	 * Prefix of the line with which a fork reports its result.
+	 */
+	private static final String FORK_RESULT = "#FORK-RESULT";
+
+	private int forks = 2;
+	private String forkMainClass = null;
+	private int warmupIterations = 3;
+	private int measureIterations = 5;
+	private long iterationMillis = 1000;
+
+	//Keeps the results of op() alive
+	private volatile double blackhole = 0;
+
+	private ThreadMXBean threadBean = null;
+	private boolean allocationSupported = false;
+
+	public BenchmarkRunner()
+	{
+		threadBean = ManagementFactory.getThreadMXBean();
+		try
+		{
+			if(threadBean instanceof com.sun.management.ThreadMXBean)
+			{
+				com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) threadBean;
+				if(b.isThreadAllocatedMemorySupported())
+				{
+					b.setThreadAllocatedMemoryEnabled(true);
+					allocationSupported = true;
+				}
+			}
+		}
+		catch(LinkageError e)
+		{
+			//Not HotSpot
+		}
+	}
+
+	/**
+	 * Sets the number of forks of each benchmark.
+	 *
+	 * @param n The number of forks, or 0 to run in this JVM.
+	 * @param mainClass The main class that a fork runs. It must pass
+	 * "-child name" to runChild(), and -w, -i, -t as for this runner.
+	 */
+	public void setForks(int n, Class<?> mainClass)
+	{
+		forks = n;
+		forkMainClass = mainClass.getName();
+	}
+
+	public void setWarmupIterations(int n)
+	{
+		warmupIterations = n;
+	}
+
+	public void setMeasureIterations(int n)
+	{
+		measureIterations = n;
+	}
+
+	public void setIterationMillis(long ms)
+	{
+		iterationMillis = ms;
+	}
+
+	/**
+	 * The measurements of one benchmark.
+	 */
+	public static class Result {
+		public String name;
+		public int forks;
+		public int samples;		//Measured iterations of all forks
+		public double opsPerSec;
+		public double opsPerSecStdDev;
+		public double opsPerSecMin;
+		public double opsPerSecMax;
+		public double nsPerOp;
+		public double allocMBPerSec = Double.NaN;
+		public double allocBytesPerOp = Double.NaN;
+		public long gcCount;
+		public long gcMillis;
+
+		//Raw measurements, from which the above are computed
+		double[] iterationOpsPerSec = new double[0];
+		long totalOps;
+		long totalNanos;
+		long totalBytes = -1;	//-1 if not supported
+	}
+
+	/**
+	 * Runs a benchmark: setUp(), warm up and measurement.
+	 *
+	 * @param b The benchmark.
+	 * @return Its measurements.
+	 * @throws Exception
+	 */
+	public Result run(Benchmark b) throws Exception
+	{
+		b.setUp();
+
+		long[] opCounter = new long[1];
+		for(int i=0; i<warmupIterations; i++)
+			iteration(b, opCounter, null);
+
+		Result r = new Result();
+		r.name = b.getName();
+		r.iterationOpsPerSec = new double[measureIterations];
+		r.totalBytes = allocationSupported ? 0 : -1;
+
+		long[] gc = new long[2];
+		for(int i=0; i<measureIterations; i++)
+		{
+			long[] it = iteration(b, opCounter, gc);
+			r.totalOps += it[0];
+			r.totalNanos += it[1];
+			if(allocationSupported)
+				r.totalBytes += it[2];
+			r.iterationOpsPerSec[i] = it[0] * 1e9 / it[1];
+		}
+		r.gcCount = gc[0];
+		r.gcMillis = gc[1];
+		summarize(r);
+		return r;
+	}
+
+	/**
+	 * Runs a benchmark in forks and merges their measurements.
+	 *
+	 * @param name The name of the benchmark.
+	 * @return Its measurements over all forks.
+	 * @throws Exception If a fork fails.
+	 */
+	public Result runForked(String name) throws Exception
+	{
+		Result r = new Result();
+		r.name = name;
+		r.totalBytes = 0;
+		for(int f=0; f<forks; f++)
+		{
+			Result fr = fork(name);
+			double[] all = new double[r.iterationOpsPerSec.length + fr.iterationOpsPerSec.length];
+			System.arraycopy(r.iterationOpsPerSec, 0, all, 0, r.iterationOpsPerSec.length);
+			System.arraycopy(fr.iterationOpsPerSec, 0, all, r.iterationOpsPerSec.length, fr.iterationOpsPerSec.length);
+			r.iterationOpsPerSec = all;
+			r.totalOps += fr.totalOps;
+			r.totalNanos += fr.totalNanos;
+			if(r.totalBytes>=0 && fr.totalBytes>=0)
+				r.totalBytes += fr.totalBytes;
+			else
+				r.totalBytes = -1;
+			r.gcCount += fr.gcCount;
+			r.gcMillis += fr.gcMillis;
+			System.out.println("\tfork " + (f+1) + "/" + forks + ": " + format(summarize(fr)));
+		}
+		r.forks = forks;
+		summarize(r);
+		return r;
+	}
+
+	/**
+	 * Runs the benchmark with the given name in this JVM and prints its raw
+	 * result for the JVM that forked this one.
+	 *
+	 * @throws Exception If there is no such benchmark.
+	 */
+	public void runChild(List<Benchmark> benchmarks, String name) throws Exception
+	{
+		for(Benchmark b : benchmarks)
+		{
+			if(!b.getName().equals(name))
+				continue;
+
+			Result r = run(b);
+			StringBuilder line = new StringBuilder(FORK_RESULT);
+			line.append('\t').append(r.totalOps);
+			line.append('\t').append(r.totalNanos);
+			line.append('\t').append(r.totalBytes);
+			line.append('\t').append(r.gcCount);
+			line.append('\t').append(r.gcMillis);
+			for(double v : r.iterationOpsPerSec)
+				line.append('\t').append(v);
+			System.out.println(line);
+			return;
+		}
+		throw new Exception("No benchmark " + name);
+	}
+
+	/**
+	 * Runs one fork of a benchmark and reads its result.
+	 */
+	private Result fork(String name) throws Exception
+	{
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(forkMainClass);
+		command.add("-w");
+		command.add(String.valueOf(warmupIterations));
+		command.add("-i");
+		command.add(String.valueOf(measureIterations));
+		command.add("-t");
+		command.add(String.valueOf(iterationMillis));
+		command.add("-child");
+		command.add(name);
+
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		Process p = pb.start();
+
+		Result r = null;
+		StringBuilder output = new StringBuilder();
+		BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+		try
+		{
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				if(!line.startsWith(FORK_RESULT))
+				{
+					output.append(line).append('\n');
+					continue;
+				}
+				String[] parts = line.split("\t");
+				r = new Result();
+				r.name = name;
+				r.totalOps = Long.parseLong(parts[1]);
+				r.totalNanos = Long.parseLong(parts[2]);
+				r.totalBytes = Long.parseLong(parts[3]);
+				r.gcCount = Long.parseLong(parts[4]);
+				r.gcMillis = Long.parseLong(parts[5]);
+				r.iterationOpsPerSec = new double[parts.length - 6];
+				for(int i=6; i<parts.length; i++)
+					r.iterationOpsPerSec[i-6] = Double.parseDouble(parts[i]);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		int exit = p.waitFor();
+		if(exit!=0 || r==null)
+			throw new Exception("Fork of " + name + " failed with exit code " + exit + ":\n" + output);
+		r.forks = 1;
+		return r;
+	}
+
+	/**
+	 * Computes the statistics of a result from its raw measurements.
+	 *
+	 * @return r
+	 */
+	private static Result summarize(Result r)
+	{
+		double[] opsPerSec = r.iterationOpsPerSec;
+		double mean = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for(double v : opsPerSec)
+		{
+			mean += v;
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+		}
+		mean /= opsPerSec.length;
+		double var = 0;
+		for(double v : opsPerSec)
+			var += (v - mean) * (v - mean);
+
+		r.samples = opsPerSec.length;
+		r.opsPerSec = mean;
+		r.opsPerSecStdDev = opsPerSec.length > 1 ? Math.sqrt(var / (opsPerSec.length - 1)) : 0;
+		r.opsPerSecMin = min;
+		r.opsPerSecMax = max;
+		r.nsPerOp = r.totalNanos / (double) r.totalOps;
+		if(r.totalBytes >= 0)
+		{
+			r.allocBytesPerOp = r.totalBytes / (double) r.totalOps;
+			r.allocMBPerSec = r.totalBytes / (1024.0 * 1024.0) / (r.totalNanos / 1e9);
+		}
+		return r;
+	}
+
+	/**
+	 * Runs all benchmarks whose name contains filter and prints their results.
+	 * Each runs in its own forks, unless forks is 0.
+	 *
+	 * @param benchmarks The benchmarks.
+	 * @param filter Part of the names to run, or null for all.
+	 * @return The results.
+	 * @throws Exception
+	 */
+	public List<Result> runAll(List<Benchmark> benchmarks, String filter) throws Exception
+	{
+		List<Result> results = new ArrayList<Result>();
+		for(Benchmark b : benchmarks)
+		{
+			if(filter!=null && !b.getName().contains(filter))
+				continue;
+
+			System.out.println("Running " + b.getName() + "...");
+			Result r = forks > 0 ? runForked(b.getName()) : run(b);
+			results.add(r);
+			System.out.println("\t" + format(r));
+		}
+
+		System.out.println();
+		System.out.println(String.format("%-48s %5s %14s %12s %6s %14s %14s %10s %10s %12s %10s",
+				"Benchmark", "n", "ops/s", "+-", "cv%", "min", "max", "ns/op", "MB/s", "B/op", "gc(ms)"));
+		for(Result r : results)
+			System.out.println(String.format("%-48s %5d %14.1f %12.1f %6.1f %14.1f %14.1f %10.1f %10s %12s %4d(%d)",
+					r.name, r.samples, r.opsPerSec, r.opsPerSecStdDev,
+					100 * r.opsPerSecStdDev / r.opsPerSec,
+					r.opsPerSecMin, r.opsPerSecMax, r.nsPerOp,
+					Double.isNaN(r.allocMBPerSec) ? "n/a" : String.format("%.1f", r.allocMBPerSec),
+					Double.isNaN(r.allocBytesPerOp) ? "n/a" : String.format("%.1f", r.allocBytesPerOp),
+					r.gcCount, r.gcMillis));
+		return results;
+	}
+
+	private String format(Result r)
+	{
+		return String.format("%.1f +- %.1f ops/s (%d iterations), %.1f ns/op, %s B/op",
+				r.opsPerSec, r.opsPerSecStdDev, r.samples, r.nsPerOp,
+				Double.isNaN(r.allocBytesPerOp) ? "n/a" : String.format("%.1f", r.allocBytesPerOp));
+	}
+
+	/**
+	 * Runs ops for iterationMillis.
+	 *
+	 * @param opCounter The number of the next op. Updated.
+	 * @param gc If not null, the gc count and time of the iteration are added to it.
+	 * @return Number of ops, elapsed ns and allocated bytes.
+	 */
+	private long[] iteration(Benchmark b, long[] opCounter, long[] gc) throws Exception
+	{
+		long threadID = Thread.currentThread().getId();
+		long gcCount = gcCount();
+		long gcMillis = gcMillis();
+		long bytes = allocatedBytes(threadID);
+
+		long start = System.nanoTime();
+		long deadline = start + iterationMillis * 1000000L;
+		long ops = 0;
+		long next = opCounter[0];
+		double sink = 0;
+		do
+		{
+			for(int k=0; k<BATCH; k++)
+				sink += b.op((int) (next++ & Integer.MAX_VALUE));
+			ops += BATCH;
+		}
+		while(System.nanoTime() < deadline);
+		long elapsed = System.nanoTime() - start;
+
+		bytes = allocatedBytes(threadID) - bytes;
+		opCounter[0] = next;
+		blackhole += sink;
+
+		if(gc!=null)
+		{
+			gc[0] += gcCount() - gcCount;
+			gc[1] += gcMillis() - gcMillis;
+		}
+		return new long[] { ops, elapsed, bytes };
+	}
+
+	private long allocatedBytes(long threadID)
+	{
+		if(!allocationSupported)
+			return 0;
+		return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(threadID);
+	}
+
+	private static long gcCount()
+	{
+		long n = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			n += Math.max(0, gc.getCollectionCount());
+		return n;
+	}
+
+	private static long gcMillis()
+	{
+		long n = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			n += Math.max(0, gc.getCollectionTime());
+		return n;
+	}
+}
@@ -0,0 +1,511 @@
+package macsy.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import macsy.lib.ArrayLinearModel;
+import macsy.lib.BasicLinearModel;
+import macsy.lib.DataPoint;
+import macsy.lib.FeaturesCodec;
+import macsy.lib.LinearModel;
+import macsy.lib.onlineLearning.OnlineAdatron;
+import macsy.lib.onlineLearning.OnlineLearning;
+import macsy.lib.onlineLearning.OnlinePerceptron;
+import macsy.lib.onlineLearning.PocketPerceptron;
+import macsy.module.featuresExtractorTFIDF.NGIndexer;
+import macsy.module.featuresExtractorTFIDF.NGPreprocessing;
+import macsy.module.onlineClassification.OnlineClassifierPerceptron;
+
+/**
+ * Micro benchmarks of the hot paths of Macsy: sparse vectors, linear models,
+ * text preprocessing / indexing and online learners.
+ *
+ * All input is synthetic (see SyntheticData) and generated with a fixed seed,
+ * so runs are comparable. No database is needed. Model and vocabulary files
+ * are written to a temporary directory, deleted at the end.
+ *
+ * Usage:
+ * java -Xmx1g macsy.benchmark.MacsyBenchmarks [-f forks] [-w warmupIterations]
+ *      [-i measureIterations] [-t iterationMillis] [nameFilter]
+ *
+ * By default each benchmark runs in 2 forks (fresh JVMs with the same JVM
+ * options and class path) of 3 warm up and 5 measured iterations of 1s.
+ * "-f 0" runs everything in this JVM. Look at +- and min/max before trusting
+ * a difference between two runs.
+ *
+ * e.g. "MacsyBenchmarks DataPoint" runs only the DataPoint benchmarks.
+ * Run it with the same JVM options before and after a change; ops/s shows
+ * the change in speed and B/op the change in garbage produced.
+ */
+public class MacsyBenchmarks {
+
+	//Sizes of typical news data
+	static final int ARTICLE_WORDS = 400;
+	static final int VECTOR_NON_ZEROS = 150;
+	static final int DIMENSION = 50000;
+	static final int POOL_SIZE = 1024;	//Inputs cycled over by each benchmark
+
+	private SyntheticData data = new SyntheticData(42, 20000);
+	private File tempDir = null;
+
+	public static void main(String[] args) throws Exception
+	{
+		BenchmarkRunner runner = new BenchmarkRunner();
+		runner.setForks(2, MacsyBenchmarks.class);
+		String filter = null;
+		String child = null;	//The benchmark to run as a fork
+		for(int i=0; i<args.length; i++)
+		{
+			if(args[i].equals("-f"))
+				runner.setForks(Integer.parseInt(args[++i]), MacsyBenchmarks.class);
+			else if(args[i].equals("-child"))
+				child = args[++i];
+			else if(args[i].equals("-w"))
+				runner.setWarmupIterations(Integer.parseInt(args[++i]));
+			else if(args[i].equals("-i"))
+				runner.setMeasureIterations(Integer.parseInt(args[++i]));
+			else if(args[i].equals("-t"))
+				runner.setIterationMillis(Long.parseLong(args[++i]));
+			else
+				filter = args[i];
+		}
+
+		MacsyBenchmarks benchmarks = new MacsyBenchmarks();
+		try
+		{
+			if(child!=null)
+				runner.runChild(benchmarks.createAll(), child);
+			else
+				runner.runAll(benchmarks.createAll(), filter);
+		}
+		finally
+		{
+			benchmarks.deleteTempDir();
+		}
+	}
+
+	/**
+	 * @return All benchmarks, in the order they run.
+	 * @throws Exception
+	 */
+	public List<Benchmark> createAll() throws Exception
+	{
+		tempDir = File.createTempFile("macsy-bench", "");
+		tempDir.delete();
+		tempDir.mkdirs();
+
+		List<Benchmark> all = new ArrayList<Benchmark>();
+		addDataPointBenchmarks(all);
+		addLinearModelBenchmarks(all);
+		addTextBenchmarks(all);
+		addLearningBenchmarks(all);
+		return all;
+	}
+
+	private void deleteTempDir()
+	{
+		if(tempDir==null)
+			return;
+		File[] files = tempDir.listFiles();
+		if(files!=null)
+			for(File f : files)
+				f.delete();
+		tempDir.delete();
+	}
+
+	private List<Map<Integer,Double>> vectors(int n)
+	{
+		List<Map<Integer,Double>> v = new ArrayList<Map<Integer,Double>>(n);
+		for(int i=0; i<n; i++)
+			v.add(data.sparseVector(VECTOR_NON_ZEROS, DIMENSION));
+		return v;
+	}
+
+	private List<DataPoint> points(int n)
+	{
+		List<DataPoint> p = new ArrayList<DataPoint>(n);
+		for(Map<Integer,Double> v : vectors(n))
+			p.add(new DataPoint(v));
+		return p;
+	}
+
+	//////////////////////////////////////////////////////////////////////
+	// DataPoint
+
+	private void addDataPointBenchmarks(List<Benchmark> all)
+	{
+		all.add(new Benchmark("DataPoint.new(Map)") {
+			List<Map<Integer,Double>> vectors;
+			public void setUp() { vectors = vectors(POOL_SIZE); }
+			public double op(int i)
+			{
+				return new DataPoint(vectors.get(i % POOL_SIZE)).getNumOfFeatures();
+			}
+		});
+
+		all.add(new Benchmark("DataPoint.new(List)") {
+			List<List<Double>> lists;
+			public void setUp()
+			{
+				lists = new ArrayList<List<Double>>();
+				for(Map<Integer,Double> v : vectors(POOL_SIZE))
+					lists.add(SyntheticData.toFeatureList(v));
+			}
+			public double op(int i)
+			{
+				return new DataPoint(lists.get(i % POOL_SIZE)).getNumOfFeatures();
+			}
+		});
+
+		all.add(new Benchmark("DataPoint.new(String).getFeaturesMap") {
+			List<String> strings;
+			public void setUp()
+			{
+				strings = new ArrayList<String>();
+				for(DataPoint p : points(POOL_SIZE))
+					strings.add(p.getFeatures());
+			}
+			public double op(int i)
+			{
+				return new DataPoint(strings.get(i % POOL_SIZE)).getFeaturesMap().size();
+			}
+		});
+
+		all.add(new Benchmark("DataPoint.getDotProduct") {
+			List<DataPoint> points;
+			public void setUp() { points = points(POOL_SIZE); }
+			public double op(int i)
+			{
+				return points.get(i % POOL_SIZE).getDotProduct(points.get((i + 1) % POOL_SIZE));
+			}
+		});
+
+		all.add(new Benchmark("DataPoint.getCosineSimilarity") {
+			List<DataPoint> points;
+			public void setUp() { points = points(POOL_SIZE); }
+			public double op(int i)
+			{
+				return points.get(i % POOL_SIZE).getCosineSimilarity(points.get((i + 1) % POOL_SIZE));
+			}
+		});
+
+		all.add(new Benchmark("DataPoint.difference") {
+			List<DataPoint> points;
+			public void setUp() { points = points(POOL_SIZE); }
+			public double op(int i)
+			{
+				return DataPoint.difference(points.get(i % POOL_SIZE),
+						points.get((i + 1) % POOL_SIZE)).getFeaturesMap().size();
+			}
+		});
+	}
+
+	//////////////////////////////////////////////////////////////////////
+	// BasicLinearModel
+
+	/**
+	 * A model with random weights for all features.
+	 */
+	private LinearModel trainedModel(String name, boolean array) throws Exception
+	{
+		String file = new File(tempDir, name).getPath();
+		java.util.Random r = new java.util.Random(7);
+		if(array)
+		{
+			ArrayLinearModel model = new ArrayLinearModel(file);
+			for(int id=1; id<=DIMENSION; id++)
+				model.setWi(id, r.nextGaussian());
+			model.setB(0.1);
+			return model;
+		}
+
+		BasicLinearModel model = new BasicLinearModel(file);
+		for(int id=1; id<=DIMENSION; id++)
+			model.setValueByNewID(id, r.nextGaussian());
+		model.setB(0.1);
+		return model;
+	}
+
+	private void addLinearModelBenchmarks(List<Benchmark> all)
+	{
+		for(final boolean array : new boolean[] { false, true })
+		{
+			final String name = array ? "ArrayLinearModel" : "BasicLinearModel";
+
+			all.add(new Benchmark(name + ".predict") {
+				List<DataPoint> points;
+				LinearModel model;
+				public void setUp() throws Exception
+				{
+					points = points(POOL_SIZE);
+					model = trainedModel(name + "-dot.model", array);
+				}
+				public double op(int i)
+				{
+					return model.predict(points.get(i % POOL_SIZE));
+				}
+			});
+
+			all.add(new Benchmark(name + ".addToW") {
+				List<DataPoint> updates;
+				LinearModel model;
+				public void setUp() throws Exception
+				{
+					model = trainedModel(name + "-add.model", array);
+					//x followed by -x, so that the weights do not drift
+					updates = new ArrayList<DataPoint>();
+					for(Map<Integer,Double> v : vectors(POOL_SIZE / 2))
+					{
+						Map<Integer,Double> neg = new TreeMap<Integer,Double>();
+						for(Map.Entry<Integer,Double> e : v.entrySet())
+							neg.put(e.getKey(), -e.getValue());
+						updates.add(new DataPoint(v));
+						updates.add(new DataPoint(neg));
+					}
+				}
+				public double op(int i)
+				{
+					DataPoint x = updates.get(i % POOL_SIZE);
+					model.addToW(x, (i & 1)==0 ? 0.01 : -0.01);
+					return model.getB();
+				}
+			});
+		}
+
+		for(final boolean binary : new boolean[] { false, true })
+		{
+			final String name = "ArrayLinearModel.loadModel(" + (binary ? "binary" : "text") + ")";
+			all.add(new Benchmark(name) {
+				String file;
+				public void setUp() throws Exception
+				{
+					ArrayLinearModel model = (ArrayLinearModel) trainedModel(name + ".model", true);
+					file = new File(tempDir, name + ".saved").getPath();
+					model.setBinaryFormat(binary);
+					model.saveModel(file);
+				}
+				public double op(int i)
+				{
+					return new ArrayLinearModel(file).getB();
+				}
+			});
+		}
+	}
+
+	//////////////////////////////////////////////////////////////////////
+	// Text
+
+	private List<String> articles(int n)
+	{
+		List<String> a = new ArrayList<String>(n);
+		for(int i=0; i<n; i++)
+			a.add(data.newsArticle(ARTICLE_WORDS));
+		return a;
+	}
+
+	private void addTextBenchmarks(List<Benchmark> all) throws Exception
+	{
+		final File stopWords = new File(tempDir, "stopwords.txt");
+		SyntheticData.writeStopWords(stopWords);
+
+		all.add(new Benchmark("NGPreprocessing.doPreprocess") {
+			List<String> articles;
+			NGPreprocessing pre;
+			public void setUp()
+			{
+				articles = articles(64);
+				pre = new NGPreprocessing(stopWords.getPath());
+			}
+			public double op(int i)
+			{
+				return pre.doPreprocess(articles.get(i % 64)).length();
+			}
+		});
+
+		all.add(new Benchmark("lib.NGPreprocessing.doPreprocess") {
+			List<String> articles;
+			macsy.lib.preprocessing.NGPreprocessing pre;
+			public void setUp()
+			{
+				articles = articles(64);
+				pre = new macsy.lib.preprocessing.NGPreprocessing(stopWords.getPath());
+			}
+			public double op(int i)
+			{
+				return pre.doPreprocess(articles.get(i % 64)).length();
+			}
+		});
+
+		all.add(new Benchmark("Stemmer.stem") {
+			char[][] words;
+			macsy.module.featuresExtractorTFIDF.Stemmer stemmer;
+			public void setUp()
+			{
+				words = lowerCaseWords();
+				stemmer = new macsy.module.featuresExtractorTFIDF.Stemmer();
+			}
+			public double op(int i)
+			{
+				char[] w = words[i % words.length];
+				stemmer.add(w, w.length);
+				stemmer.stem();
+				return stemmer.toString().length();
+			}
+		});
+
+		all.add(new Benchmark("lib.Stemmer.stem") {
+			char[][] words;
+			macsy.lib.preprocessing.Stemmer stemmer;
+			public void setUp()
+			{
+				words = lowerCaseWords();
+				stemmer = new macsy.lib.preprocessing.Stemmer();
+			}
+			public double op(int i)
+			{
+				char[] w = words[i % words.length];
+				stemmer.add(w, w.length);
+				stemmer.stem();
+				return stemmer.toString().length();
+			}
+		});
+
+		all.add(new Benchmark("NGIndexer.CreateBOW_Map") {
+			List<String> articles;
+			NGIndexer indexer;
+			public void setUp() throws Exception
+			{
+				File voc = new File(tempDir, "voc.txt");
+				data.writeVocabulary(voc, new NGPreprocessing(stopWords.getPath()), 2000, ARTICLE_WORDS);
+				indexer = new NGIndexer(voc.getPath(), stopWords.getPath());
+				articles = articles(64);
+			}
+			public double op(int i) throws Exception
+			{
+				return indexer.CreateBOW_Map(articles.get(i % 64)).size();
+			}
+		});
+
+		all.add(new Benchmark("NGIndexer.CreateBOW_DataPoint") {
+			List<String> articles;
+			NGIndexer indexer;
+			public void setUp() throws Exception
+			{
+				File voc = new File(tempDir, "voc.txt");
+				data.writeVocabulary(voc, new NGPreprocessing(stopWords.getPath()), 2000, ARTICLE_WORDS);
+				indexer = new NGIndexer(voc.getPath(), stopWords.getPath());
+				articles = articles(64);
+			}
+			public double op(int i) throws Exception
+			{
+				return indexer.CreateBOW_DataPoint(articles.get(i % 64)).getNumOfFeatures();
+			}
+		});
+	}
+
+	/**
+	 * The words of a few articles, as the preprocessing passes them to the stemmer.
+	 */
+	private char[][] lowerCaseWords()
+	{
+		List<char[]> words = new ArrayList<char[]>();
+		for(String a : articles(16))
+			for(String w : a.toLowerCase().split("[^a-z]+"))
+				if(w.length() >= 3)
+					words.add(w.toCharArray());
+		return words.toArray(new char[words.size()][]);
+	}
+
+	//////////////////////////////////////////////////////////////////////
+	// Online learning
+
+	private void addLearningBenchmarks(List<Benchmark> all) throws Exception
+	{
+		all.add(new Benchmark("OnlineClassifierPerceptron.deseriliseFeatures") {
+			List<List<Double>> lists;
+			OnlineClassifierPerceptron classifier;
+			public void setUp() throws Exception
+			{
+				lists = new ArrayList<List<Double>>();
+				for(Map<Integer,Double> v : vectors(POOL_SIZE))
+					lists.add(SyntheticData.toFeatureList(v));
+				classifier = new OnlineClassifierPerceptron(null);
+			}
+			public double op(int i) throws Exception
+			{
+				return classifier.deseriliseFeatures(lists.get(i % POOL_SIZE)).size();
+			}
+		});
+
+		for(final int encoding : new int[] { FeaturesCodec.ENCODING_ARRAY, FeaturesCodec.ENCODING_FLOAT, FeaturesCodec.ENCODING_INT16 })
+		{
+			String name = new String[] { "ARRAY", "FLOAT", "INT16" }[encoding];
+			all.add(new Benchmark("FeaturesCodec.decode(" + name + ")") {
+				List<Object> fields;
+				public void setUp() throws Exception
+				{
+					fields = new ArrayList<Object>();
+					for(Map<Integer,Double> v : vectors(POOL_SIZE))
+						fields.add(FeaturesCodec.toFieldValue(v, encoding));
+				}
+				public double op(int i) throws Exception
+				{
+					return FeaturesCodec.decode(fields.get(i % POOL_SIZE)).getNumOfFeatures();
+				}
+			});
+		}
+
+		for(final boolean array : new boolean[] { false, true })
+		{
+			String model = array ? "(ArrayLinearModel)" : "";
+			all.add(new TrainBenchmark("OnlinePerceptron.train" + model) {
+				OnlineLearning create(String model) throws Exception { return new OnlinePerceptron(model, linearModel(array)); }
+			});
+			all.add(new TrainBenchmark("PocketPerceptron.train" + model) {
+				OnlineLearning create(String model) throws Exception { return new PocketPerceptron(model, linearModel(array)); }
+			});
+			all.add(new TrainBenchmark("OnlineAdatron.train" + model) {
+				OnlineLearning create(String model) throws Exception { return new OnlineAdatron(model, linearModel(array)); }
+			});
+		}
+	}
+
+	/**
+	 * @return The model for a learner, null for the default one.
+	 */
+	private static LinearModel linearModel(boolean array)
+	{
+		return array ? new ArrayLinearModel() : null;
+	}
+
+	/**
+	 * Trains a new learner on a stream of labelled points, one point per op.
+	 */
+	private abstract class TrainBenchmark extends Benchmark {
+		List<DataPoint> points;
+		OnlineLearning learner;
+
+		TrainBenchmark(String name)
+		{
+			super(name);
+		}
+
+		abstract OnlineLearning create(String model) throws Exception;
+
+		public void setUp() throws Exception
+		{
+			points = data.labelledPoints(4 * POOL_SIZE, VECTOR_NON_ZEROS, DIMENSION);
+			learner = create(new File(tempDir, getName()).getPath());
+			learner.setLearningFactor(0.1);
+		}
+
+		public double op(int i) throws Exception
+		{
+			learner.train(points.get(i % points.size()));
+			return learner.statsGetN();
+		}
+	}
+}
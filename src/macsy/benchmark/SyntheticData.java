@@ -0,0 +1,255 @@
+package macsy.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import macsy.lib.DataPoint;
+import macsy.module.featuresExtractorTFIDF.NGPreprocessing;
+
+/**
+ * Generates reproducible synthetic input for the benchmarks: news-like text,
+ * TF-IDF-like sparse vectors and the vocabulary / stop words files the
+ * feature extractor reads.
+ *
+ * Word and feature frequencies follow Zipf's law, as in real news text, so
+ * that a few terms are very common and most are rare.
+ */
+public class SyntheticData {
+
+	static final String[] STOP_WORDS = {
+		"the", "of", "and", "to", "in", "a", "is", "that", "for", "it", "as",
+		"was", "with", "be", "by", "on", "not", "he", "this", "are", "or",
+		"his", "from", "at", "which", "but", "have", "an", "had", "they", "you",
+		"were", "their", "one", "all", "we", "can", "has", "there", "been",
+		"if", "more", "when", "will", "would", "who", "so", "no", "said", "its"
+	};
+
+	private static final String[] SYLLABLES = {
+		"ba", "ce", "di", "fo", "gu", "ha", "je", "ki", "lo", "mu", "na", "pe",
+		"qui", "ro", "su", "ta", "ve", "wi", "xo", "yu", "za", "str", "con",
+		"pre", "ment", "tion", "ing", "er", "ous", "al", "ist", "ly"
+	};
+
+	private Random random;
+
+	private String[] words;
+	private double[] wordCDF;
+	private double[] stopWordCDF = zipfCDF(STOP_WORDS.length);
+
+	/**
+	 * @param seed The seed of the generator. The same seed gives the same data.
+	 * @param numWords The number of distinct content words.
+	 */
+	public SyntheticData(long seed, int numWords)
+	{
+		random = new Random(seed);
+
+		Set<String> unique = new HashSet<String>(Arrays.asList(STOP_WORDS));
+		words = new String[numWords];
+		int n = 0;
+		while(n < numWords)
+		{
+			StringBuilder w = new StringBuilder();
+			int syllables = 2 + random.nextInt(3);
+			for(int s=0; s<syllables; s++)
+				w.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+			if(unique.add(w.toString()))
+				words[n++] = w.toString();
+		}
+		wordCDF = zipfCDF(numWords);
+	}
+
+	/**
+	 * Cumulative distribution of Zipf's law with exponent 1 over n ranks.
+	 */
+	private static double[] zipfCDF(int n)
+	{
+		double[] cdf = new double[n];
+		double sum = 0;
+		for(int r=0; r<n; r++)
+		{
+			sum += 1.0 / (r + 1);
+			cdf[r] = sum;
+		}
+		for(int r=0; r<n; r++)
+			cdf[r] /= sum;
+		return cdf;
+	}
+
+	/**
+	 * Draws a rank (0 = most frequent) from a Zipf CDF.
+	 */
+	private int zipfRank(double[] cdf)
+	{
+		int r = Arrays.binarySearch(cdf, random.nextDouble());
+		return r >= 0 ? r : Math.min(-r - 1, cdf.length - 1);
+	}
+
+	/**
+	 * Generates the text of a news article: sentences of 8-30 words with
+	 * capitals, punctuation, numbers and about 40% stop words.
+	 *
+	 * @param numWords The approximate length of the article in words.
+	 * @return The text.
+	 */
+	public String newsArticle(int numWords)
+	{
+		StringBuilder text = new StringBuilder(numWords * 8);
+		int written = 0;
+		while(written < numWords)
+		{
+			int sentence = 8 + random.nextInt(23);
+			for(int i=0; i<sentence; i++)
+			{
+				String w;
+				double p = random.nextDouble();
+				if(p < 0.4)
+					w = STOP_WORDS[zipfRank(stopWordCDF)];
+				else if(p < 0.42)
+					w = Integer.toString(random.nextInt(10000));
+				else
+					w = words[zipfRank(wordCDF)];
+
+				if(i==0 || random.nextDouble() < 0.05)	//Start of sentence or name
+					w = Character.toUpperCase(w.charAt(0)) + w.substring(1);
+				text.append(w);
+
+				if(i < sentence - 1)
+					text.append(random.nextDouble() < 0.08 ? ", " : " ");
+			}
+			text.append(random.nextDouble() < 0.1 ? "?\" " : ". ");
+			written += sentence;
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Generates a sparse vector with TF-IDF-like values.
+	 *
+	 * @param nonZeros The number of features.
+	 * @param dimension Feature IDs are in [1, dimension].
+	 * @return Feature ID to value.
+	 */
+	public TreeMap<Integer,Double> sparseVector(int nonZeros, int dimension)
+	{
+		double[] cdf = featureCDF(dimension);
+		TreeMap<Integer,Double> v = new TreeMap<Integer,Double>();
+		while(v.size() < Math.min(nonZeros, dimension))
+		{
+			int id = 1 + zipfRank(cdf);
+			double tf = (1 + random.nextInt(4)) / (double) nonZeros;
+			double idf = Math.log(dimension / (double) id) + 1;	//Frequent (low) IDs have low IDF
+			v.put(id, tf * idf);
+		}
+		return v;
+	}
+
+	private double[] featureCDF = null;
+
+	private double[] featureCDF(int dimension)
+	{
+		if(featureCDF==null || featureCDF.length!=dimension)
+			featureCDF = zipfCDF(dimension);
+		return featureCDF;
+	}
+
+	/**
+	 * Generates labelled DataPoints for training. Labels (1 / -1) come from a
+	 * hidden linear rule with 5% label noise, so learners keep making some
+	 * mistakes.
+	 *
+	 * @param n The number of points.
+	 * @param nonZeros The features per point.
+	 * @param dimension Feature IDs are in [1, dimension].
+	 * @return The points.
+	 */
+	public List<DataPoint> labelledPoints(int n, int nonZeros, int dimension)
+	{
+		double[] hidden = new double[dimension + 1];
+		for(int i=1; i<=dimension; i++)
+			hidden[i] = random.nextGaussian();
+
+		List<DataPoint> points = new ArrayList<DataPoint>(n);
+		for(int i=0; i<n; i++)
+		{
+			TreeMap<Integer,Double> x = sparseVector(nonZeros, dimension);
+			double s = 0;
+			for(Map.Entry<Integer,Double> e : x.entrySet())
+				s += hidden[e.getKey()] * e.getValue();
+			int label = s >= 0 ? 1 : -1;
+			if(random.nextDouble() < 0.05)
+				label = -label;
+			points.add(new DataPoint(x, label));
+		}
+		return points;
+	}
+
+	/**
+	 * Returns a vector as it is stored in a Black Board: a list of
+	 * feature ID, value, feature ID, value...
+	 */
+	public static List<Double> toFeatureList(Map<Integer,Double> vector)
+	{
+		List<Double> list = new ArrayList<Double>(vector.size() * 2);
+		for(Map.Entry<Integer,Double> e : vector.entrySet())
+		{
+			list.add((double) e.getKey());
+			list.add(e.getValue());
+		}
+		return list;
+	}
+
+	/**
+	 * Writes the stop words file read by NGPreprocessing.
+	 *
+	 * @param file The file to write.
+	 * @throws Exception
+	 */
+	public static void writeStopWords(File file) throws Exception
+	{
+		BufferedWriter out = new BufferedWriter(new FileWriter(file));
+		for(String w : STOP_WORDS)
+			out.write(w + "\n");
+		out.close();
+	}
+
+	/**
+	 * Writes a vocabulary file read by NGVoc, with the document frequencies
+	 * of the stems of a synthetic corpus.
+	 *
+	 * @param file The file to write.
+	 * @param pre The preprocessing used by the indexer.
+	 * @param numDocs The number of documents of the corpus.
+	 * @param docWords The words per document.
+	 * @throws Exception
+	 */
+	public void writeVocabulary(File file, NGPreprocessing pre, int numDocs, int docWords) throws Exception
+	{
+		Map<String,Integer> df = new HashMap<String,Integer>();
+		for(int d=0; d<numDocs; d++)
+		{
+			Set<String> stems = new HashSet<String>(Arrays.asList(pre.doPreprocess(newsArticle(docWords)).split("\\s")));
+			for(String s : stems)
+			{
+				Integer n = df.get(s);
+				df.put(s, n==null ? 1 : n + 1);
+			}
+		}
+
+		BufferedWriter out = new BufferedWriter(new FileWriter(file));
+		out.write("NumOfDocuments\t" + numDocs + "\tNumOfWords\t" + df.size() + "\n");
+		for(Map.Entry<String,Integer> e : new TreeMap<String,Integer>(df).entrySet())
+			out.write(e.getKey() + "\t" + e.getValue() + "\n");
+		out.close();
+	}
+}
@@ -0,0 +1,212 @@
+package macsy.blackBoardsSystem;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Map/Reduce jobs that group docs in time buckets by the timestamp of their
+ * ObjectId. Used by the histograms of BlackBoardDateBased.
+ *
+ * The bucket starts (in ms) are passed as scope variable b and the key of each
+ * result is the start of its bucket. The aggregation framework of the MongoDB
+ * versions we run cannot read the timestamp of an ObjectId, so Map/Reduce is
+ * used instead.
+ */
+abstract class BBBucketMapReduce extends BBMapReduce {
+
+	/**
+	 * Javascript that sets lo to the index of the bucket of the doc (this), by
+	 * binary search on b.
+	 */
+	static final String JS_FIND_BUCKET = " var t = this._id.getTimestamp().getTime();"
+			+ " var lo = 0, hi = b.length - 1;"
+			+ " while (lo < hi) { var mid = (lo + hi + 1) >> 1;"
+			+ " if (b[mid] <= t) lo = mid; else hi = mid - 1; }";
+
+	List<Double> buckets = null;
+
+	BBBucketMapReduce(String map, String reduce, Map<String,Object> scope, List<Double> buckets)
+	{
+		super(map, reduce, withBuckets(scope, buckets));
+		this.buckets = buckets;
+	}
+
+	private static Map<String,Object> withBuckets(Map<String,Object> scope, List<Double> buckets)
+	{
+		Map<String,Object> s = new HashMap<String,Object>(scope);
+		s.put("b", buckets);
+		return s;
+	}
+
+	/**
+	 * @return The same job for other buckets.
+	 */
+	abstract BBBucketMapReduce forBuckets(List<Double> buckets);
+
+	/**
+	 * Java version of JS_FIND_BUCKET.
+	 *
+	 * @return The start of the bucket of the doc.
+	 */
+	Double findBucket(DBObject doc)
+	{
+		double t = ((ObjectId) doc.get(BlackBoard.DOC_ID)).getTime();
+		int lo = 0, hi = buckets.size() - 1;
+		while(lo < hi)
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if(buckets.get(mid) <= t)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return buckets.get(lo);
+	}
+
+	/**
+	 * Counts the docs of each bucket.
+	 */
+	static final class Count extends BBBucketMapReduce {
+
+		Count(List<Double> buckets)
+		{
+			super("function() {" + JS_FIND_BUCKET + " emit(b[lo], 1); }",
+					"function(key, values) { return Array.sum(values); }",
+					new HashMap<String,Object>(), buckets);
+		}
+
+		BBBucketMapReduce forBuckets(List<Double> buckets)
+		{
+			return new Count(buckets);
+		}
+
+		public void map(DBObject doc, Map<Object,List<Object>> emitted)
+		{
+			emit(emitted, findBucket(doc), 1.0);
+		}
+
+		public Object reduce(Object key, List<Object> values)
+		{
+			double sum = 0;
+			for(Object v : values)
+				sum += ((Number) v).doubleValue();
+			return sum;
+		}
+	}
+
+	/**
+	 * Computes count (c), sum (s), min (mn), max (mx) and a histogram (h, bin
+	 * index to count) of the numeric values of a field, for each bucket.
+	 */
+	static final class FieldStats extends BBBucketMapReduce {
+
+		private String fieldName;
+		private double binOrigin;
+		private double binWidth;
+		private int numBins;
+
+		FieldStats(String fieldName, double binOrigin, double binWidth, int numBins, List<Double> buckets)
+		{
+			super("function() {"
+					+ " var v = this; var p = f.split('.');"
+					+ " for (var i = 0; i < p.length && v != null; i++) v = v[p[i]];"
+					+ " if (v == null || (typeof v != 'number' && !(v instanceof NumberLong))) return;"
+					+ " v = Number(v);"
+					+ " var h = {};"
+					+ " if (n > 0) { var k = Math.floor((v - o) / w);"
+					+ " if (k < 0) k = 0; if (k >= n) k = n - 1; h[k] = 1; }"
+					+ JS_FIND_BUCKET
+					+ " emit(b[lo], {c: 1, s: v, mn: v, mx: v, h: h}); }",
+					"function(key, values) {"
+					+ " var r = {c: 0, s: 0, mn: values[0].mn, mx: values[0].mx, h: {}};"
+					+ " values.forEach(function(x) {"
+					+ " r.c += x.c; r.s += x.s;"
+					+ " if (x.mn < r.mn) r.mn = x.mn; if (x.mx > r.mx) r.mx = x.mx;"
+					+ " for (var k in x.h) r.h[k] = (r.h[k] || 0) + x.h[k]; });"
+					+ " return r; }",
+					scope(fieldName, binOrigin, binWidth, numBins), buckets);
+			this.fieldName = fieldName;
+			this.binOrigin = binOrigin;
+			this.binWidth = binWidth;
+			this.numBins = numBins;
+		}
+
+		private static Map<String,Object> scope(String fieldName, double binOrigin, double binWidth, int numBins)
+		{
+			Map<String,Object> scope = new HashMap<String,Object>();
+			scope.put("f", fieldName);
+			scope.put("o", binOrigin);
+			scope.put("w", binWidth);
+			scope.put("n", numBins);
+			return scope;
+		}
+
+		BBBucketMapReduce forBuckets(List<Double> buckets)
+		{
+			return new FieldStats(fieldName, binOrigin, binWidth, numBins, buckets);
+		}
+
+		public void map(DBObject doc, Map<Object,List<Object>> emitted)
+		{
+			Object v = BBMemoryQuery.getPath(doc, fieldName);
+			if(!(v instanceof Number))
+				return;
+			double value = ((Number) v).doubleValue();
+
+			BasicDBObject h = new BasicDBObject();
+			if(numBins > 0)
+			{
+				int k = (int) Math.floor((value - binOrigin) / binWidth);
+				k = Math.max(0, Math.min(numBins - 1, k));
+				h.put(Integer.toString(k), 1.0);
+			}
+
+			BasicDBObject stats = new BasicDBObject();
+			stats.put("c", 1.0);
+			stats.put("s", value);
+			stats.put("mn", value);
+			stats.put("mx", value);
+			stats.put("h", h);
+			emit(emitted, findBucket(doc), stats);
+		}
+
+		public Object reduce(Object key, List<Object> values)
+		{
+			DBObject first = (DBObject) values.get(0);
+			double c = 0, s = 0;
+			double mn = ((Number) first.get("mn")).doubleValue();
+			double mx = ((Number) first.get("mx")).doubleValue();
+			BasicDBObject h = new BasicDBObject();
+
+			for(Object o : values)
+			{
+				DBObject x = (DBObject) o;
+				c += ((Number) x.get("c")).doubleValue();
+				s += ((Number) x.get("s")).doubleValue();
+				mn = Math.min(mn, ((Number) x.get("mn")).doubleValue());
+				mx = Math.max(mx, ((Number) x.get("mx")).doubleValue());
+
+				DBObject xh = (DBObject) x.get("h");
+				for(String bin : xh.keySet())
+				{
+					double old = h.containsField(bin) ? ((Number) h.get(bin)).doubleValue() : 0;
+					h.put(bin, old + ((Number) xh.get(bin)).doubleValue());
+				}
+			}
+
+			BasicDBObject r = new BasicDBObject();
+			r.put("c", c);
+			r.put("s", s);
+			r.put("mn", mn);
+			r.put("mx", mx);
+			r.put("h", h);
+			return r;
+		}
+	}
+}
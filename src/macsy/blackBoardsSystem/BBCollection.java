@@ -0,0 +1,126 @@
+package macsy.blackBoardsSystem;
+
+import java.util.List;
+import java.util.Map;
+
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+/**
+ * A collection of docs of a BBStorage.
+ *
+ * The methods follow the MongoDB collection methods that the Black Boards use,
+ * with the same query and update operators. Returned docs are always
+ * BasicDBObjects.
+ */
+public interface BBCollection {
+
+	/**
+	 * @return The name of the collection.
+	 */
+	String getName();
+
+	/**
+	 * @return A cursor over all docs.
+	 */
+	BBCursor find();
+
+	/**
+	 * @param query The query.
+	 * @return A cursor over the docs that match the query.
+	 */
+	BBCursor find(DBObject query);
+
+	/**
+	 * @param query The query.
+	 * @param fields The fields to return (projection), or null for whole docs.
+	 * @return A cursor over the docs that match the query.
+	 */
+	BBCursor find(DBObject query, DBObject fields);
+
+	/**
+	 * @param query The query.
+	 * @return The first doc that matches the query, or null.
+	 */
+	DBObject findOne(DBObject query);
+
+	/**
+	 * Applies an update to the first doc that matches the query.
+	 *
+	 * @param query The query.
+	 * @param update The update ($set, $addToSet etc).
+	 * @return The doc as it was before the update, or null if no doc matched.
+	 */
+	DBObject findAndModify(DBObject query, DBObject update);
+
+	void insert(DBObject doc);
+
+	void insert(DBObject doc, WriteConcern concern);
+
+	void insert(List<DBObject> docs);
+
+	void insert(List<DBObject> docs, WriteConcern concern);
+
+	/**
+	 * Applies an update to the first doc that matches the query.
+	 *
+	 * @param query The query.
+	 * @param update The update ($set, $addToSet etc).
+	 */
+	void update(DBObject query, DBObject update);
+
+	/**
+	 * Applies a list of updates, each to the first doc that matches its query.
+	 * All updates are tried, even if some of them fail.
+	 *
+	 * @param queries The queries.
+	 * @param updates The updates, one per query.
+	 * @return The index of each failed update mapped to its error. Empty if all succeeded.
+	 */
+	Map<Integer,String> updateEach(List<DBObject> queries, List<DBObject> updates);
+
+	/**
+	 * Removes all docs that match the query.
+	 *
+	 * @param query The query.
+	 */
+	void remove(DBObject query);
+
+	/**
+	 * @return The number of docs.
+	 */
+	long count();
+
+	/**
+	 * @param query The query.
+	 * @return The number of docs that match the query.
+	 */
+	long count(DBObject query);
+
+	void ensureIndex(DBObject keys, DBObject options);
+
+	/**
+	 * Deletes the collection.
+	 */
+	void drop();
+
+	/**
+	 * Runs a Map/Reduce job on the docs that match the query and returns the
+	 * results, as docs with fields _id (the key) and value.
+	 *
+	 * @param job The job.
+	 * @param query The query.
+	 * @return The results.
+	 */
+	Iterable<DBObject> mapReduce(BBMapReduce job, DBObject query);
+
+	/**
+	 * Runs a Map/Reduce job given in Javascript on all docs and merges the
+	 * results with those in the output collection, using the reduce function.
+	 *
+	 * @param map The map function in Javascript.
+	 * @param reduce The reduce function in Javascript.
+	 * @param outputCollection The name of the output collection.
+	 */
+	void mapReduce(String map, String reduce, String outputCollection);
+}
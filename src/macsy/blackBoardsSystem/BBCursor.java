@@ -0,0 +1,44 @@
+package macsy.blackBoardsSystem;
+
+import com.mongodb.DBObject;
+
+/**
+ * A cursor over the result of a query on a BBCollection.
+ *
+ * As with MongoDB cursors, the query runs when the first doc is read, so
+ * limit(), sort() and batchSize() should be called before that.
+ */
+public interface BBCursor {
+
+	boolean hasNext();
+
+	DBObject next();
+
+	/**
+	 * Releases the resources of the cursor.
+	 */
+	void close();
+
+	/**
+	 * @param n The max number of docs to return. 0 for all.
+	 * @return This cursor.
+	 */
+	BBCursor limit(int n);
+
+	/**
+	 * @param orderBy The fields to sort on, with 1 for ascending or -1 for descending order.
+	 * @return This cursor.
+	 */
+	BBCursor sort(DBObject orderBy);
+
+	/**
+	 * @param n The number of docs fetched in each round trip to the storage.
+	 * @return This cursor.
+	 */
+	BBCursor batchSize(int n);
+
+	/**
+	 * @return A new cursor for the same query, not yet read.
+	 */
+	BBCursor copy();
+}
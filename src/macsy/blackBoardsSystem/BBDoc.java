@@ -26,6 +26,11 @@ public class BBDoc extends Object
 	 */
 	BasicDBObject dataObject;
 
+	/**
+	 * The names of the fields that were read from the DB, or null if the whole document was read.
+	 */
+	List<String> loadedFields = null;
+
 
 	/**
 	 * Constructor of a new document. 
@@ -36,6 +41,18 @@ public class BBDoc extends Object
 		dataObject = (BasicDBObject) data;
 	}
 
+	/**
+	 * Constructor of a document that was read with only some of its fields.
+	 * 
+	 * @param data The data read from DB.
+	 * @param loadedFields The fields that were requested, or null if all.
+	 */
+	BBDoc(Object data, List<String> loadedFields) 
+	{
+		dataObject = (BasicDBObject) data;
+		this.loadedFields = loadedFields;
+	}
+
 	/**
 	 * Constructor of a new, empty, document.
 	 * 
@@ -50,6 +67,7 @@ public class BBDoc extends Object
 	BBDoc(BBDoc clone) 
 	{
 		this.dataObject = clone.dataObject; 
+		this.loadedFields = clone.loadedFields;
 	}
 
 	/** 
@@ -242,6 +260,47 @@ public class BBDoc extends Object
 	}
 
 
+	/**
+	 * Returns true if only some of the fields of the document were read from the DB.
+	 * In that case getField() returns null for the fields that were not read,
+	 * even if they exist in the DB.
+	 */
+	public boolean isPartial()
+	{
+		return loadedFields!=null;
+	}
+
+	/**
+	 * Checks if a field was read from the DB. The ID and the tags are always read.
+	 * 
+	 * @param fieldName The name of the field.
+	 * @return True if the value of the field (or its absence) is known.
+	 */
+	public boolean isFieldLoaded(String fieldName)
+	{
+		if(loadedFields==null)
+			return true;
+		if(fieldName.equals(BlackBoard.DOC_ID) || fieldName.equals(BlackBoard.DOC_TAGS) 
+				|| fieldName.equals(BlackBoard.DOC_FOR_TAGS))
+			return true;
+		for(String f : loadedFields)	//Sub-fields of loaded fields are loaded too
+			if(fieldName.equals(f) || fieldName.startsWith(f + "."))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Gets the names of the fields that were requested when the document was read.
+	 * 
+	 * @return A list of field names, or null if the whole document was read.
+	 */
+	public List<String> getLoadedFieldNames()
+	{
+		if(loadedFields==null)
+			return null;
+		return new LinkedList<String>(loadedFields);
+	}
+
 	/**
 	 * Gets a list  of  the names of the subfields of the document.
 	 * 
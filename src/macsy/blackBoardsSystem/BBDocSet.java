@@ -2,8 +2,9 @@ package macsy.blackBoardsSystem;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
-import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 
 /**
@@ -19,24 +20,63 @@ import com.mongodb.DBObject;
 public class BBDocSet {
 
 	private final int MONGO_DB_BATCH_SIZE = 50;	//Reduce number if cursor timeout events occur. 
+
+	/**
+	 * Default number of docs buffered ahead of the consumer in prefetch mode.
+	 */
+	public static final int DEFAULT_PREFETCH_DEPTH = 500;
+
+	/**
+	 * Marks the end of the docs in the prefetch queue.
+	 */
+	private static final Object END_OF_DOCS = new Object();
 	
 	/**
 	 * A list of cursor results. 
 	 */
-	List<DBCursor> cursors = null;
+	List<BBCursor> cursors = null;
 
 	/**
 	 * A pointer to the cursor from witch the next article will be returned.
 	 */
 	int currentCursor = 0; 
 
+	/**
+	 * The max number of docs returned by the whole set (over all cursors), or 0 for no limit.
+	 */
+	int maxDocs = 0;
+
+	/**
+	 * Number of docs read so far from the cursors.
+	 */
+	int docsRead = 0;
+
+	/**
+	 * The fields requested from the DB, or null if docs are read whole.
+	 */
+	List<String> loadedFields = null;
+
+	/**
+	 * The last cursor whose limit has been set to the remaining number of docs.
+	 */
+	private int limitedCursor = -1;
+
+	/**
+	 * Prefetch mode only: docs read by the fetcher thread and not yet returned. 
+	 */
+	private BlockingQueue<Object> prefetched = null;
+	private Thread fetcher = null;
+	private volatile boolean cancelled = false;
+	private volatile Throwable fetchError = null;
+	private boolean endReached = false;
+
 	/**
 	 * Creates a new BBDocArticleSet populated with cursor result.
 	 * @param cursor 
 	 */
-	BBDocSet(DBCursor cursor)
+	BBDocSet(BBCursor cursor)
 	{
-		this.cursors =  new ArrayList<DBCursor>();
+		this.cursors =  new ArrayList<BBCursor>();
 
 		if(cursor!=null) {
 			cursor.batchSize(MONGO_DB_BATCH_SIZE);
@@ -50,6 +90,9 @@ public class BBDocSet {
 	{
 		this.cursors =  clone.cursors;
 		this.currentCursor = clone.currentCursor;
+		this.maxDocs = clone.maxDocs;
+		this.docsRead = clone.docsRead;
+		this.loadedFields = clone.loadedFields;
 	}
 	
 	
@@ -57,27 +100,189 @@ public class BBDocSet {
 	 * Creates a new BBDocArticleSet populated with all cursor results.
 	 * @param cursors A list of cursors
 	 */
-	BBDocSet(List<DBCursor> cursors)
+	BBDocSet(List<BBCursor> cursors)
 	{
 		this.cursors = cursors;
-		for(DBCursor c : this.cursors) {
+		for(BBCursor c : this.cursors) {
 			c.batchSize(MONGO_DB_BATCH_SIZE);
 		}
 		
 		currentCursor = 0;
 	}
 
-//	private static BBDocSet getInstance(List<DBCursor> cursors)
+	/**
+	 * Creates a new set that returns at most maxDocs docs from all cursors together.
+	 * 
+	 * Cursors are read in the given order. Each cursor is limited to the number of docs
+	 * still missing when it is reached, and cursors reached after the limit is met are 
+	 * never sent to the DB.
+	 * 
+	 * @param cursors A list of cursors
+	 * @param maxDocs The max number of docs to return, or 0 for all.
+	 */
+	BBDocSet(List<BBCursor> cursors, int maxDocs)
+	{
+		this(cursors);
+		this.maxDocs = maxDocs;
+	}
+
+	/**
+	 * Marks the docs of this set as read with only the specified fields.
+	 * 
+	 * @param fields The requested fields, or null if docs are read whole.
+	 * @return This set.
+	 */
+	BBDocSet setLoadedFields(List<String> fields)
+	{
+		this.loadedFields = fields;
+		return this;
+	}
+
+	/**
+	 * Returns the cursor to read next, or null if no more docs should be read.
+	 */
+	BBCursor getCursorToRead()
+	{
+		if(currentCursor >= cursors.size())
+			return null;
+
+		if(maxDocs > 0)
+		{
+			if(docsRead >= maxDocs)
+				return null;
+
+			if(currentCursor > limitedCursor)
+			{
+				//Not yet iterated, so no query has been sent for it.
+				cursors.get(currentCursor).limit(maxDocs - docsRead);
+				limitedCursor = currentCursor;
+			}
+		}
+		return cursors.get(currentCursor);
+	}
+
+//	private static BBDocSet getInstance(List<BBCursor> cursors)
 //	{
 //		return new BBDocSet(cursors);
 //	}
 //	
-//	public static BBDocSet getInstance(DBCursor cursor)
+//	public static BBDocSet getInstance(BBCursor cursor)
 //	{
 //		return new BBDocSet(cursor);
 //	}
 //	
 	
+	/**
+	 * Sets the number of docs that are fetched from the DB in each round trip.
+	 * Reduce it if cursor timeout events occur.
+	 * 
+	 * @param batchSize The number of docs per round trip.
+	 */
+	public void setBatchSize(int batchSize)
+	{
+		for(BBCursor c : cursors) {
+			c.batchSize(batchSize);
+		}
+	}
+
+	/**
+	 * Starts reading docs in a background thread, so that fetching from the DB 
+	 * overlaps with the processing of the docs already returned by getNext().
+	 * 
+	 * Up to queueDepth docs are buffered; the fetcher waits when the buffer is full.
+	 * Call close() if you stop reading before getNext() returns null.
+	 * If the reading thread is interrupted while it waits for a doc, getNext()
+	 * closes the set and throws an IllegalStateException, with the interrupt
+	 * flag set.
+	 * 
+	 * @param batchSize The number of docs fetched from the DB in each round trip.
+	 * @param queueDepth The max number of docs kept in memory ahead of the consumer. 
+	 * @return This set.
+	 */
+	public synchronized BBDocSet prefetch(int batchSize, int queueDepth)
+	{
+		if(fetcher!=null)
+			return this;	//Already prefetching
+
+		setBatchSize(batchSize);
+		prefetched = new ArrayBlockingQueue<Object>(queueDepth);
+
+		fetcher = new Thread("BBDocSet prefetch") {
+			public void run()
+			{
+				try
+				{
+					BBCursor cur;
+					while(!cancelled && (cur = getCursorToRead())!=null)
+					{
+						if(cur.hasNext()) {
+							docsRead ++;
+							prefetched.put( new BBDoc(cur.next(), loadedFields) );
+						}
+						else
+							currentCursor ++;
+					}
+				}
+				catch(InterruptedException e)
+				{
+					//Cancelled by close()
+				}
+				catch(Throwable e)
+				{
+					fetchError = e;	//Rethrown to the reader, after END_OF_DOCS
+				}
+				finally
+				{
+					for(BBCursor c : cursors) {
+						c.close();
+					}
+					try
+					{
+						if(!cancelled)
+							prefetched.put( END_OF_DOCS );
+					}
+					catch(InterruptedException e)
+					{
+						//Cancelled by close()
+					}
+				}
+			}
+		};
+		fetcher.setDaemon(true);
+		fetcher.start();
+
+		return this;
+	}
+
+	/**
+	 * Starts prefetching with the default batch size and queue depth. 
+	 * See prefetch(int, int).
+	 * 
+	 * @return This set.
+	 */
+	public BBDocSet prefetch()
+	{
+		return prefetch(MONGO_DB_BATCH_SIZE, DEFAULT_PREFETCH_DEPTH);
+	}
+
+	/**
+	 * Stops reading docs and releases the cursors.
+	 * Subsequent calls of getNext() return null.
+	 */
+	public synchronized void close()
+	{
+		cancelled = true;
+		if(fetcher!=null) {
+			fetcher.interrupt();
+			prefetched.clear();
+		}
+		else {
+			for(BBCursor c : cursors) {
+				c.close();
+			}
+		}
+	}
+
 	/**
 	 * Each time it is called it returns the next doc, or null if no more docs are found. 
 	 *  
@@ -85,26 +290,67 @@ public class BBDocSet {
 	 */
 	public BBDoc getNext()
 	{
-		while(currentCursor < cursors.size())
+		if(cancelled)
+			return null;
+
+		if(fetcher!=null)
+			return getNextPrefetched();
+
+		BBCursor cur;
+		while((cur = getCursorToRead())!=null)
 		{
-			if(cursors.get(currentCursor).hasNext())
+			if(cur.hasNext())
 			{
-				DBObject art = cursors.get(currentCursor).next();
-				return new BBDoc(art);
+				DBObject art = cur.next();
+				docsRead ++;
+				return new BBDoc(art, loadedFields);
 			}
 			currentCursor ++;
 		}
 		return null;
 	}
 
+	private BBDoc getNextPrefetched()
+	{
+		if(endReached)
+			return null;
+
+		Object doc;
+		try
+		{
+			//The fetcher always ends with END_OF_DOCS unless cancelled.
+			doc = prefetched.take();
+		}
+		catch(InterruptedException e)
+		{
+			//Not the end of the docs; null would cut the results short
+			Thread.currentThread().interrupt();
+			close();
+			throw new IllegalStateException("Interrupted while waiting for the next doc", e);
+		}
+
+		if(doc==END_OF_DOCS)
+		{
+			endReached = true;
+			if(fetchError instanceof RuntimeException)
+				throw (RuntimeException) fetchError;
+			if(fetchError instanceof Error)
+				throw (Error) fetchError;
+			if(fetchError!=null)
+				throw new RuntimeException(fetchError);
+			return null;
+		}
+		return (BBDoc) doc;
+	}
+
 	public BBDocSet clone()
 	{
-		List<DBCursor> cursors_copy = new ArrayList<DBCursor>();
-		for(DBCursor c: cursors) {
+		List<BBCursor> cursors_copy = new ArrayList<BBCursor>();
+		for(BBCursor c: cursors) {
 			cursors_copy.add( c.copy() );
 			c.batchSize(MONGO_DB_BATCH_SIZE);
 		}
 		
-		return new BBDocSet(cursors_copy);
+		return new BBDocSet(cursors_copy, maxDocs).setLoadedFields(loadedFields);
 	}
 }
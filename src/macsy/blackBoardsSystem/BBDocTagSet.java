@@ -3,7 +3,6 @@ package macsy.blackBoardsSystem;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 
 /**
@@ -22,7 +21,7 @@ public final class BBDocTagSet {
 	/**
 	 * A list of cursor rsults. 
 	 */
-	private List<DBCursor> cursors = null;
+	private List<BBCursor> cursors = null;
 	
 	/**
 	 * A pointer to the cursor from witch the next article will be returned.
@@ -33,9 +32,9 @@ public final class BBDocTagSet {
 	 * Creates a new BBDocArticleSet populated with cursor result.
 	 * @param cursor 
 	 */
-	BBDocTagSet(DBCursor cursor)
+	BBDocTagSet(BBCursor cursor)
 	{
-		this.cursors =  new ArrayList<DBCursor>();
+		this.cursors =  new ArrayList<BBCursor>();
 		
 		if(cursor!=null)
 			cursors.add(cursor);
@@ -47,7 +46,7 @@ public final class BBDocTagSet {
 	 * Creates a new BBDocArticleSet populated with all cursor results.
 	 * @param cursors A list of cursors
 	 */
-	BBDocTagSet(List<DBCursor> cursors)
+	BBDocTagSet(List<BBCursor> cursors)
 	{
 		this.cursors = cursors;
 		currentCursor = 0;
@@ -102,8 +101,8 @@ public final class BBDocTagSet {
 	 */
 	public BBDocTagSet clone()
 	{
-		List<DBCursor> cursors_copy = new ArrayList<DBCursor>();
-		for(DBCursor c: cursors)
+		List<BBCursor> cursors_copy = new ArrayList<BBCursor>();
+		for(BBCursor c: cursors)
 			cursors_copy.add( c.copy() );
 		
 		return new BBDocTagSet(cursors_copy);
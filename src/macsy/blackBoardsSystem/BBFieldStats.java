@@ -0,0 +1,127 @@
+package macsy.blackBoardsSystem;
+
+import java.util.Map;
+
+import com.mongodb.DBObject;
+
+/**
+ * Statistics of the numeric values of a field over a set of docs: count, sum,
+ * mean, min, max and an optional fixed-width histogram.
+ *
+ * Returned by BlackBoardDateBased.getFieldStats(), one per time bucket. Docs
+ * that do not have the field, or whose value is not a number, are ignored.
+ */
+public final class BBFieldStats {
+
+	private long count = 0;
+	private double sum = 0;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+
+	private double binOrigin = 0;
+	private double binWidth = 0;
+	private long[] histogram = null;
+
+	BBFieldStats(double binOrigin, double binWidth, int numBins)
+	{
+		this.binOrigin = binOrigin;
+		this.binWidth = binWidth;
+		this.histogram = new long[numBins];
+	}
+
+	/**
+	 * Adds the partial result of a Map/Reduce (one year of a bucket).
+	 *
+	 * @param value The reduced value: c, s, mn, mx and h (bin index to count).
+	 */
+	void merge(DBObject value)
+	{
+		long c = ((Number) value.get("c")).longValue();
+		if(c==0)
+			return;
+
+		double mn = ((Number) value.get("mn")).doubleValue();
+		double mx = ((Number) value.get("mx")).doubleValue();
+
+		if(count==0 || mn < min)
+			min = mn;
+		if(count==0 || mx > max)
+			max = mx;
+		count += c;
+		sum += ((Number) value.get("s")).doubleValue();
+
+		DBObject h = (DBObject) value.get("h");
+		if(h!=null)
+		{
+			for(Object e : h.toMap().entrySet())
+			{
+				Map.Entry<?,?> bin = (Map.Entry<?,?>) e;
+				int i = (int) Double.parseDouble(bin.getKey().toString());
+				histogram[i] += ((Number) bin.getValue()).longValue();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of docs with a numeric value.
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @return The sum of the values.
+	 */
+	public double getSum()
+	{
+		return sum;
+	}
+
+	/**
+	 * @return The mean of the values, or NaN if there are no values.
+	 */
+	public double getMean()
+	{
+		if(count==0)
+			return Double.NaN;
+		return sum / count;
+	}
+
+	/**
+	 * @return The min value, or NaN if there are no values.
+	 */
+	public double getMin()
+	{
+		return min;
+	}
+
+	/**
+	 * @return The max value, or NaN if there are no values.
+	 */
+	public double getMax()
+	{
+		return max;
+	}
+
+	/**
+	 * Returns the number of values in each bin. Bin i holds the values in
+	 * [getBinStart(i), getBinStart(i+1)). Values below the first bin are counted
+	 * in the first bin and values above the last bin in the last bin.
+	 *
+	 * @return The counts per bin. Empty if no histogram was requested.
+	 */
+	public long[] getHistogram()
+	{
+		return histogram;
+	}
+
+	/**
+	 * @param bin The index of a bin.
+	 * @return The lower bound of the bin.
+	 */
+	public double getBinStart(int bin)
+	{
+		return binOrigin + bin * binWidth;
+	}
+}
@@ -0,0 +1,76 @@
+package macsy.blackBoardsSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.mongodb.DBObject;
+
+/**
+ * A Map/Reduce job, given both in Javascript (run by MongoDB) and in Java
+ * (run by storages that cannot run Javascript, e.g. BBMemoryStorage).
+ *
+ * The two versions must emit the same keys and values. Values are numbers,
+ * Strings or DBObjects, as in the Javascript version.
+ */
+public abstract class BBMapReduce {
+
+	private String map = null;
+	private String reduce = null;
+	private Map<String,Object> scope = null;
+
+	/**
+	 * @param map The map function in Javascript.
+	 * @param reduce The reduce function in Javascript.
+	 * @param scope Global variables of the Javascript functions.
+	 */
+	protected BBMapReduce(String map, String reduce, Map<String,Object> scope)
+	{
+		this.map = map;
+		this.reduce = reduce;
+		this.scope = scope;
+	}
+
+	public String getMapFunction()
+	{
+		return map;
+	}
+
+	public String getReduceFunction()
+	{
+		return reduce;
+	}
+
+	public Map<String,Object> getScope()
+	{
+		return scope;
+	}
+
+	/**
+	 * Java version of the map function. Calls emit() for each key of the doc.
+	 *
+	 * @param doc The doc.
+	 * @param emitted The values emitted so far per key.
+	 */
+	public abstract void map(DBObject doc, Map<Object,List<Object>> emitted);
+
+	/**
+	 * Java version of the reduce function.
+	 *
+	 * @param key The key.
+	 * @param values Two or more values emitted for the key, or returned by previous reduce calls.
+	 * @return The reduced value.
+	 */
+	public abstract Object reduce(Object key, List<Object> values);
+
+	protected static void emit(Map<Object,List<Object>> emitted, Object key, Object value)
+	{
+		List<Object> values = emitted.get(key);
+		if(values==null)
+		{
+			values = new ArrayList<Object>();
+			emitted.put(key, values);
+		}
+		values.add(value);
+	}
+}
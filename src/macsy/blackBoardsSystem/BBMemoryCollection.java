@@ -0,0 +1,273 @@
+package macsy.blackBoardsSystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+
+/**
+ * A collection kept in memory, for BBMemoryStorage.
+ *
+ * Docs are kept sorted by _id, so queries on a range of _ids (e.g. dates in
+ * date based Black Boards) scan only that range. Other queries scan all docs;
+ * indexes are accepted but not built. Queries return copies of the docs, as
+ * they were when the cursor was first read.
+ *
+ * All methods are thread safe.
+ */
+final class BBMemoryCollection implements BBCollection {
+
+	private String name = null;
+
+	/**
+	 * _id to doc, in MongoDB order of _id.
+	 */
+	private TreeMap<Object,BasicDBObject> docs = new TreeMap<Object,BasicDBObject>(BBMemoryQuery.VALUE_ORDER);
+
+	/**
+	 * True once a doc is inserted or an index is created, as with MongoDB.
+	 */
+	private boolean exists = false;
+
+	BBMemoryCollection(String name)
+	{
+		this.name = name;
+	}
+
+	synchronized boolean exists()
+	{
+		return exists;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public BBCursor find()
+	{
+		return new BBMemoryCursor(this, null, null);
+	}
+
+	public BBCursor find(DBObject query)
+	{
+		return new BBMemoryCursor(this, query, null);
+	}
+
+	public BBCursor find(DBObject query, DBObject fields)
+	{
+		return new BBMemoryCursor(this, query, fields);
+	}
+
+	public DBObject findOne(DBObject query)
+	{
+		List<DBObject> res = query(query, null, null, 1);
+		return res.isEmpty() ? null : res.get(0);
+	}
+
+	/**
+	 * Runs a query.
+	 *
+	 * @param query The query, or null for all docs.
+	 * @param fields The projection, or null for whole docs.
+	 * @param orderBy The sort, or null for _id order.
+	 * @param limit The max number of docs, or 0 for all.
+	 * @return Copies of the matching docs.
+	 */
+	synchronized List<DBObject> query(DBObject query, DBObject fields, DBObject orderBy, int limit)
+	{
+		List<BasicDBObject> found = new ArrayList<BasicDBObject>();
+		for(BasicDBObject doc : scan(query).values())
+		{
+			if(!BBMemoryQuery.matches(doc, query))
+				continue;
+			found.add(doc);
+			if(orderBy==null && limit > 0 && found.size() >= limit)
+				break;
+		}
+
+		if(orderBy!=null)
+		{
+			Collections.sort(found, BBMemoryQuery.sortOrder(orderBy));	//Stable: ties stay in _id order
+			if(limit > 0 && found.size() > limit)
+				found = found.subList(0, limit);
+		}
+
+		List<DBObject> res = new ArrayList<DBObject>();
+		for(BasicDBObject doc : found)
+			res.add(BBMemoryQuery.project(doc, fields));
+		return res;
+	}
+
+	/**
+	 * Returns the docs that may match the query, based on its _id bounds.
+	 */
+	private NavigableMap<Object,BasicDBObject> scan(DBObject query)
+	{
+		Object[] range = BBMemoryQuery.getIDRange(query);
+		NavigableMap<Object,BasicDBObject> part = docs;
+		if(range[0]!=null)
+			part = part.tailMap(range[0], (Boolean) range[1]);
+		if(range[2]!=null)
+			part = part.headMap(range[2], (Boolean) range[3]);
+		return part;
+	}
+
+	/**
+	 * Returns the stored (not copied) first doc that matches the query, or null.
+	 */
+	private BasicDBObject first(DBObject query)
+	{
+		for(BasicDBObject doc : scan(query).values())
+			if(BBMemoryQuery.matches(doc, query))
+				return doc;
+		return null;
+	}
+
+	public synchronized DBObject findAndModify(DBObject query, DBObject update)
+	{
+		BasicDBObject doc = first(query);
+		if(doc==null)
+			return null;
+
+		docs.put(doc.get(BlackBoard.DOC_ID), BBMemoryQuery.update(doc, update));
+		return BBMemoryQuery.copyDoc(doc);
+	}
+
+	public void insert(DBObject doc)
+	{
+		insert(Collections.singletonList(doc));
+	}
+
+	public void insert(DBObject doc, WriteConcern concern)
+	{
+		insert(doc);
+	}
+
+	/**
+	 * Inserts the docs in order, adding an ObjectId to docs without _id. As
+	 * with MongoDB, docs before a duplicate _id are inserted and the rest are not.
+	 */
+	public synchronized void insert(List<DBObject> toInsert)
+	{
+		exists = true;
+		for(DBObject doc : toInsert)
+		{
+			if(doc.get(BlackBoard.DOC_ID)==null)
+				doc.put(BlackBoard.DOC_ID, new ObjectId());
+
+			Object id = doc.get(BlackBoard.DOC_ID);
+			if(docs.containsKey(id))
+				throw new MongoException(11000, "E11000 duplicate key error, collection: " + name + ", _id: " + id);
+
+			docs.put(id, BBMemoryQuery.copyDoc(doc));
+		}
+	}
+
+	public void insert(List<DBObject> docs, WriteConcern concern)
+	{
+		insert(docs);
+	}
+
+	public synchronized void update(DBObject query, DBObject update)
+	{
+		BasicDBObject doc = first(query);
+		if(doc!=null)
+			docs.put(doc.get(BlackBoard.DOC_ID), BBMemoryQuery.update(doc, update));
+	}
+
+	public synchronized Map<Integer,String> updateEach(List<DBObject> queries, List<DBObject> updates)
+	{
+		Map<Integer,String> errors = new TreeMap<Integer,String>();
+		for(int i=0; i<queries.size(); i++)
+		{
+			try
+			{
+				update(queries.get(i), updates.get(i));
+			}
+			catch(MongoException e)
+			{
+				errors.put(i, e.getMessage());
+			}
+		}
+		return errors;
+	}
+
+	public synchronized void remove(DBObject query)
+	{
+		List<Object> ids = new ArrayList<Object>();
+		for(BasicDBObject doc : scan(query).values())
+			if(BBMemoryQuery.matches(doc, query))
+				ids.add(doc.get(BlackBoard.DOC_ID));
+		for(Object id : ids)
+			docs.remove(id);
+	}
+
+	public synchronized long count()
+	{
+		return docs.size();
+	}
+
+	public synchronized long count(DBObject query)
+	{
+		long n = 0;
+		for(BasicDBObject doc : scan(query).values())
+			if(BBMemoryQuery.matches(doc, query))
+				n++;
+		return n;
+	}
+
+	public synchronized void ensureIndex(DBObject keys, DBObject options)
+	{
+		exists = true;
+	}
+
+	public synchronized void drop()
+	{
+		docs.clear();
+		exists = false;
+	}
+
+	/**
+	 * Runs the Java version of the job. As with MongoDB, reduce is called only
+	 * for keys with more than one value, and results are sorted by key.
+	 */
+	public synchronized Iterable<DBObject> mapReduce(BBMapReduce job, DBObject query)
+	{
+		Map<Object,List<Object>> emitted = new LinkedHashMap<Object,List<Object>>();
+		for(BasicDBObject doc : scan(query).values())
+			if(BBMemoryQuery.matches(doc, query))
+				job.map(doc, emitted);
+
+		TreeMap<Object,Object> reduced = new TreeMap<Object,Object>(BBMemoryQuery.VALUE_ORDER);
+		for(Map.Entry<Object,List<Object>> e : emitted.entrySet())
+		{
+			List<Object> values = e.getValue();
+			reduced.put(e.getKey(), values.size()==1 ? values.get(0) : job.reduce(e.getKey(), values));
+		}
+
+		List<DBObject> results = new ArrayList<DBObject>();
+		for(Map.Entry<Object,Object> e : reduced.entrySet())
+		{
+			BasicDBObject r = new BasicDBObject(BlackBoard.DOC_ID, e.getKey());
+			r.put("value", e.getValue());
+			results.add(r);
+		}
+		return results;
+	}
+
+	public void mapReduce(String map, String reduce, String outputCollection)
+	{
+		throw new MongoException("Javascript Map/Reduce is not supported by the in-memory storage");
+	}
+}
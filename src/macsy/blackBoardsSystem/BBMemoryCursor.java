@@ -0,0 +1,86 @@
+package macsy.blackBoardsSystem;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.mongodb.DBObject;
+
+/**
+ * A cursor of a query on a BBMemoryCollection. The query runs when the first
+ * doc is read.
+ */
+final class BBMemoryCursor implements BBCursor {
+
+	private BBMemoryCollection coll = null;
+	private DBObject query = null;
+	private DBObject fields = null;
+	private DBObject orderBy = null;
+	private int limit = 0;
+
+	private Iterator<DBObject> results = null;
+	private boolean closed = false;
+
+	BBMemoryCursor(BBMemoryCollection coll, DBObject query, DBObject fields)
+	{
+		this.coll = coll;
+		this.query = query;
+		this.fields = fields;
+	}
+
+	private void check()
+	{
+		if(results==null)
+			results = coll.query(query, fields, orderBy, limit).iterator();
+	}
+
+	public synchronized boolean hasNext()
+	{
+		if(closed)
+			return false;
+		check();
+		return results.hasNext();
+	}
+
+	public synchronized DBObject next()
+	{
+		if(closed)
+			throw new NoSuchElementException("Cursor is closed");
+		check();
+		return results.next();
+	}
+
+	public synchronized void close()
+	{
+		closed = true;
+		results = null;
+	}
+
+	public synchronized BBCursor limit(int n)
+	{
+		if(results!=null)
+			throw new IllegalStateException("Cursor has already been read");
+		limit = Math.abs(n);
+		return this;
+	}
+
+	public synchronized BBCursor sort(DBObject orderBy)
+	{
+		if(results!=null)
+			throw new IllegalStateException("Cursor has already been read");
+		this.orderBy = orderBy;
+		return this;
+	}
+
+	public BBCursor batchSize(int n)
+	{
+		return this;	//All docs are read at once
+	}
+
+	public synchronized BBCursor copy()
+	{
+		BBMemoryCursor c = new BBMemoryCursor(coll, query, fields);
+		c.orderBy = orderBy;
+		c.limit = limit;
+		return c;
+	}
+}
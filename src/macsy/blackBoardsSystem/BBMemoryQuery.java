@@ -0,0 +1,754 @@
+package macsy.blackBoardsSystem;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+/**
+ * Evaluates MongoDB queries, updates, projections and sorts on docs kept in
+ * memory. Used by BBMemoryCollection.
+ *
+ * Supported query operators: $gt, $gte, $lt, $lte, $ne, $in, $nin, $all,
+ * $exists, $and, $or, $nor.
+ * Supported update operators: $set, $unset, $inc, $addToSet (with $each),
+ * $push (with $each), $pull, $pullAll, $rename.
+ * Other operators throw a MongoException, so that a missing feature is never
+ * mistaken for an empty result.
+ *
+ * Values are compared as MongoDB does: first by type (null, numbers, strings,
+ * objects, arrays, binary, ObjectId, booleans, dates) and then by value; all
+ * numeric types compare by numeric value.
+ */
+final class BBMemoryQuery {
+
+	private BBMemoryQuery()
+	{
+	}
+
+	/**
+	 * Orders values as MongoDB does. Used for _id order and sorts.
+	 */
+	static final Comparator<Object> VALUE_ORDER = new Comparator<Object>() {
+		public int compare(Object a, Object b)
+		{
+			return compareValues(a, b);
+		}
+	};
+
+	//////////////////////////////////////////////////////////////////////
+	// Values
+
+	/**
+	 * Makes a deep copy of a value, converting it to the types MongoDB would
+	 * return after storing it: BasicDBObject for objects, BasicDBList for arrays,
+	 * Double for Float and Integer for Short/Byte.
+	 */
+	@SuppressWarnings("unchecked")
+	static Object copy(Object value)
+	{
+		if(value instanceof List)
+		{
+			BasicDBList list = new BasicDBList();
+			for(Object v : (List<Object>) value)
+				list.add(copy(v));
+			return list;
+		}
+		if(value instanceof Object[])
+		{
+			BasicDBList list = new BasicDBList();
+			for(Object v : (Object[]) value)
+				list.add(copy(v));
+			return list;
+		}
+		if(value instanceof DBObject)
+			return copyDoc((DBObject) value);
+		if(value instanceof Map)
+			return copyDoc(new BasicDBObject((Map<Object,Object>) value));
+		if(value instanceof Float)
+			return ((Float) value).doubleValue();
+		if(value instanceof Short || value instanceof Byte)
+			return ((Number) value).intValue();
+		if(value instanceof Date)
+			return new Date(((Date) value).getTime());
+		return value;
+	}
+
+	/**
+	 * Makes a deep copy of a doc. See copy().
+	 */
+	static BasicDBObject copyDoc(DBObject doc)
+	{
+		BasicDBObject c = new BasicDBObject();
+		for(String key : doc.keySet())
+			c.put(key, copy(doc.get(key)));
+		return c;
+	}
+
+	private static int typeRank(Object v)
+	{
+		if(v==null)					return 1;
+		if(v instanceof Number)		return 2;
+		if(v instanceof String)		return 3;
+		if(v instanceof List)		return 5;
+		if(v instanceof DBObject || v instanceof Map)	return 4;
+		if(v instanceof byte[])		return 6;
+		if(v instanceof ObjectId)	return 7;
+		if(v instanceof Boolean)	return 8;
+		if(v instanceof Date)		return 9;
+		return 10;
+	}
+
+	private static boolean isIntegral(Number n)
+	{
+		return n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte;
+	}
+
+	@SuppressWarnings("unchecked")
+	static int compareValues(Object a, Object b)
+	{
+		int ra = typeRank(a);
+		int rb = typeRank(b);
+		if(ra!=rb)
+			return ra < rb ? -1 : 1;
+
+		switch(ra)
+		{
+		case 1:
+			return 0;
+		case 2:
+			Number na = (Number) a;
+			Number nb = (Number) b;
+			if(isIntegral(na) && isIntegral(nb))
+				return na.longValue() < nb.longValue() ? -1 : (na.longValue() == nb.longValue() ? 0 : 1);
+			return Double.compare(na.doubleValue(), nb.doubleValue());
+		case 3:
+			return ((String) a).compareTo((String) b);
+		case 4:
+			List<Object> ea = entries(a);
+			List<Object> eb = entries(b);
+			return compareLists(ea, eb);
+		case 5:
+			return compareLists((List<Object>) a, (List<Object>) b);
+		case 6:
+			byte[] ba = (byte[]) a;
+			byte[] bb = (byte[]) b;
+			if(ba.length!=bb.length)
+				return ba.length < bb.length ? -1 : 1;
+			for(int i=0; i<ba.length; i++)
+				if(ba[i]!=bb[i])
+					return ba[i] < bb[i] ? -1 : 1;
+			return 0;
+		case 7:
+			return ((ObjectId) a).compareTo((ObjectId) b);
+		case 8:
+			return ((Boolean) a).compareTo((Boolean) b);
+		case 9:
+			return ((Date) a).compareTo((Date) b);
+		default:
+			return a.toString().compareTo(b.toString());
+		}
+	}
+
+	/**
+	 * Flattens an object into key1, value1, key2, value2...
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Object> entries(Object o)
+	{
+		Map<Object,Object> m = (o instanceof DBObject) ? ((DBObject) o).toMap() : (Map<Object,Object>) o;
+		List<Object> e = new ArrayList<Object>();
+		for(Map.Entry<Object,Object> entry : m.entrySet())
+		{
+			e.add(entry.getKey().toString());
+			e.add(entry.getValue());
+		}
+		return e;
+	}
+
+	private static int compareLists(List<Object> a, List<Object> b)
+	{
+		for(int i=0; i<a.size() && i<b.size(); i++)
+		{
+			int c = compareValues(a.get(i), b.get(i));
+			if(c!=0)
+				return c;
+		}
+		return a.size() < b.size() ? -1 : (a.size() == b.size() ? 0 : 1);
+	}
+
+	static boolean valuesEqual(Object a, Object b)
+	{
+		return typeRank(a)==typeRank(b) && compareValues(a, b)==0;
+	}
+
+	//////////////////////////////////////////////////////////////////////
+	// Paths
+
+	/**
+	 * Collects the values at a dotted path. Arrays on the way are expanded, as
+	 * in MongoDB queries: "a.b" matches the field b of each object of array a.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void collectValues(Object node, String[] path, int i, List<Object> out)
+	{
+		if(i==path.length)
+		{
+			out.add(node);
+			return;
+		}
+		if(node instanceof List)
+		{
+			for(Object element : (List<Object>) node)
+				if(element instanceof DBObject)
+					collectValues(element, path, i, out);
+			return;
+		}
+		if(node instanceof DBObject)
+		{
+			DBObject o = (DBObject) node;
+			if(o.containsField(path[i]))
+				collectValues(o.get(path[i]), path, i+1, out);
+		}
+	}
+
+	/**
+	 * Returns the value at a dotted path, or null. Arrays are not expanded.
+	 */
+	static Object getPath(DBObject doc, String path)
+	{
+		Object node = doc;
+		for(String key : path.split("\\."))
+		{
+			if(!(node instanceof DBObject) || node instanceof List)
+				return null;
+			node = ((DBObject) node).get(key);
+		}
+		return node;
+	}
+
+	private static boolean hasPath(DBObject doc, String path)
+	{
+		String[] keys = path.split("\\.");
+		Object node = doc;
+		for(int i=0; i<keys.length; i++)
+		{
+			if(!(node instanceof DBObject) || node instanceof List || !((DBObject) node).containsField(keys[i]))
+				return false;
+			node = ((DBObject) node).get(keys[i]);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the object that holds the last key of the path, creating missing objects.
+	 */
+	private static DBObject getParent(DBObject doc, String path, boolean create)
+	{
+		String[] keys = path.split("\\.");
+		DBObject node = doc;
+		for(int i=0; i<keys.length-1; i++)
+		{
+			Object next = node.get(keys[i]);
+			if(next==null)
+			{
+				if(!create)
+					return null;
+				next = new BasicDBObject();
+				node.put(keys[i], next);
+			}
+			if(!(next instanceof DBObject) || next instanceof List)
+				throw new MongoException("Cannot apply update to non object field " + keys[i] + " of path " + path);
+			node = (DBObject) next;
+		}
+		return node;
+	}
+
+	private static String lastKey(String path)
+	{
+		return path.substring(path.lastIndexOf('.') + 1);
+	}
+
+	//////////////////////////////////////////////////////////////////////
+	// Queries
+
+	/**
+	 * @return True if the doc matches the query. A null or empty query matches all docs.
+	 */
+	static boolean matches(DBObject doc, DBObject query)
+	{
+		if(query==null)
+			return true;
+
+		for(String key : query.keySet())
+		{
+			Object cond = query.get(key);
+			if(key.equals("$and"))
+			{
+				for(Object q : (List<?>) cond)
+					if(!matches(doc, (DBObject) q))
+						return false;
+			}
+			else if(key.equals("$or"))
+			{
+				boolean any = false;
+				for(Object q : (List<?>) cond)
+					if(matches(doc, (DBObject) q)) {
+						any = true;
+						break;
+					}
+				if(!any)
+					return false;
+			}
+			else if(key.equals("$nor"))
+			{
+				for(Object q : (List<?>) cond)
+					if(matches(doc, (DBObject) q))
+						return false;
+			}
+			else if(key.startsWith("$"))
+				throw new MongoException("Unsupported query operator: " + key);
+			else
+			{
+				List<Object> values = new ArrayList<Object>();
+				collectValues(doc, key.split("\\."), 0, values);
+				if(!matchesCondition(values, cond))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isOperatorObject(Object cond)
+	{
+		if(!(cond instanceof DBObject) || cond instanceof List)
+			return false;
+		DBObject o = (DBObject) cond;
+		if(o.keySet().isEmpty())
+			return false;
+		for(String key : o.keySet())
+			if(!key.startsWith("$"))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @param values The values of the field in the doc (empty if missing).
+	 * @param cond A value, or an object of operators.
+	 */
+	private static boolean matchesCondition(List<Object> values, Object cond)
+	{
+		if(!isOperatorObject(cond))
+			return matchesValue(values, cond);
+
+		DBObject ops = (DBObject) cond;
+		for(String op : ops.keySet())
+		{
+			Object arg = ops.get(op);
+			boolean ok;
+			if(op.equals("$exists"))
+				ok = (!values.isEmpty()) == isTrue(arg);
+			else if(op.equals("$ne"))
+				ok = !matchesValue(values, arg);
+			else if(op.equals("$in"))
+				ok = matchesAny(values, (List<?>) arg);
+			else if(op.equals("$nin"))
+				ok = !matchesAny(values, (List<?>) arg);
+			else if(op.equals("$all"))
+			{
+				List<?> all = (List<?>) arg;
+				ok = !all.isEmpty();
+				for(Object a : all)
+					if(!matchesValue(values, a)) {
+						ok = false;
+						break;
+					}
+			}
+			else if(op.equals("$gt") || op.equals("$gte") || op.equals("$lt") || op.equals("$lte"))
+				ok = matchesRange(values, op, arg);
+			else
+				throw new MongoException("Unsupported query operator: " + op);
+
+			if(!ok)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The values and, for arrays, their elements.
+	 */
+	private static List<Object> candidates(List<Object> values)
+	{
+		List<Object> c = new ArrayList<Object>();
+		for(Object v : values)
+		{
+			c.add(v);
+			if(v instanceof List)
+				c.addAll((List<?>) v);
+		}
+		return c;
+	}
+
+	private static boolean matchesValue(List<Object> values, Object expected)
+	{
+		if(expected==null && values.isEmpty())
+			return true;
+		for(Object v : candidates(values))
+			if(valuesEqual(v, expected))
+				return true;
+		return false;
+	}
+
+	private static boolean matchesAny(List<Object> values, List<?> expected)
+	{
+		for(Object e : expected)
+			if(matchesValue(values, e))
+				return true;
+		return false;
+	}
+
+	private static boolean matchesRange(List<Object> values, String op, Object bound)
+	{
+		for(Object v : candidates(values))
+		{
+			if(typeRank(v)!=typeRank(bound))
+				continue;
+			int c = compareValues(v, bound);
+			if(	(op.equals("$gt") && c > 0) || (op.equals("$gte") && c >= 0) ||
+				(op.equals("$lt") && c < 0) || (op.equals("$lte") && c <= 0) )
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isTrue(Object v)
+	{
+		if(v instanceof Boolean)
+			return (Boolean) v;
+		if(v instanceof Number)
+			return ((Number) v).doubleValue()!=0;
+		return v!=null;
+	}
+
+	/**
+	 * Returns the bounds of the _id of the docs that may match the query, so
+	 * that only part of the docs is scanned.
+	 *
+	 * @return {lower, lowerInclusive, upper, upperInclusive}, with null for no bound.
+	 */
+	static Object[] getIDRange(DBObject query)
+	{
+		Object[] range = new Object[]{null, true, null, true};
+		if(query==null || !query.containsField(BlackBoard.DOC_ID))
+			return range;
+
+		Object cond = query.get(BlackBoard.DOC_ID);
+		if(!isOperatorObject(cond))
+		{
+			if(cond instanceof List || cond instanceof DBObject)
+				return range;
+			range[0] = cond;
+			range[2] = cond;
+			return range;
+		}
+
+		DBObject ops = (DBObject) cond;
+		for(String op : ops.keySet())
+		{
+			if(op.equals("$gte") || op.equals("$gt")) {
+				range[0] = ops.get(op);
+				range[1] = op.equals("$gte");
+			}
+			else if(op.equals("$lte") || op.equals("$lt")) {
+				range[2] = ops.get(op);
+				range[3] = op.equals("$lte");
+			}
+		}
+		//Bounds of mixed types cannot limit the scan
+		if(range[0]!=null && range[2]!=null && typeRank(range[0])!=typeRank(range[2]))
+			return new Object[]{null, true, null, true};
+		return range;
+	}
+
+	//////////////////////////////////////////////////////////////////////
+	// Updates
+
+	/**
+	 * Returns the doc after an update. The input doc is not changed.
+	 *
+	 * @param doc A stored doc.
+	 * @param update An object of update operators, or a replacement doc.
+	 * @return The updated copy of the doc.
+	 */
+	static BasicDBObject update(DBObject doc, DBObject update)
+	{
+		Object id = doc.get(BlackBoard.DOC_ID);
+
+		boolean operators = false;
+		for(String key : update.keySet())
+			if(key.startsWith("$"))
+				operators = true;
+
+		if(!operators)
+		{
+			BasicDBObject replaced = copyDoc(update);
+			if(replaced.containsField(BlackBoard.DOC_ID) && !valuesEqual(replaced.get(BlackBoard.DOC_ID), id))
+				throw new MongoException("The _id field cannot be changed");
+			BasicDBObject withID = new BasicDBObject(BlackBoard.DOC_ID, id);
+			for(String key : replaced.keySet())
+				if(!key.equals(BlackBoard.DOC_ID))
+					withID.put(key, replaced.get(key));
+			return withID;
+		}
+
+		checkConflicts(update);
+
+		BasicDBObject result = copyDoc(doc);
+		for(String op : update.keySet())
+		{
+			DBObject args = (DBObject) update.get(op);
+			for(String path : args.keySet())
+			{
+				if(path.equals(BlackBoard.DOC_ID) || path.startsWith(BlackBoard.DOC_ID + "."))
+					throw new MongoException("The _id field cannot be changed");
+				applyOperator(result, op, path, args.get(path));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * MongoDB rejects updates that change the same field (or a field and its
+	 * subfield) with two operators.
+	 */
+	private static void checkConflicts(DBObject update)
+	{
+		List<String> paths = new ArrayList<String>();
+		for(String op : update.keySet())
+		{
+			DBObject args = (DBObject) update.get(op);
+			for(String path : args.keySet())
+			{
+				paths.add(path);
+				if(op.equals("$rename"))
+					paths.add(args.get(path).toString());
+			}
+		}
+		for(int i=0; i<paths.size(); i++)
+			for(int j=i+1; j<paths.size(); j++)
+			{
+				String a = paths.get(i);
+				String b = paths.get(j);
+				if(a.equals(b) || a.startsWith(b + ".") || b.startsWith(a + "."))
+					throw new MongoException("Conflicting mods in update: " + a + " and " + b);
+			}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void applyOperator(BasicDBObject doc, String op, String path, Object arg)
+	{
+		if(op.equals("$set"))
+		{
+			getParent(doc, path, true).put(lastKey(path), copy(arg));
+		}
+		else if(op.equals("$unset"))
+		{
+			DBObject parent = getParent(doc, path, false);
+			if(parent!=null)
+				parent.removeField(lastKey(path));
+		}
+		else if(op.equals("$inc"))
+		{
+			if(!(arg instanceof Number))
+				throw new MongoException("Cannot increment with non-numeric argument: " + path);
+			DBObject parent = getParent(doc, path, true);
+			Object old = parent.get(lastKey(path));
+			if(old==null)
+				parent.put(lastKey(path), copy(arg));
+			else if(!(old instanceof Number))
+				throw new MongoException("Cannot apply $inc to a non-numeric field: " + path);
+			else
+				parent.put(lastKey(path), add((Number) old, (Number) arg));
+		}
+		else if(op.equals("$rename"))
+		{
+			DBObject parent = getParent(doc, path, false);
+			if(parent!=null && parent.containsField(lastKey(path)))
+			{
+				Object value = parent.removeField(lastKey(path));
+				String target = arg.toString();
+				getParent(doc, target, true).put(lastKey(target), value);
+			}
+		}
+		else if(op.equals("$addToSet") || op.equals("$push"))
+		{
+			List<Object> items = new ArrayList<Object>();
+			if(isOperatorObject(arg) && ((DBObject) arg).containsField("$each"))
+				items.addAll((List<Object>) ((DBObject) arg).get("$each"));
+			else
+				items.add(arg);
+
+			BasicDBList list = getArray(doc, path, true);
+			for(Object item : items)
+			{
+				if(op.equals("$addToSet") && indexOf(list, item) >= 0)
+					continue;
+				list.add(copy(item));
+			}
+		}
+		else if(op.equals("$pull") || op.equals("$pullAll"))
+		{
+			BasicDBList list = getArray(doc, path, false);
+			if(list==null)
+				return;
+
+			for(int i=list.size()-1; i>=0; i--)
+			{
+				Object element = list.get(i);
+				boolean remove;
+				if(op.equals("$pullAll"))
+					remove = indexOf((List<Object>) arg, element) >= 0;
+				else if(isOperatorObject(arg))
+				{
+					List<Object> single = new ArrayList<Object>();
+					single.add(element);
+					remove = matchesCondition(single, arg);
+				}
+				else
+					remove = valuesEqual(element, arg);
+
+				if(remove)
+					list.remove(i);
+			}
+		}
+		else
+			throw new MongoException("Unsupported update operator: " + op);
+	}
+
+	/**
+	 * Returns the array at the path, creating it if missing and create is true.
+	 */
+	private static BasicDBList getArray(BasicDBObject doc, String path, boolean create)
+	{
+		DBObject parent = getParent(doc, path, create);
+		if(parent==null)
+			return null;
+
+		Object value = parent.get(lastKey(path));
+		if(value==null)
+		{
+			if(!create)
+				return null;
+			BasicDBList list = new BasicDBList();
+			parent.put(lastKey(path), list);
+			return list;
+		}
+		if(!(value instanceof BasicDBList))
+			throw new MongoException("Cannot apply array operator to non-array field: " + path);
+		return (BasicDBList) value;
+	}
+
+	private static int indexOf(List<Object> list, Object value)
+	{
+		for(int i=0; i<list.size(); i++)
+			if(valuesEqual(list.get(i), value))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Adds two numbers, keeping the type as MongoDB does: int + int is an int
+	 * (a long if it overflows), long + int is a long, anything else a double.
+	 */
+	private static Number add(Number a, Number b)
+	{
+		if(isIntegral(a) && isIntegral(b))
+		{
+			long sum = a.longValue() + b.longValue();
+			if(a instanceof Long || b instanceof Long || sum > Integer.MAX_VALUE || sum < Integer.MIN_VALUE)
+				return sum;
+			return (int) sum;
+		}
+		return a.doubleValue() + b.doubleValue();
+	}
+
+	//////////////////////////////////////////////////////////////////////
+	// Projection and sort
+
+	/**
+	 * Returns a copy of the doc with only the requested fields.
+	 *
+	 * @param fields Fields to include (any value but 0/false) or to exclude (0/false).
+	 * _id is included unless excluded. Null or empty for the whole doc.
+	 */
+	static BasicDBObject project(DBObject doc, DBObject fields)
+	{
+		if(fields==null || fields.keySet().isEmpty())
+			return copyDoc(doc);
+
+		boolean inclusion = false;
+		for(String key : fields.keySet())
+			if(!key.equals(BlackBoard.DOC_ID) && isTrue(fields.get(key)))
+				inclusion = true;
+
+		boolean withID = !fields.containsField(BlackBoard.DOC_ID) || isTrue(fields.get(BlackBoard.DOC_ID));
+
+		BasicDBObject result;
+		if(inclusion)
+		{
+			result = new BasicDBObject();
+			if(withID && doc.containsField(BlackBoard.DOC_ID))
+				result.put(BlackBoard.DOC_ID, copy(doc.get(BlackBoard.DOC_ID)));
+			for(String path : fields.keySet())
+			{
+				if(path.equals(BlackBoard.DOC_ID) || !isTrue(fields.get(path)) || !hasPath(doc, path))
+					continue;
+				getParent(result, path, true).put(lastKey(path), copy(getPath(doc, path)));
+			}
+		}
+		else
+		{
+			result = copyDoc(doc);
+			for(String path : fields.keySet())
+			{
+				if(path.equals(BlackBoard.DOC_ID))
+					continue;
+				DBObject parent = getParent(result, path, false);
+				if(parent!=null)
+					parent.removeField(lastKey(path));
+			}
+			if(!withID)
+				result.removeField(BlackBoard.DOC_ID);
+		}
+		return result;
+	}
+
+	/**
+	 * @param orderBy The fields to sort on, with 1 for ascending or -1 for descending order.
+	 * @return A comparator of docs.
+	 */
+	static Comparator<DBObject> sortOrder(final DBObject orderBy)
+	{
+		return new Comparator<DBObject>() {
+			public int compare(DBObject a, DBObject b)
+			{
+				for(String path : orderBy.keySet())
+				{
+					int c = compareValues(getPath(a, path), getPath(b, path));
+					if(c!=0)
+						return ((Number) orderBy.get(path)).intValue() < 0 ? -c : c;
+				}
+				return 0;
+			}
+		};
+	}
+}
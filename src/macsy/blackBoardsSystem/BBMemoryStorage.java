@@ -0,0 +1,75 @@
+package macsy.blackBoardsSystem;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Storage of Black Boards in the memory of the JVM. Nothing is saved.
+ *
+ * It is a complete stand-in for the MongoDB storage: year collections, tags,
+ * control tags, counters and all queries of the Black Boards work as with
+ * MongoDB. Map/Reduce jobs run in Java (see BBMapReduce); arbitrary
+ * Javascript jobs (runMapReduce) are not supported.
+ *
+ * To run modules on it, set dburl=memory in their DB settings file. All
+ * BlackBoardsAPI instances of the JVM with the same dbname then share the same
+ * storage, so modules can be chained in one process.
+ */
+public final class BBMemoryStorage implements BBStorage {
+
+	/**
+	 * The value of dburl that selects the in-memory storage.
+	 */
+	public static final String MEMORY_DB_URL = "memory";
+
+	private static final Map<String,BBMemoryStorage> shared = new HashMap<String,BBMemoryStorage>();
+
+	private Map<String,BBMemoryCollection> collections = new HashMap<String,BBMemoryCollection>();
+
+	/**
+	 * Creates a new, empty storage.
+	 */
+	public BBMemoryStorage()
+	{
+	}
+
+	/**
+	 * Returns the storage with the given name, shared by the whole JVM.
+	 * It is created on first call.
+	 *
+	 * @param name The name of the storage, e.g. the DB name.
+	 * @return The storage.
+	 */
+	public static synchronized BBMemoryStorage getShared(String name)
+	{
+		BBMemoryStorage storage = shared.get(name);
+		if(storage==null)
+		{
+			storage = new BBMemoryStorage();
+			shared.put(name, storage);
+		}
+		return storage;
+	}
+
+	public synchronized BBCollection getCollection(String name)
+	{
+		BBMemoryCollection coll = collections.get(name);
+		if(coll==null)
+		{
+			coll = new BBMemoryCollection(name);
+			collections.put(name, coll);
+		}
+		return coll;
+	}
+
+	public synchronized Set<String> getCollectionNames()
+	{
+		Set<String> names = new TreeSet<String>();
+		for(BBMemoryCollection coll : collections.values())
+			if(coll.exists())
+				names.add(coll.getName());
+		return names;
+	}
+}
@@ -0,0 +1,160 @@
+package macsy.blackBoardsSystem;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MapReduceCommand;
+import com.mongodb.WriteConcern;
+
+/**
+ * A collection of a MongoDB database. Calls are passed to the driver as they are.
+ */
+final class BBMongoCollection implements BBCollection {
+
+	private DBCollection coll = null;
+
+	BBMongoCollection(DBCollection coll)
+	{
+		this.coll = coll;
+		this.coll.setObjectClass(BasicDBObject.class);
+	}
+
+	public String getName()
+	{
+		return coll.getName();
+	}
+
+	public BBCursor find()
+	{
+		return new BBMongoCursor(coll.find());
+	}
+
+	public BBCursor find(DBObject query)
+	{
+		return new BBMongoCursor(coll.find(query));
+	}
+
+	public BBCursor find(DBObject query, DBObject fields)
+	{
+		return new BBMongoCursor(coll.find(query, fields));
+	}
+
+	public DBObject findOne(DBObject query)
+	{
+		return coll.findOne(query);
+	}
+
+	public DBObject findAndModify(DBObject query, DBObject update)
+	{
+		return coll.findAndModify(query, update);
+	}
+
+	public void insert(DBObject doc)
+	{
+		coll.insert(doc);
+	}
+
+	public void insert(DBObject doc, WriteConcern concern)
+	{
+		coll.insert(doc, concern);
+	}
+
+	public void insert(List<DBObject> docs)
+	{
+		coll.insert(docs);
+	}
+
+	public void insert(List<DBObject> docs, WriteConcern concern)
+	{
+		coll.insert(docs, concern);
+	}
+
+	public void update(DBObject query, DBObject update)
+	{
+		coll.update(query, update);
+	}
+
+	/**
+	 * Sends all updates as one unordered bulk operation.
+	 */
+	public Map<Integer,String> updateEach(List<DBObject> queries, List<DBObject> updates)
+	{
+		Map<Integer,String> errors = new TreeMap<Integer,String>();
+		if(queries.isEmpty())
+			return errors;
+
+		BulkWriteOperation bulk = coll.initializeUnorderedBulkOperation();
+		for(int i=0; i<queries.size(); i++)
+			bulk.find(queries.get(i)).updateOne(updates.get(i));
+
+		try
+		{
+			bulk.execute();
+		}
+		catch(BulkWriteException e)
+		{
+			for(BulkWriteError err : e.getWriteErrors())
+				errors.put(err.getIndex(), err.getMessage());
+
+			//Not acknowledged: the state of all updates is unknown
+			if(e.getWriteConcernError()!=null)
+				for(int i=0; i<queries.size(); i++)
+					if(!errors.containsKey(i))
+						errors.put(i, e.getWriteConcernError().getMessage());
+		}
+		return errors;
+	}
+
+	public void remove(DBObject query)
+	{
+		coll.remove(query);
+	}
+
+	public long count()
+	{
+		return coll.getCount();
+	}
+
+	public long count(DBObject query)
+	{
+		return coll.count(query);
+	}
+
+	public void ensureIndex(DBObject keys, DBObject options)
+	{
+		coll.ensureIndex(keys, options);
+	}
+
+	public void drop()
+	{
+		coll.drop();
+	}
+
+	/**
+	 * Runs the Javascript version of the job on the server, with inline output.
+	 */
+	public Iterable<DBObject> mapReduce(BBMapReduce job, DBObject query)
+	{
+		MapReduceCommand cmd = new MapReduceCommand(coll, job.getMapFunction(),
+				job.getReduceFunction(), null, MapReduceCommand.OutputType.INLINE,
+				query);
+		if(job.getScope()!=null)
+			cmd.setScope(job.getScope());
+		return coll.mapReduce(cmd).results();
+	}
+
+	public void mapReduce(String map, String reduce, String outputCollection)
+	{
+		MapReduceCommand cmd = new MapReduceCommand(coll, map, reduce,
+				outputCollection, MapReduceCommand.OutputType.REDUCE,
+				new BasicDBObject());
+		coll.mapReduce(cmd);
+	}
+}
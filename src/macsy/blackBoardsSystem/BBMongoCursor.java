@@ -0,0 +1,55 @@
+package macsy.blackBoardsSystem;
+
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * A cursor of a MongoDB query. Calls are passed to the driver as they are.
+ */
+final class BBMongoCursor implements BBCursor {
+
+	private DBCursor cursor = null;
+
+	BBMongoCursor(DBCursor cursor)
+	{
+		this.cursor = cursor;
+	}
+
+	public boolean hasNext()
+	{
+		return cursor.hasNext();
+	}
+
+	public DBObject next()
+	{
+		return cursor.next();
+	}
+
+	public void close()
+	{
+		cursor.close();
+	}
+
+	public BBCursor limit(int n)
+	{
+		cursor.limit(n);
+		return this;
+	}
+
+	public BBCursor sort(DBObject orderBy)
+	{
+		cursor.sort(orderBy);
+		return this;
+	}
+
+	public BBCursor batchSize(int n)
+	{
+		cursor.batchSize(n);
+		return this;
+	}
+
+	public BBCursor copy()
+	{
+		return new BBMongoCursor(cursor.copy());
+	}
+}
@@ -0,0 +1,31 @@
+package macsy.blackBoardsSystem;
+
+import java.util.Set;
+
+import com.mongodb.DB;
+
+/**
+ * Storage of Black Boards in a MongoDB database.
+ */
+public final class BBMongoStorage implements BBStorage {
+
+	private DB mongo_db = null;
+
+	/**
+	 * @param mongo_db The database. It should be connected and authenticated.
+	 */
+	public BBMongoStorage(DB mongo_db)
+	{
+		this.mongo_db = mongo_db;
+	}
+
+	public BBCollection getCollection(String name)
+	{
+		return new BBMongoCollection(mongo_db.getCollection(name));
+	}
+
+	public Set<String> getCollectionNames()
+	{
+		return mongo_db.getCollectionNames();
+	}
+}
@@ -0,0 +1,221 @@
+package macsy.blackBoardsSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A set of docs that reads all its cursors (one per year collection) in
+ * parallel.
+ *
+ * In ordered mode docs are returned cursor by cursor, exactly as BBDocSet
+ * does. Year collections do not overlap in time, so if each cursor is sorted
+ * by ID the whole set is sorted by ID too. In unordered mode docs are returned
+ * as soon as any cursor delivers them.
+ *
+ * A global limit is enforced on the merged docs; cursors are still limited
+ * per year by the caller, since all of them are read at once.
+ *
+ * Each set uses its own pool of at most maxThreads threads, which ends when
+ * all cursors are read or close() is called.
+ */
+final class BBPartitionedDocSet extends BBDocSet {
+
+	/**
+	 * Default number of docs buffered per cursor.
+	 */
+	static final int DEFAULT_QUEUE_DEPTH = 200;
+
+	/**
+	 * Marks the end of a cursor in the queues. Carries the error, if any.
+	 */
+	private static final class CursorEnd {
+		Throwable error = null;
+	}
+
+	static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "BlackBoard partition reader");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private boolean ordered = true;
+	private int maxThreads = 1;
+
+	/**
+	 * One queue per cursor if ordered, or one queue shared by all cursors.
+	 */
+	private List<BlockingQueue<Object>> queues = null;
+	private int currentQueue = 0;
+	private int endedCursors = 0;
+
+	private ExecutorService executor = null;
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param cursors
+	 *            One cursor per partition, in the order they should be
+	 *            returned when ordered is true.
+	 * @param maxThreads
+	 *            The max number of cursors read at the same time.
+	 * @param ordered
+	 *            True to return docs cursor by cursor.
+	 * @param maxDocs
+	 *            The max number of docs returned by the set, or 0 for all.
+	 */
+	BBPartitionedDocSet(List<BBCursor> cursors, int maxThreads,
+			boolean ordered, int maxDocs) {
+		super(cursors, maxDocs);
+		this.maxThreads = maxThreads;
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Starts the readers. Called on first getNext() so that an unused set
+	 * costs nothing.
+	 */
+	private void start() {
+		queues = new ArrayList<BlockingQueue<Object>>();
+		if (ordered) {
+			for (int i = 0; i < cursors.size(); i++)
+				queues.add(new ArrayBlockingQueue<Object>(DEFAULT_QUEUE_DEPTH));
+		} else {
+			queues.add(new ArrayBlockingQueue<Object>(DEFAULT_QUEUE_DEPTH
+					* maxThreads));
+		}
+
+		executor = Executors.newFixedThreadPool(
+				Math.max(1, Math.min(maxThreads, cursors.size())),
+				DAEMON_THREADS);
+
+		// Submitted in output order, so the cursor the consumer waits for
+		// is always running or done.
+		for (int i = 0; i < cursors.size(); i++) {
+			final BBCursor cur = cursors.get(i);
+			final BlockingQueue<Object> queue = ordered ? queues.get(i)
+					: queues.get(0);
+
+			executor.execute(new Runnable() {
+				public void run() {
+					CursorEnd end = new CursorEnd();
+					try {
+						while (!cancelled && cur.hasNext())
+							queue.put(new BBDoc(cur.next(), loadedFields));
+					} catch (InterruptedException e) {
+						return; // Cancelled by close()
+					} catch (Throwable e) {
+						end.error = e; // Also Errors, so that getNext() does not wait forever
+					} finally {
+						cur.close();
+					}
+
+					try {
+						if (!cancelled)
+							queue.put(end);
+					} catch (InterruptedException e) {
+						// Cancelled by close()
+					}
+				}
+			});
+		}
+		executor.shutdown(); // Threads end with the last cursor
+	}
+
+	@Override
+	public synchronized BBDocSet prefetch(int batchSize, int queueDepth) {
+		setBatchSize(batchSize);
+		return this; // Always read ahead
+	}
+
+	/**
+	 * Stops the readers and closes all cursors, including those of partitions
+	 * whose reader never started.
+	 */
+	@Override
+	public synchronized void close() {
+		cancelled = true;
+		if (executor != null) {
+			executor.shutdownNow(); // Interrupts readers blocked on a full queue
+			for (BlockingQueue<Object> q : queues)
+				q.clear();
+			boolean interrupted = false;
+			while (!executor.isTerminated()) {
+				try {
+					executor.awaitTermination(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		// After the readers ended, so no cursor is closed while in use
+		for (BBCursor c : cursors)
+			c.close();
+	}
+
+	@Override
+	public BBDoc getNext() {
+		if (cancelled)
+			return null;
+
+		if (maxDocs > 0 && docsRead >= maxDocs) {
+			close(); // Stop the readers
+			return null;
+		}
+
+		if (queues == null)
+			start();
+
+		while (endedCursors < cursors.size()) {
+			Object doc;
+			try {
+				doc = queues.get(currentQueue).take();
+			} catch (InterruptedException e) {
+				// Not the end of the docs; null would cut the results short
+				Thread.currentThread().interrupt();
+				close();
+				throw new IllegalStateException(
+						"Interrupted while waiting for the next doc", e);
+			}
+
+			if (doc instanceof CursorEnd) {
+				endedCursors++;
+				if (ordered)
+					currentQueue++;
+
+				Throwable error = ((CursorEnd) doc).error;
+				if (error != null) {
+					close();
+					if (error instanceof RuntimeException)
+						throw (RuntimeException) error;
+					if (error instanceof Error)
+						throw (Error) error;
+					throw new RuntimeException(error);
+				}
+				continue;
+			}
+			docsRead++;
+			return (BBDoc) doc;
+		}
+		return null;
+	}
+
+	@Override
+	public BBDocSet clone() {
+		List<BBCursor> cursors_copy = new ArrayList<BBCursor>();
+		for (BBCursor c : cursors)
+			cursors_copy.add(c.copy());
+
+		return new BBPartitionedDocSet(cursors_copy, maxThreads, ordered,
+				maxDocs).setLoadedFields(loadedFields);
+	}
+}
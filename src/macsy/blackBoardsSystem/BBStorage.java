@@ -0,0 +1,29 @@
+package macsy.blackBoardsSystem;
+
+import java.util.Set;
+
+/**
+ * The storage beneath the Black Boards: a named set of collections of docs.
+ *
+ * BBMongoStorage stores them in a MongoDB database. BBMemoryStorage keeps
+ * them in the memory of the JVM, so that Black Boards and modules can run
+ * without a database (tests, profiling, benchmarks).
+ *
+ * Docs, queries and updates are expressed as MongoDB objects (DBObject) in
+ * both cases.
+ */
+public interface BBStorage {
+
+	/**
+	 * Returns the named collection. The collection is created on first insert.
+	 *
+	 * @param name The name of the collection.
+	 * @return The collection.
+	 */
+	BBCollection getCollection(String name);
+
+	/**
+	 * @return The names of all existing collections.
+	 */
+	Set<String> getCollectionNames();
+}
@@ -0,0 +1,263 @@
+package macsy.blackBoardsSystem;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * In-process cache of the tags collection (BB_NAME_TAGS) of a Black Board.
+ *
+ * The whole collection is loaded on first use and tag ID, tag name and tag
+ * property lookups are then served from memory. The cache is updated by the
+ * Black Board whenever it inserts tags or changes tag properties, and it is
+ * reloaded from the DB when it is older than its time-to-live, so that
+ * several processes sharing a Black Board eventually see each other's tags.
+ *
+ * A miss (unknown name or ID) is looked up in the DB once and then cached as
+ * a miss too, until the next reload. So a tag created by another process is
+ * visible after at most the time-to-live; tags created through this Black
+ * Board are visible at once. Before creating a tag the Black Board checks its
+ * name in the DB with findTagID(), not in the cache, so that a tag created
+ * meanwhile by another process does not get a second ID.
+ *
+ * Tag records are copied in and out, so callers can not change the cache.
+ */
+final class BBTagCatalog {
+
+	/**
+	 * Default time-to-live of the cached catalog in ms.
+	 */
+	static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+	private BBCollection collTags = null;
+
+	/**
+	 * Marks a TagID that is not in the DB.
+	 */
+	private static final BasicDBObject MISSING = new BasicDBObject();
+
+	/**
+	 * TagID to the full tag record (name and properties), or MISSING.
+	 */
+	private IntObjectHashMap<BasicDBObject> id2Tag = new IntObjectHashMap<BasicDBObject>();
+
+	/**
+	 * Tag Name to TagID, or BlackBoard.TAG_NOT_FOUND.
+	 */
+	private Map<String,Integer> name2ID = new HashMap<String,Integer>();
+
+	private long timeToLive = DEFAULT_TTL;
+
+	/**
+	 * Time of the last full load in ms, or 0 if the catalog is not loaded.
+	 */
+	private long loadedAt = 0;
+
+	/**
+	 * Increased each time the catalog is reloaded from the DB.
+	 */
+	private int version = 0;
+
+	BBTagCatalog(BBCollection collTags)
+	{
+		this.collTags = collTags;
+	}
+
+	/**
+	 * Sets the time-to-live of the catalog.
+	 *
+	 * @param ms The time in ms after which the catalog is reloaded. Set to 0 to disable caching.
+	 */
+	synchronized void setTimeToLive(long ms)
+	{
+		timeToLive = ms;
+	}
+
+	/**
+	 * Returns the number of times the catalog has been loaded from the DB.
+	 */
+	synchronized int getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Forces a reload of the catalog on next access.
+	 */
+	synchronized void invalidate()
+	{
+		loadedAt = 0;
+	}
+
+	/**
+	 * Gets the ID of the tag with given name.
+	 *
+	 * @param tagName The name of the tag.
+	 * @return The TagID or BlackBoard.TAG_NOT_FOUND.
+	 */
+	synchronized int getTagID(String tagName)
+	{
+		checkFresh();
+
+		Integer tagID = name2ID.get(tagName);
+		if(tagID!=null)
+			return tagID;
+
+		BasicDBObject res = (BasicDBObject) collTags.findOne(new BasicDBObject(BlackBoard.TAG_NAME, tagName));
+		if(res==null)
+		{
+			name2ID.put(tagName, BlackBoard.TAG_NOT_FOUND);
+			return BlackBoard.TAG_NOT_FOUND;
+		}
+
+		put(res);
+		return res.getInt(BlackBoard.TAG_ID);
+	}
+
+	/**
+	 * Gets the ID of the tag with given name from the DB, ignoring the cache,
+	 * and updates the cache with it.
+	 *
+	 * @param tagName The name of the tag.
+	 * @return The TagID or BlackBoard.TAG_NOT_FOUND.
+	 */
+	synchronized int findTagID(String tagName)
+	{
+		checkFresh();
+
+		BasicDBObject res = (BasicDBObject) collTags.findOne(new BasicDBObject(BlackBoard.TAG_NAME, tagName));
+		if(res==null)
+		{
+			name2ID.put(tagName, BlackBoard.TAG_NOT_FOUND);
+			return BlackBoard.TAG_NOT_FOUND;
+		}
+
+		put(res);
+		return res.getInt(BlackBoard.TAG_ID);
+	}
+
+	/**
+	 * Gets the record of the tag with given ID.
+	 *
+	 * @param tagID The ID of the tag.
+	 * @return A copy of the tag record (ID, name and properties) or null if not found.
+	 */
+	synchronized BasicDBObject getTag(int tagID)
+	{
+		BasicDBObject tag = lookup(tagID);
+		return tag==null ? null : new BasicDBObject(tag.toMap());
+	}
+
+	/**
+	 * Gets the name of the tag with given ID.
+	 *
+	 * @return The name or null if not found.
+	 */
+	synchronized String getTagName(int tagID)
+	{
+		BasicDBObject tag = lookup(tagID);
+		return tag==null ? null : tag.getString(BlackBoard.TAG_NAME);
+	}
+
+	/**
+	 * Gets a property of the tag with given ID.
+	 *
+	 * @return The value, or -1 if the tag is not found or the property is not set.
+	 */
+	synchronized int getTagProperty(int tagID, String tagPropertyName)
+	{
+		BasicDBObject tag = lookup(tagID);
+		if(tag==null)
+			return -1;
+		Object value = tag.get(tagPropertyName);
+		return value==null ? -1 : (Integer) value;
+	}
+
+	/**
+	 * @return The cached record of the tag, not to be modified, or null if not found.
+	 */
+	private BasicDBObject lookup(int tagID)
+	{
+		checkFresh();
+
+		BasicDBObject tag = id2Tag.get(tagID);
+		if(tag!=null)
+			return tag==MISSING ? null : tag;
+
+		tag = (BasicDBObject) collTags.findOne(new BasicDBObject(BlackBoard.TAG_ID, tagID));
+		if(tag==null)
+		{
+			id2Tag.put(tagID, MISSING);
+			return null;
+		}
+		return put(tag);
+	}
+
+	/**
+	 * Adds (or replaces) a tag record in the catalog.
+	 *
+	 * @param tag The tag as stored in the DB.
+	 * @return The cached copy.
+	 */
+	synchronized BasicDBObject put(DBObject tag)
+	{
+		BasicDBObject t = new BasicDBObject(tag.toMap());
+		int tagID = t.getInt(BlackBoard.TAG_ID);
+
+		BasicDBObject old = id2Tag.put(tagID, t);
+		if(old!=null && old!=MISSING)
+			name2ID.remove(old.getString(BlackBoard.TAG_NAME));
+		name2ID.put(t.getString(BlackBoard.TAG_NAME), tagID);
+		return t;
+	}
+
+	/**
+	 * Updates a property of a cached tag.
+	 * Tags that are not cached are ignored; they are read from the DB on next access.
+	 */
+	synchronized void setProperty(int tagID, String tagPropertyName, int tagPropertyValue)
+	{
+		BasicDBObject tag = id2Tag.get(tagID);
+		if(tag!=null && tag!=MISSING)
+			tag.put(tagPropertyName, tagPropertyValue);
+	}
+
+	/**
+	 * Reloads the whole catalog if it is not loaded or it has expired.
+	 */
+	private void checkFresh()
+	{
+		long now = System.currentTimeMillis();
+		if(loadedAt!=0 && now - loadedAt < timeToLive)
+			return;
+
+		IntObjectHashMap<BasicDBObject> newID2Tag = new IntObjectHashMap<BasicDBObject>();
+		Map<String,Integer> newName2ID = new HashMap<String,Integer>();
+
+		if(timeToLive > 0)
+		{
+			BBCursor cur = collTags.find();
+			try
+			{
+				while(cur.hasNext())
+				{
+					BasicDBObject tag = (BasicDBObject) cur.next();
+					int tagID = tag.getInt(BlackBoard.TAG_ID);
+					newID2Tag.put(tagID, tag);
+					newName2ID.put(tag.getString(BlackBoard.TAG_NAME), tagID);
+				}
+			}
+			finally
+			{
+				cur.close();
+			}
+		}
+
+		id2Tag = newID2Tag;
+		name2ID = newName2ID;
+		loadedAt = now;
+		version++;
+	}
+}
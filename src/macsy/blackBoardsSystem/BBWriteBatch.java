@@ -0,0 +1,474 @@
+package macsy.blackBoardsSystem;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Collects annotations (fields, tags) of many documents and writes them to a
+ * date based Black Board in bulk.
+ *
+ * All annotations of the same document are merged into a single
+ * $set/$addToSet/$pullAll update, unless the same field is used by more than
+ * one of them, which MongoDB does not allow in one update. Then they are split
+ * in up to three updates, in the order $set, $addToSet, $pullAll, and the next
+ * update of a document is only sent once the previous has succeeded. Together
+ * they are not atomic; but as removals come last, a failed write never leaves
+ * a document without a removed tag and without the annotations queued with
+ * the removal, e.g. without its input tag and without its output.
+ *
+ * Updates are grouped by year collection and sent as bulk operations, one per
+ * year (and per step of split updates). The batch is flushed when it holds
+ * maxDocs documents, when the oldest pending annotation is older than
+ * maxDelay ms (checked whenever a new annotation is queued), or when flush()
+ * or close() are called.
+ *
+ * Operations on the same document are applied in the order they are queued,
+ * e.g. adding and then removing the same tag leaves the document without it.
+ *
+ * Write errors do not stop the batch. The IDs of the documents that failed
+ * and the error messages are kept and can be read with getFailedDocIDs() and
+ * getErrors(). close() throws an Exception if any write has failed.
+ *
+ * Example:
+ * <pre>
+ * BBWriteBatch batch = bb.createWriteBatch();
+ * while((doc = docSet.getNext())!=null) {
+ * 	batch.addFieldToDoc(doc.getID(), "Score", score);
+ * 	batch.removeTagsFromDoc(doc.getID(), inputTags);
+ * 	batch.addTagToDoc(doc.getID(), outputTag);
+ * }
+ * batch.close();
+ * </pre>
+ */
+public final class BBWriteBatch {
+
+	/**
+	 * Default number of documents after which the batch is flushed.
+	 */
+	public static final int DEFAULT_MAX_DOCS = 1000;
+
+	/**
+	 * Default time (in ms) after which pending annotations are flushed.
+	 */
+	public static final long DEFAULT_MAX_DELAY = 5000;
+
+	/**
+	 * The pending annotations of a single document.
+	 */
+	private static final class PendingUpdate {
+		BasicDBObject set = new BasicDBObject();
+		Map<String, Set<Object>> addToSet = new LinkedHashMap<String, Set<Object>>();
+		Map<String, Set<Object>> pull = new LinkedHashMap<String, Set<Object>>();
+
+		void add(Map<String, Set<Object>> ops, String fieldName, Object value) {
+			Set<Object> values = ops.get(fieldName);
+			if (values == null) {
+				values = new LinkedHashSet<Object>();
+				ops.put(fieldName, values);
+			}
+			values.add(value);
+		}
+
+		void remove(Map<String, Set<Object>> ops, String fieldName,
+				Object value) {
+			Set<Object> values = ops.get(fieldName);
+			if (values != null) {
+				values.remove(value);
+				if (values.isEmpty())
+					ops.remove(fieldName);
+			}
+		}
+
+		/**
+		 * Returns the updates that apply these annotations, to be applied in
+		 * order. Usually a single update; $set, $addToSet and $pullAll are
+		 * split where they share a field. This order gives the same result as
+		 * the order of queuing: a field is $set before any later
+		 * $addToSet/$pull of it, and the values added and pulled are disjoint.
+		 */
+		List<BasicDBObject> toUpdates() {
+			List<BasicDBObject> updates = new ArrayList<BasicDBObject>();
+			BasicDBObject current = new BasicDBObject();
+
+			if (set.size() > 0)
+				current.put("$set", set);
+
+			if (addToSet.size() > 0) {
+				BasicDBObject addEach = new BasicDBObject();
+				for (Map.Entry<String, Set<Object>> e : addToSet.entrySet())
+					addEach.put(e.getKey(), new BasicDBObject("$each",
+							new ArrayList<Object>(e.getValue())));
+				if (usesAnyField(current, addToSet.keySet())) {
+					updates.add(current);
+					current = new BasicDBObject();
+				}
+				current.put("$addToSet", addEach);
+			}
+
+			if (pull.size() > 0) {
+				BasicDBObject pullAll = new BasicDBObject();
+				for (Map.Entry<String, Set<Object>> e : pull.entrySet())
+					pullAll.put(e.getKey(), new ArrayList<Object>(e.getValue()));
+				if (usesAnyField(current, pull.keySet())) {
+					updates.add(current);
+					current = new BasicDBObject();
+				}
+				current.put("$pullAll", pullAll);
+			}
+
+			if (current.size() > 0)
+				updates.add(current);
+			return updates;
+		}
+
+		/**
+		 * @return True if any operator of update is on one of fieldNames.
+		 */
+		private static boolean usesAnyField(BasicDBObject update,
+				Set<String> fieldNames) {
+			for (String op : update.keySet()) {
+				BasicDBObject fields = (BasicDBObject) update.get(op);
+				for (String fieldName : fieldNames)
+					if (fields.containsField(fieldName))
+						return true;
+			}
+			return false;
+		}
+	}
+
+	private BlackBoardDateBased bb = null;
+
+	private int maxDocs = DEFAULT_MAX_DOCS;
+	private long maxDelay = DEFAULT_MAX_DELAY;
+
+	/**
+	 * DocID to its pending annotations, in order of first use.
+	 */
+	private Map<Object, PendingUpdate> pending = new LinkedHashMap<Object, PendingUpdate>();
+
+	/**
+	 * Time the first pending annotation was queued, or 0 if none is pending.
+	 */
+	private long firstPendingTime = 0;
+
+	private int docsWritten = 0;
+	private List<Object> failedDocIDs = new ArrayList<Object>();
+	private List<String> errors = new ArrayList<String>();
+
+	/**
+	 * Use BlackBoardDateBased.createWriteBatch() to get an instance.
+	 *
+	 * @param bb
+	 *            The Black Board that will be updated.
+	 * @param maxDocs
+	 *            Number of documents after which the batch is flushed.
+	 * @param maxDelay
+	 *            Time in ms after which pending annotations are flushed. Set
+	 *            to 0 to flush only by size.
+	 */
+	BBWriteBatch(BlackBoardDateBased bb, int maxDocs, long maxDelay) {
+		this.bb = bb;
+		this.maxDocs = maxDocs;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Sets a field of a document. If the field exists, it is updated to the
+	 * provided value.
+	 *
+	 * @param docID
+	 *            The ID of the doc which will be updated.
+	 * @param fieldName
+	 *            The name of the field.
+	 * @param fieldValue
+	 *            The value to enter to the named field.
+	 * @throws Exception
+	 */
+	public synchronized void addFieldToDoc(Object docID, String fieldName,
+			Object fieldValue) throws Exception {
+		if (bb.isNotUpdateableField(fieldName))
+			throw new Exception("Can not update field " + fieldName);
+
+		PendingUpdate u = getPendingUpdate(docID);
+		u.set.put(fieldName, fieldValue);
+		u.addToSet.remove(fieldName); // Overwritten by this value
+		u.pull.remove(fieldName);
+		checkFlush();
+	}
+
+	/**
+	 * Sets a real-value field of a document.
+	 *
+	 * @param docID
+	 *            The ID of the doc which will be updated.
+	 * @param fieldName
+	 *            The name of the field.
+	 * @param fieldValue
+	 *            The value to set to the named field.
+	 * @throws Exception
+	 */
+	public void addRealFieldToDoc(Object docID, String fieldName,
+			double fieldValue) throws Exception {
+		if (Double.isNaN(fieldValue) || Double.isInfinite(fieldValue))
+			throw new Exception("NaN is not acceptable");
+
+		addFieldToDoc(docID, fieldName, fieldValue);
+	}
+
+	/**
+	 * Appends a value to a field of type List, if it is not already there.
+	 *
+	 * @param docID
+	 *            The ID of the document which will be updated.
+	 * @param fieldName
+	 *            The name of the field that stores the list.
+	 * @param fieldValue
+	 *            The value to append.
+	 * @throws Exception
+	 */
+	public synchronized void appendToFieldList(Object docID, String fieldName,
+			Object fieldValue) throws Exception {
+		if (bb.isNotUpdateableField(fieldName))
+			throw new Exception("Can not append to field " + fieldName);
+
+		PendingUpdate u = getPendingUpdate(docID);
+		u.add(u.addToSet, fieldName, fieldValue);
+		u.remove(u.pull, fieldName, fieldValue);
+		checkFlush();
+	}
+
+	/**
+	 * Adds a tag to a document. Control tags are stored separately, as in
+	 * BlackBoardDateBased.addTagToDoc().
+	 *
+	 * @param docID
+	 *            The ID of doc to which the tag will be added.
+	 * @param tagID
+	 *            The ID of the tag.
+	 * @throws Exception
+	 */
+	public synchronized void addTagToDoc(Object docID, int tagID)
+			throws Exception {
+		if (tagID <= 0)
+			throw new Exception("TagID should be >0");
+
+		String tagsField = BlackBoard.DOC_FOR_TAGS;
+		if (bb.getTagProperty(tagID, BlackBoard.TAG_PROPERTY_CONTROL) == -1)
+			tagsField = BlackBoard.DOC_TAGS;
+
+		PendingUpdate u = getPendingUpdate(docID);
+		u.add(u.addToSet, tagsField, tagID);
+		u.remove(u.pull, tagsField, tagID);
+		checkFlush();
+	}
+
+	/**
+	 * Adds the provided tags to the specified document.
+	 *
+	 * @param docID
+	 *            The ID of the document to which the tags will be added.
+	 * @param tagIDs
+	 *            The IDs of the tags.
+	 * @throws Exception
+	 */
+	public synchronized void addTagsToDoc(Object docID, List<Integer> tagIDs)
+			throws Exception {
+		for (int tagID : tagIDs)
+			addTagToDoc(docID, tagID);
+	}
+
+	/**
+	 * Removes a tag from a document.
+	 *
+	 * @param docID
+	 *            The ID of the document from which we want to remove a tag.
+	 * @param tagID
+	 *            The ID of the tag we want to remove.
+	 * @throws Exception
+	 */
+	public synchronized void removeTagFromDoc(Object docID, int tagID)
+			throws Exception {
+		String tagsField = BlackBoard.DOC_TAGS;
+		if (bb.getTagProperty(tagID, BlackBoard.TAG_PROPERTY_CONTROL) == 1)
+			tagsField = BlackBoard.DOC_FOR_TAGS;
+
+		PendingUpdate u = getPendingUpdate(docID);
+		u.add(u.pull, tagsField, tagID);
+		u.remove(u.addToSet, tagsField, tagID);
+		checkFlush();
+	}
+
+	/**
+	 * Removes the provided tags from the specified document.
+	 *
+	 * @param docID
+	 *            The ID of the document.
+	 * @param tagIDs
+	 *            The IDs of the tags to remove.
+	 * @throws Exception
+	 */
+	public synchronized void removeTagsFromDoc(Object docID,
+			List<Integer> tagIDs) throws Exception {
+		for (int tagID : tagIDs)
+			removeTagFromDoc(docID, tagID);
+	}
+
+	/**
+	 * Writes all pending annotations to the Black Board.
+	 *
+	 * Failures are recorded and can be read with getFailedDocIDs() and
+	 * getErrors().
+	 *
+	 * @return The number of documents that failed in this flush.
+	 */
+	public synchronized int flush() {
+		if (pending.isEmpty())
+			return 0;
+
+		// GROUP BY YEAR
+		Map<Integer, List<Object>> docsPerYear = new TreeMap<Integer, List<Object>>();
+		for (Object docID : pending.keySet()) {
+			int year = bb.getYearOfInterestByDocID(docID);
+			List<Object> docIDs = docsPerYear.get(year);
+			if (docIDs == null) {
+				docIDs = new ArrayList<Object>();
+				docsPerYear.put(year, docIDs);
+			}
+			docIDs.add(docID);
+		}
+
+		int failed = 0;
+		for (Map.Entry<Integer, List<Object>> e : docsPerYear.entrySet())
+			failed += flushYear(bb.getCollDocs(e.getKey()), e.getValue());
+
+		pending.clear();
+		firstPendingTime = 0;
+
+		return failed;
+	}
+
+	/**
+	 * Flushes pending annotations and throws an Exception if any write of this
+	 * batch has failed.
+	 *
+	 * @throws Exception
+	 */
+	public synchronized void close() throws Exception {
+		flush();
+
+		if (failedDocIDs.size() > 0)
+			throw new Exception(failedDocIDs.size()
+					+ " documents could not be updated. First error: "
+					+ errors.get(0));
+	}
+
+	/**
+	 * @return The number of documents waiting to be written.
+	 */
+	public synchronized int getPendingDocs() {
+		return pending.size();
+	}
+
+	/**
+	 * @return The number of documents written successfully so far.
+	 */
+	public synchronized int getDocsWritten() {
+		return docsWritten;
+	}
+
+	/**
+	 * @return The IDs of all documents that could not be updated so far.
+	 */
+	public synchronized List<Object> getFailedDocIDs() {
+		return new ArrayList<Object>(failedDocIDs);
+	}
+
+	/**
+	 * @return The error messages of all failed writes so far.
+	 */
+	public synchronized List<String> getErrors() {
+		return new ArrayList<String>(errors);
+	}
+
+	private PendingUpdate getPendingUpdate(Object docID) {
+		PendingUpdate u = pending.get(docID);
+		if (u == null) {
+			u = new PendingUpdate();
+			pending.put(docID, u);
+			if (firstPendingTime == 0)
+				firstPendingTime = System.currentTimeMillis();
+		}
+		return u;
+	}
+
+	private void checkFlush() {
+		if (pending.size() >= maxDocs)
+			flush();
+		else if (maxDelay > 0
+				&& System.currentTimeMillis() - firstPendingTime >= maxDelay)
+			flush();
+	}
+
+	/**
+	 * Sends the updates of the documents of one year as one bulk operation,
+	 * or, if some are split, one per step: the k-th bulk has the k-th update
+	 * of each document whose previous updates succeeded.
+	 *
+	 * @return The number of documents that failed.
+	 */
+	private int flushYear(BBCollection coll, List<Object> docIDs) {
+		Map<Object, List<BasicDBObject>> docUpdates = new LinkedHashMap<Object, List<BasicDBObject>>();
+		int steps = 0;
+		for (Object docID : docIDs) {
+			List<BasicDBObject> u = pending.get(docID).toUpdates();
+			docUpdates.put(docID, u);
+			steps = Math.max(steps, u.size());
+		}
+
+		Set<Object> failed = new LinkedHashSet<Object>();
+		for (int step = 0; step < steps; step++) {
+			// Request index to docID, to map errors back to documents
+			List<Object> requestDocIDs = new ArrayList<Object>();
+			List<DBObject> queries = new ArrayList<DBObject>();
+			List<DBObject> updates = new ArrayList<DBObject>();
+			for (Map.Entry<Object, List<BasicDBObject>> e : docUpdates.entrySet()) {
+				if (e.getValue().size() <= step || failed.contains(e.getKey()))
+					continue;
+				queries.add(new BasicDBObject(BlackBoard.DOC_ID, e.getKey()));
+				updates.add(e.getValue().get(step));
+				requestDocIDs.add(e.getKey());
+			}
+			if (requestDocIDs.isEmpty())
+				continue;
+
+			try {
+				Map<Integer, String> writeErrors = coll.updateEach(queries,
+						updates);
+				for (Map.Entry<Integer, String> err : writeErrors.entrySet()) {
+					Object docID = requestDocIDs.get(err.getKey());
+					if (failed.add(docID)) {
+						failedDocIDs.add(docID);
+						errors.add(docID + ": " + err.getValue());
+					}
+				}
+			} catch (Exception e) {
+				// Whole bulk lost
+				for (Object docID : requestDocIDs)
+					if (failed.add(docID))
+						failedDocIDs.add(docID);
+				errors.add(coll.getName() + ": " + e.getMessage());
+			}
+		}
+
+		docsWritten += docIDs.size() - failed.size();
+		return failed.size();
+	}
+}
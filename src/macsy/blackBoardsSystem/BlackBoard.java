@@ -11,8 +11,6 @@ import org.bson.types.ObjectId;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
 import com.mongodb.DB;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.WriteConcern;
 
@@ -39,18 +37,19 @@ public class BlackBoard {
 	//	public boolean DB_WriteConcern = true; 
 	boolean adminMode = false;
 
-	DB mongo_db = null;
+	BBStorage storage = null;
 	String BB_NAME = null;	//The name of the BB / or the BB prefix if BB is splitted by year.
 
-	//YEar to DBCollection or 0 for single Collection Blackboard
-	Map<Integer,DBCollection> collDocs = null;
-	//	DBCollection collDocs = null;	//Assumes one Collection for documents.
+	//YEar to BBCollection or 0 for single Collection Blackboard
+	Map<Integer,BBCollection> collDocs = null;
+	//	BBCollection collDocs = null;	//Assumes one Collection for documents.
 
 	public final static String DOC_ID = "_id";
 	public final static String DOC_TAGS = "Tg"; //binary tags
 	final static String DOC_FOR_TAGS = "FOR"; //binary control tags
 
-	DBCollection collTags = null;
+	BBCollection collTags = null;
+	BBTagCatalog tagCatalog = null;	//In-memory copy of collTags
 	final static String TAG_ID = "_id"; 	// 	"Tag ID"
 	final static String TAG_NAME = "Nm"; 	// 	"Tag Name
 
@@ -77,7 +76,7 @@ public class BlackBoard {
 	 */	
 	final static String CONTROL_TAGS_PREFIX2 = 	"POST>";
 
-	DBCollection collCounter = null;
+	BBCollection collCounter = null;
 	static final String NEXT_ID = "NEXT_ID";
 	static final String BLACKBOARD_TYPE = "BLACKBOARD_TYPE";
 	static final String BLACKBOARD_TYPE_STANDARD = "STANDARD";
@@ -87,14 +86,13 @@ public class BlackBoard {
 
 	/**
 	 * Returns Black Board Type. If no BBType is set then the default "STANDARD" is set and returned.
-	 * @param mongo_db
+	 * @param storage
 	 * @param bbName
 	 * @return
 	 */
-	static String getBlackBoardType(DB mongo_db, String bbName, String defaultType)
+	static String getBlackBoardType(BBStorage storage, String bbName, String defaultType)
 	{
-		DBCollection collCounter = mongo_db.getCollection(bbName+"_COUNTER");
-		collCounter.setObjectClass(BasicDBObject.class);
+		BBCollection collCounter = storage.getCollection(bbName+"_COUNTER");
 
 		String bbType = null;
 		try
@@ -142,11 +140,21 @@ public class BlackBoard {
 
 	}
 
-	DBCollection getCollDocs()
+	BBCollection getCollDocs()
 	{
 		return collDocs.get(0);
 	}
 
+	/**
+	 * Returns the storage of a connection. The connection is a BBStorage or a MongoDB DB.
+	 */
+	static BBStorage toStorage(Object dbConnection)
+	{
+		if(dbConnection instanceof BBStorage)
+			return (BBStorage) dbConnection;
+		return new BBMongoStorage((DB) dbConnection);
+	}
+
 
 	
 	/**
@@ -192,20 +200,17 @@ public class BlackBoard {
 		System.out.println("Initialising "+ blackBoardName+ " Black Board." );
 
 		this.adminMode = adminMode;
-		this.mongo_db = (DB)dbConnection;
+		this.storage = toStorage(dbConnection);
 		this.BB_NAME  = blackBoardName;
 
-		DBCollection singleCollection = mongo_db.getCollection(BB_NAME);
-		singleCollection.setObjectClass(BasicDBObject.class);
-		collDocs = new TreeMap<Integer,DBCollection>();
+		BBCollection singleCollection = storage.getCollection(BB_NAME);
+		collDocs = new TreeMap<Integer,BBCollection>();
 		collDocs.put(0,singleCollection );
 
-		collTags = mongo_db.getCollection(BB_NAME+"_TAGS");
-		collTags.setObjectClass(BasicDBObject.class);
+		collTags = storage.getCollection(BB_NAME+"_TAGS");
+		tagCatalog = new BBTagCatalog(collTags);
 
-
-		collCounter = mongo_db.getCollection(BB_NAME+"_COUNTER");
-		collCounter.setObjectClass(BasicDBObject.class);
+		collCounter = storage.getCollection(BB_NAME+"_COUNTER");
 
 		BasicDBObject isThereNextIDQuery = new BasicDBObject();
 		isThereNextIDQuery.put( "_id", NEXT_ID);
@@ -294,7 +299,7 @@ public class BlackBoard {
 	 * @throws Exception
 	 */
 	public int getNumberOfDocs() throws Exception {
-		return (int) getCollDocs().getCount();
+		return (int) getCollDocs().count();
 	}
 
 	/**
@@ -306,7 +311,7 @@ public class BlackBoard {
 	 * @throws Exception
 	 */
 	public int getNumberOfTags() throws Exception {
-		return (int) collTags.getCount();
+		return (int) collTags.count();
 	}
 
 	//	/**
@@ -467,14 +472,7 @@ public class BlackBoard {
 	 * @throws Exception
 	 */
 	public int getTagID(String tagName) throws Exception {
-		BasicDBObject query = new BasicDBObject();
-		query.put(TAG_NAME, tagName); 
-		BasicDBObject res = (BasicDBObject) collTags.findOne(query);
-
-		if(res==null)
-			return TAG_NOT_FOUND;	
-
-		return res.getInt(TAG_ID);
+		return tagCatalog.getTagID(tagName);
 	}
 
 
@@ -486,14 +484,7 @@ public class BlackBoard {
 	 * @throws Exception
 	 */
 	public String getTagName(int tagID) throws Exception {
-		BasicDBObject query = new BasicDBObject();
-		query.put(TAG_ID, tagID); 
-		BasicDBObject res = (BasicDBObject) collTags.findOne(query);
-
-		if(res==null)
-			return null;	
-
-		return res.getString(TAG_NAME);
+		return tagCatalog.getTagName(tagID);
 	}
 
 
@@ -502,28 +493,11 @@ public class BlackBoard {
 	 * 
 	 * @param tagID The ID of the tag.
 	 * @param tagPropertyName The name of the property to get.
-	 * @return The property value, or 0 if the property is not set (and saves the 0). 
+	 * @return The property value, or -1 if the tag is not found or the property is not set. 
 	 * @throws Exception
 	 */
 	public int getTagProperty(int tagID, String tagPropertyName) throws Exception {
-		BasicDBObject query = new BasicDBObject();
-		query.put(TAG_ID, tagID); 
-		BasicDBObject res = (BasicDBObject) collTags.findOne(query);
-
-		if(res==null)
-			return -1;	//Tag not found
-
-		Object propValue = res.get(tagPropertyName);
-
-		if(propValue==null)	 { //Tag found but property not set
-			propValue = -1;
-		}
-		
-
-		//		System.out.println("TagID="+ getTagName(tagID));
-		//		System.out.println("tagProperty="+tagPropertyName);
-		//		System.out.println("Value="+propValue);
-		return (Integer)propValue;
+		return tagCatalog.getTagProperty(tagID, tagPropertyName);
 	}
 
 	/**
@@ -540,9 +514,30 @@ public class BlackBoard {
 	{
 		collTags.findAndModify(new BasicDBObject(TAG_ID,tagID), 
 				new BasicDBObject("$set", new BasicDBObject(tagPropertyName, tagPropertyValue) ));
+		tagCatalog.setProperty(tagID, tagPropertyName, tagPropertyValue);
 		return;
 	}
 
+	/**
+	 * Sets for how long tag names, IDs and properties are cached in memory.
+	 * After that time the tags are re-read from the DB, so that tags created by
+	 * other processes that share this BlackBoard become visible.
+	 * 
+	 * @param ms The time in ms. Set to 0 to always query the DB.
+	 */
+	public void setTagCacheTimeToLive(long ms)
+	{
+		tagCatalog.setTimeToLive(ms);
+	}
+
+	/**
+	 * Drops the in-memory copy of the tags. They are re-read from the DB on next access.
+	 */
+	public void refreshTagCache()
+	{
+		tagCatalog.invalidate();
+	}
+
 
 
 
@@ -652,13 +647,13 @@ public class BlackBoard {
 
 		if(resSize!=0)
 		{
-			for(DBCursor cur = getCollDocs().find(query, new BasicDBObject().append(DOC_ID,"1") ).limit(resSize); cur.hasNext(); )
+			for(BBCursor cur = getCollDocs().find(query, new BasicDBObject().append(DOC_ID,"1") ).limit(resSize); cur.hasNext(); )
 				res.add(  ((BasicDBObject)cur.next()).get(DOC_ID)  );
 
 		}
 		else
 		{
-			for(DBCursor cur = getCollDocs().find(query, new BasicDBObject().append(DOC_ID,"1") ); cur.hasNext(); )
+			for(BBCursor cur = getCollDocs().find(query, new BasicDBObject().append(DOC_ID,"1") ); cur.hasNext(); )
 				res.add(  ((BasicDBObject)cur.next()).get(DOC_ID)  );
 		}
 
@@ -700,7 +695,7 @@ public class BlackBoard {
 	 */
 	public synchronized int insertNewTag(String tagName) throws Exception 
 	{
-		Integer tagID = getTagID(tagName);
+		Integer tagID = tagCatalog.findTagID(tagName);	//Not a cached miss; another process may have added it
 		if(tagID!=TAG_NOT_FOUND)	//Tag
 			throw new Exception("Tag :"+tagName +" already exists.");
 
@@ -713,6 +708,7 @@ public class BlackBoard {
 		doc.put(TAG_NAME, tagName );
 
 		collTags.insert(doc);
+		tagCatalog.put(doc);
 
 		if(tagName.startsWith(CONTROL_TAGS_PREFIX) || tagName.startsWith(CONTROL_TAGS_PREFIX2))
 			setTagProperty(tagID, TAG_PROPERTY_CONTROL, 1 );
@@ -756,6 +752,7 @@ public class BlackBoard {
 		doc.put(TAG_NAME, tagName );
 
 		collTags.insert(doc);
+		tagCatalog.put(doc);
 
 		if(tagName.startsWith(CONTROL_TAGS_PREFIX) || tagName.startsWith(CONTROL_TAGS_PREFIX2))
 		{
@@ -803,6 +800,8 @@ public class BlackBoard {
 		}
 
 		collTags.insert(tags);
+		for(DBObject tag : tags)
+			tagCatalog.put(tag);
 
 		//UPDATE NEXT TAG ID
 		DBObject c = collCounter.findOne( new BasicDBObject("_id",NEXT_ID) );
@@ -824,7 +823,7 @@ public class BlackBoard {
 
 		BasicDBObject query = new BasicDBObject();
 
-		for(DBCursor cur = getCollDocs().find(query, new BasicDBObject().append(DOC_ID,"1") );
+		for(BBCursor cur = getCollDocs().find(query, new BasicDBObject().append(DOC_ID,"1") );
 				cur.hasNext(); )
 			res.add(  cur.next().get(DOC_ID)  );			
 
@@ -838,10 +837,42 @@ public class BlackBoard {
 	 */
 	public BBDocSet getAllDocs()  throws Exception
 	{
-		DBCursor cur = getCollDocs().find();
+		BBCursor cur = getCollDocs().find();
 		return new BBDocSet(cur);
 	}
 
+	/**
+	 * Returns all docs in the BlackBoard, with only the specified fields.
+	 * 
+	 * @param returnFields The fields to read. ID and tags are always read. Set to null to read all.
+	 * @return A BBDocSet with all docs.
+	 */
+	public BBDocSet getAllDocs(List<String> returnFields)  throws Exception
+	{
+		BBCursor cur = getCollDocs().find(new BasicDBObject(), getProjection(returnFields));
+		return new BBDocSet(cur).setLoadedFields(returnFields);
+	}
+
+	/**
+	 * Returns the projection that reads only the specified fields plus the ID and the tags.
+	 * 
+	 * @param returnFields The names of the fields, or null for all fields.
+	 * @return The projection or null if all fields should be read.
+	 */
+	static BasicDBObject getProjection(List<String> returnFields)
+	{
+		if(returnFields==null)
+			return null;
+
+		BasicDBObject keys = new BasicDBObject();
+		keys.put(DOC_ID, 1);
+		keys.put(DOC_TAGS, 1);
+		keys.put(DOC_FOR_TAGS, 1);
+		for(String f : returnFields)
+			keys.put(f, 1);
+		return keys;
+	}
+
 
 
 	/**
@@ -858,7 +889,7 @@ public class BlackBoard {
 
 		//	BasicDBObject query = new BasicDBObject();
 
-		for(DBCursor cur = collTags.find().limit(1000);	cur.hasNext(); )
+		for(BBCursor cur = collTags.find().limit(1000);	cur.hasNext(); )
 			res.add( ((BasicDBObject) cur.next()).getInt(TAG_ID)  );			
 
 		return res;
@@ -878,7 +909,7 @@ public class BlackBoard {
 
 		//BasicDBObject query = new BasicDBObject();
 
-		for(DBCursor cur = collTags.find().limit(1000); cur.hasNext(); )
+		for(BBCursor cur = collTags.find().limit(1000); cur.hasNext(); )
 			res.add( ((BasicDBObject) cur.next()).getString(TAG_NAME)  );			
 
 		return res;
@@ -892,7 +923,7 @@ public class BlackBoard {
 	 */
 	public BBDocTagSet getAllTags()  throws Exception
 	{
-		DBCursor cur = collTags.find();
+		BBCursor cur = collTags.find();
 
 		return new BBDocTagSet(cur);
 	}
@@ -1190,13 +1221,13 @@ public class BlackBoard {
 
 		List<Object> res = new LinkedList<Object>();
 		if(maxDocs>0)
-			for(DBCursor cur = getCollDocs().find(query, return_field).limit( maxDocs ) ;	cur.hasNext(); ) 
+			for(BBCursor cur = getCollDocs().find(query, return_field).limit( maxDocs ) ;	cur.hasNext(); ) 
 			{
 				Object id =   ((BasicDBObject) cur.next()).get(DOC_ID); 
 				res.add( id );
 			}
 		else
-			for(DBCursor cur = getCollDocs().find(query, return_field) ;	cur.hasNext(); ) 
+			for(BBCursor cur = getCollDocs().find(query, return_field) ;	cur.hasNext(); ) 
 			{
 				Object id =   ((BasicDBObject) cur.next()).get(DOC_ID); 
 				res.add( id );
@@ -1240,7 +1271,7 @@ public class BlackBoard {
 
 		
 		
-		DBCursor cur;
+		BBCursor cur;
 		if(maxDocs>0) 
 			cur = getCollDocs().find(query, return_field).limit( maxDocs ); 
 		else {
@@ -1270,6 +1301,26 @@ public class BlackBoard {
 			int maxDocs
 			) throws Exception 
 			{	
+		return findDocsByTagsSet(withTags, withoutTags, maxDocs, null);
+			}
+
+	/**
+	 * Searches for documents that carry the specified tags and reads only the specified fields.
+	 * 
+	 * @param withTags Return articles that have all specified tags.
+	 * @param withoutTags  Return articles that have none of the specified tags.
+	 * @param maxDocs Set to zero to get all. 
+	 * @param returnFields The fields to read. ID and tags are always read. Set to null to read all.
+	 * @return A BBDocSet with the results.
+	 * @throws Exception 
+	 */
+	public BBDocSet findDocsByTagsSet(	
+			List<Integer> withTags,
+			List<Integer> withoutTags,
+			int maxDocs,
+			List<String> returnFields
+			) throws Exception 
+			{	
 		BasicDBObject query = new  BasicDBObject();
 		if(withTags!=null)
 		{
@@ -1288,15 +1339,13 @@ public class BlackBoard {
 
 		//System.out.println( query );
 
-		DBCursor cur = null;
+		BBCursor cur = null;
 		if(maxDocs>0)
-			cur = getCollDocs().find(query).limit( maxDocs );
+			cur = getCollDocs().find(query, getProjection(returnFields)).limit( maxDocs );
 		else
-			cur = getCollDocs().find(query);
-		
-		System.out.println( cur );
+			cur = getCollDocs().find(query, getProjection(returnFields));
 
-		return new BBDocSet(cur);
+		return new BBDocSet(cur).setLoadedFields(returnFields);
 			}
 
 	/**
@@ -1324,7 +1373,7 @@ public class BlackBoard {
 		System.out.println("DONE");
 
 
-		DBCursor cur = null;
+		BBCursor cur = null;
 		if(maxDocs>0)
 			cur = getCollDocs().find().sort(new BasicDBObject( fieldName , -1)).limit( maxDocs );
 		else
@@ -1370,7 +1419,7 @@ public class BlackBoard {
 
 		query.put(DOC_TAGS,new BasicDBObject("$all", withTagIDs));
 
-		DBCursor cur = null;
+		BBCursor cur = null;
 		if(maxDocs>0)
 			cur = getCollDocs().find(query).sort(new BasicDBObject( fieldName , -1)).limit( maxDocs );
 		else
@@ -1543,13 +1592,13 @@ public class BlackBoard {
 	
 		if(resSize!=0)
 		{
-			DBCursor cur = getCollDocs().find(query).limit(resSize);
+			BBCursor cur = getCollDocs().find(query).limit(resSize);
 			return new BBDocSet(cur);
 
 		}
 		else
 		{
-			DBCursor cur = getCollDocs().find(query);
+			BBCursor cur = getCollDocs().find(query);
 			return new BBDocSet(cur);
 		}
 	}
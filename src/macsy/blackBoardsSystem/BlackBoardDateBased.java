@@ -2,21 +2,24 @@ package macsy.blackBoardsSystem;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.bson.types.ObjectId;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
 import com.mongodb.DB;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
-import com.mongodb.MapReduceCommand;
 import com.mongodb.MongoException;
 import com.mongodb.WriteConcern;
 
@@ -41,6 +44,22 @@ public class BlackBoardDateBased extends BlackBoard {
 	static final int ORDER_RECENT_FIRST = -1;
 	static final int ORDER_OLD_FIRST = 1;
 
+	// Time buckets of histograms. Equal to the Calendar field each one steps.
+	// BUCKET_NONE is a single bucket for the whole period.
+	public static final int BUCKET_NONE = 0;
+	public static final int BUCKET_HOUR = Calendar.HOUR_OF_DAY;
+	public static final int BUCKET_DAY = Calendar.DATE;
+	public static final int BUCKET_WEEK = Calendar.WEEK_OF_YEAR;
+
+	// Number of year collections queried at the same time. 1 = one by one.
+	int partitionThreads = 1;
+	// If true, parallel results keep the order of the serial ones.
+	boolean partitionOrdered = true;
+	// Used for parallel counts. Created on first use.
+	ExecutorService partitionExecutor = null;
+	// Number of runPerYear() calls in progress.
+	private int partitionTasksRunning = 0;
+
 	/**
 	 * Returns the collection of the specified year. It returns a collection
 	 * object even if data do not exist at that year (this is useful in order to
@@ -50,17 +69,121 @@ public class BlackBoardDateBased extends BlackBoard {
 	 *            The year of interest.
 	 * @return A collection of the data for the specified year.
 	 */
-	protected DBCollection getCollDocs(int yearOfInterest) {
-		DBCollection coll = collDocs.get(yearOfInterest);
+	protected synchronized BBCollection getCollDocs(int yearOfInterest) {
+		BBCollection coll = collDocs.get(yearOfInterest);
 		if (coll == null) {
 			// Creates a new collection year
-			coll = mongo_db.getCollection(BB_NAME + "_" + yearOfInterest);
-			coll.setObjectClass(BasicDBObject.class);
+			coll = storage.getCollection(BB_NAME + "_" + yearOfInterest);
 			collDocs.put(yearOfInterest, coll);
 		}
 		return coll;
 	}
 
+	/**
+	 * Sets how many year collections are queried at the same time by multi-year
+	 * queries (findDocsByFieldsTagsSet, findDocsByTagsSet, findDocIDsByTags,
+	 * getAllDocs) and counts (countDocs).
+	 * 
+	 * @param threads
+	 *            The max number of year collections queried in parallel. Set
+	 *            to 1 to query them one by one (default).
+	 * @param ordered
+	 *            If true docs are returned year by year, in the same order as
+	 *            when querying one by one. If false docs are returned as soon
+	 *            as any year delivers them, which is faster.
+	 *
+	 * Doc sets that were already returned keep the settings they were created
+	 * with.
+	 *
+	 * @throws IllegalStateException
+	 *             If a parallel count or histogram is running.
+	 */
+	public synchronized void setPartitionParallelism(int threads,
+			boolean ordered) {
+		if (threads < 1)
+			threads = 1;
+
+		if (partitionTasksRunning > 0)
+			throw new IllegalStateException(
+					"Partition parallelism can not change while per-year tasks run");
+
+		if (partitionExecutor != null && threads != partitionThreads) {
+			partitionExecutor.shutdown();
+			partitionExecutor = null;
+		}
+		this.partitionThreads = threads;
+		this.partitionOrdered = ordered;
+	}
+
+	/**
+	 * Wraps the cursors of a multi-year query into a set, reading them in
+	 * parallel if setPartitionParallelism() was used.
+	 * 
+	 * @param cursors
+	 *            One cursor per year, in the order docs should be returned.
+	 * @param maxDocs
+	 *            The max number of docs returned by the whole set, or 0 for
+	 *            all.
+	 */
+	synchronized BBDocSet newDocSet(List<BBCursor> cursors, int maxDocs) {
+		if (partitionThreads > 1 && cursors.size() > 1)
+			return new BBPartitionedDocSet(cursors, partitionThreads,
+					partitionOrdered, maxDocs);
+		return new BBDocSet(cursors, maxDocs);
+	}
+
+	/**
+	 * Runs the per-year counts and returns their sum. They run in parallel if
+	 * setPartitionParallelism() was used.
+	 */
+	long sumCounts(List<Callable<Long>> counts) throws Exception {
+		long total = 0;
+		for (Long c : runPerYear(counts))
+			total += c;
+		return total;
+	}
+
+	/**
+	 * Runs per-year tasks and returns their results in the same order. They
+	 * run in parallel if setPartitionParallelism() was used.
+	 */
+	<T> List<T> runPerYear(List<Callable<T>> tasks) throws Exception {
+		List<T> results = new ArrayList<T>();
+
+		ExecutorService executor = null;
+		synchronized (this) {
+			if (partitionThreads > 1 && tasks.size() > 1) {
+				if (partitionExecutor == null)
+					partitionExecutor = Executors.newFixedThreadPool(
+							partitionThreads,
+							BBPartitionedDocSet.DAEMON_THREADS);
+				executor = partitionExecutor;
+				partitionTasksRunning++; // The executor stays until we end
+			}
+		}
+
+		if (executor == null) {
+			for (Callable<T> t : tasks)
+				results.add(t.call());
+			return results;
+		}
+
+		try {
+			List<Future<T>> futures = executor.invokeAll(tasks);
+			for (Future<T> f : futures)
+				results.add(f.get());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		} finally {
+			synchronized (this) {
+				partitionTasksRunning--;
+			}
+		}
+		return results;
+	}
+
 	/**
 	 * Constructor
 	 * 
@@ -71,24 +194,35 @@ public class BlackBoardDateBased extends BlackBoard {
 	 */
 	public BlackBoardDateBased(DB dbConnection, String blackBoardName,
 			boolean adminMode) throws Exception {
+		this(new BBMongoStorage(dbConnection), blackBoardName, adminMode);
+	}
+
+	/**
+	 * Constructor on any storage, e.g. a BBMemoryStorage.
+	 * 
+	 * @param storage
+	 * @param blackBoardName
+	 * @param adminMode
+	 * @throws Exception
+	 */
+	public BlackBoardDateBased(BBStorage storage, String blackBoardName,
+			boolean adminMode) throws Exception {
 		// super(mongo_database, blackBoardName, adminMode);
 
 		System.out.println("Initialising " + blackBoardName + " Black Board.");
 
 		this.adminMode = adminMode;
-		this.mongo_db = (DB) dbConnection;
+		this.storage = storage;
 		this.BB_NAME = blackBoardName;
 
-		DBCollection singleCollection = mongo_db.getCollection(BB_NAME);
-		singleCollection.setObjectClass(BasicDBObject.class);
-		collDocs = new TreeMap<Integer, DBCollection>();
+		BBCollection singleCollection = storage.getCollection(BB_NAME);
+		collDocs = new TreeMap<Integer, BBCollection>();
 		collDocs.put(0, singleCollection);
 
-		collTags = mongo_db.getCollection(BB_NAME + "_TAGS");
-		collTags.setObjectClass(BasicDBObject.class);
+		collTags = storage.getCollection(BB_NAME + "_TAGS");
+		tagCatalog = new BBTagCatalog(collTags);
 
-		collCounter = mongo_db.getCollection(BB_NAME + "_COUNTER");
-		collCounter.setObjectClass(BasicDBObject.class);
+		collCounter = storage.getCollection(BB_NAME + "_COUNTER");
 
 		// /////////////////////////////////
 		BasicDBObject isThereNextIDQuery = new BasicDBObject();
@@ -138,7 +272,7 @@ public class BlackBoardDateBased extends BlackBoard {
 		// bef));
 
 		// Check how many years are really in DB
-		Set<String> existingDBs = mongo_db.getCollectionNames();
+		Set<String> existingDBs = storage.getCollectionNames();
 		for (String coll_n : existingDBs) {
 			if (coll_n.startsWith(BB_NAME)) {
 				String suffix = coll_n.split("_")[1];
@@ -373,7 +507,7 @@ public class BlackBoardDateBased extends BlackBoard {
 	 */
 	public final Date getMinDocDate() throws Exception {
 
-		DBCursor cur = getCollDocs(MIN_ARTICLES_YEAR_IN_DB).find()
+		BBCursor cur = getCollDocs(MIN_ARTICLES_YEAR_IN_DB).find()
 				.sort(new BasicDBObject("_id", 1)).limit(1);
 
 		if (cur == null)
@@ -395,7 +529,7 @@ public class BlackBoardDateBased extends BlackBoard {
 	 */
 	public final Date getMaxDocDate() throws Exception {
 
-		DBCursor cur = getCollDocs(MAX_ARTICLES_YEAR_IN_DB).find()
+		BBCursor cur = getCollDocs(MAX_ARTICLES_YEAR_IN_DB).find()
 				.sort(new BasicDBObject("_id", -1)).limit(1);
 
 		if (cur == null)
@@ -651,6 +785,31 @@ public class BlackBoardDateBased extends BlackBoard {
 			addTagToDoc(docID, t);
 	}
 
+	/**
+	 * Returns a new batch for annotating many documents with few round trips
+	 * to the DB. See BBWriteBatch.
+	 *
+	 * @param maxDocs
+	 *            Number of documents after which the batch is flushed.
+	 * @param maxDelay
+	 *            Time in ms after which pending annotations are flushed. Set to
+	 *            0 to flush only by size.
+	 * @return A new, empty, BBWriteBatch.
+	 */
+	public BBWriteBatch createWriteBatch(int maxDocs, long maxDelay) {
+		return new BBWriteBatch(this, maxDocs, maxDelay);
+	}
+
+	/**
+	 * Returns a new batch with the default flush size and delay.
+	 *
+	 * @return A new, empty, BBWriteBatch.
+	 */
+	public BBWriteBatch createWriteBatch() {
+		return createWriteBatch(BBWriteBatch.DEFAULT_MAX_DOCS,
+				BBWriteBatch.DEFAULT_MAX_DELAY);
+	}
+
 	/**
 	 * Returns a set of docs within selected time period, and with fieldName
 	 * having a specific value.
@@ -699,7 +858,7 @@ public class BlackBoardDateBased extends BlackBoard {
 
 		query.put(fieldName, fieldValue);
 		System.out.println(query);
-		DBCursor res = getCollDocs(YearOfInterest).find(query);
+		BBCursor res = getCollDocs(YearOfInterest).find(query);
 
 		return new BBDocSet(res);
 	}
@@ -738,13 +897,13 @@ public class BlackBoardDateBased extends BlackBoard {
 		BasicDBObject return_field = new BasicDBObject().append(DOC_ID, 1);
 
 		// RESULTS
-		List<DBCursor> cursors = new ArrayList<DBCursor>();
+		List<BBCursor> cursors = new ArrayList<BBCursor>();
 
 		for (int year = MAX_ARTICLES_YEAR_IN_DB; year >= MIN_ARTICLES_YEAR_IN_DB; year--)// Most
 																							// recent
 																							// first
 		{
-			DBCursor cur;
+			BBCursor cur;
 			if (maxDocs > 0)
 				cur = getCollDocs(year).find(query, return_field)
 						.limit(maxDocs);
@@ -753,7 +912,7 @@ public class BlackBoardDateBased extends BlackBoard {
 			cursors.add(cur);
 		}
 
-		return new BBDocSet(cursors);
+		return newDocSet(cursors, maxDocs);
 	}
 
 	// /**
@@ -795,7 +954,7 @@ public class BlackBoardDateBased extends BlackBoard {
 	// throws Exception
 	// {
 
-	// List<DBCursor> results = new LinkedList<DBCursor>();
+	// List<BBCursor> results = new LinkedList<BBCursor>();
 
 	// //if dates are not specified
 	// if((fromDate==null) && (toDate==null))
@@ -808,7 +967,7 @@ public class BlackBoardDateBased extends BlackBoard {
 
 	// for(int year = toYear; year>=fromYear; year--)
 	// {
-	// DBCursor res = findRecentDocsByFieldsTagsSetFullYear(year,
+	// BBCursor res = findRecentDocsByFieldsTagsSetFullYear(year,
 	// withFields,withoutFields, withTags, withoutTags,maxArticles );
 	// results.add(res);
 	// }
@@ -821,7 +980,7 @@ public class BlackBoardDateBased extends BlackBoard {
 	// //Dates within same year
 	// if(fromYear == toYear)
 	// {
-	// DBCursor r = findRecentDocsByFieldsTagsSetSingleYear( fromDate,
+	// BBCursor r = findRecentDocsByFieldsTagsSetSingleYear( fromDate,
 	// toDate,withFields, withoutFields,
 	// withTags, withoutTags,maxArticles );
 
@@ -895,15 +1054,96 @@ public class BlackBoardDateBased extends BlackBoard {
 	 *            A list of type List<Integer> with the IDs of the tags that
 	 *            articles should not carry.
 	 * @param maxArticles
-	 *            The maximum number of articles to return (Upper limit =
-	 *            MAX_ARICLEIDS_IN_RESULT_LIST).
+	 *            The maximum number of articles to return in total, or 0 for
+	 *            all.
 	 * @return List<Object> with IDs of the articles that match criteria.
 	 */
 	public BBDocSet findDocsByFieldsTagsSet(Date fromDate, Date toDate,
 			List<String> withFields, List<String> withoutFields,
 			List<Integer> withTags, List<Integer> withoutTags, int maxArticles)
 			throws Exception {
-		List<DBCursor> results = new LinkedList<DBCursor>();
+		return findDocsByFieldsTagsSet(fromDate, toDate, withFields,
+				withoutFields, withTags, withoutTags, maxArticles, null);
+	}
+
+	/**
+	 * As findDocsByFieldsTagsSet() but reads only the specified fields of the
+	 * docs, plus their ID and tags. Use it to avoid transferring large fields
+	 * (e.g. the text of articles) that are not needed.
+	 * 
+	 * @param returnFields
+	 *            The names of the fields to read. Set to null to read whole
+	 *            docs.
+	 * @return A BBDocSet with the results.
+	 * @throws Exception
+	 */
+	public BBDocSet findDocsByFieldsTagsSet(Date fromDate, Date toDate,
+			List<String> withFields, List<String> withoutFields,
+			List<Integer> withTags, List<Integer> withoutTags,
+			int maxArticles, List<String> returnFields) throws Exception {
+		List<BBCursor> results = findDocsByFieldsTagsCursors(fromDate, toDate,
+				withFields, withoutFields, withTags, withoutTags, maxArticles,
+				ORDER_NONE, getProjection(returnFields));
+
+		if (results.size() == 1)
+			return new BBDocSet(results.get(0)).setLoadedFields(returnFields);
+
+		return newDocSet(results, maxArticles).setLoadedFields(returnFields);
+	}
+
+	/**
+	 * As findDocsByFieldsTagsSet() but the docs are sorted by date (ID) over
+	 * the whole period, not only within each year.
+	 * 
+	 * Years are queried one by one in the requested order and only as long as
+	 * fewer than maxArticles docs have been returned, so asking for the latest
+	 * N docs reads at most N docs, usually from the most recent year only.
+	 * 
+	 * @param fromDate
+	 *            The start of the period of interest (null for the first doc).
+	 * @param toDate
+	 *            The end of the period of interest (null for the last doc).
+	 * @param withFields
+	 *            Fields that the docs should have.
+	 * @param withoutFields
+	 *            Fields that the docs should not have.
+	 * @param withTags
+	 *            Tags that the docs should carry.
+	 * @param withoutTags
+	 *            Tags that the docs should not carry.
+	 * @param maxArticles
+	 *            The maximum number of docs to return in total, or 0 for all.
+	 * @param recentFirst
+	 *            True to return the most recent docs first, false for the
+	 *            oldest first.
+	 * @return A BBDocSet with the results.
+	 * @throws Exception
+	 */
+	public BBDocSet findDocsByFieldsTagsSet(Date fromDate, Date toDate,
+			List<String> withFields, List<String> withoutFields,
+			List<Integer> withTags, List<Integer> withoutTags,
+			int maxArticles, boolean recentFirst) throws Exception {
+		List<BBCursor> results = findDocsByFieldsTagsCursors(fromDate, toDate,
+				withFields, withoutFields, withTags, withoutTags, maxArticles,
+				recentFirst ? ORDER_RECENT_FIRST : ORDER_OLD_FIRST, null);
+
+		// Lazy, one year after the other; parallel reading would query
+		// years that are not needed.
+		return new BBDocSet(results, maxArticles);
+	}
+
+	/**
+	 * Builds one cursor per year for the specified period. Cursors are in
+	 * chronological order, or most recent year first if order is
+	 * ORDER_RECENT_FIRST. Each cursor is limited to maxArticles and reads
+	 * only returnFields (all fields if null).
+	 */
+	List<BBCursor> findDocsByFieldsTagsCursors(Date fromDate, Date toDate,
+			List<String> withFields, List<String> withoutFields,
+			List<Integer> withTags, List<Integer> withoutTags,
+			int maxArticles, int order, DBObject returnFields)
+			throws Exception {
+		List<BBCursor> results = new LinkedList<BBCursor>();
 
 		// if dates are not specified
 		if ((fromDate == null) && (toDate == null)) {
@@ -914,24 +1154,29 @@ public class BlackBoardDateBased extends BlackBoard {
 			int toYear = getYearOfInterestByDate(toDate);
 
 			for (int year = fromYear; year <= toYear; year++) {
-				DBCursor res = findDocsByFieldsTagsSetFullYear(year,
+				BBCursor res = findDocsByFieldsTagsSetFullYear(year,
 						withFields, withoutFields, withTags, withoutTags,
-						maxArticles, ORDER_NONE);
+						maxArticles, order, returnFields);
 
 				results.add(res);
 			}
 		} else // There are dates
 		{
+			if (fromDate == null)
+				fromDate = getMinDocDate();
+			if (toDate == null) // Include the last doc
+				toDate = new Date(getMaxDocDate().getTime() + 1000);
+
 			int fromYear = getYearOfInterestByDate(fromDate);
 			int toYear = getYearOfInterestByDate(toDate);
 
 			if (fromYear == toYear) {
-				DBCursor r = findDocsByFieldsTagsSetSingleYear(fromDate,
+				BBCursor r = findDocsByFieldsTagsSetSingleYear(fromDate,
 						toDate, withFields, withoutFields, withTags,
-						withoutTags, maxArticles, ORDER_NONE);
+						withoutTags, maxArticles, order, returnFields);
 
-				// return returnType.cast(new BBDocSet(r) );
-				return new BBDocSet(r);
+				results.add(r);
+				return results;
 			}
 
 			// 3phases:
@@ -942,13 +1187,13 @@ public class BlackBoardDateBased extends BlackBoard {
 
 			results.add(findDocsByFieldsTagsSetSingleYear(fromDate,
 					endFirstYear, withFields, withoutFields, withTags,
-					withoutTags, maxArticles, ORDER_NONE));
+					withoutTags, maxArticles, order, returnFields));
 
 			// B) sum all full years
 			for (int year = fromYear + 1; year <= toYear - 1; year++) {
 				results.add(findDocsByFieldsTagsSetFullYear(year, withFields,
 						withoutFields, withTags, withoutTags, maxArticles,
-						ORDER_NONE));
+						order, returnFields));
 			}
 
 			// C) rest of year
@@ -957,11 +1202,14 @@ public class BlackBoardDateBased extends BlackBoard {
 
 			results.add(findDocsByFieldsTagsSetSingleYear(startFinalYear,
 					toDate, withFields, withoutFields, withTags, withoutTags,
-					maxArticles, ORDER_NONE));
+					maxArticles, order, returnFields));
 
 		}
 
-		return new BBDocSet(results);
+		if (order == ORDER_RECENT_FIRST)
+			Collections.reverse(results);
+
+		return results;
 	}
 
 	/**
@@ -987,6 +1235,22 @@ public class BlackBoardDateBased extends BlackBoard {
 				withoutTags, maxDocs);
 	}
 
+	/**
+	 * As findDocsByTagsSet() but reads only the specified fields of the docs,
+	 * plus their ID and tags.
+	 * 
+	 * @param returnFields
+	 *            The names of the fields to read. Set to null to read whole
+	 *            docs.
+	 */
+	@Override
+	public BBDocSet findDocsByTagsSet(List<Integer> withTags,
+			List<Integer> withoutTags, int maxDocs, List<String> returnFields)
+			throws Exception {
+		return this.findDocsByFieldsTagsSet(null, null, null, null, withTags,
+				withoutTags, maxDocs, returnFields);
+	}
+
 	/**
 	 * Use when dates are from the same year.
 	 * 
@@ -997,13 +1261,16 @@ public class BlackBoardDateBased extends BlackBoard {
 	 * @param withTags
 	 * @param withoutTags
 	 * @param maxArticles
+	 * @param order
+	 * @param returnFields
+	 *            The projection or null for all fields.
 	 * @return
 	 * @throws Exception
 	 */
-	DBCursor findDocsByFieldsTagsSetSingleYear(Date fromDate, Date toDate,
+	BBCursor findDocsByFieldsTagsSetSingleYear(Date fromDate, Date toDate,
 			List<String> withFields, List<String> withoutFields,
 			List<Integer> withTags, List<Integer> withoutTags, int maxArticles,
-			int order) throws Exception {
+			int order, DBObject returnFields) throws Exception {
 		if (withTags != null && withoutTags != null)
 			throw new Exception(
 					"findDocsByFieldsTagsSetSingleYear() should select either withTags or withoutTags");
@@ -1079,29 +1346,29 @@ public class BlackBoardDateBased extends BlackBoard {
 
 		// System.out.println(query);
 
-		DBCursor cursor = null;
+		BBCursor cursor = null;
 
 		if (order == ORDER_NONE) {
 			if (maxArticles > 0)
-				cursor = getCollDocs(YearOfInterest).find(query).limit(
+				cursor = getCollDocs(YearOfInterest).find(query, returnFields).limit(
 						maxArticles);
 			else
-				cursor = getCollDocs(YearOfInterest).find(query);
+				cursor = getCollDocs(YearOfInterest).find(query, returnFields);
 		} else if ((order == ORDER_RECENT_FIRST) || (order == ORDER_OLD_FIRST)) // recent
 		{
 			if (maxArticles > 0)
-				cursor = getCollDocs(YearOfInterest).find(query)
+				cursor = getCollDocs(YearOfInterest).find(query, returnFields)
 						.sort(new BasicDBObject(DOC_ID, order))
 						.limit(maxArticles);
 			else
-				cursor = getCollDocs(YearOfInterest).find(query).sort(
+				cursor = getCollDocs(YearOfInterest).find(query, returnFields).sort(
 						new BasicDBObject(DOC_ID, order));
 		}
 
 		return cursor;
 	}
 
-	DBCursor findDocsByDatesSingleYearOnlyTags(Date fromDate, Date toDate,
+	BBCursor findDocsByDatesSingleYearOnlyTags(Date fromDate, Date toDate,
 			int maxArticles) throws Exception {
 		ObjectId fromID = null;
 		ObjectId toID = null;
@@ -1132,16 +1399,17 @@ public class BlackBoardDateBased extends BlackBoard {
 		else if (toID != null)
 			query.put(DOC_ID, new BasicDBObject("$lt", toID));
 
-		DBCursor cursor = null;
+		BBCursor cursor = null;
 
 		BasicDBObject results = new BasicDBObject();
 		results.put(DOC_TAGS, 1);
 		results.put(DOC_FOR_TAGS, 1);
 
 		if (maxArticles > 0)
-			cursor = getCollDocs(YearOfInterest).find(query).limit(maxArticles);
+			cursor = getCollDocs(YearOfInterest).find(query, results).limit(
+					maxArticles);
 		else
-			cursor = getCollDocs(YearOfInterest).find(query);
+			cursor = getCollDocs(YearOfInterest).find(query, results);
 
 		return cursor;
 	}
@@ -1157,13 +1425,15 @@ public class BlackBoardDateBased extends BlackBoard {
 	 * @param maxArticles
 	 * @param order
 	 *            : 0 = no order / -1 recent first / 1 old first
+	 * @param returnFields
+	 *            The projection or null for all fields.
 	 * @return
 	 * @throws Exception
 	 */
-	DBCursor findDocsByFieldsTagsSetFullYear(int yearOfInterest,
+	BBCursor findDocsByFieldsTagsSetFullYear(int yearOfInterest,
 			List<String> withFields, List<String> withoutFields,
 			List<Integer> withTags, List<Integer> withoutTags, int maxArticles,
-			int order) throws Exception {
+			int order, DBObject returnFields) throws Exception {
 		if (withTags != null && withoutTags != null)
 			throw new Exception(
 					"findArticlesByFieldsTags() should select either withTags or withoutTags");
@@ -1210,21 +1480,21 @@ public class BlackBoardDateBased extends BlackBoard {
 				query.put(DOC_TAGS, new BasicDBObject("$nin", withoutTags));
 		}
 
-		DBCursor cursor = null;
+		BBCursor cursor = null;
 		if (order == ORDER_NONE) {
 			if (maxArticles > 0)
-				cursor = getCollDocs(yearOfInterest).find(query).limit(
+				cursor = getCollDocs(yearOfInterest).find(query, returnFields).limit(
 						maxArticles);
 			else
-				cursor = getCollDocs(yearOfInterest).find(query);
+				cursor = getCollDocs(yearOfInterest).find(query, returnFields);
 		} else if ((order == ORDER_RECENT_FIRST) || (order == ORDER_OLD_FIRST)) // recent
 		{
 			if (maxArticles > 0)
-				cursor = getCollDocs(yearOfInterest).find(query)
+				cursor = getCollDocs(yearOfInterest).find(query, returnFields)
 						.sort(new BasicDBObject(DOC_ID, order))
 						.limit(maxArticles);
 			else
-				cursor = getCollDocs(yearOfInterest).find(query).sort(
+				cursor = getCollDocs(yearOfInterest).find(query, returnFields).sort(
 						new BasicDBObject(DOC_ID, order));
 		} else
 			throw new Exception("Wrong order");
@@ -1234,7 +1504,8 @@ public class BlackBoardDateBased extends BlackBoard {
 
 	/**
 	 * Finds docs published within time period, that have specific sets of tags
-	 * and fields. The results are sorted and newest docs are first.
+	 * and fields. The results are sorted and newest docs are first, over all
+	 * years of the period.
 	 * 
 	 * 
 	 * @param fromDate
@@ -1244,8 +1515,7 @@ public class BlackBoardDateBased extends BlackBoard {
 	 * @param withTags
 	 * @param withoutTags
 	 * @param maxArticles
-	 *            - Upper limit of MAX_ARICLEIDS_IN_RESULT_LIST articles per
-	 *            call.
+	 *            - The maximum number of docs to return, or 0 for all.
 	 * @return A list of article IDs.
 	 * @throws Exception
 	 */
@@ -1253,84 +1523,8 @@ public class BlackBoardDateBased extends BlackBoard {
 			List<String> withFields, List<String> withoutFields,
 			List<Integer> withTags, List<Integer> withoutTags, int maxArticles)
 			throws Exception {
-		if (withTags != null && withoutTags != null)
-			throw new Exception(
-					"findArticlesByFieldsTags() should select either withTags or withoutTags");
-
-		ObjectId fromID = null;
-		ObjectId toID = null;
-
-		if (fromDate != null)
-			fromID = new ObjectId(fromDate);
-		if (toDate != null)
-			toID = new ObjectId(toDate);
-
-		BasicDBObject query = new BasicDBObject();
-
-		int YearOfInterest = -1;
-		if ((fromID != null) && (toID != null)) {
-			int fromYear = getYearOfInterestByDocID(fromID);
-			int toYear = getYearOfInterestByDocID(toID);
-			if (fromYear != toYear)
-				throw new Exception(
-						"Year field of fromDate and toDate must be equal");
-			YearOfInterest = fromYear;
-			// System.out.println("Year of interest="+YearOfInterest);
-
-			BasicDBObject range = new BasicDBObject();
-			range.put("$gte", fromID);
-			range.put("$lt", toID);
-			query.put(DOC_ID, range);
-		} else if (fromID != null)
-			query.put(DOC_ID, new BasicDBObject("$gte", fromID));
-		else if (toID != null)
-			query.put(DOC_ID, new BasicDBObject("$lt", toID));
-
-		if (withFields != null) {
-			for (int i = 0; i < withFields.size(); i++)
-				query.put(withFields.get(i), new BasicDBObject("$exists", true));
-		}
-		if (withoutFields != null) {
-			for (int i = 0; i < withoutFields.size(); i++)
-				query.put(withoutFields.get(i), new BasicDBObject("$exists",
-						false));
-		}
-		if (withTags != null) {
-			List<Integer> withTagsNormal = new LinkedList<Integer>();
-			List<Integer> withTagsFor = new LinkedList<Integer>();
-			for (int t = 0; t < withTags.size(); t++) {
-				if (getTagProperty(withTags.get(t), TAG_PROPERTY_CONTROL) == 1)
-					withTagsFor.add(withTags.get(t));
-				else
-					withTagsNormal.add(withTags.get(t));
-			}
-
-			if (withTagsFor.size() > 0)
-				query.put(DOC_FOR_TAGS, new BasicDBObject("$all", withTagsFor));
-			if (withTagsNormal.size() > 0)
-				query.put(DOC_TAGS, new BasicDBObject("$all", withTagsNormal));
-
-			// if(getTagProperty(withTags.get(0), TAG_PROPERTY_CONTROL)==1)
-			// query.put(DOC_FOR_TAGS,new BasicDBObject("$all", withTags));
-			// else
-			// query.put(DOC_TAGS,new BasicDBObject("$all", withTags));
-		}
-		if (withoutTags != null) {
-			if (getTagProperty(withoutTags.get(0), TAG_PROPERTY_CONTROL) == 1)
-				query.put(DOC_FOR_TAGS, new BasicDBObject("$nin", withoutTags));
-			else
-				query.put(DOC_TAGS, new BasicDBObject("$nin", withoutTags));
-		}
-
-		DBCursor cur;
-		if (maxArticles > 0)
-			cur = getCollDocs(YearOfInterest).find(query)
-					.sort(new BasicDBObject(DOC_ID, -1)).limit(maxArticles);
-		else
-			cur = getCollDocs(YearOfInterest).find(query).sort(
-					new BasicDBObject(DOC_ID, -1));
-
-		return new BBDocSet(cur);
+		return findDocsByFieldsTagsSet(fromDate, toDate, withFields,
+				withoutFields, withTags, withoutTags, maxArticles, true);
 	}
 
 	/**
@@ -1367,9 +1561,10 @@ public class BlackBoardDateBased extends BlackBoard {
 	 * @return The number of articles that match criteria.
 	 * @throws Exception
 	 */
-	public long countDocs(Date fromDate, Date toDate, List<Integer> withTags,
-			List<Integer> withoutTags) throws Exception {
-		long totalCount = 0;
+	public long countDocs(Date fromDate, Date toDate,
+			final List<Integer> withTags, final List<Integer> withoutTags)
+			throws Exception {
+		List<Callable<Long>> counts = new ArrayList<Callable<Long>>();
 
 		// if dates are not specified
 		if ((fromDate == null) && (toDate == null)) {
@@ -1380,7 +1575,7 @@ public class BlackBoardDateBased extends BlackBoard {
 			int toYear = getYearOfInterestByDate(toDate);
 
 			for (int year = fromYear; year <= toYear; year++)
-				totalCount += countDocsFullYear(year, withTags, withoutTags);
+				counts.add(countFullYearTask(year, withTags, withoutTags));
 		} else // There are dates
 		{
 			int fromYear = getYearOfInterestByDate(fromDate);
@@ -1396,23 +1591,43 @@ public class BlackBoardDateBased extends BlackBoard {
 			Date endFirstYear = new GregorianCalendar(fromYear, 11, 31, 23, 59,
 					59).getTime();
 
-			totalCount += countDocsWithinSingleYear(fromDate, endFirstYear,
-					withTags, withoutTags);
+			counts.add(countWithinSingleYearTask(fromDate, endFirstYear,
+					withTags, withoutTags));
 
 			// B) sum all full years
 			for (int year = fromYear + 1; year <= toYear - 1; year++) {
-				totalCount += countDocsFullYear(year, withTags, withoutTags);
+				counts.add(countFullYearTask(year, withTags, withoutTags));
 			}
 
 			// C) rest of year
 			Date startFinalYear = new GregorianCalendar(toYear, 0, 1, 0, 0, 0)
 					.getTime();
 
-			totalCount += countDocsWithinSingleYear(startFinalYear, toDate,
-					withTags, withoutTags);
+			counts.add(countWithinSingleYearTask(startFinalYear, toDate,
+					withTags, withoutTags));
 		}
 
-		return totalCount;
+		return sumCounts(counts);
+	}
+
+	private Callable<Long> countFullYearTask(final int year,
+			final List<Integer> withTags, final List<Integer> withoutTags) {
+		return new Callable<Long>() {
+			public Long call() throws Exception {
+				return countDocsFullYear(year, withTags, withoutTags);
+			}
+		};
+	}
+
+	private Callable<Long> countWithinSingleYearTask(final Date fromDate,
+			final Date toDate, final List<Integer> withTags,
+			final List<Integer> withoutTags) {
+		return new Callable<Long>() {
+			public Long call() throws Exception {
+				return countDocsWithinSingleYear(fromDate, toDate, withTags,
+						withoutTags);
+			}
+		};
 	}
 
 	/**
@@ -1597,6 +1812,258 @@ public class BlackBoardDateBased extends BlackBoard {
 		return count;
 	}
 
+	/**
+	 * Counts the docs that match the specified tags in each hour, day or week
+	 * of a time period. It runs one Map/Reduce per year collection on the
+	 * server, instead of one count per bucket.
+	 * 
+	 * @param fromDate
+	 *            The start of time period of interest (set to null for the
+	 *            first doc)
+	 * @param toDate
+	 *            The end of time period of interest, exclusive (set to null
+	 *            for the last doc)
+	 * @param withTags
+	 *            The set of tags that all docs counted must carry (set to null
+	 *            to ignore)
+	 * @param withoutTags
+	 *            The set of tags that docs counted must NOT carry (set to null
+	 *            to ignore)
+	 * @param bucket
+	 *            BUCKET_HOUR, BUCKET_DAY, BUCKET_WEEK or BUCKET_NONE
+	 * @return The start of each bucket of the period (local time) mapped to
+	 *         its number of docs. Buckets without docs are included with 0.
+	 * @throws Exception
+	 */
+	public TreeMap<Date, Long> countDocsHistogram(Date fromDate, Date toDate,
+			List<Integer> withTags, List<Integer> withoutTags, int bucket)
+			throws Exception {
+		if (fromDate == null)
+			fromDate = getMinDocDate();
+		if (toDate == null)
+			toDate = new Date(getMaxDocDate().getTime() + 1000);
+
+		List<Date> starts = getBucketStarts(fromDate, toDate, bucket);
+
+		TreeMap<Date, Long> histogram = new TreeMap<Date, Long>();
+		for (Date start : starts)
+			histogram.put(start, 0L);
+
+		for (Iterable<DBObject> results : runPerYear(mapReduceTasks(fromDate,
+				toDate, starts, withTags, withoutTags, null,
+				new BBBucketMapReduce.Count(null)))) {
+			for (DBObject r : results) {
+				// A bucket may span two years.
+				Date start = new Date(((Number) r.get("_id")).longValue());
+				long count = ((Number) r.get("value")).longValue();
+				histogram.put(start, histogram.get(start) + count);
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Computes count, sum, mean, min, max and a fixed-width histogram of the
+	 * numeric values of a field, for each hour, day or week of a time period.
+	 * It runs one Map/Reduce per year collection on the server, so docs are
+	 * not sent to the client.
+	 * 
+	 * @param fromDate
+	 *            The start of time period of interest (set to null for the
+	 *            first doc)
+	 * @param toDate
+	 *            The end of time period of interest, exclusive (set to null
+	 *            for the last doc)
+	 * @param fieldName
+	 *            The field of interest. Docs without a numeric value are
+	 *            ignored.
+	 * @param withTags
+	 *            The set of tags that all docs must carry (set to null to
+	 *            ignore)
+	 * @param withoutTags
+	 *            The set of tags that docs must NOT carry (set to null to
+	 *            ignore)
+	 * @param bucket
+	 *            BUCKET_HOUR, BUCKET_DAY, BUCKET_WEEK or BUCKET_NONE
+	 * @param binOrigin
+	 *            The lower bound of the first histogram bin.
+	 * @param binWidth
+	 *            The width of each histogram bin.
+	 * @param numBins
+	 *            The number of histogram bins. Set to 0 for no histogram.
+	 * @return The start of each bucket of the period (local time) mapped to
+	 *         the statistics of its docs. Buckets without docs are included
+	 *         with count 0.
+	 * @throws Exception
+	 */
+	public TreeMap<Date, BBFieldStats> getFieldStats(Date fromDate,
+			Date toDate, String fieldName, List<Integer> withTags,
+			List<Integer> withoutTags, int bucket, double binOrigin,
+			double binWidth, int numBins) throws Exception {
+		if (numBins > 0 && !(binWidth > 0))
+			throw new Exception("Histogram bin width must be positive");
+
+		if (fromDate == null)
+			fromDate = getMinDocDate();
+		if (toDate == null)
+			toDate = new Date(getMaxDocDate().getTime() + 1000);
+
+		List<Date> starts = getBucketStarts(fromDate, toDate, bucket);
+
+		TreeMap<Date, BBFieldStats> stats = new TreeMap<Date, BBFieldStats>();
+		for (Date start : starts)
+			stats.put(start, new BBFieldStats(binOrigin, binWidth, numBins));
+
+		for (Iterable<DBObject> results : runPerYear(mapReduceTasks(fromDate,
+				toDate, starts, withTags, withoutTags, fieldName,
+				new BBBucketMapReduce.FieldStats(fieldName, binOrigin,
+						binWidth, numBins, null)))) {
+			for (DBObject r : results) {
+				// A bucket may span two years.
+				Date start = new Date(((Number) r.get("_id")).longValue());
+				stats.get(start).merge((DBObject) r.get("value"));
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Returns the starts of all buckets that overlap the period.
+	 * 
+	 * @param bucket
+	 *            BUCKET_HOUR, BUCKET_DAY, BUCKET_WEEK or BUCKET_NONE
+	 */
+	static List<Date> getBucketStarts(Date fromDate, Date toDate, int bucket)
+			throws Exception {
+		if (bucket == BUCKET_NONE)
+			return Collections.singletonList(fromDate);
+
+		if (bucket != BUCKET_HOUR && bucket != BUCKET_DAY
+				&& bucket != BUCKET_WEEK)
+			throw new Exception("Unknown histogram bucket: " + bucket);
+
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(fromDate);
+		cal.set(Calendar.MILLISECOND, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MINUTE, 0);
+		if (bucket != BUCKET_HOUR)
+			cal.set(Calendar.HOUR_OF_DAY, 0);
+		if (bucket == BUCKET_WEEK)
+			cal.add(Calendar.DATE,
+					-((cal.get(Calendar.DAY_OF_WEEK) - cal.getFirstDayOfWeek() + 7) % 7));
+
+		List<Date> starts = new ArrayList<Date>();
+		while (cal.getTime().before(toDate)) {
+			starts.add(cal.getTime());
+			cal.add(bucket, 1);
+		}
+		return starts;
+	}
+
+	/**
+	 * Builds one inline Map/Reduce per year collection of the period. Only
+	 * docs of the period that match the tags (and have withField, if not
+	 * null) are mapped. Each year runs a copy of the job with the bucket
+	 * starts (in ms) that overlap that year.
+	 */
+	List<Callable<Iterable<DBObject>>> mapReduceTasks(Date fromDate,
+			Date toDate, List<Date> starts, List<Integer> withTags,
+			List<Integer> withoutTags, String withField, BBBucketMapReduce job)
+			throws Exception {
+		List<Callable<Iterable<DBObject>>> tasks = new ArrayList<Callable<Iterable<DBObject>>>();
+
+		int fromYear = Math.max(getYearOfInterestByDate(fromDate),
+				MIN_ARTICLES_YEAR_IN_DB);
+		int toYear = Math.min(getYearOfInterestByDate(toDate),
+				MAX_ARTICLES_YEAR_IN_DB);
+
+		for (int year = fromYear; year <= toYear; year++) {
+			Date yearFrom = new GregorianCalendar(year, 0, 1).getTime();
+			Date yearTo = new GregorianCalendar(year + 1, 0, 1).getTime();
+			if (fromDate.after(yearFrom))
+				yearFrom = fromDate;
+			if (toDate.before(yearTo))
+				yearTo = toDate;
+			if (!yearFrom.before(yearTo))
+				continue;
+
+			List<Double> b = new ArrayList<Double>();
+			for (int i = 0; i < starts.size(); i++) {
+				Date start = starts.get(i);
+				boolean endsBeforeYear = i + 1 < starts.size()
+						&& !starts.get(i + 1).after(yearFrom);
+				if (!endsBeforeYear && start.before(yearTo))
+					b.add((double) start.getTime());
+			}
+
+			final BBCollection coll = getCollDocs(year);
+			final DBObject query = getDocsQuery(yearFrom, yearTo, withTags,
+					withoutTags);
+			if (withField != null)
+				query.put(withField, new BasicDBObject("$exists", true));
+
+			final BBMapReduce yearJob = job.forBuckets(b);
+
+			tasks.add(new Callable<Iterable<DBObject>>() {
+				public Iterable<DBObject> call() throws Exception {
+					return coll.mapReduce(yearJob, query);
+				}
+			});
+		}
+		return tasks;
+	}
+
+	/**
+	 * @return The lowest ObjectId of the second of date: its timestamp
+	 * followed by zeros.
+	 */
+	static ObjectId lowestObjectId(Date date) {
+		long seconds = date.getTime() / 1000;
+		return new ObjectId(String.format("%08x", seconds) + "0000000000000000");
+	}
+
+	/**
+	 * Builds the query of docs within a period of a single year that match
+	 * the specified tags.
+	 */
+	DBObject getDocsQuery(Date fromDate, Date toDate, List<Integer> withTags,
+			List<Integer> withoutTags) throws Exception {
+		BasicDBObjectBuilder query = new BasicDBObjectBuilder();
+
+		// Lowest ObjectIds of each second, so that the docs of the second of
+		// fromDate are included and those of toDate are not.
+		BasicDBObject range = new BasicDBObject();
+		range.put("$gte", lowestObjectId(fromDate));
+		range.put("$lt", lowestObjectId(toDate));
+		query.add(DOC_ID, range);
+
+		List<Integer> withTagsCtrl = new LinkedList<Integer>();
+		List<Integer> withTagsNorm = new LinkedList<Integer>();
+
+		if (withTags != null) {
+			for (int t : withTags) {
+				if (getTagProperty(t, TAG_PROPERTY_CONTROL) == 1)
+					withTagsCtrl.add(t);
+				else
+					withTagsNorm.add(t);
+			}
+
+			if (withTagsCtrl.size() > 0)
+				query.add(DOC_FOR_TAGS, new BasicDBObject("$all", withTagsCtrl));
+		}
+
+		BasicDBObject tags = new BasicDBObject();
+		if (withTagsNorm.size() > 0)
+			tags.put("$all", withTagsNorm);
+		if (withoutTags != null)
+			tags.put("$nin", withoutTags);
+		if (tags.size() > 0)
+			query.add(DOC_TAGS, tags);
+
+		return query.get();
+	}
+
 	/**
 	 * Run a Map/Reduce job. The result is stored using the specified collection
 	 * name. If the collection exists, new results will be merged with old using
@@ -1614,16 +2081,13 @@ public class BlackBoardDateBased extends BlackBoard {
 	public void runMapReduce(String name, String map, String reduce)
 			throws MongoException {
 		String fullCollName = BB_NAME + "_MapReduce_" + name;
-		// DBCollection mapReduceColl = mongo_db.getCollection( fullCollName );
+		// BBCollection mapReduceColl = storage.getCollection( fullCollName );
 		// mapReduceColl.drop();
 
 		for (int yearOfInterest = MIN_ARTICLES_YEAR_IN_DB; yearOfInterest <= MAX_ARTICLES_YEAR_IN_DB; yearOfInterest++) {
 			System.out.println("Submitting Map/Reduce for year="
 					+ yearOfInterest);
-			MapReduceCommand cmd = new MapReduceCommand(
-					getCollDocs(yearOfInterest), map, reduce, fullCollName,
-					MapReduceCommand.OutputType.REDUCE, new BasicDBObject());
-			getCollDocs(yearOfInterest).mapReduce(cmd);
+			getCollDocs(yearOfInterest).mapReduce(map, reduce, fullCollName);
 		}
 	}
 
@@ -1635,7 +2099,7 @@ public class BlackBoardDateBased extends BlackBoard {
 	 */
 	public void deleteMapReduceResult(String name) throws MongoException {
 		String fullCollName = BB_NAME + "_MapReduce_" + name;
-		DBCollection mapReduceColl = mongo_db.getCollection(fullCollName);
+		BBCollection mapReduceColl = storage.getCollection(fullCollName);
 		mapReduceColl.drop();
 	}
 
@@ -1647,7 +2111,7 @@ public class BlackBoardDateBased extends BlackBoard {
 	 */
 	public List<String> listMapReduceResults() throws MongoException {
 		List<String> results = new LinkedList<String>();
-		Set<String> existingDBs = mongo_db.getCollectionNames();
+		Set<String> existingDBs = storage.getCollectionNames();
 		for (String coll_n : existingDBs) {
 			if (coll_n.contains(BB_NAME + "_MapReduce_"))
 				results.add(coll_n);
@@ -1666,9 +2130,9 @@ public class BlackBoardDateBased extends BlackBoard {
 	public BBDocSet getMapReduce(String name) throws MongoException {
 		String fullCollName = BB_NAME + "_MapReduce_" + name;
 
-		DBCollection mapReduceColl = mongo_db.getCollection(fullCollName);
+		BBCollection mapReduceColl = storage.getCollection(fullCollName);
 
-		DBCursor cursor = mapReduceColl.find();
+		BBCursor cursor = mapReduceColl.find();
 
 		return new BBDocSet(cursor);
 	}
@@ -1687,7 +2151,7 @@ public class BlackBoardDateBased extends BlackBoard {
 			throws MongoException {
 		String fullCollName = BB_NAME + "_MapReduce_" + name;
 
-		DBCollection mapReduceColl = mongo_db.getCollection(fullCollName);
+		BBCollection mapReduceColl = storage.getCollection(fullCollName);
 
 		BasicDBObject where = new BasicDBObject();
 		where.put(DOC_ID, docID);
@@ -1782,17 +2246,30 @@ public class BlackBoardDateBased extends BlackBoard {
 	 * Returns a set containing all docs.
 	 */
 	public BBDocSet getAllDocs() throws Exception {
+		return getAllDocs(null);
+	}
+
+	/**
+	 * Returns a set containing all docs, with only the specified fields.
+	 * 
+	 * @param returnFields
+	 *            The names of the fields to read. ID and tags are always
+	 *            read. Set to null to read whole docs.
+	 */
+	@Override
+	public BBDocSet getAllDocs(List<String> returnFields) throws Exception {
 		int min_year = getYearOfInterestByDate(this.getMinDocDate());
 		int max_year = getYearOfInterestByDate(this.getMaxDocDate());
 
-		List<DBCursor> cursors = new LinkedList<DBCursor>();
+		List<BBCursor> cursors = new LinkedList<BBCursor>();
 
 		for (int year = min_year; year <= max_year; year++) {
-			DBCursor cur = getCollDocs(year).find();
+			BBCursor cur = getCollDocs(year).find(new BasicDBObject(),
+					getProjection(returnFields));
 			cursors.add(cur);
 		}
 
-		return new BBDocSet(cursors);
+		return newDocSet(cursors, 0).setLoadedFields(returnFields);
 	}
 
 	/**
@@ -1905,6 +2382,22 @@ public class BlackBoardDateBased extends BlackBoard {
 			String listFieldName, Object listFieldValue,
 			List<Integer> withTagIDs, List<Integer> withoutTagIDs, int resSize)
 			throws Exception {
+		return findDocsWithValueInListSet(fromDate, toDate, listFieldName,
+				listFieldValue, withTagIDs, withoutTagIDs, resSize, null);
+	}
+
+	/**
+	 * As findDocsWithValueInListSet() but reads only the specified fields of
+	 * the docs, plus their ID and tags.
+	 * 
+	 * @param returnFields
+	 *            The names of the fields to read. Set to null to read whole
+	 *            docs.
+	 */
+	public BBDocSet findDocsWithValueInListSet(Date fromDate, Date toDate,
+			String listFieldName, Object listFieldValue,
+			List<Integer> withTagIDs, List<Integer> withoutTagIDs,
+			int resSize, List<String> returnFields) throws Exception {
 		// LinkedList<Object> res = new LinkedList<Object>();
 		BasicDBObject query = new BasicDBObject();
 
@@ -1949,13 +2442,14 @@ public class BlackBoardDateBased extends BlackBoard {
 		// System.out.println(query);
 
 		if (resSize != 0) {
-			DBCursor cur = getCollDocs(YearOfInterest).find(query).limit(
-					resSize);
-			return new BBDocSet(cur);
+			BBCursor cur = getCollDocs(YearOfInterest).find(query,
+					getProjection(returnFields)).limit(resSize);
+			return new BBDocSet(cur).setLoadedFields(returnFields);
 
 		} else {
-			DBCursor cur = getCollDocs(YearOfInterest).find(query);
-			return new BBDocSet(cur);
+			BBCursor cur = getCollDocs(YearOfInterest).find(query,
+					getProjection(returnFields));
+			return new BBDocSet(cur).setLoadedFields(returnFields);
 		}
 	}
 
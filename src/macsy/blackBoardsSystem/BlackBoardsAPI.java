@@ -67,6 +67,11 @@ public final class BlackBoardsAPI {
 	 */
 	private DB mongo_db = null;
 
+	/**
+	 * The storage of the Black Boards: MongoDB (mongo_db) or memory.
+	 */
+	private BBStorage storage = null;
+
 //	/**
 //	 * Returns a direct connection to the Database.
 //	 * It is used as input to the creation of new BlackBoards.
@@ -114,15 +119,7 @@ public final class BlackBoardsAPI {
 	{
 		System.out.println("Initializing NewsAgentAPI...");
 
-		BBProtectedNames = new ArrayList<String>();
-		BBProtectedNames.add("ARTICLE");
-		BBProtectedNames.add("FEED");
-		BBProtectedNames.add("OUTLET");
-		BBProtectedNames.add("URL");
-		BBProtectedNames.add("MODULE");
-		BBProtectedNames.add("MODULE_RUN");
-		//BBProtectedNames.add("GEONAMES");
-		
+		initProtectedNames();
 
 		String dburl  = "mongodb://127.0.0.1:27017";
 		String dbname = "Macsy";
@@ -151,6 +148,13 @@ public final class BlackBoardsAPI {
 			this.adminMode = true;//adminMode;
 
 		
+		//IN-MEMORY STORAGE, shared by all APIs of this JVM with the same dbname
+		if(BBMemoryStorage.MEMORY_DB_URL.equals(dburl)) {
+			storage = BBMemoryStorage.getShared(dbname);
+			System.out.println("DONE (in-memory storage)");
+			return;
+		}
+
 		//TRY TO CONNECT TO MONGO DB
 		if(mongo_connection == null) {
 			System.out.println("Setting up connection");
@@ -160,6 +164,7 @@ public final class BlackBoardsAPI {
 		
 		//SELECT DATABASE
 		mongo_db = mongo_connection.getDB( dbname );
+		storage = new BBMongoStorage(mongo_db);
 		
 	//	FORCE_READ_PRIMARIES = forceReadPrimaries;
 		if(forceReadPrimaries)
@@ -207,11 +212,24 @@ public final class BlackBoardsAPI {
 		System.out.println("DONE");			
 	}
 	
+	private void initProtectedNames()
+	{
+		BBProtectedNames = new ArrayList<String>();
+		BBProtectedNames.add("ARTICLE");
+		BBProtectedNames.add("FEED");
+		BBProtectedNames.add("OUTLET");
+		BBProtectedNames.add("URL");
+		BBProtectedNames.add("MODULE");
+		BBProtectedNames.add("MODULE_RUN");
+		//BBProtectedNames.add("GEONAMES");
+	}
+
  	/**
  	 * Force reading only primaries and not seconderies.   
  	 */
  	public void forceReadPrimaries() {
-		mongo_db.setReadPreference(ReadPreference.primary());
+		if(mongo_db!=null)	//Nothing to do for in-memory storage
+			mongo_db.setReadPreference(ReadPreference.primary());
  	}
  	
 	/**
@@ -245,6 +263,27 @@ public final class BlackBoardsAPI {
 //		this(propertyFileName,  false);
 //	}
 
+	private BlackBoardsAPI(BBStorage storage, boolean adminMode)
+	{
+		initProtectedNames();
+
+		this.storage = storage;
+		this.adminMode = adminMode;
+	}
+
+	/**
+	 * Creates the API object on the given storage, e.g. a BBMemoryStorage for
+	 * tests and benchmarks that must not touch MongoDB.
+	 * 
+	 * @param storage The storage of the Black Boards.
+	 * @param adminMode Set to true iff you are an administrator.
+	 * @return The API object.
+	 */
+	public static BlackBoardsAPI forStorage(BBStorage storage, boolean adminMode)
+	{
+		return new BlackBoardsAPI(storage, adminMode);
+	}
+
 	/**
 	 * Creates an instance of the API with access to all basic Black Boards, i.e. 
 	 * Articles, Feeds and Outlets 
@@ -288,13 +327,13 @@ public final class BlackBoardsAPI {
 		else
 		{
 			fullBB =  USER_BB_PREFIX + BBname;
-			bbType = BlackBoard.getBlackBoardType(mongo_db, fullBB, null);	//Discover BB Type or set to some default if value is not set.
+			bbType = BlackBoard.getBlackBoardType(storage, fullBB, null);	//Discover BB Type or set to some default if value is not set.
 		}
 		
 		if(bbType.equals( BlackBoard.BLACKBOARD_TYPE_DATE_BASED  ))
-			return new BlackBoardDateBased(mongo_db, fullBB, adminMode);
+			return new BlackBoardDateBased(storage, fullBB, adminMode);
 		
-		return new BlackBoard(mongo_db, fullBB, adminMode);
+		return new BlackBoard(storage, fullBB, adminMode);
 	}
 	
 	/**
@@ -316,12 +355,12 @@ public final class BlackBoardsAPI {
 		
 		String fullBB = bbPrefix + BBname;
 		
-		String 	bbType = BlackBoard.getBlackBoardType(mongo_db, fullBB,	BlackBoard.BLACKBOARD_TYPE_DATE_BASED );	//Discover BB Type or set default to DataBased
+		String 	bbType = BlackBoard.getBlackBoardType(storage, fullBB,	BlackBoard.BLACKBOARD_TYPE_DATE_BASED );	//Discover BB Type or set default to DataBased
 		
 		if(bbType.equals( BlackBoard.BLACKBOARD_TYPE_STANDARD ))
 			throw new Exception("Blackbord "+ BBname + " is Standard Type, not DateBased. Use blackBoardLoad() to load it, or fix its type.");
 		
-		BlackBoardDateBased bb = new BlackBoardDateBased(mongo_db, fullBB, adminMode);
+		BlackBoardDateBased bb = new BlackBoardDateBased(storage, fullBB, adminMode);
 		return bb; 
 	}
 	
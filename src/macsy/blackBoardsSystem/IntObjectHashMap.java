@@ -0,0 +1,116 @@
+package macsy.blackBoardsSystem;
+
+/**
+ * Hash map from int keys to objects without boxing the keys.
+ *
+ * Open addressing with linear probing, kept at most half full, as
+ * macsy.lib.IntDoubleHashMap. Entries can not be removed, only replaced.
+ */
+final class IntObjectHashMap<V> {
+
+	private int[] keys;
+	private Object[] values;
+	private boolean[] used;
+	private int size = 0;
+	private int mask;
+
+	IntObjectHashMap()
+	{
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize The number of entries to make room for.
+	 */
+	IntObjectHashMap(int expectedSize)
+	{
+		int capacity = 4;
+		while(capacity < 2 * expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new int[capacity];
+		values = new Object[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+	private int slot(int key)
+	{
+		int h = key * 0x9E3779B9;	//Fibonacci hashing
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * @return The value of key, or null if it is not in the map.
+	 */
+	@SuppressWarnings("unchecked")
+	V get(int key)
+	{
+		int s = slot(key);
+		while(used[s])
+		{
+			if(keys[s]==key)
+				return (V) values[s];
+			s = (s + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * @return The previous value of key, or null.
+	 */
+	@SuppressWarnings("unchecked")
+	V put(int key, V value)
+	{
+		int s = slot(key);
+		while(used[s])
+		{
+			if(keys[s]==key)
+			{
+				V old = (V) values[s];
+				values[s] = value;
+				return old;
+			}
+			s = (s + 1) & mask;
+		}
+
+		if(2 * (size + 1) > keys.length)
+		{
+			rehash(keys.length << 1);
+			return put(key, value);
+		}
+		used[s] = true;
+		keys[s] = key;
+		values[s] = value;
+		size++;
+		return null;
+	}
+
+	private void rehash(int capacity)
+	{
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(capacity);
+		for(int s=0; s<oldKeys.length; s++)
+		{
+			if(!oldUsed[s])
+				continue;
+			int t = slot(oldKeys[s]);
+			while(used[t])
+				t = (t + 1) & mask;
+			used[t] = true;
+			keys[t] = oldKeys[s];
+			values[t] = oldValues[s];
+		}
+	}
+
+	int size()
+	{
+		return size;
+	}
+}
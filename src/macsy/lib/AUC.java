@@ -20,6 +20,25 @@ public class AUC {
 		expMovingAverage_AUC = 1; // initial value for auc (1 or .5)
 	}
 	
+	/**
+	 * A copy of another AUC, with its scores, value and window.
+	 * @param other: the AUC to copy
+	 */
+	public AUC(AUC other){
+		last_pos_score = other.last_pos_score;
+		last_neg_score = other.last_neg_score;
+		expMovingAverage_AUC = other.expMovingAverage_AUC;
+		expMovingAverage_a = other.expMovingAverage_a;
+	}
+
+	/**
+	 * Sets the value of AUC, e.g. to the average of AUCs of parallel learners
+	 * @param value: the exponential moving average of AUC
+	 */
+	public void expMovAvSetAUC(double value){
+		this.expMovingAverage_AUC = value;
+	}
+
 	/**
 	 * Calculates the value of AUC according to the exponential moving average formula
 	 * according to the boolean value of the input
@@ -0,0 +1,638 @@
+package macsy.lib;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import macsy.module.featuresExtractorTFIDF.NGHashedVoc;
+import macsy.module.featuresExtractorTFIDF.NGVoc;
+
+/**
+ * Implementation of LinearModel that keeps w in a double[] indexed by
+ * feature ID, which grows as new IDs appear. Feature IDs of NGVoc are dense
+ * in [1, number of words], so scoring and updates are plain array accesses.
+ *
+ * IDs that are negative or not smaller than maxDenseID (e.g. hashed features)
+ * are kept in an IntDoubleHashMap instead. With maxDenseID = 0 all weights are
+ * kept in the map.
+ *
+ * The bias is kept apart from w. For compatibility with BasicLinearModel it
+ * appears as feature 0 in getW(), setW(), getM_Id2Value() and in the text
+ * model file, which has the same format.
+ *
+ * Models are loaded from text or binary (BinaryModelFile) files. They are
+ * saved as text, unless setBinaryFormat(true) was called or they were loaded
+ * from a binary file.
+ */
+public class ArrayLinearModel implements LinearModel
+{
+	/**
+	 * Largest dense ID by default: 2M features, 16MB of weights.
+	 */
+	public static final int DEFAULT_MAX_DENSE_ID = 1 << 21;
+
+	private double[] w = new double[1024];	// w[id] for 0 < id < maxDenseID
+	private IntDoubleHashMap sparseW = new IntDoubleHashMap();	// all other IDs
+	private double b = 0;
+	private int maxDenseID;
+
+	private String model_filename; // the name of the file with the model
+
+	private boolean binaryFormat = false;
+	private String algorithm = "";	// saved in binary files only
+	private long[] counters = null;	// saved in binary files only
+
+	NGVoc Words;
+
+	public ArrayLinearModel()
+	{
+		this(DEFAULT_MAX_DENSE_ID);
+	}
+
+	/**
+	 * @param maxDenseID IDs from this value on are kept in a hash map.
+	 */
+	public ArrayLinearModel(int maxDenseID)
+	{
+		this.maxDenseID = Math.max(0, maxDenseID);
+		if(this.maxDenseID < w.length)
+			w = new double[this.maxDenseID];
+	}
+
+	/**
+	 * Creates or loads a model with given name.
+	 */
+	public ArrayLinearModel(String model_filename)
+	{
+		this(model_filename, DEFAULT_MAX_DENSE_ID);
+	}
+
+	/**
+	 * Creates or loads a model with given name.
+	 *
+	 * @param maxDenseID IDs from this value on are kept in a hash map.
+	 */
+	public ArrayLinearModel(String model_filename, int maxDenseID)
+	{
+		this(maxDenseID);
+		this.model_filename = model_filename;
+		loadModel(model_filename);
+	}
+
+	private boolean isDense(int id)
+	{
+		return id > 0 && id < maxDenseID;
+	}
+
+	/**
+	 * Makes w long enough for id.
+	 */
+	private void growTo(int id)
+	{
+		int length = w.length;
+		while(length <= id)
+			length = Math.max(length << 1, 16);
+		w = Arrays.copyOf(w, Math.min(length, maxDenseID));
+	}
+
+	@Override
+	public double getWi(int featureID)
+	{
+		if(featureID==0)
+			return b;
+		if(isDense(featureID))
+			return featureID < w.length ? w[featureID] : 0.0;
+		return sparseW.get(featureID, 0.0);
+	}
+
+	/**
+	 * Sets the weight of a feature. Feature 0 is the bias.
+	 */
+	public void setWi(int featureID, double value)
+	{
+		if(featureID==0)
+			b = value;
+		else if(isDense(featureID))
+		{
+			if(featureID >= w.length)
+				growTo(featureID);
+			w[featureID] = value;
+		}
+		else
+			sparseW.put(featureID, value);
+	}
+
+	/**
+	 * Computes wx
+	 */
+	private double dot(DataPoint x)
+	{
+		int[] indices = x.getFeatureIndices();
+		double[] values = x.getFeatureValues();
+		double[] w = this.w;
+		double sum = 0.0;
+		for(int k=0; k<indices.length; k++)
+		{
+			int id = indices[k];
+			if(isDense(id))
+			{
+				if(id < w.length)
+					sum += w[id] * values[k];
+			}
+			else if(id!=0)
+				sum += sparseW.get(id, 0.0) * values[k];
+		}
+		return sum;
+	}
+
+	@Override
+	public double predict(DataPoint x)
+	{
+		return dot(x) + b;
+	}
+
+	@Override
+	public double score(DataPoint x)
+	{
+		return dot(x);
+	}
+
+	/**
+	 * Copies the weights; a copy of the double[] is fast even for large models.
+	 */
+	@Override
+	public LinearModel snapshot()
+	{
+		IntDoubleHashMap sparse = new IntDoubleHashMap(sparseW.size());
+		for(int s=0; s<sparseW.capacity(); s++)
+			if(sparseW.isUsed(s))
+				sparse.put(sparseW.keyAt(s), sparseW.valueAt(s));
+		return new LinearModelSnapshot(w.clone(), sparse, b);
+	}
+
+	/**
+	 * Updates the model
+	 *
+	 * w(t+1) = w(t) + x
+	 * b(t+1) = b(t) + value
+	 *
+	 * The input is already multiplied by the learning factor and the error.
+	 */
+	@Override
+	public void addToW(DataPoint x, double value)
+	{
+		int[] indices = x.getFeatureIndices();
+		double[] values = x.getFeatureValues();
+		growToDense(indices);
+
+		for(int k=0; k<indices.length; k++)
+		{
+			int id = indices[k];
+			if(isDense(id))
+				w[id] += values[k];
+			else if(id!=0)
+				sparseW.add(id, values[k]);
+		}
+
+		addToB(value);
+	}
+
+	/**
+	 * Same as addToW(factor*x, 0) without making factor*x.
+	 */
+	@Override
+	public void addScaledToW(DataPoint x, double factor)
+	{
+		int[] indices = x.getFeatureIndices();
+		double[] values = x.getFeatureValues();
+		growToDense(indices);
+
+		for(int k=0; k<indices.length; k++)
+		{
+			int id = indices[k];
+			if(isDense(id))
+				w[id] += factor * values[k];
+			else if(id!=0)
+				sparseW.add(id, factor * values[k]);
+		}
+	}
+
+	/**
+	 * Same as addScaledToW(x_i - x_j, factor), walking the IDs of both in
+	 * order, without making x_i - x_j.
+	 */
+	@Override
+	public void addScaledDifferenceToW(DataPoint x_i, DataPoint x_j, double factor)
+	{
+		int[] ii = x_i.getFeatureIndices(), ji = x_j.getFeatureIndices();
+		double[] iv = x_i.getFeatureValues(), jv = x_j.getFeatureValues();
+		growToDense(ii);
+		growToDense(ji);
+
+		int a = 0, b = 0;
+		while(a < ii.length || b < ji.length)
+		{
+			int id;
+			double v;
+			if(b==ji.length || (a < ii.length && ii[a] < ji[b]))
+			{
+				id = ii[a];
+				v = iv[a++];
+			}
+			else if(a==ii.length || ji[b] < ii[a])
+			{
+				id = ji[b];
+				v = -jv[b++];
+			}
+			else
+			{
+				id = ii[a];
+				v = iv[a++] - jv[b++];
+			}
+
+			if(isDense(id))
+				w[id] += factor * v;
+			else if(id!=0)
+				sparseW.add(id, factor * v);
+		}
+	}
+
+	/**
+	 * Makes w long enough for the dense IDs of a sorted array of IDs.
+	 */
+	private void growToDense(int[] indices)
+	{
+		//IDs are sorted, so the last dense one is the largest
+		for(int k=indices.length-1; k>=0; k--)
+			if(isDense(indices[k]))
+			{
+				if(indices[k] >= w.length)
+					growTo(indices[k]);
+				break;
+			}
+	}
+
+	@Override
+	public void addToB(double c)
+	{
+		b += c;
+	}
+
+	@Override
+	public double getB()
+	{
+		return b;
+	}
+
+	@Override
+	public void setB(double b)
+	{
+		this.b = b;
+	}
+
+	@Override
+	public void reset()
+	{
+		w = new double[Math.min(1024, maxDenseID)];
+		sparseW = new IntDoubleHashMap();
+		b = 0;
+	}
+
+	/**
+	 * Returns W, with the bias as feature 0.
+	 */
+	@Override
+	public DataPoint getW()
+	{
+		int[] sparseIDs = sparseW.sortedKeys();
+		int n = 1 + sparseIDs.length;
+		for(int id=1; id<w.length; id++)
+			if(w[id]!=0)
+				n++;
+
+		int[] indices = new int[n];
+		double[] values = new double[n];
+		int k = 0;
+		int s = 0;
+		while(s < sparseIDs.length && sparseIDs[s] < 0)	//Negative IDs first
+		{
+			indices[k] = sparseIDs[s];
+			values[k++] = sparseW.get(sparseIDs[s++], 0.0);
+		}
+		indices[k] = 0;
+		values[k++] = b;
+		for(int id=1; id<w.length; id++)
+			if(w[id]!=0)
+			{
+				indices[k] = id;
+				values[k++] = w[id];
+			}
+		while(s < sparseIDs.length)
+		{
+			indices[k] = sparseIDs[s];
+			values[k++] = sparseW.get(sparseIDs[s++], 0.0);
+		}
+		return new DataPoint(indices, values, DataPoint.UNKNOWN_LABEL);
+	}
+
+	/**
+	 * Sets W. Feature 0, if it exists, is the bias.
+	 */
+	@Override
+	public void setW(DataPoint w)
+	{
+		double bias = b;
+		reset();
+		b = bias;
+		int[] indices = w.getFeatureIndices();
+		double[] values = w.getFeatureValues();
+		for(int k=0; k<indices.length; k++)
+			setWi(indices[k], values[k]);
+	}
+
+	/**
+	 * Returns a copy of the model as a map, with the bias as feature 0.
+	 */
+	@Override
+	public TreeMap<Integer, Double> getM_Id2Value()
+	{
+		return new TreeMap<Integer, Double>(getW().getFeaturesMap());
+	}
+
+	/**
+	 * Modifies the model as:
+	 *
+	 * W  = W / ||W||
+	 *
+	 * where ||W|| is the second norm of W (including the bias).
+	 */
+	@Override
+	public void normalize()
+	{
+		double magnitude = b * b;
+		for(int id=1; id<w.length; id++)
+			magnitude += w[id] * w[id];
+		for(int s=0; s<sparseW.capacity(); s++)
+			if(sparseW.isUsed(s))
+				magnitude += sparseW.valueAt(s) * sparseW.valueAt(s);
+		magnitude = Math.sqrt(magnitude);
+
+		if(magnitude == 0)
+			return; // Nothing to normalize
+
+		b /= magnitude;
+		for(int id=1; id<w.length; id++)
+			w[id] /= magnitude;
+		for(int s=0; s<sparseW.capacity(); s++)
+			if(sparseW.isUsed(s))
+				sparseW.setValueAt(s, sparseW.valueAt(s) / magnitude);
+	}
+
+	/**
+	 * Sets the format of saveModel().
+	 *
+	 * @param binary True for BinaryModelFile, false for text.
+	 */
+	public void setBinaryFormat(boolean binary)
+	{
+		binaryFormat = binary;
+	}
+
+	public boolean isBinaryFormat()
+	{
+		return binaryFormat;
+	}
+
+	/**
+	 * Sets the learner information stored in the header of binary files.
+	 *
+	 * @param algorithm Name of the learner.
+	 * @param counters Its training counters (e.g. TP, TN, FP, FN).
+	 */
+	public void setTrainingInfo(String algorithm, long[] counters)
+	{
+		this.algorithm = algorithm;
+		this.counters = counters==null ? null : counters.clone();
+	}
+
+	public String getAlgorithm()
+	{
+		return algorithm;
+	}
+
+	public long[] getCounters()
+	{
+		return counters;
+	}
+
+	/**
+	 * Saves the model, as text or binary (see setBinaryFormat()).
+	 */
+	@Override
+	public void saveModel(String fileName)
+	{
+		if(binaryFormat)
+		{
+			try {
+				saveModelBinary(fileName);
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
+			return;
+		}
+		saveModelText(fileName);
+	}
+
+	/**
+	 * Saves the model as a BinaryModelFile.
+	 *
+	 * @throws IOException
+	 */
+	public void saveModelBinary(String fileName) throws IOException
+	{
+		int dimension = w.length;
+		while(dimension > 1 && w[dimension-1]==0)
+			dimension--;
+
+		int[] sparseIDs = sparseW.sortedKeys();
+		double[] sparseValues = new double[sparseIDs.length];
+		for(int k=0; k<sparseIDs.length; k++)
+			sparseValues[k] = sparseW.get(sparseIDs[k], 0.0);
+
+		BinaryModelFile.write(fileName, algorithm, counters, b, w, dimension, sparseIDs, sparseValues);
+	}
+
+	/**
+	 * Saves the model in the text format of BasicLinearModel:
+	 * a header line and then <id>\t<value> for the bias (id 0) and every
+	 * non zero weight.
+	 */
+	public void saveModelText(String fileName)
+	{
+		System.out.print("Writing Vocabulary...");
+		DataPoint model = getW();
+		int[] indices = model.getFeatureIndices();
+		double[] values = model.getFeatureValues();
+		System.out.println("voc size : " + indices.length);
+
+		try {
+			BufferedWriter fp = new BufferedWriter(new FileWriter( fileName ));
+			fp.write("Vocabulary Format: <id>\t<value>\n");
+			fp.write("0\t" + b + "\n");
+			for(int k=0; k<indices.length; k++)
+				if(indices[k]!=0 && values[k]!=0)
+					fp.write(indices[k] + "\t" + values[k] + "\n");
+			fp.close();
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		}
+		System.out.println("DONE");
+	}
+
+	@Override
+	public void savePocketModel(String fileName)
+	{
+		saveModel(model_filename!=null ? model_filename : fileName);
+	}
+
+	/**
+	 * Loads a model saved by saveModel() or by BasicLinearModel, in text or
+	 * binary format, replacing the current one. If the file does not exist
+	 * the model is empty.
+	 */
+	@Override
+	public void loadModel(String fileName)
+	{
+		reset();
+		File modelFile = new File(fileName);
+
+		//No model return.
+		if(!modelFile.exists())
+			return;
+
+		if(BinaryModelFile.isBinary(fileName))
+		{
+			try {
+				loadModelBinary(BinaryModelFile.map(fileName));
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
+			return;
+		}
+
+		try {
+			BufferedReader input = new BufferedReader( new FileReader(fileName) );
+			//First line = HEADER //Ignore
+			String line = input.readLine();
+
+			while (( line = input.readLine()) != null)
+			{
+				int tab = line.indexOf('\t');
+				if(tab < 0)
+					continue;
+				setWi(Integer.parseInt(line.substring(0, tab)),
+						Double.parseDouble(line.substring(tab + 1)));
+			}
+			input.close();
+		} catch (Exception e1) {
+			e1.printStackTrace();
+		}
+	}
+
+	/**
+	 * Copies a binary model on the heap, so that it can be trained.
+	 */
+	private void loadModelBinary(BinaryModelFile file)
+	{
+		DoubleBuffer dense = file.getDenseWeights();
+		int dimension = Math.min(file.getDimension(), maxDenseID);
+		if(dimension > w.length)
+			w = new double[dimension];
+		dense.get(w, 0, dimension);
+		if(w.length > 0)
+			w[0] = 0;
+		for(int id=dimension; id<file.getDimension(); id++)
+			setWi(id, dense.get(id));
+
+		int[] sparseIDs = file.getSparseIDs();
+		double[] sparseValues = file.getSparseValues();
+		for(int k=0; k<sparseIDs.length; k++)
+			setWi(sparseIDs[k], sparseValues[k]);
+
+		b = file.getBias();
+		setTrainingInfo(file.getAlgorithm(), file.getCounters());
+		binaryFormat = true;
+	}
+
+	@Override
+	public void Update_PocketWeights(DataPoint sample, TreeMap prev_w)
+	{
+		throw new UnsupportedOperationException("Not supported yet.");
+	}
+
+	@Override
+	public void wordCloudSetVocabulary(String voc_filename) throws Exception
+	{
+		Words = NGVoc.getShared(voc_filename);
+	}
+
+	@Override
+	public void wordCloudSetHashedVocabulary(String voc_filename, int bits) throws Exception
+	{
+		Words = new NGHashedVoc(bits, voc_filename, true);
+	}
+
+	@Override
+	public Map<String,Double> wordCloudGetTopFeatures(int n)
+	{
+		return wordCloud(n, 1);
+	}
+
+	@Override
+	public Map<String,Double> wordCloudGetLeastFeatures(int n)
+	{
+		return wordCloud(n, -1);
+	}
+
+	/**
+	 * Returns the words of the n features with the highest (sign=1) or
+	 * lowest (sign=-1) weights.
+	 */
+	private Map<String,Double> wordCloud(int n, final int sign)
+	{
+		//Heap of the best n so far, worst on top
+		final DataPoint model = getW();
+		final double[] values = model.getFeatureValues();
+		PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.max(1, n), new Comparator<Integer>() {
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(sign * values[a], sign * values[b]);
+			}
+		});
+
+		int[] indices = model.getFeatureIndices();
+		for(int k=0; k<indices.length; k++)
+		{
+			if(indices[k]==0 || values[k]==0)
+				continue;
+			best.add(k);
+			if(best.size() > n)
+				best.poll();
+		}
+
+		Map<String,Double> words_ids = new HashMap<String,Double>();
+		for(Integer k : best)
+			words_ids.put(Words.getWord(indices[k]), values[k]);
+		return words_ids;
+	}
+}
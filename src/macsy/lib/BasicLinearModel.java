@@ -8,6 +8,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -15,6 +16,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Map.Entry;
+import macsy.module.featuresExtractorTFIDF.NGHashedVoc;
 import macsy.module.featuresExtractorTFIDF.NGVoc;
 
 /**
@@ -387,26 +389,66 @@ public class BasicLinearModel implements LinearModel
 	@Override
 	public void addToW(DataPoint x, double value) {
 		for(Map.Entry<Integer,Double> e : x.getFeaturesMap().entrySet())
-		{
-			Double w_prev = getM_Id2Value().get(  e.getKey()  );
-			if (w_prev != null)
-				try {
-					setValueByID( e.getKey(), w_prev + e.getValue() );
-				} catch (Exception e1) {
-					e1.printStackTrace();
-				}
-			else
-				try {
-					setValueByNewID( e.getKey(), e.getValue() );
-				} catch (Exception e1) {
-					e1.printStackTrace();
-				}
-		}
+			addToWeight(e.getKey(), e.getValue());
 
 
 		addToB(value);
 	}
 
+	/**
+	 * Adds v to the weight of id, as addToW() does for each feature: weights
+	 * of new IDs are set, existing ones are updated with setValueByID().
+	 */
+	private void addToWeight(int id, double v) {
+		Double w_prev = getM_Id2Value().get( id );
+		if (w_prev != null)
+			try {
+				setValueByID( id, w_prev + v );
+			} catch (Exception e1) {
+				e1.printStackTrace();
+			}
+		else
+			try {
+				setValueByNewID( id, v );
+			} catch (Exception e1) {
+				e1.printStackTrace();
+			}
+	}
+
+
+	@Override
+	public void addScaledToW(DataPoint x, double factor) {
+		int[] indices = x.getFeatureIndices();
+		double[] values = x.getFeatureValues();
+		for (int k = 0; k < indices.length; k++)
+			addToWeight(indices[k], factor * values[k]);
+	}
+
+
+	/**
+	 * Same as addScaledToW(x_i - x_j, factor), walking the IDs of both in
+	 * order, without making x_i - x_j.
+	 */
+	@Override
+	public void addScaledDifferenceToW(DataPoint x_i, DataPoint x_j, double factor) {
+		int[] ii = x_i.getFeatureIndices(), ji = x_j.getFeatureIndices();
+		double[] iv = x_i.getFeatureValues(), jv = x_j.getFeatureValues();
+		int a = 0, b = 0;
+		while (a < ii.length || b < ji.length) {
+			if (b == ji.length || (a < ii.length && ii[a] < ji[b])) {
+				addToWeight(ii[a], factor * iv[a]);
+				a++;
+			} else if (a == ii.length || ji[b] < ii[a]) {
+				addToWeight(ji[b], factor * -jv[b]);
+				b++;
+			} else {
+				addToWeight(ii[a], factor * (iv[a] - jv[b]));
+				a++;
+				b++;
+			}
+		}
+	}
+
 
        /* This function updates the pocket weight vector using the commity concept*/
 
@@ -492,14 +534,18 @@ public class BasicLinearModel implements LinearModel
 
 
 
+	@Override
+	public LinearModel snapshot() {
+		return new LinearModelSnapshot(getM_Id2Value());
+	}
+
+
+
 	@Override
 	public void saveModel(String fileName) {
 		System.out.print("Writing Vocabulary...");
 		canWriteNewWords=false;
 
-		StringBuilder s = new StringBuilder();
-
-		s.append("Vocabulary Format: <id>\t<value>\n");
 		Double value = null;
 		Integer id = null;
 
@@ -508,28 +554,29 @@ public class BasicLinearModel implements LinearModel
 		id = 0;
 		value = getB();
 
-		s.append(id +"\t"+value+"\n");
-
-		for(Map.Entry<Integer, Double> e : getM_Id2Value().entrySet() )
-		{
-			try
-			{
-				id = e.getKey();
-				value = e.getValue();
-			}
-			catch(Exception ex)
-			{
-				System.out.println("Error writing voc: "+ ex.toString());
-				continue;
-			}
-
-			if((id!=null) && (value!=null) && (value!=0))
-				s.append(id +"\t"+value+"\n");
-		}
 		BufferedWriter fp;
 		try {
+			//Written line by line, to avoid holding the whole model in a String
 			fp = new BufferedWriter(new FileWriter( fileName  ));
-			fp.write(s.toString());
+			fp.write("Vocabulary Format: <id>\t<value>\n");
+			fp.write(id +"\t"+value+"\n");
+
+			for(Map.Entry<Integer, Double> e : getM_Id2Value().entrySet() )
+			{
+				try
+				{
+					id = e.getKey();
+					value = e.getValue();
+				}
+				catch(Exception ex)
+				{
+					System.out.println("Error writing voc: "+ ex.toString());
+					continue;
+				}
+
+				if((id!=null) && (value!=null) && (value!=0))
+					fp.write(id +"\t"+value+"\n");
+			}
 			fp.close();
 		} catch (IOException e1) {
 			e1.printStackTrace();
@@ -544,9 +591,6 @@ public class BasicLinearModel implements LinearModel
 		System.out.print("Writing Vocabulary...");
 		canWriteNewWords=false;
 
-		StringBuilder s = new StringBuilder();
-
-		s.append("Vocabulary Format: <id>\t<value>\n");
 		Double value = null;
 		Integer id = null;
 
@@ -555,28 +599,29 @@ public class BasicLinearModel implements LinearModel
 		id = 0;
 		value = getB();
 
-		s.append(id +"\t"+value+"\n");
-
-		for(Map.Entry<Integer, Double> e : getM_Id2Value().entrySet() )
-		{
-			try
-			{
-				id = e.getKey();
-				value = e.getValue();
-			}
-			catch(Exception ex)
-			{
-				System.out.println("Error writing voc: "+ ex.toString());
-				continue;
-			}
-
-			if((id!=null) && (value!=null) && (value!=0))
-				s.append(id +"\t"+value+"\n");
-		}
 		BufferedWriter fp;
 		try {
+			//Written line by line, to avoid holding the whole model in a String
 			fp = new BufferedWriter(new FileWriter( model_filename  ));
-			fp.write(s.toString());
+			fp.write("Vocabulary Format: <id>\t<value>\n");
+			fp.write(id +"\t"+value+"\n");
+
+			for(Map.Entry<Integer, Double> e : getM_Id2Value().entrySet() )
+			{
+				try
+				{
+					id = e.getKey();
+					value = e.getValue();
+				}
+				catch(Exception ex)
+				{
+					System.out.println("Error writing voc: "+ ex.toString());
+					continue;
+				}
+
+				if((id!=null) && (value!=null) && (value!=0))
+					fp.write(id +"\t"+value+"\n");
+			}
 			fp.close();
 		} catch (IOException e1) {
 			e1.printStackTrace();
@@ -597,6 +642,12 @@ public class BasicLinearModel implements LinearModel
 			return;
 		}
 
+		if(BinaryModelFile.isBinary(fileName))
+		{
+			loadModelBinary(fileName);
+			return;
+		}
+
 		//LOAD HEADER
 		String line;
 		BufferedReader input;
@@ -630,6 +681,25 @@ public class BasicLinearModel implements LinearModel
 		}
 	}
 
+	/**
+	 * Loads a model saved in the format of BinaryModelFile.
+	 */
+	private void loadModelBinary(String fileName)
+	{
+		try {
+			BinaryModelFile file = BinaryModelFile.map(fileName);
+			setB(file.getBias());
+			DoubleBuffer dense = file.getDenseWeights();
+			for(int id=1; id<file.getDimension(); id++)
+				if(dense.get(id)!=0)
+					getM_Id2Value().put(id, dense.get(id));
+			for(int k=0; k<file.getSparseIDs().length; k++)
+				getM_Id2Value().put(file.getSparseIDs()[k], file.getSparseValues()[k]);
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		}
+	}
+
 	@Override
 	public double getWi(int featureID) {
 		return getM_Id2Value().get(featureID);
@@ -637,7 +707,12 @@ public class BasicLinearModel implements LinearModel
 
 	@Override
 	public void wordCloudSetVocabulary(String voc_filename) throws Exception{
-		Words = new NGVoc(voc_filename);
+		Words = NGVoc.getShared(voc_filename);
+	}
+
+	@Override
+	public void wordCloudSetHashedVocabulary(String voc_filename, int bits) throws Exception{
+		Words = new NGHashedVoc(bits, voc_filename, true);
 	}
 
     /**
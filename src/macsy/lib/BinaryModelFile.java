@@ -0,0 +1,253 @@
+package macsy.lib;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Binary file format of linear models.
+ *
+ * All numbers are big-endian. Weights are 8-byte aligned, so they can be read
+ * in place from a memory mapped file.
+ *
+ * int     MAGIC
+ * int     VERSION
+ * int     offset of the dense weights (= header length)
+ * int     dimension (number of dense weights)
+ * int     number of sparse weights
+ * int     number of counters
+ * double  bias
+ * UTF     algorithm, e.g. "OnlinePerceptron"
+ * long[]  counters (learner specific, e.g. TP, TN, FP, FN)
+ * padding to a multiple of 8
+ * double[dimension]  dense weights, w[id] for 0 < id < dimension (w[0] unused)
+ * double[sparse]     values of sparse weights
+ * int[sparse]        their feature IDs
+ *
+ * Files are written to a temporary file first and renamed, so a reader never
+ * sees a partly written model. Text models of BasicLinearModel start with
+ * "Voca", so the two formats are told apart by isBinary().
+ */
+public class BinaryModelFile {
+
+	public static final int MAGIC = 0x4D4C4D46;	// "MLMF"
+	public static final int VERSION = 1;
+
+	private String algorithm;
+	private long[] counters;
+	private double bias;
+	private DoubleBuffer dense;
+	private int[] sparseIDs;
+	private double[] sparseValues;
+
+	private BinaryModelFile()
+	{
+	}
+
+	/**
+	 * @return True if the file exists and is a binary model.
+	 */
+	public static boolean isBinary(String fileName)
+	{
+		File f = new File(fileName);
+		if(!f.isFile() || f.length() < 4)
+			return false;
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(f));
+			try {
+				return in.readInt()==MAGIC;
+			}
+			finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Maps a binary model in memory (read-only). The dense weights are not
+	 * copied; the sparse ones are read in arrays.
+	 *
+	 * @param fileName
+	 * @return The model.
+	 * @throws IOException If the file is not a binary model of a known version,
+	 * or is truncated.
+	 */
+	public static BinaryModelFile map(String fileName) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+		MappedByteBuffer buf;
+		try {
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		finally {
+			raf.close();	// The mapping stays valid
+		}
+
+		if(buf.remaining() < 32 || buf.getInt(0)!=MAGIC)
+			throw new IOException(fileName + " is not a binary model");
+		int version = buf.getInt(4);
+		if(version!=VERSION)
+			throw new IOException(fileName + ": unknown model version " + version);
+
+		BinaryModelFile m = new BinaryModelFile();
+		int offset = buf.getInt(8);
+		int dimension = buf.getInt(12);
+		int numSparse = buf.getInt(16);
+		int numCounters = buf.getInt(20);
+		m.bias = buf.getDouble(24);
+
+		long length = buf.limit();
+		int utfLength = buf.getShort(32) & 0xFFFF;
+		if(dimension < 0 || numSparse < 0 || numCounters < 0
+				|| offset < 34L + utfLength + 8L * numCounters || offset % 8 != 0
+				|| offset + 8L * dimension + 12L * numSparse > length)
+			throw new IOException(fileName + " is truncated or corrupt: " + length
+					+ " bytes for " + dimension + " dense and " + numSparse + " sparse weights at " + offset);
+
+		buf.position(34);
+		byte[] utf = new byte[utfLength];
+		buf.get(utf);
+		m.algorithm = new String(utf, "UTF-8");
+		m.counters = new long[numCounters];
+		for(int i=0; i<numCounters; i++)
+			m.counters[i] = buf.getLong();
+
+		buf.position(offset);
+		ByteBuffer weights = buf.slice();
+		m.dense = weights.asDoubleBuffer();
+		m.dense.limit(dimension);
+
+		weights.position(8 * dimension);
+		m.sparseValues = new double[numSparse];
+		weights.asDoubleBuffer().get(m.sparseValues);
+		weights.position(8 * dimension + 8 * numSparse);
+		m.sparseIDs = new int[numSparse];
+		weights.asIntBuffer().get(m.sparseIDs);
+		return m;
+	}
+
+	/**
+	 * Writes a binary model, atomically.
+	 *
+	 * @param fileName
+	 * @param algorithm Name of the learner, or "".
+	 * @param counters Training counters of the learner, or null.
+	 * @param bias
+	 * @param dense w[id] for 0 < id < dimension.
+	 * @param dimension Number of dense weights to write.
+	 * @param sparseIDs IDs of weights not in dense, or null.
+	 * @param sparseValues Their values, or null.
+	 * @throws IOException
+	 */
+	public static void write(String fileName, String algorithm, long[] counters, double bias,
+			double[] dense, int dimension, int[] sparseIDs, double[] sparseValues) throws IOException
+	{
+		if(algorithm==null)
+			algorithm = "";
+		if(counters==null)
+			counters = new long[0];
+		int numSparse = sparseIDs==null ? 0 : sparseIDs.length;
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream h = new DataOutputStream(header);
+		h.writeUTF(algorithm);
+		for(long c : counters)
+			h.writeLong(c);
+		h.close();
+		int offset = 32 + header.size();
+		offset = (offset + 7) & ~7;
+
+		File target = new File(fileName).getAbsoluteFile();
+		File tmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		FileOutputStream fos = new FileOutputStream(tmp);
+		boolean written = false;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(offset);
+			out.writeInt(dimension);
+			out.writeInt(numSparse);
+			out.writeInt(counters.length);
+			out.writeDouble(bias);
+			header.writeTo(out);
+			for(int i=32+header.size(); i<offset; i++)
+				out.writeByte(0);
+			for(int id=0; id<dimension; id++)
+				out.writeDouble(id==0 ? 0 : dense[id]);
+			for(int k=0; k<numSparse; k++)
+				out.writeDouble(sparseValues[k]);
+			for(int k=0; k<numSparse; k++)
+				out.writeInt(sparseIDs[k]);
+			out.flush();
+			fos.getFD().sync();
+			written = true;
+		}
+		finally {
+			fos.close();
+			if(!written)
+				tmp.delete();
+		}
+
+		try {
+			Files.move(tmp.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(IOException e) {
+			tmp.delete();
+			throw e;
+		}
+	}
+
+	public String getAlgorithm()
+	{
+		return algorithm;
+	}
+
+	public long[] getCounters()
+	{
+		return counters;
+	}
+
+	public double getBias()
+	{
+		return bias;
+	}
+
+	/**
+	 * @return The dense weights, w[id] at index id, read from the mapped file.
+	 */
+	public DoubleBuffer getDenseWeights()
+	{
+		return dense.duplicate();
+	}
+
+	public int getDimension()
+	{
+		return dense.limit();
+	}
+
+	public int[] getSparseIDs()
+	{
+		return sparseIDs;
+	}
+
+	public double[] getSparseValues()
+	{
+		return sparseValues;
+	}
+}
@@ -0,0 +1,215 @@
+package macsy.lib;
+
+/**
+ * Hash map from words to int values. Words can be looked up by a range of a
+ * char[] (e.g. the result buffer of a Stemmer), so no String is created per
+ * lookup.
+ *
+ * Open addressing with linear probing, kept at most half full. Entries can not
+ * be removed one by one, only all together with clear(). Iterate over the
+ * entries as:
+ * for(int s=0; s<map.capacity(); s++)
+ * 		if(map.isUsed(s)) ... map.keyAt(s), map.valueAt(s)
+ */
+public final class CharsIntHashMap {
+
+	private char[][] keys;
+	private int[] hashes;
+	private int[] values;
+	private int size = 0;
+	private int mask;
+
+	public CharsIntHashMap()
+	{
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize The number of entries to make room for.
+	 */
+	public CharsIntHashMap(int expectedSize)
+	{
+		int capacity = 4;
+		while(capacity < 2 * expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new char[capacity][];
+		hashes = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Same as String.hashCode().
+	 */
+	private static int hash(char[] buf, int off, int len)
+	{
+		int h = 0;
+		for(int i=off; i<off+len; i++)
+			h = 31 * h + buf[i];
+		return h;
+	}
+
+	private int slot(int h)
+	{
+		h *= 0x9E3779B9;	//Fibonacci hashing
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private static boolean equal(char[] key, char[] buf, int off, int len)
+	{
+		if(key.length!=len)
+			return false;
+		for(int i=0; i<len; i++)
+			if(key[i]!=buf[off + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return The slot of the word, or -1 if it is not in the map.
+	 */
+	private int find(char[] buf, int off, int len, int h)
+	{
+		int s = slot(h);
+		while(keys[s]!=null)
+		{
+			if(hashes[s]==h && equal(keys[s], buf, off, len))
+				return s;
+			s = (s + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The value of the word buf[off..off+len), or defaultValue if it
+	 * is not in the map.
+	 */
+	public int get(char[] buf, int off, int len, int defaultValue)
+	{
+		int s = find(buf, off, len, hash(buf, off, len));
+		return s<0 ? defaultValue : values[s];
+	}
+
+	public int get(String word, int defaultValue)
+	{
+		char[] c = word.toCharArray();
+		return get(c, 0, c.length, defaultValue);
+	}
+
+	public boolean containsKey(char[] buf, int off, int len)
+	{
+		return find(buf, off, len, hash(buf, off, len)) >= 0;
+	}
+
+	public boolean containsKey(String word)
+	{
+		char[] c = word.toCharArray();
+		return containsKey(c, 0, c.length);
+	}
+
+	public void put(String word, int value)
+	{
+		char[] c = word.toCharArray();
+		put(c, 0, c.length, value, false);
+	}
+
+	/**
+	 * Same as put(String, int) for the word buf[off..off+len). The word is
+	 * copied only if it is new.
+	 */
+	public void put(char[] buf, int off, int len, int value)
+	{
+		put(buf, off, len, value, true);
+	}
+
+	private void put(char[] buf, int off, int len, int value, boolean copy)
+	{
+		int h = hash(buf, off, len);
+		int s = find(buf, off, len, h);
+		if(s >= 0)
+		{
+			values[s] = value;
+			return;
+		}
+
+		if(2 * (size + 1) > keys.length)
+			rehash(keys.length << 1);
+		s = slot(h);
+		while(keys[s]!=null)
+			s = (s + 1) & mask;
+		if(copy)
+		{
+			char[] c = new char[len];
+			System.arraycopy(buf, off, c, 0, len);
+			keys[s] = c;
+		}
+		else
+			keys[s] = buf;
+		hashes[s] = h;
+		values[s] = value;
+		size++;
+	}
+
+	/**
+	 * Removes all entries, keeping the capacity, so a map can be reused.
+	 */
+	public void clear()
+	{
+		if(size==0)
+			return;
+		java.util.Arrays.fill(keys, null);
+		size = 0;
+	}
+
+	private void rehash(int capacity)
+	{
+		char[][] oldKeys = keys;
+		int[] oldHashes = hashes;
+		int[] oldValues = values;
+		allocate(capacity);
+		for(int s=0; s<oldKeys.length; s++)
+		{
+			if(oldKeys[s]==null)
+				continue;
+			int t = slot(oldHashes[s]);
+			while(keys[t]!=null)
+				t = (t + 1) & mask;
+			keys[t] = oldKeys[s];
+			hashes[t] = oldHashes[s];
+			values[t] = oldValues[s];
+		}
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return The number of slots, for iteration.
+	 */
+	public int capacity()
+	{
+		return keys.length;
+	}
+
+	public boolean isUsed(int slot)
+	{
+		return keys[slot]!=null;
+	}
+
+	public String keyAt(int slot)
+	{
+		return new String(keys[slot]);
+	}
+
+	public int valueAt(int slot)
+	{
+		return values[slot];
+	}
+}
@@ -0,0 +1,87 @@
+package macsy.lib;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-min sketch of word counts: a fixed depth x width table of counters,
+ * whatever the number of distinct words. A count is over-estimated by the
+ * words that collide with it in every row, never under-estimated (apart from
+ * races of concurrent adds of the same word).
+ *
+ * Words are ranges of a char[], as in CharsIntHashMap. Counters are atomic, so
+ * several threads can share one sketch.
+ */
+public final class CountMinSketch {
+
+	private final int depth;
+	private final int mask;
+	private final AtomicIntegerArray counts;
+
+	/**
+	 * @param depth Number of rows (hash functions), e.g. 4.
+	 * @param width Counters per row; rounded up to a power of 2.
+	 */
+	public CountMinSketch(int depth, int width)
+	{
+		int w = 1;
+		while(w < width)
+			w <<= 1;
+		this.depth = depth;
+		this.mask = w - 1;
+		this.counts = new AtomicIntegerArray(depth * w);
+	}
+
+	/**
+	 * Adds one to the count of the word buf[off..off+len).
+	 *
+	 * @return The new estimate of its count.
+	 */
+	public int add(char[] buf, int off, int len)
+	{
+		int h1 = hash(buf, off, len);
+		int h2 = mix(h1) | 1;
+		int min = Integer.MAX_VALUE;
+		for(int r=0; r<depth; r++)
+			min = Math.min(min, counts.incrementAndGet(r * (mask + 1) + ((h1 + r * h2) & mask)));
+		return min;
+	}
+
+	/**
+	 * @return The estimate of the count of the word buf[off..off+len).
+	 */
+	public int estimate(char[] buf, int off, int len)
+	{
+		int h1 = hash(buf, off, len);
+		int h2 = mix(h1) | 1;
+		int min = Integer.MAX_VALUE;
+		for(int r=0; r<depth; r++)
+			min = Math.min(min, counts.get(r * (mask + 1) + ((h1 + r * h2) & mask)));
+		return min;
+	}
+
+	/**
+	 * Bytes used by the counters.
+	 */
+	public long memoryBytes()
+	{
+		return 4L * counts.length();
+	}
+
+	private static int hash(char[] buf, int off, int len)
+	{
+		int h = 0;
+		for(int i=off; i<off+len; i++)
+			h = 31 * h + buf[i];
+		return mix(h);
+	}
+
+	private static int mix(int h)
+	{
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
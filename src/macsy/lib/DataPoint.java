@@ -1,20 +1,29 @@
 /**
  * DataPoint have a dual representation of their features.
- * 
- * The first is a TreeMap
+ *
+ * The first is a sparse vector: feature IDs in increasing order and their values,
+ * in two parallel arrays.
  * The second is a String vector of format: <feature1>:<value1> <feature2>:<value2> ...
- * 
+ *
+ * Each one is built from the other when it is first needed.
+ *
  */
 package macsy.lib;
 
 import java.text.DecimalFormat;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 
 
-@SuppressWarnings("unchecked")
 public class DataPoint extends Object implements Comparable<Object> {
 	private Object ID;	// Unique ID to identify this DataPoint from other datapoints.
 	private int RealLabel = UNKNOWN_LABEL; // Used for classification := Ground Truth
@@ -23,17 +32,25 @@ public class DataPoint extends Object implements Comparable<Object> {
 
 	public static final int UNKNOWN_LABEL = Integer.MIN_VALUE;
 
-	//	Map<Integer,Integer> indexed;
+	private static final int[] NO_INDICES = new int[0];
+	private static final double[] NO_VALUES = new double[0];
 
-	//Two representations of the same data. 
-	//Map is used for computations, and string for outputing features.
-	private Map<Integer,Double> FeaturesMap_ = null;
+	//Two representations of the same data.
+	//Vector is used for computations, and string for outputing features.
+	//At least one of them is not null.
+	private int[] Indices_ = null;	// feature IDs, strictly increasing
+	private double[] Values_ = null;	// value of Indices_[k] is Values_[k]
 	private String FeaturesString;	// has no label in it
 
+	/**
+	 * Read-only Map view of the vector, see getFeaturesMap()
+	 */
+	private Map<Integer,Double> FeaturesMapView_ = null;
+
 	/**
 	 * 	DO NOT USE IT DIRECTLY ONLY THREW GetMagnitude function, that calculates it
-	 */ 
-	private Double m_Magnitude =  null; 
+	 */
+	private double m_Magnitude = Double.NaN;
 
 	//	public double decision_value;
 	public byte[] md5=null;
@@ -43,7 +60,7 @@ public class DataPoint extends Object implements Comparable<Object> {
 	 * It doesn't matter what labels they have
 	 */
 	public int  compareTo(Object o) {
-		return FeaturesString.compareTo(((DataPoint)o).FeaturesString);
+		return getFeatures().compareTo(((DataPoint)o).getFeatures());
 	}
 
 	/**
@@ -52,57 +69,89 @@ public class DataPoint extends Object implements Comparable<Object> {
 	public DataPoint clone()
 	{
 		DataPoint cp = new DataPoint( FeaturesString );
+		if(Indices_!=null)
+		{
+			cp.Indices_ = Indices_.clone();
+			cp.Values_ = Values_.clone();
+		}
 		cp.setID( ID );
 		cp.setRealLabel(RealLabel);
 		cp.setPredictedLabel( PredictedLabel);
 		cp.setPredictedLabel_Value(PredictedLabel_Value);
 		return cp;
 	}
-	
+
 	/**
 	 * Create a new Point by Map.
-	 * String representation is built automatically.   
+	 * String representation is built when needed.
 	 * Label is set to UNKNOWN
-	 * 
+	 *
 	 * @param features_map
 	 */
 	public DataPoint(Map<Integer,Double> features_map) {
-		FeaturesMap_ = new TreeMap<Integer,Double> (features_map);
-		setRealLabel(UNKNOWN_LABEL);
-		Features_Map2String();
+		this(features_map, UNKNOWN_LABEL);
 	}
 
 	public DataPoint() {
-		this(new TreeMap<Integer,Double>());
+		Indices_ = NO_INDICES;
+		Values_ = NO_VALUES;
+		setRealLabel(UNKNOWN_LABEL);
 	}
-	
-	
+
+
 	/**
-	 * The input feature string has NO label. 
+	 * The input feature string has NO label.
 	 * It is set in here to UNKNOWN_LABEL.
-	 *  
+	 *
 	 * @param features <feature1>:<value1> <feature2>:<value2> ...
 	 * @param l_label
 	 */
 	public DataPoint(String features) {
-		//features = features_map;
 		setRealLabel(UNKNOWN_LABEL);
 
 		FeaturesString =  features;
-	//	Features_String2Map();
 	}
 
 
 
 	/**
 	 * Create a new Point by Map and assign label.
-	 * String representation is built automatically.   
+	 * String representation is built when needed.
+	 * The map is copied.
 	 * @param features_map
 	 */
 	public DataPoint(Map<Integer,Double> features_map,int l_label) {
-		FeaturesMap_ = features_map;
+		if(!(features_map instanceof SortedMap)
+				|| ((SortedMap<Integer,Double>)features_map).comparator()!=null)
+			features_map = new TreeMap<Integer,Double>(features_map);
+
+		int n = features_map.size();
+		Indices_ = new int[n];
+		Values_ = new double[n];
+		int k = 0;
+		for(Map.Entry<Integer,Double> e : features_map.entrySet())
+		{
+			Indices_[k] = e.getKey();
+			Values_[k] = e.getValue();
+			k++;
+		}
+		setRealLabel(l_label);
+	}
+
+	/**
+	 * Create a new Point by a sparse vector and assign label.
+	 * The arrays are used as they are, not copied, and are never modified.
+	 *
+	 * @param indices Feature IDs in strictly increasing order.
+	 * @param values Their values.
+	 * @param l_label
+	 */
+	public DataPoint(int[] indices, double[] values, int l_label) {
+		if(indices.length!=values.length)
+			throw new IllegalArgumentException("Indices and values differ in length");
+		Indices_ = indices;
+		Values_ = values;
 		setRealLabel(l_label);
-		Features_Map2String();
 	}
 
 	/**
@@ -111,35 +160,33 @@ public class DataPoint extends Object implements Comparable<Object> {
 	 */
 	public DataPoint(List<Double> features_list)
 	{
-		FeaturesMap_ = new TreeMap<Integer,Double>();
-		int index;
-		double value;
-		for(int f=0; f<features_list.size(); f+=2)
+		int n = features_list.size() / 2;
+		int[] indices = new int[n];
+		double[] values = new double[n];
+		for(int k=0; k<n; k++)
 		{
-			index = (int) Math.round(features_list.get(f));
-			value = features_list.get(f+1);
-			FeaturesMap_.put(index, value);
+			indices[k] = (int) Math.round(features_list.get(2*k));
+			values[k] = features_list.get(2*k+1);
 		}
-		
+		setVector(indices, values, n);
+
 		setRealLabel(UNKNOWN_LABEL);
-		Features_Map2String();
 	}
-	
+
 	/**
-	 *  Create a new Point by Map and assign label.
-	 *  Map representation is built automatically.   
+	 *  Create a new Point by String and assign label.
+	 *  Vector representation is built when needed.
 	 * @param features <feature1>:<value1> <feature2>:<value2> ...
 	 * @param l_label
 	 */
 	public DataPoint(String features,int l_label) {
 		setRealLabel(l_label);
 		FeaturesString =  features;
-		//Features_String2Map();
 	}
 
 	/**
-	 *  Create a new Point by Map and assign label.
-	 *  Map representation is built automatically.   
+	 *  Create a new Point by String and assign label.
+	 *  Vector representation is built when needed.
 	 * @param features <feature1>:<value1> <feature2>:<value2> ...
 	 * @param l_label
 	 */
@@ -149,275 +196,224 @@ public class DataPoint extends Object implements Comparable<Object> {
 	}
 
 
-
 	/**
-	 * Uses features_string as input to produce the features Map
-	 *
+	 * Sets the vector from the first n pairs of the arrays.
+	 * If IDs are not in increasing order they are sorted, and for
+	 * repeated IDs the last value is kept.
 	 */
-	private void Features_String2Map()
+	private void setVector(int[] indices, double[] values, int n)
 	{
-		FeaturesMap_ = new TreeMap<Integer,Double>();
+		boolean sorted = true;
+		for(int k=1; k<n && sorted; k++)
+			sorted = indices[k-1] < indices[k];
 
-		StringTokenizer st1 = new StringTokenizer(FeaturesString," :");
+		if(sorted)
+		{
+			if(n < indices.length)
+			{
+				indices = Arrays.copyOf(indices, n);
+				values = Arrays.copyOf(values, n);
+			}
+			Indices_ = indices;
+			Values_ = values;
+			return;
+		}
 
-		while(st1.hasMoreTokens())
+		//Rare: Written by hand or by an unordered map
+		TreeMap<Integer,Double> map = new TreeMap<Integer,Double>();
+		for(int k=0; k<n; k++)
+			map.put(indices[k], values[k]);
+		Indices_ = new int[map.size()];
+		Values_ = new double[map.size()];
+		int k = 0;
+		for(Map.Entry<Integer,Double> e : map.entrySet())
 		{
-			Integer ind= new Integer(st1.nextToken());
-			Double freq= new Double(st1.nextToken());
-			FeaturesMap_.put(ind, freq);
+			Indices_[k] = e.getKey();
+			Values_[k] = e.getValue();
+			k++;
 		}
 	}
 
-
-
 	/**
-	 * Uses features map as input to produce the features String
+	 * Uses features_string as input to produce the features vector
 	 *
 	 */
-	private void Features_Map2String() 
+	private void Features_String2Vector()
 	{
-		if(FeaturesMap_==null)
+		StringTokenizer st1 = new StringTokenizer(FeaturesString," :");
+
+		int n = 0;
+		int[] indices = new int[st1.countTokens() / 2];
+		double[] values = new double[indices.length];
+		while(n < indices.length)
 		{
-			System.out.print("Can not create features string, since Map is empty");
-			return;
+			indices[n] = Integer.parseInt(st1.nextToken());
+			values[n] = Double.parseDouble(st1.nextToken());
+			n++;
 		}
-		
-		
-		StringBuffer featurevector=new StringBuffer(1000);
-		int term = 0;
-		double value = 0 ;
+		setVector(indices, values, n);
+	}
+
+	/**
+	 * Makes sure the vector representation exists.
+	 */
+	private void vector()
+	{
+		if(Indices_==null)
+			Features_String2Vector();
+	}
 
-		//Find and append classlabel first
+	/**
+	 * Uses features vector as input to produce the features String
+	 *
+	 */
+	private void Features_Vector2String()
+	{
+		StringBuilder featurevector=new StringBuilder(16 * Indices_.length);
 
 		DecimalFormat threePlaces = new DecimalFormat("0.000");
 
-		for (Object e : FeaturesMap_.entrySet()) {
-			term = 	((Map.Entry<Integer, Double>)e).getKey();
-			value= 	((Map.Entry<Integer, Double>)e).getValue();
-
-			featurevector.append(term + ":"+ threePlaces.format(value)+" ");
-		}
+		for (int k=0; k<Indices_.length; k++)
+			featurevector.append(Indices_[k]).append(':').append(threePlaces.format(Values_[k])).append(' ');
 
 		FeaturesString = featurevector.toString();
 	}
 
 	/**
 	 * Returns the Magnitude of vector x  (2-norm)
-	 * 
+	 *
 	 * ||x|| = sqrt(x1*x1 + x2*x2 + ...xn*xn)
-	 * 
+	 *
 	 * It also stores the value of the magnitude, and return that value for future usage.
-	 * 
+	 *
 	 */
 	public double getMagnitude()
 	{
-		if(FeaturesMap_==null)
-			Features_String2Map();
-			
-		if(m_Magnitude!=null)
+		if(!Double.isNaN(m_Magnitude))
 			return m_Magnitude;
 
-		m_Magnitude = new Double(0);
+		vector();
 
-		for (Map.Entry<Integer, Double> e1 : FeaturesMap_.entrySet()) 
-			m_Magnitude += Math.pow(e1.getValue(), 2);
+		double m = 0;
+		for (int k=0; k<Values_.length; k++)
+			m += Values_[k] * Values_[k];
 
-		m_Magnitude = Math.sqrt( m_Magnitude );
+		m_Magnitude = Math.sqrt( m );
 
 		return m_Magnitude;
 	}
 
 
+	private static final int L1 = 1;
+	private static final int L2 = 2;
+	private static final int LINF = 0;
+
+	/**
+	 * Merges the two vectors and computes the given norm of their difference.
+	 * For L2 the squared norm is returned.
+	 */
+	private double distance(DataPoint x, int norm)
+	{
+		vector();
+		x.vector();
+
+		int[] yi = Indices_, xi = x.Indices_;
+		double[] yv = Values_, xv = x.Values_;
+		int a = 0, b = 0;
+		double d = 0;
+		while(a < yi.length || b < xi.length)
+		{
+			double diff;
+			if(b==xi.length || (a < yi.length && yi[a] < xi[b]))
+				diff = yv[a++];	//Only in local point
+			else if(a==yi.length || xi[b] < yi[a])
+				diff = xv[b++];	//Only in x
+			else
+				diff = yv[a++] - xv[b++];
+
+			if(norm==L2)
+				d += diff * diff;
+			else if(norm==L1)
+				d += Math.abs(diff);
+			else if(Math.abs(diff) > d)
+				d = Math.abs(diff);
+		}
+		return d;
+	}
 
 	/**
 	 * Return the Squared Eucledian distance to the given point.
-	 * 
+	 *
 	 * @param x
 	 * @return
 	 */
 	public  double getSquaredEuclideanDistance(DataPoint x)
 	{
-		double d = 0;
-
-		if(x.FeaturesMap_==null)
-			x.Features_String2Map();
-		
-		if(FeaturesMap_==null)
-			Features_String2Map();
-		
-		
-		//First parse get common values or values in x
-		for (Object e : x.FeaturesMap_.entrySet()) {
-			int x_key = 	((Map.Entry<Integer, Double>)e).getKey();
-			double x_value = 	((Map.Entry<Integer, Double>)e).getValue();
-
-			Double y_value = FeaturesMap_.get(x_key);
-			if(y_value==null)
-				y_value = new Double(0);
-
-			d += Math.pow(x_value - y_value , 2.0) ;
-		}
-
-		/// second parse get values in local point that do not exist in x
-		for (Object e : FeaturesMap_.entrySet()) {
-			int y_key = 	((Map.Entry<Integer, Double>)e).getKey();
-
-			if(!x.FeaturesMap_.containsKey(y_key))
-			{
-				double y_value = 	((Map.Entry<Integer, Double>)e).getValue();
-				d += Math.pow( y_value , 2.0) ;
-			}
-		}
-
-		return d ;
+		return distance(x, L2);
 	}
 
 	/**
 	 * Return the Eucledian distance to the given point.
-	 * 
+	 *
 	 * @param x
 	 * @return
 	 */
 	public  double getEuclideanDistance(DataPoint x)
 	{
-		if(x.FeaturesMap_==null)
-			x.Features_String2Map();
-		
-		if(FeaturesMap_==null)
-			Features_String2Map();
-		
-		double d = 0;
-
-		//First parse get common values or values in x
-		for (Object e : x.FeaturesMap_.entrySet()) {
-			int x_key = 	((Map.Entry<Integer, Double>)e).getKey();
-			double x_value = 	((Map.Entry<Integer, Double>)e).getValue();
-
-			Double y_value = FeaturesMap_.get(x_key);
-			if(y_value==null)
-				y_value = new Double(0);
-
-			d += Math.pow(x_value - y_value , 2.0) ;
-		}
-
-		/// second parse get values in local point that do not exist in x
-		for (Object e : FeaturesMap_.entrySet()) {
-			int y_key = 	((Map.Entry<Integer, Double>)e).getKey();
-
-			if(!x.FeaturesMap_.containsKey(y_key))
-			{
-				double y_value = 	((Map.Entry<Integer, Double>)e).getValue();
-				d += Math.pow( y_value , 2.0) ;
-			}
-		}
-
-		return Math.sqrt( d );
+		return Math.sqrt( distance(x, L2) );
 	}
 
 	/**
 	 * Return the Chebyshev distance to the given point.
-	 * 
+	 *
 	 * Chebyshev = L(inf)  = max( | xi - yi | )
-	 * 
+	 *
 	 * @param x
 	 * @return
 	 */
 	public  double getChebyshevDistance(DataPoint x)
 	{
-		if(x.FeaturesMap_==null)
-			x.Features_String2Map();
-		if(FeaturesMap_==null)
-			Features_String2Map();
-		
-		double d = 0;
-
-		double local_d = 0;
-		//First parse get common values or values in x
-		for (Map.Entry<Integer, Double> e : x.FeaturesMap_.entrySet()) {
-			int x_key = 	e.getKey();
-			double x_value = 	e.getValue();
-
-			Double y_value = FeaturesMap_.get(x_key);
-			if(y_value==null)
-				y_value = new Double(0);
-
-			local_d = Math.abs( y_value - x_value );
-			if(local_d > d )
-				d = local_d;
-		}
-
-		/// second parse get values in local point that do not exist in x
-		for (Map.Entry<Integer, Double> e : FeaturesMap_.entrySet()) {
-			int y_key =  e.getKey();
-
-			if(!x.FeaturesMap_.containsKey(y_key))
-			{
-				local_d =  Math.abs( e.getValue() );
-				if(local_d > d )
-					d = local_d;
-			}
-		}
-
-		return d;
+		return distance(x, LINF);
 	}
 
 	/**
-	 * Computes L1 norm 
-	 * 
+	 * Computes L1 norm
+	 *
 	 * ||X - Y||  = sum( |xi-yi| )
-	 * 
+	 *
 	 * @param x
 	 * @return
 	 */
 	public  double getManhattanDistance(DataPoint x)
 	{
-		if(x.FeaturesMap_==null)
-			x.Features_String2Map();
-		
-		if(FeaturesMap_==null)
-			Features_String2Map();
-		
-		double d = 0;
-
-		//First parse get common values or values in x
-		for (Map.Entry<Integer, Double> e : x.FeaturesMap_.entrySet()) {
-			int x_key = 	e.getKey();
-			double x_value = 	e.getValue();
-
-			Double y_value = FeaturesMap_.get(x_key);
-			if(y_value==null)
-				y_value = new Double(0);
-
-			d += Math.abs( y_value - x_value );
-		}
-
-		/// second parse get values in local point that do not exist in x
-		for (Map.Entry<Integer, Double> e : FeaturesMap_.entrySet()) {
-			int y_key =  e.getKey();
-
-			if(!x.FeaturesMap_.containsKey(y_key))
-			{
-				d +=  Math.abs( e.getValue() );
-			}
-		}
-
-		return d;
+		return distance(x, L1);
 	}
 
 	/**
 	 * Return the dot product of point with x
-	 * 
+	 *
 	 * x.y = x1*y1 + x2*y2 + ... + xn*yn
-	 * 
+	 *
 	 * @param x
 	 * @return
 	 */
 	public double getDotProduct(DataPoint x) {
-		double dotproduct = 0;
+		vector();
+		x.vector();
 
-		for (Map.Entry<Integer, Double> e1 : x.FeaturesMap_.entrySet()) 
-			if(FeaturesMap_.containsKey(e1.getKey())) //Local Point
-				dotproduct+=e1.getValue() * FeaturesMap_.get(e1.getKey());
+		int[] yi = Indices_, xi = x.Indices_;
+		double[] yv = Values_, xv = x.Values_;
+		int a = 0, b = 0;
+		double dotproduct = 0;
+		while(a < yi.length && b < xi.length)
+		{
+			if(yi[a] < xi[b])
+				a++;
+			else if(xi[b] < yi[a])
+				b++;
+			else
+				dotproduct += yv[a++] * xv[b++];
+		}
 
 		return dotproduct;
 	}
@@ -445,9 +441,9 @@ public class DataPoint extends Object implements Comparable<Object> {
 
 	/**
 	 * SOS. Modifies X as:
-	 * 
+	 *
 	 * X  = X / ||X||
-	 * 
+	 *
 	 * where ||X|| is the second norm of X.
 	 *
 	 */
@@ -456,10 +452,14 @@ public class DataPoint extends Object implements Comparable<Object> {
 		if(m_Magnitude == 0)
 			return; // Nothing to normalize
 
-		for (Map.Entry<Integer, Double> e1 : FeaturesMap_.entrySet())
-			FeaturesMap_.put( e1.getKey() , e1.getValue() / m_Magnitude);
+		// A new array, since Values_ may be shared with the caller of the
+		// (int[], double[], int) constructor or of getFeatureValues()
+		double[] values = new double[Values_.length];
+		for (int k=0; k<values.length; k++)
+			values[k] = Values_[k] / m_Magnitude;
+		Values_ = values;
 
-		Features_Map2String();
+		FeaturesString = null;
 
 		m_Magnitude = 1.0;
 	}
@@ -480,7 +480,7 @@ public class DataPoint extends Object implements Comparable<Object> {
 	public int getPredictedLabel() {
 		return PredictedLabel;
 	}
-	
+
 	public void setPredictedLabel_Value(Double predictedLabel_Value) {
 		PredictedLabel_Value = predictedLabel_Value;
 	}
@@ -488,7 +488,7 @@ public class DataPoint extends Object implements Comparable<Object> {
 	public Double getPredictedLabel_Value() {
 		return PredictedLabel_Value;
 	}
-	
+
 	public void setID(Object iD) {
 		ID = iD;
 	}
@@ -499,79 +499,177 @@ public class DataPoint extends Object implements Comparable<Object> {
 
 
 	/**
-	 * Get Features Map
-	 * used inside package in DataSet class
+	 * Get Features Map.
+	 * It is a read-only view of the vector, in increasing order of
+	 * feature ID. Kept for compatibility; getFeatureIndices() and
+	 * getFeatureValues() are faster.
+	 */
+	public Map<Integer,Double> getFeaturesMap()
+	{
+		if(FeaturesMapView_==null)
+			FeaturesMapView_ = new FeaturesMapView();
+
+		return FeaturesMapView_;
+	}
+
+	/**
+	 * @return The feature IDs, in strictly increasing order. Do not modify.
+	 */
+	public int[] getFeatureIndices()
+	{
+		vector();
+		return Indices_;
+	}
+
+	/**
+	 * @return The values of the features, in the order of getFeatureIndices(). Do not modify.
 	 */
-	public Map<Integer,Double> getFeaturesMap() 
+	public double[] getFeatureValues()
 	{
-		if(FeaturesMap_==null)
-			Features_String2Map();
-		
-		return FeaturesMap_;
+		vector();
+		return Values_;
 	}
 
-	public String getFeatures() 
+	/**
+	 * @return The number of (stored) features.
+	 */
+	public int getNumOfFeatures()
 	{
+		vector();
+		return Indices_.length;
+	}
+
+	public String getFeatures()
+	{
+		if(FeaturesString==null)
+			Features_Vector2String();
 		return FeaturesString;
 	}
 
-	public void setFeatures(String newfeatures) 
+	public void setFeatures(String newfeatures)
 	{
 		FeaturesString =  newfeatures;
-		Features_String2Map();
+		Features_String2Vector();
+		m_Magnitude = Double.NaN;
 	}
-	
+
 	public Double getFeatureValue(int featureID)
 	{
-		if(FeaturesMap_==null)
-			Features_String2Map();
-		return FeaturesMap_.get(featureID);
+		vector();
+		int k = Arrays.binarySearch(Indices_, featureID);
+		return k>=0 ? Values_[k] : null;
 	}
-	
+
 	/**
 	 * Computes the difference between two points
-	 * 
-	 * new data = X - Y  = X.features - Y.features 
-	 * 
+	 *
+	 * new data = X - Y  = X.features - Y.features
+	 *
 	 * @param Y : the DataPoint for the difference
 	 * @return the difference
 	 */
-	//TODO:One parsing should be enough since maps are order
-	
 	public static DataPoint difference(DataPoint x, DataPoint y)
 	{
-		Map<Integer,Double> feat = new TreeMap<Integer,Double>();
-		int index;
-		double value;
-		
-		//First parse get common values or values in x
-		for (Map.Entry<Integer, Double> e : x.getFeaturesMap().entrySet()) {
-			int x_key = 	e.getKey();
-			double x_value = 	e.getValue();
-
-			Double y_value = y.FeaturesMap_.get(x_key);
-			if(y_value==null)
-				y_value = new Double(0);
-			
-			index = (int) x_key;
-			value = (x_value - y_value);
-			feat.put(index, value);
-		}
-
-		/// second parse get values in local point that do not exist in X
-		for (Map.Entry<Integer, Double> e : y.FeaturesMap_.entrySet()) {
-			int y_key =  e.getKey();
-
-			if(!x.getFeaturesMap().containsKey(y_key))
+		x.vector();
+		y.vector();
+
+		int[] xi = x.Indices_, yi = y.Indices_;
+		double[] xv = x.Values_, yv = y.Values_;
+		int[] indices = new int[xi.length + yi.length];
+		double[] values = new double[indices.length];
+		int a = 0, b = 0, n = 0;
+		while(a < xi.length || b < yi.length)
+		{
+			if(b==yi.length || (a < xi.length && xi[a] < yi[b]))
+			{
+				indices[n] = xi[a];
+				values[n] = xv[a++];
+			}
+			else if(a==xi.length || yi[b] < xi[a])
+			{
+				indices[n] = yi[b];
+				values[n] = -yv[b++];
+			}
+			else
 			{
-				index = (int) y_key;
-				value = -e.getValue();
-				feat.put(index, value);
+				indices[n] = xi[a];
+				values[n] = xv[a++] - yv[b++];
 			}
+			n++;
 		}
 
-		return new DataPoint(feat);
+		if(n < indices.length)
+		{
+			indices = Arrays.copyOf(indices, n);
+			values = Arrays.copyOf(values, n);
+		}
+		return new DataPoint(indices, values, UNKNOWN_LABEL);
 	}
-	
 
+
+	/**
+	 * Map over the arrays of the vector, so that code written for
+	 * the old TreeMap representation still works. Lookups use binary search.
+	 */
+	private final class FeaturesMapView extends AbstractMap<Integer,Double> {
+
+		public int size()
+		{
+			vector();
+			return Indices_.length;
+		}
+
+		public boolean containsKey(Object key)
+		{
+			vector();
+			return (key instanceof Integer) && Arrays.binarySearch(Indices_, (Integer)key)>=0;
+		}
+
+		public Double get(Object key)
+		{
+			if(!(key instanceof Integer))
+				return null;
+			return getFeatureValue((Integer)key);
+		}
+
+		public Set<Map.Entry<Integer,Double>> entrySet()
+		{
+			return new AbstractSet<Map.Entry<Integer,Double>>() {
+				public int size()
+				{
+					return FeaturesMapView.this.size();
+				}
+
+				public Iterator<Map.Entry<Integer,Double>> iterator()
+				{
+					vector();
+					final int[] indices = Indices_;
+					final double[] values = Values_;
+					return new Iterator<Map.Entry<Integer,Double>>() {
+						int k = 0;
+
+						public boolean hasNext()
+						{
+							return k < indices.length;
+						}
+
+						public Map.Entry<Integer,Double> next()
+						{
+							if(k >= indices.length)
+								throw new NoSuchElementException();
+							Map.Entry<Integer,Double> e =
+								new AbstractMap.SimpleImmutableEntry<Integer,Double>(indices[k], values[k]);
+							k++;
+							return e;
+						}
+
+						public void remove()
+						{
+							throw new UnsupportedOperationException("DataPoint features are read-only");
+						}
+					};
+				}
+			};
+		}
+	}
 }
@@ -0,0 +1,285 @@
+package macsy.lib;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bson.types.Binary;
+
+/**
+ * Encodes sparse feature vectors (e.g. TF-IDF) for storage in a doc field.
+ *
+ * Legacy fields are BSON arrays of doubles: ID, value, ID, value...
+ * Binary fields are a single byte[] (BSON binary):
+ *
+ * byte    encoding (ENCODING_FLOAT or ENCODING_INT16)
+ * varint  number of features n
+ * varint  first feature ID (zig-zag), then n-1 increments of the ID
+ * values  FLOAT: n big-endian floats
+ *         INT16: a float scale and n big-endian shorts, value = short * scale
+ *
+ * A feature of a typical news vector takes 1-2 bytes for its ID and 4 (FLOAT)
+ * or 2 (INT16) for its value, instead of 2 doubles plus BSON overhead per
+ * element (~30 bytes).
+ *
+ * decode() reads both kinds of field straight into the arrays of a DataPoint.
+ */
+public class FeaturesCodec {
+
+	/**
+	 * BSON array of doubles, as written by older versions.
+	 */
+	public static final int ENCODING_ARRAY = 0;
+
+	/**
+	 * Binary, values as 32 bit floats.
+	 */
+	public static final int ENCODING_FLOAT = 1;
+
+	/**
+	 * Binary, values quantized to 16 bits (relative error < 2^-15 of the
+	 * largest absolute value of the vector).
+	 */
+	public static final int ENCODING_INT16 = 2;
+
+	/**
+	 * @param name ARRAY, FLOAT or INT16 (case insensitive). Null or empty is ARRAY.
+	 * @return The encoding.
+	 * @throws Exception On unknown name.
+	 */
+	public static int parseEncoding(String name) throws Exception
+	{
+		if(name==null || name.trim().length()==0 || name.trim().equalsIgnoreCase("ARRAY"))
+			return ENCODING_ARRAY;
+		if(name.trim().equalsIgnoreCase("FLOAT"))
+			return ENCODING_FLOAT;
+		if(name.trim().equalsIgnoreCase("INT16"))
+			return ENCODING_INT16;
+		throw new Exception("Unknown features encoding: " + name);
+	}
+
+	/**
+	 * Returns the value to store in a field for the given encoding:
+	 * a List<Double> for ENCODING_ARRAY, a byte[] otherwise.
+	 *
+	 * @param features ID to value.
+	 * @param encoding
+	 */
+	public static Object toFieldValue(Map<Integer,Double> features, int encoding)
+	{
+		return toFieldValue(new DataPoint(features), encoding);
+	}
+
+	/**
+	 * Same as toFieldValue(Map, int), for the features of a DataPoint.
+	 */
+	public static Object toFieldValue(DataPoint x, int encoding)
+	{
+		if(encoding==ENCODING_ARRAY)
+		{
+			int[] ids = x.getFeatureIndices();
+			double[] values = x.getFeatureValues();
+			List<Double> list = new java.util.ArrayList<Double>(2 * ids.length);
+			for(int k=0; k<ids.length; k++)
+			{
+				list.add((double) ids[k]);
+				list.add(values[k]);
+			}
+			return list;
+		}
+		return encode(x.getFeatureIndices(), x.getFeatureValues(), encoding);
+	}
+
+	/**
+	 * Encodes a vector in binary.
+	 *
+	 * @param ids Feature IDs in strictly increasing order.
+	 * @param values Their values.
+	 * @param encoding ENCODING_FLOAT or ENCODING_INT16.
+	 */
+	public static byte[] encode(int[] ids, double[] values, int encoding)
+	{
+		int n = ids.length;
+		int valueBytes = (encoding==ENCODING_INT16) ? 4 + 2 * n : 4 * n;
+		byte[] buf = new byte[1 + 5 + 5 * n + valueBytes];
+
+		int p = 0;
+		buf[p++] = (byte) encoding;
+		p = writeVarint(buf, p, n);
+		int prev = 0;
+		for(int k=0; k<n; k++)
+		{
+			if(k==0)
+				p = writeVarint(buf, p, (ids[0] << 1) ^ (ids[0] >> 31));	//zig-zag
+			else
+				p = writeVarint(buf, p, ids[k] - prev);
+			prev = ids[k];
+		}
+
+		if(encoding==ENCODING_INT16)
+		{
+			double max = 0;
+			for(int k=0; k<n; k++)
+				max = Math.max(max, Math.abs(values[k]));
+			float scale = (float) (max / Short.MAX_VALUE);
+			p = writeInt(buf, p, Float.floatToIntBits(scale));
+			for(int k=0; k<n; k++)
+			{
+				int q = scale==0 ? 0 : (int) Math.round(values[k] / scale);
+				q = Math.max(-Short.MAX_VALUE, Math.min(Short.MAX_VALUE, q));
+				buf[p++] = (byte) (q >> 8);
+				buf[p++] = (byte) q;
+			}
+		}
+		else if(encoding==ENCODING_FLOAT)
+		{
+			for(int k=0; k<n; k++)
+				p = writeInt(buf, p, Float.floatToIntBits((float) values[k]));
+		}
+		else
+			throw new IllegalArgumentException("Not a binary encoding: " + encoding);
+
+		byte[] out = new byte[p];
+		System.arraycopy(buf, 0, out, 0, p);
+		return out;
+	}
+
+	/**
+	 * Reads a features field, binary or legacy array.
+	 *
+	 * @param field The value of the field: byte[], Binary or List of numbers.
+	 * @return The vector, with UNKNOWN_LABEL, or null if field is null.
+	 * @throws Exception On unknown format.
+	 */
+	@SuppressWarnings("unchecked")
+	public static DataPoint decode(Object field) throws Exception
+	{
+		if(field==null)
+			return null;
+		if(field instanceof byte[])
+			return decode((byte[]) field);
+		if(field instanceof Binary)
+			return decode(((Binary) field).getData());
+		if(field instanceof List)
+			return decodeList((List<? extends Number>) field);
+		throw new Exception("Unknown features field type: " + field.getClass().getName());
+	}
+
+	/**
+	 * Legacy field: ID, value, ID, value...
+	 */
+	private static DataPoint decodeList(List<? extends Number> list)
+	{
+		int n = list.size() / 2;
+		int[] ids = new int[n];
+		double[] values = new double[n];
+		boolean sorted = true;
+		int k = 0;
+		for(Number v : list)	//Lists from the driver are linked, avoid get(i)
+		{
+			if((k & 1)==0)
+			{
+				if(k/2 >= n)
+					break;
+				ids[k/2] = (int) Math.round(v.doubleValue());
+				if(k > 0 && ids[k/2] <= ids[k/2-1])
+					sorted = false;
+			}
+			else
+				values[k/2] = v.doubleValue();
+			k++;
+		}
+
+		if(!sorted)	//Rare; let DataPoint sort and merge them
+		{
+			List<Double> pairs = new java.util.ArrayList<Double>(2 * n);
+			for(int i=0; i<n; i++)
+			{
+				pairs.add((double) ids[i]);
+				pairs.add(values[i]);
+			}
+			return new DataPoint(pairs);
+		}
+		return new DataPoint(ids, values, DataPoint.UNKNOWN_LABEL);
+	}
+
+	/**
+	 * Binary field.
+	 */
+	public static DataPoint decode(byte[] buf) throws Exception
+	{
+		int encoding = buf[0];
+		int[] pos = { 1 };
+		int n = readVarint(buf, pos);
+		int[] ids = new int[n];
+		double[] values = new double[n];
+
+		int id = 0;
+		for(int k=0; k<n; k++)
+		{
+			int v = readVarint(buf, pos);
+			id = (k==0) ? ((v >>> 1) ^ -(v & 1)) : id + v;
+			ids[k] = id;
+		}
+
+		int p = pos[0];
+		if(encoding==ENCODING_INT16)
+		{
+			float scale = Float.intBitsToFloat(readInt(buf, p));
+			p += 4;
+			for(int k=0; k<n; k++, p+=2)
+				values[k] = (short) (((buf[p] & 0xFF) << 8) | (buf[p+1] & 0xFF)) * (double) scale;
+		}
+		else if(encoding==ENCODING_FLOAT)
+		{
+			for(int k=0; k<n; k++, p+=4)
+				values[k] = Float.intBitsToFloat(readInt(buf, p));
+		}
+		else
+			throw new Exception("Unknown features encoding: " + encoding);
+
+		return new DataPoint(ids, values, DataPoint.UNKNOWN_LABEL);
+	}
+
+	private static int writeVarint(byte[] buf, int p, int v)
+	{
+		while((v & ~0x7F)!=0)
+		{
+			buf[p++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buf[p++] = (byte) v;
+		return p;
+	}
+
+	private static int readVarint(byte[] buf, int[] pos)
+	{
+		int p = pos[0];
+		int v = 0;
+		int shift = 0;
+		byte b;
+		do
+		{
+			b = buf[p++];
+			v |= (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while(b < 0);
+		pos[0] = p;
+		return v;
+	}
+
+	private static int writeInt(byte[] buf, int p, int v)
+	{
+		buf[p++] = (byte) (v >>> 24);
+		buf[p++] = (byte) (v >>> 16);
+		buf[p++] = (byte) (v >>> 8);
+		buf[p++] = (byte) v;
+		return p;
+	}
+
+	private static int readInt(byte[] buf, int p)
+	{
+		return ((buf[p] & 0xFF) << 24) | ((buf[p+1] & 0xFF) << 16)
+				| ((buf[p+2] & 0xFF) << 8) | (buf[p+3] & 0xFF);
+	}
+}
@@ -0,0 +1,196 @@
+package macsy.lib;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from int keys to double values without boxing.
+ *
+ * Open addressing with linear probing, kept at most half full. Entries can not
+ * be removed, only set to 0, which is enough for weight vectors.
+ *
+ * Iterate over the entries as:
+ * for(int s=0; s<map.capacity(); s++)
+ * 		if(map.isUsed(s)) ... map.keyAt(s), map.valueAt(s)
+ */
+public final class IntDoubleHashMap {
+
+	private int[] keys;
+	private double[] values;
+	private boolean[] used;
+	private int size = 0;
+	private int mask;
+
+	public IntDoubleHashMap()
+	{
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize The number of entries to make room for.
+	 */
+	public IntDoubleHashMap(int expectedSize)
+	{
+		int capacity = 4;
+		while(capacity < 2 * expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new int[capacity];
+		values = new double[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+	private int slot(int key)
+	{
+		int h = key * 0x9E3779B9;	//Fibonacci hashing
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * @return The slot of key, or -1 if it is not in the map.
+	 */
+	private int find(int key)
+	{
+		int s = slot(key);
+		while(used[s])
+		{
+			if(keys[s]==key)
+				return s;
+			s = (s + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The slot of key, after adding it with value 0 if needed.
+	 */
+	private int insert(int key)
+	{
+		int s = slot(key);
+		while(used[s])
+		{
+			if(keys[s]==key)
+				return s;
+			s = (s + 1) & mask;
+		}
+
+		if(2 * (size + 1) > keys.length)
+		{
+			rehash(keys.length << 1);
+			return insert(key);
+		}
+		used[s] = true;
+		keys[s] = key;
+		values[s] = 0;
+		size++;
+		return s;
+	}
+
+	private void rehash(int capacity)
+	{
+		int[] oldKeys = keys;
+		double[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(capacity);
+		for(int s=0; s<oldKeys.length; s++)
+		{
+			if(!oldUsed[s])
+				continue;
+			int t = slot(oldKeys[s]);
+			while(used[t])
+				t = (t + 1) & mask;
+			used[t] = true;
+			keys[t] = oldKeys[s];
+			values[t] = oldValues[s];
+		}
+	}
+
+	/**
+	 * @return The value of key, or defaultValue if it is not in the map.
+	 */
+	public double get(int key, double defaultValue)
+	{
+		int s = find(key);
+		return s<0 ? defaultValue : values[s];
+	}
+
+	public boolean containsKey(int key)
+	{
+		return find(key) >= 0;
+	}
+
+	public void put(int key, double value)
+	{
+		int s = insert(key);	//May rehash, so before reading values
+		values[s] = value;
+	}
+
+	/**
+	 * Adds delta to the value of key (0 if it is not in the map).
+	 *
+	 * @return The new value.
+	 */
+	public double add(int key, double delta)
+	{
+		int s = insert(key);
+		values[s] += delta;
+		return values[s];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void clear()
+	{
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	/**
+	 * @return The number of slots, for iteration.
+	 */
+	public int capacity()
+	{
+		return keys.length;
+	}
+
+	public boolean isUsed(int slot)
+	{
+		return used[slot];
+	}
+
+	public int keyAt(int slot)
+	{
+		return keys[slot];
+	}
+
+	public double valueAt(int slot)
+	{
+		return values[slot];
+	}
+
+	public void setValueAt(int slot, double value)
+	{
+		values[slot] = value;
+	}
+
+	/**
+	 * @return The keys, in increasing order.
+	 */
+	public int[] sortedKeys()
+	{
+		int[] k = new int[size];
+		int n = 0;
+		for(int s=0; s<keys.length; s++)
+			if(used[s])
+				k[n++] = keys[s];
+		Arrays.sort(k);
+		return k;
+	}
+}
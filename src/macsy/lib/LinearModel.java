@@ -19,6 +19,24 @@ public interface LinearModel {
 	 */
 	void addToW(DataPoint x, double value);
 
+	/**
+	 * Adds factor*x to w; the bias is not changed.
+	 *
+	 * @param x
+	 * @param factor
+	 */
+	void addScaledToW(DataPoint x, double factor);
+
+	/**
+	 * Adds factor*(x_i - x_j) to w, as addScaledToW() of the difference but
+	 * without making it; the bias is not changed.
+	 *
+	 * @param x_i
+	 * @param x_j
+	 * @param factor
+	 */
+	void addScaledDifferenceToW(DataPoint x_i, DataPoint x_j, double factor);
+
 	/**
 	 * Adds c to b. 
 	 * @param b
@@ -79,6 +97,14 @@ public interface LinearModel {
 	 */
 	double score(DataPoint x);
 
+	/**
+	 * Returns a read-only copy of the model that later updates do not change.
+	 * Threads can score with it while the model is trained.
+	 *
+	 * @return
+	 */
+	LinearModel snapshot();
+
 	/**
 	 * Saves the model to file.
 	 * 
@@ -118,6 +144,13 @@ public interface LinearModel {
 	  * @param vocabulary: the filename of the vocabulary used
 	  */
 	 void wordCloudSetVocabulary(String voc_filename) throws Exception;
+
+	 /**
+	  * Same as wordCloudSetVocabulary(), for models of hashed features (see NGHashedVoc).
+	  * Words of the vocabulary that hash to the same ID are shown together.
+	  * @param bits: the number of hashing bits the features were created with
+	  */
+	 void wordCloudSetHashedVocabulary(String voc_filename, int bits) throws Exception;
 	 
 	 TreeMap<Integer, Double> getM_Id2Value() throws Exception;
 	 
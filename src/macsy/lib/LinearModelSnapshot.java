@@ -0,0 +1,243 @@
+package macsy.lib;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Read-only copy of a LinearModel at one moment, see LinearModel.snapshot().
+ *
+ * Nothing in it changes after it is created, so any number of threads can
+ * score with it, without locks, while the trainer goes on updating the model
+ * it was copied from. The trainer publishes a new snapshot when the scorers
+ * should see its updates. Weights are kept as in ArrayLinearModel: a double[]
+ * for dense IDs and an IntDoubleHashMap for the rest. Feature 0 of x is
+ * ignored, as the bias is added by predict().
+ *
+ * Methods that modify the model throw UnsupportedOperationException.
+ */
+public final class LinearModelSnapshot implements LinearModel
+{
+	private final double[] w;	// w[id] for 0 < id < w.length
+	private final IntDoubleHashMap sparseW;	// all other IDs
+	private final double b;
+
+	/**
+	 * Copies a model given as a map, with the bias as feature 0 (see
+	 * LinearModel.getM_Id2Value()).
+	 */
+	public LinearModelSnapshot(TreeMap<Integer, Double> id2Value)
+	{
+		int maxDenseID = 1;
+		for(Integer id : id2Value.keySet())
+			if(id > 0 && id < ArrayLinearModel.DEFAULT_MAX_DENSE_ID)
+				maxDenseID = id + 1;
+
+		double[] dense = new double[maxDenseID];
+		IntDoubleHashMap sparse = new IntDoubleHashMap();
+		double bias = 0;
+		for(Map.Entry<Integer, Double> e : id2Value.entrySet())
+		{
+			int id = e.getKey();
+			if(id==0)
+				bias = e.getValue();
+			else if(id > 0 && id < dense.length)
+				dense[id] = e.getValue();
+			else
+				sparse.put(id, e.getValue());
+		}
+		this.w = dense;
+		this.sparseW = sparse;
+		this.b = bias;
+	}
+
+	/**
+	 * Takes the arrays as they are; the caller gives copies.
+	 */
+	LinearModelSnapshot(double[] w, IntDoubleHashMap sparseW, double b)
+	{
+		this.w = w;
+		this.sparseW = sparseW;
+		this.b = b;
+	}
+
+	@Override
+	public LinearModel snapshot()
+	{
+		return this;
+	}
+
+	@Override
+	public double getWi(int featureID)
+	{
+		if(featureID==0)
+			return b;
+		if(featureID > 0 && featureID < w.length)
+			return w[featureID];
+		return sparseW.get(featureID, 0.0);
+	}
+
+	@Override
+	public double score(DataPoint x)
+	{
+		int[] indices = x.getFeatureIndices();
+		double[] values = x.getFeatureValues();
+		double sum = 0.0;
+		for(int k=0; k<indices.length; k++)
+		{
+			int id = indices[k];
+			if(id > 0 && id < w.length)
+				sum += w[id] * values[k];
+			else if(id!=0 && sparseW.size() > 0)
+				sum += sparseW.get(id, 0.0) * values[k];
+		}
+		return sum;
+	}
+
+	@Override
+	public double predict(DataPoint x)
+	{
+		return score(x) + b;
+	}
+
+	@Override
+	public double getB()
+	{
+		return b;
+	}
+
+	/**
+	 * Returns W, with the bias as feature 0.
+	 */
+	@Override
+	public DataPoint getW()
+	{
+		return new DataPoint(getM_Id2Value());
+	}
+
+	/**
+	 * Returns a copy of the model as a map, with the bias as feature 0.
+	 */
+	@Override
+	public TreeMap<Integer, Double> getM_Id2Value()
+	{
+		TreeMap<Integer, Double> m = new TreeMap<Integer, Double>();
+		m.put(0, b);
+		for(int id=1; id<w.length; id++)
+			if(w[id]!=0)
+				m.put(id, w[id]);
+		for(int s=0; s<sparseW.capacity(); s++)
+			if(sparseW.isUsed(s))
+				m.put(sparseW.keyAt(s), sparseW.valueAt(s));
+		return m;
+	}
+
+	/**
+	 * Writes a copy of the model, as ArrayLinearModel does.
+	 */
+	@Override
+	public void saveModel(String fileName)
+	{
+		ArrayLinearModel copy = new ArrayLinearModel();
+		copy.setW(getW());
+		copy.setB(b);
+		copy.saveModel(fileName);
+	}
+
+	@Override
+	public void savePocketModel(String fileName)
+	{
+		saveModel(fileName);
+	}
+
+	private static UnsupportedOperationException readOnly()
+	{
+		return new UnsupportedOperationException("Model snapshot is read-only");
+	}
+
+	@Override
+	public void loadModel(String fileName)
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void addToW(DataPoint x, double value)
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void addScaledToW(DataPoint x, double factor)
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void addScaledDifferenceToW(DataPoint x_i, DataPoint x_j, double factor)
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void addToB(double c)
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void reset()
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setW(DataPoint w)
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void setB(double b)
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void normalize()
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void Update_PocketWeights(DataPoint sample, TreeMap prev_w)
+	{
+		throw readOnly();
+	}
+
+	/**
+	 * Word clouds come from the trained model, not from its snapshots.
+	 */
+	@Override
+	public Map<String,Double> wordCloudGetTopFeatures(int n)
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public Map<String,Double> wordCloudGetLeastFeatures(int n)
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void wordCloudSetVocabulary(String voc_filename) throws Exception
+	{
+		throw readOnly();
+	}
+
+	@Override
+	public void wordCloudSetHashedVocabulary(String voc_filename, int bits) throws Exception
+	{
+		throw readOnly();
+	}
+}
@@ -0,0 +1,110 @@
+package macsy.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Scores a block of DataPoints with several threads. Give it a model that is
+ * not modified meanwhile, e.g. a LinearModel.snapshot(); each DataPoint is
+ * scored by one thread, so the scores are the same for any number of threads.
+ *
+ * Usage:
+ * ParallelScorer scorer = new ParallelScorer(4);
+ * scorer.predict(model.snapshot(), samples);	// for each block
+ * scorer.close();
+ */
+public class ParallelScorer {
+
+	static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Scorer");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	/**
+	 * Blocks smaller than this are scored by the calling thread.
+	 */
+	static final int MIN_SAMPLES_PER_THREAD = 16;
+
+	private final int numThreads;
+	private ExecutorService executor = null;
+
+	/**
+	 * @param numThreads Threads that score; with 1 the calling thread scores.
+	 */
+	public ParallelScorer(int numThreads)
+	{
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Sets the predicted value of each sample to model.predict(sample).
+	 */
+	public void predict(final LinearModel model, final List<DataPoint> samples) throws Exception
+	{
+		int n = samples.size();
+		int threads = Math.min(numThreads, n / MIN_SAMPLES_PER_THREAD);
+		if(threads <= 1)
+		{
+			predict(model, samples, 0, n);
+			return;
+		}
+
+		if(executor==null)
+			executor = Executors.newFixedThreadPool(numThreads, DAEMON_THREADS);
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int t=0; t<threads; t++)
+		{
+			final int from = (int) ((long) n * t / threads);
+			final int to = (int) ((long) n * (t + 1) / threads);
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					predict(model, samples, from, to);
+					return null;
+				}
+			});
+		}
+
+		try {
+			for(Future<Void> f : executor.invokeAll(tasks))
+				f.get();
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	private static void predict(LinearModel model, List<DataPoint> samples, int from, int to)
+	{
+		for(int i=from; i<to; i++)
+		{
+			DataPoint sample = samples.get(i);
+			sample.setPredictedLabel_Value(model.predict(sample));
+		}
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	public void close()
+	{
+		if(executor!=null)
+			executor.shutdown();
+		executor = null;
+	}
+}
@@ -0,0 +1,159 @@
+package macsy.lib;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of surface form (lower case word) -> stem, and whether the stem is a
+ * stop word, for the NGPreprocessing of macsy.module.featuresExtractorTFIDF and
+ * of macsy.lib.preprocessing. News repeat the same few thousand words, so most
+ * words are found here and are not stemmed again.
+ *
+ * Words are looked up by a range of a char[], so a hit creates no objects.
+ * The size is fixed: each word has one slot, and a new word replaces the one
+ * in its slot. Entries are immutable, so threads can share a cache without
+ * locks; a thread may miss an entry just put by another, and stem again.
+ *
+ * Usage:
+ * StemCache.Entry e = cache.get(word, len);
+ * if(e==null) ... stem word, e = cache.put(word, len, stem, stemLen, isStopWord);
+ */
+public final class StemCache {
+
+	/**
+	 * Default number of slots.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/**
+	 * A word with its stem. Do not modify the arrays.
+	 */
+	public static final class Entry {
+		final int hash;
+		final char[] word;
+		public final char[] stem;
+		public final boolean isStopWord;
+
+		Entry(int hash, char[] word, char[] stem, boolean isStopWord)
+		{
+			this.hash = hash;
+			this.word = word;
+			this.stem = stem;
+			this.isStopWord = isStopWord;
+		}
+	}
+
+	private final Entry[] table;
+	private final int mask;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private static final Map<String,StemCache> shared = new HashMap<String,StemCache>();
+
+	/**
+	 * @param capacity Number of slots; rounded up to a power of 2.
+	 */
+	public StemCache(int capacity)
+	{
+		int c = 1;
+		while(c < capacity)
+			c <<= 1;
+		table = new Entry[c];
+		mask = c - 1;
+	}
+
+	/**
+	 * Returns the cache shared by all the users of a stop words file, with
+	 * DEFAULT_CAPACITY; stop words decide isStopWord.
+	 *
+	 * @param stopwordsFilename Can be null.
+	 */
+	public static StemCache getShared(String stopwordsFilename)
+	{
+		String key = (stopwordsFilename==null) ? "" : new File(stopwordsFilename).getAbsolutePath();
+		synchronized(shared) {
+			StemCache cache = shared.get(key);
+			if(cache==null)
+			{
+				cache = new StemCache(DEFAULT_CAPACITY);
+				shared.put(key, cache);
+			}
+			return cache;
+		}
+	}
+
+	private static int hash(char[] buf, int len)
+	{
+		int h = 0;
+		for(int i=0; i<len; i++)
+			h = 31 * h + buf[i];
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return The entry of the word buf[0..len), or null.
+	 */
+	public Entry get(char[] buf, int len)
+	{
+		int h = hash(buf, len);
+		Entry e = table[h & mask];
+		if(e==null || e.hash!=h || e.word.length!=len)
+			return null;
+		for(int i=0; i<len; i++)
+			if(e.word[i]!=buf[i])
+				return null;
+		return e;
+	}
+
+	/**
+	 * Adds the word buf[0..len), replacing the word in its slot. The arrays
+	 * are copied.
+	 *
+	 * @return The new entry.
+	 */
+	public Entry put(char[] buf, int len, char[] stem, int stemLen, boolean isStopWord)
+	{
+		char[] w = new char[len];
+		System.arraycopy(buf, 0, w, 0, len);
+		char[] s = new char[stemLen];
+		System.arraycopy(stem, 0, s, 0, stemLen);
+		int h = hash(buf, len);
+		Entry e = new Entry(h, w, s, isStopWord);
+		table[h & mask] = e;
+		return e;
+	}
+
+	/**
+	 * Adds the lookups of a user. Users count in their own fields and add
+	 * them now and then, so threads do not update the same counters per word.
+	 */
+	public void addStats(long hitCount, long missCount)
+	{
+		hits.addAndGet(hitCount);
+		misses.addAndGet(missCount);
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * @return Hits / lookups, or 0 if there was no lookup.
+	 */
+	public double getHitRate()
+	{
+		long h = hits.get();
+		long n = h + misses.get();
+		return (n==0) ? 0 : h / (double) n;
+	}
+}
@@ -0,0 +1,451 @@
+package macsy.lib;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Words (or feature IDs) and their weights, of the online learners
+ * OnLineLearningPerceptronOnWords, OnLineLearningWinnowOnWords and
+ * OnLineLearningPerceptronOnFeatures.
+ *
+ * Word with ID 0 has a special meaning:
+ * ID: 0 ==> The constant (#CONSTANT#), also returned for words not in the vocabulary
+ *
+ * Words get IDs 1, 2, ... in the order they are added and are never removed.
+ * Weights are kept by ID in pages of PAGE_SIZE doubles. In feature mode there
+ * are no words: the ID is the feature ID and the word is its number. All IDs
+ * below the largest one added exist, so in feature mode pages are allocated
+ * only when a weight in them is set, and the weights of IDs from MAX_DENSE_ID
+ * on (e.g. hashed features) are kept in a map instead.
+ *
+ * Threads: any number of threads can look up words and weights, and set
+ * weights, while others add words. The hash index is written slot by slot (ID
+ * first, word last) and replaced as a whole when it grows; adding a word takes
+ * a lock. Pages are never moved: growing copies only the directory of pages,
+ * so setting a weight of a page that exists takes no lock and is never lost
+ * in a grow. Weights are plain doubles: a reader may see a weight just before
+ * or just after an update, which is fine for scoring, and concurrent updates
+ * of the same weight can be lost (as in Hogwild training).
+ *
+ * File format:
+ * 1st line		: Header (ignored)
+ * 2nd - N line	: WORD\tVALUE
+ *
+ * Words with weight 0 are not saved.
+ */
+public class VocabularyStore {
+
+	public static final String CONSTANT_WORD = "#CONSTANT#";
+
+	/**
+	 * Feature mode: the weights of IDs from here on are kept in a map, so a
+	 * large feature ID does not allocate weights up to it.
+	 */
+	public static final int MAX_DENSE_ID = ArrayLinearModel.DEFAULT_MAX_DENSE_ID;
+
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;	// 32KB of weights
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	/**
+	 * Hash index, replaced when it grows.
+	 */
+	private static final class Index {
+		final AtomicReferenceArray<String> words;
+		final AtomicIntegerArray ids;
+		final int mask;
+
+		Index(int capacity)
+		{
+			words = new AtomicReferenceArray<String>(capacity);
+			ids = new AtomicIntegerArray(capacity);
+			mask = capacity - 1;
+		}
+	}
+
+	private final String voc_filename;
+	private final double initialValue;
+	private final boolean featureMode;
+
+	private volatile Index index;
+	private volatile String[] id2word;
+	private volatile double[][] pages;	// Copied on write, with the lock; null for pages not allocated
+	private volatile int nextID;	// The number is the first available WordID
+	private final IntDoubleHashMap sparseWeights = new IntDoubleHashMap();	// IDs >= MAX_DENSE_ID; guarded by itself
+
+	private double magnitude = 0;
+
+	/**
+	 * Creates or loads (if the file exists) a vocabulary.
+	 *
+	 * @param voc_filename
+	 * @param initialValue Weight of new words and of the constant.
+	 * @param featureMode True if IDs are feature IDs, without words.
+	 */
+	public VocabularyStore(String voc_filename, double initialValue, boolean featureMode) throws Exception
+	{
+		this.voc_filename = voc_filename;
+		this.initialValue = initialValue;
+		this.featureMode = featureMode;
+		resetVocabulary();
+
+		//If voc exists load it.
+		loadVocabulary(voc_filename);
+
+		calculateMagnitude();
+	}
+
+	public synchronized void resetVocabulary()
+	{
+		index = new Index(1024);
+		id2word = new String[1024];
+		pages = new double[][] { newPage() };
+		id2word[0] = CONSTANT_WORD;
+		synchronized(sparseWeights) {
+			sparseWeights.clear();
+		}
+		nextID = 1;
+		if(!featureMode)
+			insert(index, CONSTANT_WORD, 0);
+	}
+
+	private void calculateMagnitude()
+	{
+		double sum = 0;
+		int dense = getDenseEnd();
+		for(int id=0; id<dense; id++)
+			sum += square(getValueByID(id));
+		for(int id : getSparseIDs())
+			sum += square(getValueByID(id));
+		magnitude = Math.sqrt( sum );
+	}
+
+	private static double square(double w)
+	{
+		return w * w;
+	}
+
+	public double getMagnitude()
+	{
+		return magnitude;
+	}
+
+	private static int hash(String word)
+	{
+		int h = word.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Return the ID of the word or 0 if unknown word.
+	 * In feature mode the word is the number of the ID.
+	 */
+	public int getIDofWord(String word)
+	{
+		if(featureMode)
+		{
+			try {
+				int id = Integer.parseInt(word);
+				return (id > 0 && id < nextID) ? id : 0;
+			} catch(NumberFormatException e) {
+				return 0;
+			}
+		}
+
+		Index ix = index;
+		for(int s = hash(word) & ix.mask; ; s = (s + 1) & ix.mask)
+		{
+			String w = ix.words.get(s);
+			if(w==null)
+				return 0;
+			if(w.equals(word))
+				return ix.ids.get(s);
+		}
+	}
+
+	/**
+	 * The value of the word.
+	 * 0, if word not found.
+	 */
+	public double getValueByID(int id)
+	{
+		if(id<0 || id>=nextID)
+			return 0;
+		if(isSparse(id))
+		{
+			synchronized(sparseWeights) {
+				return sparseWeights.get(id, initialValue);
+			}
+		}
+		double[][] p = pages;
+		int page = id >>> PAGE_BITS;
+		double[] w = (page < p.length) ? p[page] : null;
+		return (w==null) ? initialValue : w[id & PAGE_MASK];
+	}
+
+	/**
+	 * Sets the value of the word with "id". Unknown IDs are ignored.
+	 * No lock is taken if the page of the ID exists.
+	 */
+	public void setValueByID(int id, double value)
+	{
+		if(id>=nextID || id<0)
+			return;
+		if(isSparse(id))
+		{
+			synchronized(sparseWeights) {
+				sparseWeights.put(id, value);
+			}
+			return;
+		}
+
+		double[][] p = pages;
+		int page = id >>> PAGE_BITS;
+		double[] w = (page < p.length) ? p[page] : null;
+		if(w==null)
+			w = allocatePage(page);
+		w[id & PAGE_MASK] = value;
+	}
+
+	private boolean isSparse(int id)
+	{
+		return featureMode && id >= MAX_DENSE_ID;
+	}
+
+	/**
+	 * Returns the word of an ID, or null if wordID not found.
+	 */
+	public String getWordByID(int wordID)
+	{
+		if(wordID<0 || wordID>=nextID)
+			return null;
+		if(featureMode && wordID > 0)
+			return Integer.toString(wordID);
+		return id2word[wordID];
+	}
+
+	/**
+	 * @return The first ID that is not used.
+	 */
+	public int getNextID()
+	{
+		return nextID;
+	}
+
+	/**
+	 * Checks if words exists, if not it is added.
+	 * The id of the word is returned.
+	 */
+	public int addWord(String word) throws Exception
+	{
+		int id = getIDofWord(word);
+		if(id!=0 || word.equals(CONSTANT_WORD))
+			return id;
+		if(featureMode)
+		{
+			id = Integer.parseInt(word);
+			addWordByID(id);
+			return id;
+		}
+
+		synchronized(this) {
+			id = getIDofWord(word);	//Added meanwhile?
+			if(id!=0)
+				return id;
+
+			id = nextID;
+			ensureCapacity(id + 1);
+			id2word[id] = word;
+			allocatePage(id >>> PAGE_BITS);	//Its weights are initialValue
+			Index ix = index;
+			if(2 * (id + 1) > ix.words.length())	//Keep at most half full
+			{
+				Index bigger = new Index(2 * ix.words.length());
+				for(int s=0; s<ix.words.length(); s++)
+					if(ix.words.get(s)!=null)
+						insert(bigger, ix.words.get(s), ix.ids.get(s));
+				ix = bigger;
+			}
+			nextID = id + 1;	//Before the word can be found, so that its weight can be set
+			insert(ix, word, id);
+			index = ix;
+		}
+		return id;
+	}
+
+	/**
+	 * Feature mode: makes sure that the feature ID exists.
+	 */
+	public void addWordByID(int wordID) throws Exception
+	{
+		if(!featureMode)
+			throw new Exception("Not a vocabulary of features");
+		if(wordID < nextID)
+			return;
+		if(wordID < 0)
+			throw new Exception("Negative feature ID " + wordID);
+
+		synchronized(this) {
+			if(wordID < nextID)
+				return;
+			ensureCapacity(Math.min(wordID, MAX_DENSE_ID - 1) + 1);	//Pages are allocated when set
+			nextID = wordID + 1;
+		}
+	}
+
+	private static void insert(Index ix, String word, int id)
+	{
+		int s = hash(word) & ix.mask;
+		while(ix.words.get(s)!=null)
+			s = (s + 1) & ix.mask;
+		ix.ids.set(s, id);
+		ix.words.set(s, word);	//Last, so readers see the ID
+	}
+
+	private double[] newPage()
+	{
+		double[] w = new double[PAGE_SIZE];
+		if(initialValue!=0)
+			Arrays.fill(w, initialValue);
+		return w;
+	}
+
+	/**
+	 * @return The page, allocated if it does not exist yet.
+	 */
+	private synchronized double[] allocatePage(int page)
+	{
+		double[][] p = pages;
+		if(p[page]!=null)
+			return p[page];
+		p = Arrays.copyOf(p, p.length);	//Published whole, with the new page filled
+		p[page] = newPage();
+		pages = p;
+		return p[page];
+	}
+
+	/**
+	 * Grows the arrays to hold IDs below capacity; call with the lock. Pages
+	 * are not copied, only the directory.
+	 */
+	private void ensureCapacity(int capacity)
+	{
+		if(!featureMode && capacity > id2word.length)
+		{
+			int c = id2word.length;
+			while(c < capacity)
+				c <<= 1;
+			id2word = Arrays.copyOf(id2word, c);
+		}
+		int numPages = ((capacity - 1) >>> PAGE_BITS) + 1;
+		if(numPages > pages.length)
+			pages = Arrays.copyOf(pages, Math.max(numPages, 2 * pages.length));
+	}
+
+	/**
+	 * @return The end of the IDs kept in pages: all IDs below it exist.
+	 */
+	private int getDenseEnd()
+	{
+		return featureMode ? Math.min(nextID, MAX_DENSE_ID) : nextID;
+	}
+
+	/**
+	 * @return Feature mode: the IDs from MAX_DENSE_ID on that were set, in order.
+	 */
+	private int[] getSparseIDs()
+	{
+		synchronized(sparseWeights) {
+			return sparseWeights.sortedKeys();
+		}
+	}
+
+	/**
+	 * Saves / Updates the current vocabulary in disk, streaming the words in
+	 * ID order. Words can not be added meanwhile.
+	 */
+	public synchronized void saveVocabulary() throws Exception
+	{
+		System.out.print("Writing Vocabulary...");
+
+		BufferedWriter	fp = new BufferedWriter(new FileWriter( voc_filename  ), 1 << 16);
+		fp.write("Vocabulary Format: <word>\t<value>\n");
+		int dense = getDenseEnd();
+		for(int id=0; id<dense; id++)
+			writeWord(fp, id);
+		for(int id : getSparseIDs())
+			writeWord(fp, id);
+		fp.close();
+		System.out.println("DONE");
+	}
+
+	/**
+	 * Writes the line of a word, if its weight is not 0.
+	 */
+	private void writeWord(BufferedWriter fp, int id) throws Exception
+	{
+		double w = getValueByID(id);
+		if(w==0)
+			return;
+		fp.write(getWordByID(id));
+		fp.write('\t');
+		fp.write(Double.toString(w));
+		fp.write('\n');
+	}
+
+	/**
+	 * All words and their values, in ID order (in feature mode, IDs from
+	 * MAX_DENSE_ID on only if set).
+	 */
+	public String exportVoc()
+	{
+		StringBuilder report = new StringBuilder();
+		int dense = getDenseEnd();
+		for(int id=0; id<dense; id++)
+			report.append( getWordByID(id)+"\t"+getValueByID(id)+"\n"  );
+		for(int id : getSparseIDs())
+			report.append( getWordByID(id)+"\t"+getValueByID(id)+"\n"  );
+		return report.toString();
+	}
+
+	/**
+	 * Loads a vocabulary, if the file exists. In feature mode, words that are
+	 * not feature IDs (other than the constant) are skipped.
+	 */
+	private void loadVocabulary(String voc_filename) throws Exception
+	{
+		File vocFile = new File(voc_filename);
+
+		//No voc return.
+		if(!vocFile.exists())
+			return;
+
+		BufferedReader input = new BufferedReader( new FileReader(vocFile) );
+
+		//LOAD HEADER
+		String line = input.readLine();  //First line = HEADER OF VOC //Ignore
+
+		//Start reading words
+		while (( line = input.readLine()) != null)
+		{
+			try
+			{
+				String toks[] = line.split("\t");
+				int id = addWord(toks[0]);
+				double value = Double.parseDouble(toks[1]);
+				setValueByID(id,value);
+			}
+			catch(Exception e)
+			{
+			}
+		}
+
+		input.close();
+	}
+}
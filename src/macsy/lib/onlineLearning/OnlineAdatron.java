@@ -8,6 +8,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
 import macsy.lib.AUC;
+import macsy.lib.ArrayLinearModel;
 import macsy.lib.BasicLinearModel;
 import macsy.lib.DataPoint;
 import macsy.lib.LinearModel;
@@ -77,8 +78,8 @@ public class OnlineAdatron implements OnlineLearning {
     // the model used for the algorithm of online learning
     private LinearModel linearModel;
     // initial values for the exponential moving average of the number of pos/neg
-    private static double M_pos = 0.0;
-    private static double M_neg = 0.0;
+    private double M_pos = 0.0;
+    private double M_neg = 0.0;
     private int N_overall = 0;
     // object to hold the information for the area under the curve
     AUC AUC_object;
@@ -88,7 +89,19 @@ public class OnlineAdatron implements OnlineLearning {
     }
 
     public OnlineAdatron(String wFileName) throws Exception {
+        this(wFileName, null);
+    }
+
+    /**
+     * @param wFileName
+     *            : the name of the model and log files
+     * @param model
+     *            : the LinearModel to load the weights in, e.g. an
+     *            ArrayLinearModel. If null a BasicLinearModel is used.
+     */
+    public OnlineAdatron(String wFileName, LinearModel model) throws Exception {
         // Initialise the correct variables
+        linearModel = model;
 
         // load the model if it already exists or create an empty file
         loadModel(wFileName);
@@ -150,6 +163,50 @@ public class OnlineAdatron implements OnlineLearning {
         statsGetAUC(sample);
     }
 
+    /**
+     * Same as train() on x_i - x_j: w is updated by x_i and x_j in place.
+     */
+    @Override
+    public boolean trainPair(DataPoint x_i, DataPoint x_j, int label,
+            double score) throws Exception {
+        updateNum(label, score);
+        double predicted_label_value = score + linearModel.getB();
+        int predicted_label = (predicted_label_value > linearModel.getB()) ? 1 : -1;
+
+        boolean error = false;
+        if (predicted_label == label) {
+            int T = (predicted_label == 1) ? TP : TN;
+            StatisticsMatrix[T]++;
+        } else {
+            error = true;
+            int F = (predicted_label == 1) ? FP : FN;
+            StatisticsMatrix[F]++;
+        }
+
+        // alpha is 0 unless there was an error
+        double alpha = 0.0;
+        if (error) {
+            // <x, x> = |x_i - x_j|^2
+            double omega_term = omega / x_i.getSquaredEuclideanDistance(x_j);
+            alpha = omega_term * (1 - label * predicted_label);
+            if (alpha > C) {
+                alpha = C;
+            }
+        }
+        boolean updated = alpha > 0.0;
+        if (updated) {
+            linearModel.addScaledDifferenceToW(x_i, x_j, alpha * label);
+            predicted_label_value = linearModel.score(x_i)
+                    - linearModel.score(x_j) + linearModel.getB();
+        }
+
+        update_exponentialMovingAverageError(error);
+        update_exponentialMovingAverageCounter(label);
+
+        statsGetAUC(label, predicted_label_value);
+        return updated;
+    }
+
     /**
      * Perform the learning procedure / updates the w, according to the formula
      * w(t+1) = w(t) + d(t)*a(t)*x(t)
@@ -179,15 +236,9 @@ public class OnlineAdatron implements OnlineLearning {
         }
 
         double val = alpha * real_label;
-        Map<Integer, Double> features = new TreeMap<Integer, Double>();
-        for (Map.Entry<Integer, Double> e : sample.getFeaturesMap().entrySet()) {
-            features.put(e.getKey(), e.getValue() * val);
-        }
-        DataPoint adjusted_sample = new DataPoint(features,
-                sample.getRealLabel());
 
         // updating the model, no bias
-        linearModel.addToW(adjusted_sample, 0.0);
+        linearModel.addScaledToW(sample, val);
     }
 
     /**
@@ -225,25 +276,29 @@ public class OnlineAdatron implements OnlineLearning {
      */
     @Override
     public void updateNum(DataPoint X) {
+        updateNum(X.getRealLabel(), linearModel.score(X));
+    }
+
+    private void updateNum(int label, double score) {
         // if this is the first time for the positive class initialise
-        if (first_pos && X.getRealLabel() == 1) {
-            M_pos = linearModel.score(X);
+        if (first_pos && label == 1) {
+            M_pos = score;
             first_pos = false;
             return;
         }
         // if this is the first time for the negative class initialise
-        if (first_neg && X.getRealLabel() == -1) {
-            M_neg = linearModel.score(X);
+        if (first_neg && label == -1) {
+            M_neg = score;
             first_neg = false;
             return;
         }
         // else
-        if (X.getRealLabel() == 1) {
+        if (label == 1) {
             M_pos = expMovingAverage_a * M_pos
-                    + (1 - expMovingAverage_a) * linearModel.score(X);
+                    + (1 - expMovingAverage_a) * score;
         } else {
             M_neg = expMovingAverage_a * M_neg
-                    + (1 - expMovingAverage_a) * linearModel.score(X);
+                    + (1 - expMovingAverage_a) * score;
         }
     }
 
@@ -258,6 +313,11 @@ public class OnlineAdatron implements OnlineLearning {
 
         //  filename += filename + ".model";
         filename = filename + ".model";
+        if (linearModel instanceof ArrayLinearModel) {
+            // stored in the header of binary models
+            ((ArrayLinearModel) linearModel).setTrainingInfo(
+                    getClass().getSimpleName(), getStatisticsMatrix());
+        }
         linearModel.saveModel(filename);
     }
 
@@ -324,7 +384,11 @@ public class OnlineAdatron implements OnlineLearning {
     public void loadModel(String filename) {
         try {
             // initialise the weights (if the model is not already saved make one with zeros)
-            linearModel = new BasicLinearModel(filename + ".model");
+            if (linearModel == null) {
+                linearModel = new BasicLinearModel(filename + ".model");
+            } else {
+                linearModel.loadModel(filename + ".model");
+            }
 
             //LOAD LOG FILE
             File loginFilename = new File(filename + ".log");
@@ -409,10 +473,14 @@ public class OnlineAdatron implements OnlineLearning {
      * @throws Exception
      */
     private void statsGetAUC(DataPoint sample) throws Exception {
-        if (sample.getRealLabel() >= 0) {
-            AUC_object.setLast_pos_score(linearModel.predict(sample));
+        statsGetAUC(sample.getRealLabel(), linearModel.predict(sample));
+    }
+
+    private void statsGetAUC(int label, double predicted) throws Exception {
+        if (label >= 0) {
+            AUC_object.setLast_pos_score(predicted);
         } else {
-            AUC_object.setLast_neg_score(linearModel.predict(sample));
+            AUC_object.setLast_neg_score(predicted);
         }
 
         //System.out.println(AUC_object.getLast_pos_score()+ " , " +
@@ -748,4 +816,83 @@ public class OnlineAdatron implements OnlineLearning {
     public void setN_overall(int i) {
         throw new UnsupportedOperationException("Not supported yet.");
     }
+
+    /**
+     * Returns a copy of the learner, with its settings and statistics, over an
+     * ArrayLinearModel copy of the model (see ParallelTraining)
+     */
+    @Override
+    public OnlineLearning copyLearner() throws Exception {
+        OnlineAdatron copy = new OnlineAdatron();
+        copy.linearModel = ParallelTraining.copyModel(linearModel);
+        copy.omega = omega;
+        copy.C = C;
+        copy.timestamp = timestamp;
+        copy.desiredPrecision = desiredPrecision;
+        copy.threshold_for_precisionANDrecall = threshold_for_precisionANDrecall;
+        copy.change_of_thres = change_of_thres;
+        copy.learningFactor = learningFactor;
+        copy.updateLearningFactor = updateLearningFactor;
+        copy.expMovingAverage_window = expMovingAverage_window;
+        copy.expMovingAverage_a = expMovingAverage_a;
+        copy.expMovingAverage_error = expMovingAverage_error;
+        copy.first_pos = first_pos;
+        copy.first_neg = first_neg;
+        copy.N_hat_Pos = N_hat_Pos;
+        copy.N_hat_Neg = N_hat_Neg;
+        copy.M_pos = M_pos;
+        copy.M_neg = M_neg;
+        copy.StatisticsMatrix = StatisticsMatrix.clone();
+        copy.N_overall = N_overall;
+        copy.AUC_object = new AUC(AUC_object);
+        copy.AUC_value = AUC_value;
+        return copy;
+    }
+
+    /**
+     * Merges copies of the learner (see copyLearner()) trained on shards of the
+     * data: counters are added, the model, the threshold and the moving
+     * averages are averaged
+     *
+     * @param copies
+     *            : the copies, made from this learner before their training
+     */
+    @Override
+    public void mergeLearners(List<OnlineLearning> copies) throws Exception {
+        double n = copies.size();
+        long[] counts = StatisticsMatrix.clone();
+        int overall = N_overall;
+        double threshold = 0, error = 0, pos = 0, neg = 0, auc = 0;
+        boolean firstPos = true, firstNeg = true;
+        for (OnlineLearning learner : copies) {
+            OnlineAdatron copy = (OnlineAdatron) learner;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += copy.StatisticsMatrix[i] - StatisticsMatrix[i];
+            }
+            overall += copy.N_overall - N_overall;
+            threshold += copy.threshold_for_precisionANDrecall / n;
+            error += copy.expMovingAverage_error / n;
+            pos += copy.N_hat_Pos / n;
+            neg += copy.N_hat_Neg / n;
+            auc += copy.AUC_object.expMovAvGetAUC() / n;
+            firstPos &= copy.first_pos;
+            firstNeg &= copy.first_neg;
+        }
+        OnlineAdatron last = (OnlineAdatron) copies.get(copies.size() - 1);
+
+        ParallelTraining.averageModels(linearModel, copies);
+        M_pos = last.M_pos;
+        M_neg = last.M_neg;
+        System.arraycopy(counts, 0, StatisticsMatrix, 0, counts.length);
+        N_overall = overall;
+        threshold_for_precisionANDrecall = threshold;
+        expMovingAverage_error = error;
+        N_hat_Pos = pos;
+        N_hat_Neg = neg;
+        first_pos = firstPos;
+        first_neg = firstNeg;
+        AUC_object = new AUC(last.AUC_object);
+        AUC_object.expMovAvSetAUC(auc);
+        AUC_value = auc;
+    }
 }
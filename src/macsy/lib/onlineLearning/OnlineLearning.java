@@ -1,6 +1,7 @@
 package macsy.lib.onlineLearning;
 
 import java.io.IOException;
+import java.util.List;
 import macsy.lib.DataPoint;
 import macsy.lib.LinearModel;
 
@@ -33,6 +34,14 @@ public interface OnlineLearning {
 	 * Uses the DataPoint x as a sample and the x.getRealLabel() as label.
 	 */
 	void train(DataPoint x) throws Exception;
+
+	/**
+	 * Same as train() on the difference x_i - x_j with the given label, for
+	 * rankers, without making the difference vector (see RankingTrainer).
+	 * @param score: w*x_i - w*x_j, without the bias
+	 * @return true if the model was updated
+	 */
+	boolean trainPair(DataPoint x_i, DataPoint x_j, int label, double score) throws Exception;
         
 	
 	/**
@@ -218,6 +227,20 @@ public interface OnlineLearning {
 
         public long[] getStatisticsMatrix();
 
+	/**
+	 * Returns a learner with the same settings and statistics, over a copy of
+	 * the model, that can be trained in another thread (see ParallelTraining).
+	 */
+	OnlineLearning copyLearner() throws Exception;
+
+	/**
+	 * Merges copies (see copyLearner()) that were trained on shards of the data
+	 * since they were made: the model and the moving averages become the average
+	 * of the copies, and the counters of the copies are added.
+	 * @param copies
+	 */
+	void mergeLearners(List<OnlineLearning> copies) throws Exception;
+
 
 
         
@@ -7,9 +7,9 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Date;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.List;
 import macsy.lib.AUC;
+import macsy.lib.ArrayLinearModel;
 import macsy.lib.BasicLinearModel;
 import macsy.lib.DataPoint;
 import macsy.lib.LinearModel;
@@ -99,8 +99,8 @@ public class OnlinePerceptron implements OnlineLearning {
     private LinearModel linearModel;
     // initial values for the exponential moving average of the number of
     // pos/neg
-    private static double M_pos = 0.0;
-    private static double M_neg = 0.0;
+    private double M_pos = 0.0;
+    private double M_neg = 0.0;
     private int N_overall = 0;
     // object to hold the information for the area under the curve
     AUC AUC_object;
@@ -115,7 +115,19 @@ public class OnlinePerceptron implements OnlineLearning {
     }
 
     public OnlinePerceptron(String wFileName) throws Exception {
+        this(wFileName, null);
+    }
+
+    /**
+     * @param wFileName
+     *            : the name of the model and log files
+     * @param model
+     *            : the LinearModel to load the weights in, e.g. an
+     *            ArrayLinearModel. If null a BasicLinearModel is used.
+     */
+    public OnlinePerceptron(String wFileName, LinearModel model) throws Exception {
         // Initialise the correct variables
+        linearModel = model;
 
         // load the model if it already exists or create an empty file
         loadModel(wFileName);
@@ -198,6 +210,44 @@ public class OnlinePerceptron implements OnlineLearning {
         statsGetAUC(sample);
     }
 
+    /**
+     * Same as train() on x_i - x_j: w is updated by x_i and x_j in place.
+     */
+    @Override
+    public boolean trainPair(DataPoint x_i, DataPoint x_j, int label,
+            double score) throws Exception {
+        updateNum(label, score);
+        double y_hat = score + linearModel.getB();
+        int predicted_label = (y_hat > linearModel.getB()) ? 1 : -1;
+
+        boolean error = false;
+        threshold_for_precisionANDrecall = 0;
+        if (predicted_label == label) {
+            int T = (predicted_label == 1) ? TP : TN;
+            getStatisticsMatrix()[T]++;
+        } else {
+            error = true;
+            int F = (predicted_label == 1) ? FP : FN;
+            getStatisticsMatrix()[F]++;
+        }
+        if (error) {
+            // X <- alpha*(real-predicted)*X, for X = x_i - x_j
+            double val = learningFactor * (label - predicted_label);
+            linearModel.addScaledDifferenceToW(x_i, x_j, val);
+            // If precision =-1 then do not adapt
+            if (this.desiredPrecision != STABLE_DECISION_THRESHOLD) {
+                this.updateThres(this.statsGetPrecision());
+            }
+            y_hat = linearModel.score(x_i) - linearModel.score(x_j)
+                    + linearModel.getB();
+        }
+        update_exponentialMovingAverageError(error);
+        update_exponentialMovingAverageCounter(label);
+
+        statsGetAUC(label, y_hat);
+        return error;
+    }
+
     /**
      * Perform the learning procedure / updates the w, according to the formula
      * w(t+1) = w(t) + eta*(d-y(t))*x(t)
@@ -238,14 +288,8 @@ public class OnlinePerceptron implements OnlineLearning {
         // X <- alpha*(real-predicted)*X
         double val = learningFactor * (real_label - predicted_label);
         //System.out.println("Val: " + val);
-        Map<Integer, Double> features = new TreeMap<Integer, Double>();
-        for (Map.Entry<Integer, Double> e : X.getFeaturesMap().entrySet()) {
-            features.put(e.getKey(), e.getValue() * val);
-        }
-        DataPoint adjusted_sample = new DataPoint(features, X.getRealLabel());
-        //System.out.println("Data Point: " + adjusted_sample.getFeatures());
         // updating the model, no bias
-        linearModel.addToW(adjusted_sample, 0.0);
+        linearModel.addScaledToW(X, val);
     }
 
     /**
@@ -289,25 +333,29 @@ public class OnlinePerceptron implements OnlineLearning {
      */
     @Override
     public void updateNum(DataPoint X) {
+        updateNum(X.getRealLabel(), linearModel.score(X));
+    }
+
+    private void updateNum(int label, double score) {
         // if this is the first time for the positive class initialise
-        if (first_pos && X.getRealLabel() == 1) {
-            M_pos = linearModel.score(X);
+        if (first_pos && label == 1) {
+            M_pos = score;
             first_pos = false;
             return;
         }
         // if this is the first time for the negative class initialise
-        if (first_neg && X.getRealLabel() == -1) {
-            M_neg = linearModel.score(X);
+        if (first_neg && label == -1) {
+            M_neg = score;
             first_neg = false;
             return;
         }
         // else
-        if (X.getRealLabel() == 1) {
+        if (label == 1) {
             M_pos = expMovingAverage_a * M_pos + (1 - expMovingAverage_a)
-                    * linearModel.score(X);
+                    * score;
         } else {
             M_neg = expMovingAverage_a * M_neg + (1 - expMovingAverage_a)
-                    * linearModel.score(X);
+                    * score;
         }
     }
 
@@ -323,6 +371,11 @@ public class OnlinePerceptron implements OnlineLearning {
 
         //filename += filename + ".model";
         filename = filename + ".model";
+        if (linearModel instanceof ArrayLinearModel) {
+            // stored in the header of binary models
+            ((ArrayLinearModel) linearModel).setTrainingInfo(
+                    getClass().getSimpleName(), getStatisticsMatrix());
+        }
         linearModel.saveModel(filename);
     }
 
@@ -392,7 +445,11 @@ public class OnlinePerceptron implements OnlineLearning {
         try {
             // initialise the weights (if the model is not already saved make
             // one with zeros)
-            linearModel = new BasicLinearModel(filename + ".model");
+            if (linearModel == null) {
+                linearModel = new BasicLinearModel(filename + ".model");
+            } else {
+                linearModel.loadModel(filename + ".model");
+            }
 
             // LOAD LOG FILE
             File loginFilename = new File(filename + ".log");
@@ -477,10 +534,14 @@ public class OnlinePerceptron implements OnlineLearning {
      * @throws Exception
      */
     private void statsGetAUC(DataPoint sample) throws Exception {
-        if (sample.getRealLabel() >= 0) {
-            AUC_object.setLast_pos_score(linearModel.predict(sample));
+        statsGetAUC(sample.getRealLabel(), linearModel.predict(sample));
+    }
+
+    private void statsGetAUC(int label, double predicted) throws Exception {
+        if (label >= 0) {
+            AUC_object.setLast_pos_score(predicted);
         } else {
-            AUC_object.setLast_neg_score(linearModel.predict(sample));
+            AUC_object.setLast_neg_score(predicted);
         }
 
         // System.out.println(AUC_object.getLast_pos_score()+ " , " +
@@ -814,4 +875,89 @@ public class OnlinePerceptron implements OnlineLearning {
     public void setN_overall(int i) {
         throw new UnsupportedOperationException("Not supported yet.");
     }
+
+    /**
+     * Returns a copy of the learner, with its settings and statistics, over an
+     * ArrayLinearModel copy of the model (see ParallelTraining)
+     */
+    @Override
+    public OnlineLearning copyLearner() throws Exception {
+        OnlinePerceptron copy = new OnlinePerceptron();
+        copy.linearModel = ParallelTraining.copyModel(linearModel);
+        copy.thresPosMargin = thresPosMargin;
+        copy.thresNegMargin = thresNegMargin;
+        copy.timestamp = timestamp;
+        copy.desiredPrecision = desiredPrecision;
+        copy.threshold_for_precisionANDrecall = threshold_for_precisionANDrecall;
+        copy.change_of_thres = change_of_thres;
+        copy.learningFactor = learningFactor;
+        copy.updateLearningFactor = updateLearningFactor;
+        copy.expMovingAverage_window = expMovingAverage_window;
+        copy.expMovingAverage_a = expMovingAverage_a;
+        copy.expMovingAverage_error = expMovingAverage_error;
+        copy.first_pos = first_pos;
+        copy.first_neg = first_neg;
+        copy.N_hat_Pos = N_hat_Pos;
+        copy.N_hat_Neg = N_hat_Neg;
+        copy.M_pos = M_pos;
+        copy.M_neg = M_neg;
+        copy.StatisticsMatrix = StatisticsMatrix.clone();
+        copy.N_overall = N_overall;
+        copy.AUC_object = new AUC(AUC_object);
+        copy.AUC_value = AUC_value;
+        copy.run_p = run_p;
+        copy.num_ok_p = num_ok_p;
+        return copy;
+    }
+
+    /**
+     * Merges copies of the learner (see copyLearner()) trained on shards of the
+     * data: counters are added, the model, the threshold and the moving
+     * averages are averaged
+     *
+     * @param copies
+     *            : the copies, made from this learner before their training
+     */
+    @Override
+    public void mergeLearners(List<OnlineLearning> copies) throws Exception {
+        double n = copies.size();
+        long[] counts = StatisticsMatrix.clone();
+        int overall = N_overall;
+        int num_ok_p_sum = num_ok_p;
+        double threshold = 0, error = 0, pos = 0, neg = 0, auc = 0;
+        boolean firstPos = true, firstNeg = true;
+        for (OnlineLearning learner : copies) {
+            OnlinePerceptron copy = (OnlinePerceptron) learner;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += copy.StatisticsMatrix[i] - StatisticsMatrix[i];
+            }
+            overall += copy.N_overall - N_overall;
+            num_ok_p_sum += copy.num_ok_p - num_ok_p;
+            threshold += copy.threshold_for_precisionANDrecall / n;
+            error += copy.expMovingAverage_error / n;
+            pos += copy.N_hat_Pos / n;
+            neg += copy.N_hat_Neg / n;
+            auc += copy.AUC_object.expMovAvGetAUC() / n;
+            firstPos &= copy.first_pos;
+            firstNeg &= copy.first_neg;
+        }
+        OnlinePerceptron last = (OnlinePerceptron) copies.get(copies.size() - 1);
+
+        ParallelTraining.averageModels(linearModel, copies);
+        M_pos = last.M_pos;
+        M_neg = last.M_neg;
+        System.arraycopy(counts, 0, StatisticsMatrix, 0, counts.length);
+        N_overall = overall;
+        num_ok_p = num_ok_p_sum;
+        run_p = last.run_p;
+        threshold_for_precisionANDrecall = threshold;
+        expMovingAverage_error = error;
+        N_hat_Pos = pos;
+        N_hat_Neg = neg;
+        first_pos = firstPos;
+        first_neg = firstNeg;
+        AUC_object = new AUC(last.AUC_object);
+        AUC_object.expMovAvSetAUC(auc);
+        AUC_value = auc;
+    }
 }
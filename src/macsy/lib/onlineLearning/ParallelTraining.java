@@ -0,0 +1,203 @@
+package macsy.lib.onlineLearning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import macsy.lib.ArrayLinearModel;
+import macsy.lib.DataPoint;
+import macsy.lib.LinearModel;
+
+/**
+ * Trains an OnlineLearning with several threads, by parameter averaging
+ * (iterative parameter mixing).
+ *
+ * The samples are split in rounds of numThreads * roundSize samples. In each
+ * round every thread trains its own copy of the learner (see
+ * OnlineLearning.copyLearner()) on every numThreads-th sample of the round, in
+ * order, and then the copies are merged back (see
+ * OnlineLearning.mergeLearners()): the model is the average of the models of
+ * the copies, the confusion matrix counts all the samples and the moving
+ * averages are averaged. The result does not depend on timing, only on the
+ * number of threads and the round size.
+ *
+ * Copying and averaging the model costs about as much as training on a few
+ * thousand samples, so rounds should be larger than that. With 1 thread the
+ * samples are given to train() one by one, as before.
+ *
+ * Only a learner over an ArrayLinearModel is trained in parallel. The copies
+ * are ArrayLinearModels, and other models update their weights by other
+ * rules (BasicLinearModel.addToW() only sets weights of new features), so
+ * training the copies and averaging them into such a model would change what
+ * is learned. For other models numThreads is ignored: the samples are trained
+ * with 1 thread and a note is printed.
+ *
+ * Usage:
+ * ParallelTraining training = new ParallelTraining(learner, 8, 10000);
+ * training.train(samples);
+ * training.close();
+ */
+public class ParallelTraining {
+
+    /**
+     * Default number of samples per thread in a round.
+     */
+    public static final int DEFAULT_ROUND_SIZE = 10000;
+
+    static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Parallel training");
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private final OnlineLearning learner;
+    private final int numThreads;
+    private final int roundSize;
+    private ExecutorService executor = null;
+
+    /**
+     * @param learner
+     *            : the learner to train
+     * @param numThreads
+     *            : the number of threads
+     * @param roundSize
+     *            : the number of samples per thread between merges
+     */
+    public ParallelTraining(OnlineLearning learner, int numThreads, int roundSize) {
+        LinearModel model = learner.getLinearModel();
+        if (numThreads > 1 && !(model instanceof ArrayLinearModel)) {
+            System.out.println("Training with 1 thread instead of " + numThreads
+                    + ": only an ArrayLinearModel can be trained in parallel, not a "
+                    + model.getClass().getSimpleName());
+            numThreads = 1;
+        }
+        this.learner = learner;
+        this.numThreads = Math.max(1, numThreads);
+        this.roundSize = Math.max(1, roundSize);
+    }
+
+    /**
+     * @return the number of threads that train: 1 unless the model of the
+     *         learner is an ArrayLinearModel
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Trains the learner on the samples.
+     *
+     * @param samples
+     *            : the samples, with their real labels
+     */
+    public void train(List<DataPoint> samples) throws Exception {
+        if (numThreads == 1) {
+            for (DataPoint sample : samples) {
+                learner.train(sample);
+            }
+            return;
+        }
+
+        int round = numThreads * roundSize;
+        for (int from = 0; from < samples.size(); from += round) {
+            trainRound(samples.subList(from, Math.min(samples.size(), from + round)));
+        }
+    }
+
+    private void trainRound(final List<DataPoint> samples) throws Exception {
+        int threads = Math.min(numThreads, samples.size());
+        if (threads == 1) {
+            learner.train(samples.get(0));
+            return;
+        }
+
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(numThreads, DAEMON_THREADS);
+        }
+
+        List<OnlineLearning> copies = new ArrayList<OnlineLearning>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < threads; t++) {
+            final OnlineLearning copy = learner.copyLearner();
+            final int first = t;
+            final int step = threads;
+            copies.add(copy);
+            tasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int i = first; i < samples.size(); i += step) {
+                        copy.train(samples.get(i));
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+
+        learner.mergeLearners(copies);
+    }
+
+    /**
+     * Stops the threads.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        executor = null;
+    }
+
+    /**
+     * Returns a copy of a model, for a copy of a learner.
+     *
+     * @param model
+     *            : the model to copy
+     */
+    static LinearModel copyModel(LinearModel model) {
+        ArrayLinearModel copy = new ArrayLinearModel();
+        copy.setW(model.getW());
+        copy.setB(model.getB());
+        return copy;
+    }
+
+    /**
+     * Sets a model to the average of the models of the copies of a learner.
+     *
+     * @param model
+     *            : the model of the learner
+     * @param copies
+     *            : the copies of the learner
+     */
+    static void averageModels(LinearModel model, List<OnlineLearning> copies) {
+        ArrayLinearModel sum = new ArrayLinearModel();
+        double n = copies.size();
+        for (OnlineLearning copy : copies) {
+            LinearModel w = copy.getLinearModel();
+            DataPoint x = w.getW();
+            double[] values = x.getFeatureValues().clone();
+            for (int k = 0; k < values.length; k++) {
+                values[k] /= n;
+            }
+            // feature 0, the bias, is not added by addToW()
+            sum.addToW(new DataPoint(x.getFeatureIndices(), values,
+                    DataPoint.UNKNOWN_LABEL), w.getB() / n);
+        }
+        model.setW(sum.getW());
+        model.setB(sum.getB());
+    }
+}
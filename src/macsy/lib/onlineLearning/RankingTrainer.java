@@ -0,0 +1,164 @@
+package macsy.lib.onlineLearning;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import macsy.lib.DataPoint;
+import macsy.lib.LinearModel;
+
+/**
+ * Trains an OnlineLearning ranker on pairs of documents (x_i, x_j), where x_i
+ * is positive and should be ranked above the negative x_j.
+ *
+ * Each pair is given to OnlineLearning.trainPair() as x_i - x_j with label 1,
+ * or as x_j - x_i with label -1, with equal probability. The difference is not
+ * made: w(x_i - x_j) = wx_i - wx_j, and the scores wx of the documents are
+ * cached until the next update of the model, so a pair that is already ranked
+ * correctly costs no inner product.
+ *
+ * By default every positive is paired with every negative. With
+ * pairsPerPositive = k each positive is paired with k negatives, so a day
+ * costs O(k*(#pos)) instead of O((#pos)*(#neg)). The k negatives are drawn at
+ * random, or with hardNegatives they are the k highest scored ones, from a pool
+ * of the 4k negatives that scored highest at the start.
+ */
+public class RankingTrainer {
+
+    /**
+     * Value of pairsPerPositive to pair each positive with every negative.
+     */
+    public static final int ALL_PAIRS = 0;
+
+    private static final int HARD_POOL_FACTOR = 4;
+
+    private final OnlineLearning learner;
+    private final int pairsPerPositive;
+    private final boolean hardNegatives;
+    private final Random random;
+
+    // the cache of the scores, valid while stamp == modelVersion
+    private long modelVersion = 0;
+    private double[] posScore, negScore;
+    private long[] posStamp, negStamp;
+
+    /**
+     * Trains on all the pairs.
+     */
+    public RankingTrainer(OnlineLearning learner) {
+        this(learner, ALL_PAIRS, false, new Random());
+    }
+
+    /**
+     * @param learner
+     *            : the learner to train
+     * @param pairsPerPositive
+     *            : the number of negatives per positive, or ALL_PAIRS
+     * @param hardNegatives
+     *            : true to choose the highest scored negatives instead of
+     *            random ones
+     * @param random
+     *            : for the sampling and the direction of the pairs
+     */
+    public RankingTrainer(OnlineLearning learner, int pairsPerPositive,
+            boolean hardNegatives, Random random) {
+        this.learner = learner;
+        this.pairsPerPositive = Math.max(ALL_PAIRS, pairsPerPositive);
+        this.hardNegatives = hardNegatives;
+        this.random = random;
+    }
+
+    /**
+     * Trains the learner on pairs of a positive and a negative.
+     *
+     * @return the number of pairs trained
+     */
+    public long train(List<DataPoint> positives, List<DataPoint> negatives)
+            throws Exception {
+        DataPoint[] pos = positives.toArray(new DataPoint[positives.size()]);
+        DataPoint[] neg = negatives.toArray(new DataPoint[negatives.size()]);
+        if (pos.length == 0 || neg.length == 0) {
+            return 0;
+        }
+
+        posScore = new double[pos.length];
+        posStamp = new long[pos.length];
+        negScore = new double[neg.length];
+        negStamp = new long[neg.length];
+        Arrays.fill(posStamp, -1);
+        Arrays.fill(negStamp, -1);
+
+        int k = (pairsPerPositive == ALL_PAIRS) ? neg.length
+                : Math.min(pairsPerPositive, neg.length);
+
+        // the order of the negatives, partly shuffled for each positive
+        Integer[] order = new Integer[neg.length];
+        for (int j = 0; j < neg.length; j++) {
+            order[j] = j;
+        }
+        boolean hard = hardNegatives && k < neg.length;
+        if (hard) {
+            int poolSize = (int) Math.min(neg.length,
+                    (long) HARD_POOL_FACTOR * k);
+            sortByScore(neg, order);
+            order = Arrays.copyOf(order, poolSize);
+        }
+
+        long pairs = 0;
+        for (int i = 0; i < pos.length; i++) {
+            if (hard) {
+                sortByScore(neg, order);
+            } else if (k < neg.length) {
+                for (int t = 0; t < k; t++) {
+                    int r = t + random.nextInt(order.length - t);
+                    Integer tmp = order[t];
+                    order[t] = order[r];
+                    order[r] = tmp;
+                }
+            }
+            for (int t = 0; t < k; t++) {
+                trainPair(pos, i, neg, order[t]);
+                pairs++;
+            }
+        }
+        return pairs;
+    }
+
+    private void trainPair(DataPoint[] pos, int i, DataPoint[] neg, int j)
+            throws Exception {
+        double diff = score(pos, posScore, posStamp, i)
+                - score(neg, negScore, negStamp, j);
+        boolean updated;
+        if (random.nextBoolean()) {
+            updated = learner.trainPair(pos[i], neg[j], 1, diff);
+        } else {
+            updated = learner.trainPair(neg[j], pos[i], -1, -diff);
+        }
+        if (updated) {
+            modelVersion++;
+        }
+    }
+
+    private double score(DataPoint[] docs, double[] cache, long[] stamp, int k) {
+        if (stamp[k] != modelVersion) {
+            LinearModel model = learner.getLinearModel();
+            cache[k] = model.score(docs[k]);
+            stamp[k] = modelVersion;
+        }
+        return cache[k];
+    }
+
+    /**
+     * Sorts the indices of the negatives by decreasing score.
+     */
+    private void sortByScore(DataPoint[] neg, Integer[] indices) {
+        for (Integer j : indices) {
+            score(neg, negScore, negStamp, j);
+        }
+        Arrays.sort(indices, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(negScore[b], negScore[a]);
+            }
+        });
+    }
+}
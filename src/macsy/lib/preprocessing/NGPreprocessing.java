@@ -4,6 +4,8 @@ package macsy.lib.preprocessing;
 import java.io.*;
 import java.util.TreeSet;
 
+import macsy.lib.StemCache;
+
 
 /**
  * Preprocessing 
@@ -28,6 +30,10 @@ public class NGPreprocessing {
 
 	private Stemmer m_stemmer;	//Stemmer object
 
+	private StemCache m_Cache;	//Null to stem every word
+	private int m_CacheHits = 0;	//Not yet added to m_Cache
+	private int m_CacheMisses = 0;
+	private static final int CACHE_STATS_BATCH = 1024;
 
 	public NGPreprocessing(String stopwords_filename) {
 		m_stemmer = new Stemmer();	//stemmer;
@@ -35,6 +41,32 @@ public class NGPreprocessing {
 		m_StopWords = new TreeSet<String>();
 		if(stopwords_filename!=null)
 			LoadStopWords(stopwords_filename);
+		m_Cache = StemCache.getShared(stopwords_filename);
+	}
+
+	/**
+	 * By default all NGPreprocessing with the same stop words share a cache.
+	 * @param cache A cache for these stop words only, or null for no cache.
+	 */
+	public void setStemCache(StemCache cache) {
+		flushStats();
+		m_Cache = cache;
+	}
+
+	public StemCache getStemCache() {
+		return m_Cache;
+	}
+
+	/**
+	 * Adds the lookups not yet counted to the stats of the cache. They are
+	 * added every CACHE_STATS_BATCH lookups; call this when done, before
+	 * reading the stats.
+	 */
+	public void flushStats() {
+		if(m_Cache!=null && m_CacheHits + m_CacheMisses > 0)
+			m_Cache.addStats(m_CacheHits, m_CacheMisses);
+		m_CacheHits = 0;
+		m_CacheMisses = 0;
 	}
 	
 	public NGPreprocessing(String stopwords_filename, int minWorldLength) {
@@ -86,14 +118,33 @@ public class NGPreprocessing {
 				{
 					if (k>=MIN_WORD_LENGTH)	//MIN LENGTH OF A WORD 
 					{
-						m_stemmer.add(w, k);
-						m_stemmer.stem();
-						//REMOVE IF IS A STOP WORD!!!
-						if(!m_StopWords.contains(m_stemmer.toString()))
+						StemCache.Entry e = (m_Cache==null) ? null : m_Cache.get(w, k);
+						if(e!=null)
+						{
+							m_CacheHits++;
+							if(!e.isStopWord)
+								buf_out.append(e.stem).append(' ');
+						}
+						else
 						{
-							//	System.out.print( s.toString()+" " );
-							buf_out.append(m_stemmer.toString()+" ");
+							m_stemmer.add(w, k);
+							m_stemmer.stem();
+							String stem = m_stemmer.toString();
+							//REMOVE IF IS A STOP WORD!!!
+							boolean isStopWord = m_StopWords.contains(stem);
+							if(m_Cache!=null)
+							{
+								m_Cache.put(w, k, m_stemmer.getResultBuffer(), m_stemmer.getResultLength(), isStopWord);
+								m_CacheMisses++;
+							}
+							if(!isStopWord)
+							{
+								//	System.out.print( s.toString()+" " );
+								buf_out.append(stem).append(' ');
+							}
 						}
+						if(m_CacheHits + m_CacheMisses >= CACHE_STATS_BATCH)
+							flushStats();
 
 						//	dic.add(s.toString());
 					}
@@ -0,0 +1,229 @@
+package macsy.module.featuresExtractorTFIDF;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import macsy.blackBoardsSystem.BBDoc;
+import macsy.blackBoardsSystem.BBDocSet;
+import macsy.blackBoardsSystem.BBWriteBatch;
+import macsy.lib.DataPoint;
+
+/**
+ * Indexes the docs of FeaturesExtractorTFIDF in three stages:
+ *
+ * reader --queue--> N indexers --queue--> writer
+ *
+ * The reader walks the doc set and gets the text of each doc from the doc
+ * itself, so the doc set should read the input fields. Each indexer
+ * thread has its own NGIndexer, as NGPreprocessing and Stemmer are not thread
+ * safe; the read only NGVoc is shared. The writer (the thread that calls
+ * run()) queues the features, the removal of the input tag and the output tag
+ * of each doc in a BBWriteBatch, so they reach the Black Board in bulk, with
+ * the removal of the input tag written last.
+ *
+ * Queues are bounded, so a slow stage holds back the ones before it. The first
+ * error of any stage stops all of them and is thrown by run(). Every doc read
+ * is written once; a doc keeps its input tag until its update is written, so
+ * docs lost to an error are picked up by the next run.
+ */
+class FeaturesExtractorPipeline {
+
+	/**
+	 * Number of docs buffered between stages, per indexer.
+	 */
+	static final int DEFAULT_QUEUE_DEPTH = 200;
+
+	/**
+	 * Marks the end of the docs in the queues.
+	 */
+	private static final Object END = new Object();
+
+	/**
+	 * A doc passing through the stages.
+	 */
+	private static final class Item {
+		Object docID;
+		String text;
+		DataPoint features;
+	}
+
+	private FeaturesExtractorTFIDF_DAO storage;
+	private List<String> inputFields;
+	private NGVoc voc;
+	private String stopwordsFilename;
+	private int numIndexers;
+
+	private BlockingQueue<Object> toIndex;
+	private BlockingQueue<Object> toWrite;
+	private List<Thread> threads = new ArrayList<Thread>();
+
+	private volatile Throwable error = null;
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param storage
+	 * @param inputFields The text fields to index.
+	 * @param voc The vocabulary, shared by all indexers.
+	 * @param stopwordsFilename
+	 * @param numIndexers Number of indexer threads.
+	 */
+	FeaturesExtractorPipeline(FeaturesExtractorTFIDF_DAO storage, List<String> inputFields,
+			NGVoc voc, String stopwordsFilename, int numIndexers)
+	{
+		this.storage = storage;
+		this.inputFields = inputFields;
+		this.voc = voc;
+		this.stopwordsFilename = stopwordsFilename;
+		this.numIndexers = Math.max(1, numIndexers);
+	}
+
+	/**
+	 * Indexes all docs of the set and writes the results.
+	 *
+	 * @param docs The docs to index.
+	 * @param batch Where the results are written; closed at the end.
+	 * @param outputField
+	 * @param encoding Encoding of FeaturesCodec.
+	 * @param inputTagID Removed from each doc.
+	 * @param outputTagID Added to each doc, if not 0.
+	 * @param limit Expected number of docs, for the progress report.
+	 * @return The number of docs processed.
+	 * @throws Exception The first error of any stage.
+	 */
+	int run(BBDocSet docs, BBWriteBatch batch, String outputField, int encoding,
+			int inputTagID, int outputTagID, int limit) throws Exception
+	{
+		toIndex = new ArrayBlockingQueue<Object>(DEFAULT_QUEUE_DEPTH * numIndexers);
+		toWrite = new ArrayBlockingQueue<Object>(DEFAULT_QUEUE_DEPTH * numIndexers);
+
+		start(reader(docs));
+		for(int t=0; t<numIndexers; t++)
+			start(indexer(t));
+
+		int i = 0;
+		int ended = 0;
+		try {
+			while(ended < numIndexers)
+			{
+				if(error!=null)
+				{
+					if(error instanceof Exception)
+						throw (Exception) error;
+					if(error instanceof Error)
+						throw (Error) error;
+					throw new Exception(error);
+				}
+
+				Object o = toWrite.poll(100, TimeUnit.MILLISECONDS);
+				if(o==null)
+					continue;
+				if(o==END)
+				{
+					ended++;
+					continue;
+				}
+
+				Item item = (Item) o;
+				storage.storeIndexed(batch, item.docID, outputField, item.features, encoding,
+						inputTagID, outputTagID);
+
+				if(++i%1000==0)
+					System.out.printf("%.2f%%\n",i*100.0/limit);
+			}
+		}
+		finally {
+			stop();
+		}
+
+		batch.close();
+		return i;
+	}
+
+	private void start(Thread t)
+	{
+		t.setDaemon(true);
+		threads.add(t);
+		t.start();
+	}
+
+	/**
+	 * Stops all stages; they may be blocked on a full or empty queue.
+	 */
+	private void stop()
+	{
+		cancelled = true;
+		for(Thread t : threads)
+			t.interrupt();
+	}
+
+	private void fail(Throwable e)
+	{
+		synchronized(this) {
+			if(error==null)
+				error = e;
+		}
+		cancelled = true;
+	}
+
+	private Thread reader(final BBDocSet docs)
+	{
+		return new Thread("FeaturesExtractor reader") {
+			public void run()
+			{
+				try {
+					BBDoc doc;
+					while(!cancelled && (doc = docs.getNext())!=null)
+					{
+						Item item = new Item();
+						item.docID = doc.getID();
+						item.text = storage.getDocText(doc, inputFields);	//No need to read it again
+						toIndex.put(item);
+					}
+					for(int t=0; t<numIndexers && !cancelled; t++)
+						toIndex.put(END);
+				}
+				catch(InterruptedException e) {
+					//Stopped
+				}
+				catch(Throwable e) {
+					fail(e);	//Also Errors, so that run() does not wait for END forever
+				}
+				finally {
+					docs.close();
+				}
+			}
+		};
+	}
+
+	private Thread indexer(int t)
+	{
+		return new Thread("FeaturesExtractor indexer " + t) {
+			public void run()
+			{
+				try {
+					NGIndexer ng = new NGIndexer(voc, stopwordsFilename);	//Confined to this thread
+					Object o;
+					while(!cancelled && (o = toIndex.take())!=END)
+					{
+						Item item = (Item) o;
+						item.features = ng.CreateBOW_DataPoint(item.text);
+						item.text = null;
+						toWrite.put(item);
+					}
+					ng.flushStats();	//Before END, so run() returns with complete stats
+					if(!cancelled)
+						toWrite.put(END);
+				}
+				catch(InterruptedException e) {
+					//Stopped
+				}
+				catch(Throwable e) {
+					fail(e);	//Also Errors, so that run() does not wait for END forever
+				}
+			}
+		};
+	}
+}
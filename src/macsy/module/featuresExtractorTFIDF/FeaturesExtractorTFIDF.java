@@ -9,10 +9,18 @@ package macsy.module.featuresExtractorTFIDF;
  * INPUT_TAG=Run module only on docs that have this tag. The tag of the docs will be removed after 
  * the module have run.
  * INPUT_STOPWORDS_FILENAME=The path and name of the file that stores stopwords that will be removed.
- * INPUT_VOCABULARY_FILENAME=The path and name of the file that stores a vocabulary with IDFs.
+ * INPUT_VOCABULARY_FILENAME=The path and name of the file that stores a vocabulary with IDFs, text or
+ * binary (see NGVoc.main()); a binary vocabulary is memory mapped.
+ * FEATURE_HASHING_BITS=Optional. Hash words to 2^bits feature IDs instead of looking them up
+ * (see NGHashedVoc): no word list is loaded and no word is dropped. The vocabulary is then
+ * optional, must be text and only gives the IDFs.
+ * INDEXER_THREADS=Optional. Number of threads that index docs in parallel (default 1). Reading
+ * docs and writing results run in threads of their own; results are written in batches.
  * 
  * Output:
  * OUTPUT_FIELD=The features vector as a list of FeatureID,FeatureValue pairs. 
+ * OUTPUT_ENCODING=Optional. How OUTPUT_FIELD is stored: ARRAY (default, list of doubles),
+ * FLOAT or INT16 (compact binary, see FeaturesCodec). All readers of features accept all three.
  * OUTPUT_TAG=Add this tag to processed docs.  
  * 
  * Author: Ilias Flaounas
@@ -22,10 +30,10 @@ package macsy.module.featuresExtractorTFIDF;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import macsy.blackBoardsSystem.BBDoc;
 import macsy.blackBoardsSystem.BBDocSet;
 import macsy.blackBoardsSystem.BlackBoard;
+import macsy.lib.FeaturesCodec;
+import macsy.lib.StemCache;
 import macsy.module.BaseModule;
 
 
@@ -33,6 +41,9 @@ public class FeaturesExtractorTFIDF  extends BaseModule {
 	
 	static final String PROPERTY_INPUT_STOPWORDS_FILENAME = "INPUT_STOPWORDS_FILENAME";
 	static final String PROPERTY_INPUT_VOCABULARY_FILENAME = "INPUT_VOCABULARY_FILENAME";
+	static final String PROPERTY_OUTPUT_ENCODING = "OUTPUT_ENCODING";
+	static final String PROPERTY_INDEXER_THREADS = "INDEXER_THREADS";
+	static final String PROPERTY_FEATURE_HASHING_BITS = "FEATURE_HASHING_BITS";
 
 	public FeaturesExtractorTFIDF(String propertiesFilename ) throws Exception {
 		super(propertiesFilename);
@@ -77,32 +88,30 @@ public class FeaturesExtractorTFIDF  extends BaseModule {
 			outputTagID = _storage.getTagID( this.MODULE_OUTPUT_TAGS );
 		
 		//String outputField = this.MODULE_OUTPUT_FIELDS ;
+		int outputEncoding = FeaturesCodec.parseEncoding( this.getProperty(PROPERTY_OUTPUT_ENCODING) );
 
 		System.out.println("Finding articles to be indexed...");
-		BBDocSet articles = _storage.getInputDocs(inputTagID,this.MODULE_DATA_PROCESS_LIMIT);
-
-		//Initilize indexer
-		NGIndexer _ng = new NGIndexer(	vocabularyFilename, stopwordsFilename );
-		
-		
-		BBDoc article;
-		int i=0;
-		while((article=articles.getNext())!=null)
-		{
-			if(++i%1000==0) 
-				System.out.printf("%.2f%%\n",i*100.0/this.MODULE_DATA_PROCESS_LIMIT);
-
-			String artText = _storage.getDocText(article.getID(), inputFields);
-
-			Map<Integer,Double> key_val = _ng.CreateBOW_Map( artText  );
-
-			_storage.storeIndexed(article.getID(), this.MODULE_OUTPUT_FIELDS, key_val);
-
-			_storage.removeTagFromDoc( article.getID(), inputTagID );
-			
-			if(outputTagID!=0)
-				_storage.addTagToDoc(article.getID(), outputTagID);
-		}
+		BBDocSet articles = _storage.getInputDocs(inputTagID,this.MODULE_DATA_PROCESS_LIMIT, inputFields);
+
+		//Initilize indexers
+		int threads = 1;
+		if(this.getProperty(PROPERTY_INDEXER_THREADS)!=null)
+			threads = Integer.parseInt(this.getProperty(PROPERTY_INDEXER_THREADS).trim());
+
+		System.out.print("Reading Vocabulary...");
+		NGVoc voc;
+		if(this.getProperty(PROPERTY_FEATURE_HASHING_BITS)!=null)
+			voc = new NGHashedVoc( Integer.parseInt(this.getProperty(PROPERTY_FEATURE_HASHING_BITS).trim()),
+					vocabularyFilename );
+		else
+			voc = (vocabularyFilename==null) ? null : NGVoc.getShared( vocabularyFilename );
+		System.out.println("\t[ DONE ]");
+
+		FeaturesExtractorPipeline pipeline = new FeaturesExtractorPipeline(
+				_storage, inputFields, voc, stopwordsFilename, threads);
+		int i = pipeline.run(articles, _storage.createWriteBatch(), this.MODULE_OUTPUT_FIELDS, outputEncoding,
+				inputTagID, outputTagID, this.MODULE_DATA_PROCESS_LIMIT);
+		System.out.printf("Stem cache hit rate: %.1f%%\n", 100 * StemCache.getShared(stopwordsFilename).getHitRate());
 
 		saveModuleResults(i,i );
 	}
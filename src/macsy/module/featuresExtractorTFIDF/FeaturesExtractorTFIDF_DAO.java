@@ -6,7 +6,11 @@ import java.util.List;
 import java.util.Map;
 import macsy.blackBoardsSystem.BBDoc;
 import macsy.blackBoardsSystem.BBDocSet;
+import macsy.blackBoardsSystem.BBWriteBatch;
 import macsy.blackBoardsSystem.BlackBoard;
+import macsy.blackBoardsSystem.BlackBoardDateBased;
+import macsy.lib.DataPoint;
+import macsy.lib.FeaturesCodec;
 
 
 public class FeaturesExtractorTFIDF_DAO {
@@ -42,6 +46,18 @@ public class FeaturesExtractorTFIDF_DAO {
 
 	
 	public BBDocSet getInputDocs(int inputTagID, int limit) throws Exception
+	{
+		return getInputDocs(inputTagID, limit, null);
+	}
+
+	/**
+	 * Docs with the input tag, with only the given fields (plus ID and tags)
+	 * read from the DB. Pass the docs to getDocText(BBDoc, List), so that they
+	 * are not read again.
+	 * 
+	 * @param inputFields The fields to read, or null for whole docs.
+	 */
+	public BBDocSet getInputDocs(int inputTagID, int limit, List<String> inputFields) throws Exception
 	{
 		LinkedList<Integer> requiredTags = new LinkedList<Integer>();
 		requiredTags.add( inputTagID  );
@@ -54,22 +70,34 @@ public class FeaturesExtractorTFIDF_DAO {
 		BBDocSet articles = bb.findDocsByTagsSet(
 				requiredTags,
 				null,
-				limit);
+				limit,
+				inputFields);
 
 		return articles;
 	}
 	
 	
+	/**
+	 * Reads the doc again from the DB; prefer getDocText(BBDoc, List) with the
+	 * doc returned by getInputDocs().
+	 */
 	public String getDocText(Object docID, List<String> inputFields) throws Exception
 	{
-		BBDoc doc = bb.findDocByID(docID);
+		return getDocText(bb.findDocByID(docID), inputFields);
+	}
+
+	/**
+	 * The text of the input fields of a doc, concatenated.
+	 */
+	public String getDocText(BBDoc doc, List<String> inputFields) throws Exception
+	{
 		StringBuilder artText = new StringBuilder(); 
 		
 		for(String field : inputFields)
 		{
 			String text = (String) doc.getField( field);
 			if(text!=null)
-				artText.append(  text + ". " );
+				artText.append(text).append(". ");
 		}
 				
 		return artText.toString();
@@ -77,15 +105,40 @@ public class FeaturesExtractorTFIDF_DAO {
 	
 	public void storeIndexed(Object docID, String outputField, Map<Integer,Double> key_val) throws Exception
 	{
-		List<Double> keyval_list = new LinkedList<Double>();
-		
-		for (Map.Entry<Integer, Double> e : key_val.entrySet()) 
-		{
-			keyval_list.add((double)e.getKey());
-			keyval_list.add(e.getValue());
-		}
-		
-		bb.addFieldToDoc(docID, outputField, keyval_list);
+		storeIndexed(docID, outputField, new DataPoint(key_val), FeaturesCodec.ENCODING_ARRAY);
+	}
+
+	/**
+	 * Stores the features in the given encoding of FeaturesCodec.
+	 */
+	public void storeIndexed(Object docID, String outputField, DataPoint features, int encoding) throws Exception
+	{
+		bb.addFieldToDoc(docID, outputField, FeaturesCodec.toFieldValue(features, encoding));
+	}
+
+	/**
+	 * Queues in batch the features of a doc and its tag transition: the input
+	 * tag is removed and the output tag (if not 0) is added. The input tag is
+	 * removed last, only after the rest has been written.
+	 */
+	public void storeIndexed(BBWriteBatch batch, Object docID, String outputField, DataPoint features,
+			int encoding, int inputTagID, int outputTagID) throws Exception
+	{
+		batch.addFieldToDoc(docID, outputField, FeaturesCodec.toFieldValue(features, encoding));
+		batch.removeTagFromDoc(docID, inputTagID);
+		if(outputTagID!=0)
+			batch.addTagToDoc(docID, outputTagID);
+	}
+
+	/**
+	 * @return A batch for writing to the Black Board.
+	 * @throws Exception If the Black Board is not date based.
+	 */
+	public BBWriteBatch createWriteBatch() throws Exception
+	{
+		if(!(bb instanceof BlackBoardDateBased))
+			throw new Exception("Batched writes need a date based Black Board");
+		return ((BlackBoardDateBased) bb).createWriteBatch();
 	}
 
 	
@@ -0,0 +1,212 @@
+package macsy.module.featuresExtractorTFIDF;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Vocabulary of the hashing trick: the ID of a word is computed from its
+ * hash, so every word gets an ID, no word list is kept in memory and nothing
+ * has to be loaded to start indexing.
+ *
+ * IDs are 1..2^bits (0 keeps its special meaning). Each word also gets a sign
+ * (+1 or -1) from a bit of its hash that is not used by its ID; NGIndexer adds
+ * the signs of the occurrences, so words that collide cancel out on average
+ * instead of inflating each other.
+ *
+ * IDFs are optional. They are read from a text vocabulary file of NGVoc (a
+ * binary one keeps IDFs, not DFs, and is rejected): the DFs of all words that hash to the same ID are added, and
+ * IDF = log(NumOfDocuments / DF). IDs with DF <= MIN_DF_VALUE, including the
+ * IDs of words not in the file, get the IDF of a word with DF = MIN_DF_VALUE+1,
+ * so new words are kept. Only a double[2^bits+1] of IDFs is kept in memory.
+ * Without a vocabulary file all IDFs are 1, i.e. NGIndexer returns TFs.
+ */
+public class NGHashedVoc extends NGVoc {
+
+	public static final int MIN_BITS = 1;
+	public static final int MAX_BITS = 28;
+
+	private static final int SEED = 0x4E47564F;	// "NGVO"
+
+	private int m_Bits;
+	private int m_Mask;
+	private double[] m_ID2IDF = null;	//Null if no IDFs
+	private int m_NumOfDocuments = 0;
+
+	private Map<Integer,String> m_ID2Words = null;	//Only for word clouds
+
+	private int MIN_DF_VALUE = 3;
+
+	/**
+	 * Hashing without IDFs.
+	 *
+	 * @param bits The number of bits of the feature IDs.
+	 */
+	public NGHashedVoc(int bits) throws Exception {
+		this(bits, null, false);
+	}
+
+	/**
+	 * @param bits The number of bits of the feature IDs.
+	 * @param voc_filename Text vocabulary file of NGVoc, or null for no IDFs.
+	 */
+	public NGHashedVoc(int bits, String voc_filename) throws Exception {
+		this(bits, voc_filename, false);
+	}
+
+	/**
+	 * @param bits The number of bits of the feature IDs.
+	 * @param voc_filename Text vocabulary file of NGVoc, or null for no IDFs.
+	 * @param keepWords True to keep the words of the file, so that getWord() can
+	 * return them (e.g. for word clouds of models). False saves the memory.
+	 */
+	public NGHashedVoc(int bits, String voc_filename, boolean keepWords) throws Exception {
+		if(bits < MIN_BITS || bits > MAX_BITS)
+			throw new Exception("Hashing bits should be " + MIN_BITS + " to " + MAX_BITS + ", not " + bits);
+
+		m_Bits = bits;
+		m_Mask = (1 << bits) - 1;
+		currentID = (1 << bits) + 1;
+		if(keepWords)
+			m_ID2Words = new TreeMap<Integer,String>();
+
+		if(voc_filename!=null)
+			LoadVocabulary(voc_filename);
+	}
+
+	/**
+	 * MurmurHash3 (32 bit) of the word buf[off..off+len).
+	 */
+	public static int hash(char[] buf, int off, int len) {
+		int h = SEED;
+		int end = off + (len & ~1);
+		for(int i=off; i<end; i+=2)	//Two chars per block
+		{
+			int k = buf[i] | (buf[i+1] << 16);
+			k *= 0xcc9e2d51;
+			k = Integer.rotateLeft(k, 15);
+			k *= 0x1b873593;
+			h ^= k;
+			h = Integer.rotateLeft(h, 13);
+			h = h * 5 + 0xe6546b64;
+		}
+		if((len & 1)!=0)
+		{
+			int k = buf[end];
+			k *= 0xcc9e2d51;
+			k = Integer.rotateLeft(k, 15);
+			k *= 0x1b873593;
+			h ^= k;
+		}
+
+		h ^= 2 * len;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * @return The feature ID of a hash, 1..2^bits.
+	 */
+	public int getFeatureID(int hash) {
+		return (hash & m_Mask) + 1;
+	}
+
+	/**
+	 * @return The sign of a hash, from its top bit, which is not part of the ID.
+	 */
+	public static int getSign(int hash) {
+		return (hash < 0) ? -1 : 1;
+	}
+
+	public int getBits() {
+		return m_Bits;
+	}
+
+	/**
+	 * @return True if IDFs were loaded.
+	 */
+	public boolean hasIDFs() {
+		return m_ID2IDF!=null;
+	}
+
+	/**
+	 * Return the ID of any word; never NULL.
+	 */
+	@Override
+	public Integer getWordID(String word) {
+		char[] c = word.toCharArray();
+		return getWordID(c, 0, c.length);
+	}
+
+	@Override
+	public int getWordID(char[] buf, int off, int len) {
+		return getFeatureID(hash(buf, off, len));
+	}
+
+	@Override
+	public double getWordIDF(int WordID) throws Exception {
+		if(WordID==0)
+			return m_NumOfDocuments;
+		if(m_ID2IDF==null)
+			return 1;
+		return m_ID2IDF[WordID];
+	}
+
+	/**
+	 * Return the words of the vocabulary file with this ID, separated by |,
+	 * or #ID if none is known (or the words were not kept).
+	 */
+	@Override
+	public String getWord(int WordID) {
+		String words = (m_ID2Words==null) ? null : m_ID2Words.get(WordID);
+		return (words==null) ? "#" + WordID : words;
+	}
+
+	/**
+	 * Reads the DFs of a text vocabulary file of NGVoc format and calculates
+	 * the IDFs of the hashed IDs.
+	 */
+	private void LoadVocabulary(String voc_filename) throws Exception
+	{
+		if(NGVoc.isBinary(voc_filename))	//Its IDFs of rare words are 0, their DFs are lost
+			throw new Exception(voc_filename + " is a binary vocabulary; feature hashing needs the DFs of a text vocabulary");
+
+		BufferedReader input = new BufferedReader( new FileReader(new File(voc_filename)) );
+
+		//LOAD HEADER
+		String line = input.readLine();
+		String[] tokens = line.split("\t");
+		m_NumOfDocuments = Integer.parseInt(tokens[1]);
+
+		double[] df = new double[currentID];
+		while (( line = input.readLine()) != null)
+		{
+			tokens = line.split("\t");
+			char[] word = tokens[0].toCharArray();
+			int WordID = getWordID(word, 0, word.length);
+			df[WordID] += Double.parseDouble(tokens[1]);
+
+			if(m_ID2Words!=null)
+			{
+				String words = m_ID2Words.get(WordID);
+				m_ID2Words.put(WordID, (words==null) ? tokens[0] : words + "|" + tokens[0]);
+			}
+		}
+		input.close();
+
+		double defaultIDF = Math.log( m_NumOfDocuments / (double)(MIN_DF_VALUE + 1));
+		m_ID2IDF = df;	//In place
+		for(int WordID=1; WordID<currentID; WordID++)
+		{
+			double dfvalue = Math.min(df[WordID], m_NumOfDocuments);
+			m_ID2IDF[WordID] = (dfvalue<=MIN_DF_VALUE ? defaultIDF : Math.log( m_NumOfDocuments / dfvalue));
+		}
+		m_ID2IDF[0] = m_NumOfDocuments;
+	}
+}
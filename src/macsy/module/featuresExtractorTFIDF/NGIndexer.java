@@ -8,9 +8,13 @@
 
 package macsy.module.featuresExtractorTFIDF;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
 
+import macsy.lib.DataPoint;
+import macsy.lib.IntDoubleHashMap;
+
 
 public class NGIndexer {
 
@@ -20,6 +24,10 @@ public class NGIndexer {
 
 	public NGVoc _voc = null;
 
+	private NGHashedVoc _hashed = null;	//_voc, if it is hashed
+
+	private IntDoubleHashMap _tf = new IntDoubleHashMap(1024);	//WordID -> Frequency, reused
+
 
 	/**
 	 * Constructor 
@@ -33,10 +41,34 @@ public class NGIndexer {
 		if(voc_filename==null)
 			_voc=null;
 		else
-			_voc = new NGVoc( voc_filename );
+			_voc = NGVoc.getShared( voc_filename );
 		System.out.println("\t[ DONE ]");
 
-		_pre = new NGPreprocessing(stopwords_filename);	
+		_pre = new NGPreprocessing(stopwords_filename);
+	}
+
+	/**
+	 * Constructor with a vocabulary that is already loaded.
+	 * NGVoc is read only, so indexers of several threads can share one; an
+	 * NGIndexer itself must be used by a single thread.
+	 *
+	 * @param voc	= The vocabulary to use
+	 * @param stopwords_filename	=Stopwordsfile to use
+	 */
+	public NGIndexer(NGVoc voc, String stopwords_filename) {
+		_voc = voc;
+		if(voc instanceof NGHashedVoc)
+			_hashed = (NGHashedVoc) voc;
+		_pre = new NGPreprocessing(stopwords_filename);
+	}
+
+	/**
+	 * Adds the stem cache lookups not yet counted to its stats; call when
+	 * done indexing (see NGPreprocessing.flushStats()).
+	 */
+	public void flushStats()
+	{
+		_pre.flushStats();
 	}
 
 	/**
@@ -61,13 +93,14 @@ public class NGIndexer {
 	 */
 	public String CreateBOW(String input) throws Exception
 	{
-		String Input_pre =  _pre.doPreprocess(input);
-
-		Map<Integer, Integer> TF = String2TF(Input_pre); 
+		DataPoint x = CreateBOW_DataPoint(input);
+		int[] ids = x.getFeatureIndices();
+		double[] values = x.getFeatureValues();
 
-		if(_voc!=null)
-			return Indexed2TFIDF(TF);
-		return Indexed2TF(TF);
+		StringBuffer TFIDF_featurevector=new StringBuffer(1000);
+		for(int k=0; k<ids.length; k++)
+			TFIDF_featurevector.append(ids[k]).append(':').append(values[k]).append(' ');
+		return TFIDF_featurevector.toString();
 	}
 
 
@@ -84,170 +117,92 @@ public class NGIndexer {
 	 */
 	public Map<Integer,Double> CreateBOW_Map(String input) throws Exception
 	{
-		String Input_pre =  _pre.doPreprocess(input);
-
-		Map<Integer, Integer> TF = String2TF(Input_pre); 
+		DataPoint x = CreateBOW_DataPoint(input);
+		int[] ids = x.getFeatureIndices();
+		double[] values = x.getFeatureValues();
 
-		if(_voc!=null)
-			return Indexed2TFIDF_Map(TF);
-
-		return Indexed2TF_Map(TF);
+		Map<Integer,Double> TFIDF_featurevector=new TreeMap<Integer,Double>();
+		for(int k=0; k<ids.length; k++)
+			TFIDF_featurevector.put(ids[k], values[k]);
+		return TFIDF_featurevector;
 	}
 
 	/**
-	 * Return a binary representation of input 
+	 * Same as CreateBOW_Map() but returns the TF-IDF (or TF if there is no
+	 * vocabulary IDFs) in the sorted arrays of a DataPoint, with no Map.
 	 * 
 	 * @param input
-	 * @return
-	 * @throws Exception
+	 * @return BOW of input
 	 */
-	public String CreateBinary(String input) throws Exception
+	public DataPoint CreateBOW_DataPoint(String input) throws Exception
 	{
-		String Input_pre =  _pre.doPreprocess(input);
-
-		Map<Integer, Integer> TF = String2Bin(Input_pre); 
-
-
-		StringBuffer Bin_featurevector=new StringBuffer(1000);
-		//First pass calculate total number of words.
-		for (Map.Entry<Integer, Integer> e : TF.entrySet()) 
-			Bin_featurevector.append( e.getKey() + ":1.0 ");
-
-		return Bin_featurevector.toString();
-	}
-
-
-	/**
-	 * From TF(WordID-> Frequency) Map goes to TFIDF String
-	 * Output format: <word_id>:<TFIDF><space><word_id>:<TFIDF>
-	 * @param indexed
-	 * @return
-	 */
-	private String Indexed2TFIDF(Map<Integer, Integer> indexed ) throws Exception {
-		StringBuffer TFIDF_featurevector=new StringBuffer(1000);
-
-		//First pass calculate total number of words.
-		int NumOfTerms = 0;
-		for (Map.Entry<Integer, Integer> e : indexed.entrySet()) 
-			NumOfTerms+= e.getValue();
-
-
-		for (Map.Entry<Integer, Integer> e : indexed.entrySet()) 
+		int NumOfTerms = String2TF(input);
+		int[] ids = _tf.sortedKeys();
+		double[] values = new double[ids.length];
+		int n = 0;
+		for(int k=0; k<ids.length; k++)
 		{
-			Integer WordID = e.getKey();
-			double tfidf =_voc.getWordIDF(WordID) *  e.getValue() / (double)NumOfTerms;
-			TFIDF_featurevector.append(WordID + ":"+ tfidf +" ");
+			double freq = _tf.get(ids[k], 0);
+			if(freq==0)		//Hashed words of opposite signs cancelled out
+				continue;
+			ids[n] = ids[k];
+			values[n++] = (_voc!=null) ? _voc.getWordIDF(ids[k]) * freq / NumOfTerms : freq / NumOfTerms;
 		}
-
-		return TFIDF_featurevector.toString();
-	}
-
-	private String Indexed2TF(Map<Integer, Integer> indexed ) throws Exception {
-		StringBuffer TFIDF_featurevector=new StringBuffer(1000);
-
-		//First pass calculate total number of words.
-		int NumOfTerms = 0;
-		for (Map.Entry<Integer, Integer> e : indexed.entrySet()) 
-			NumOfTerms+= e.getValue();
-
-
-		for (Map.Entry<Integer, Integer> e : indexed.entrySet()) 
+		if(n < ids.length)
 		{
-			Integer WordID = e.getKey();
-			double tfidf = e.getValue() / (double)NumOfTerms;
-			TFIDF_featurevector.append(WordID + ":"+ tfidf +" ");
+			ids = Arrays.copyOf(ids, n);
+			values = Arrays.copyOf(values, n);
 		}
-
-		return TFIDF_featurevector.toString();
+		return new DataPoint(ids, values, DataPoint.UNKNOWN_LABEL);
 	}
-	
+
 	/**
-	 * From TF(WordID-> Frequency) Map goes to TFIDF String
-	 * Output format: <word_id>:<TFIDF><space><word_id>:<TFIDF>
-	 * @param indexed
+	 * Return a binary representation of input 
+	 * 
+	 * @param input
 	 * @return
+	 * @throws Exception
 	 */
-	private Map<Integer,Double> Indexed2TFIDF_Map(Map<Integer, Integer> indexed ) throws Exception {
-		Map<Integer,Double> TFIDF_featurevector=new TreeMap<Integer,Double>();
-
-		//First pass calculate total number of words.
-		int NumOfTerms = 0;
-		for (Map.Entry<Integer, Integer> e : indexed.entrySet()) 
-			NumOfTerms+= e.getValue();
-
-		//Second pass 
-		for (Map.Entry<Integer, Integer> e : indexed.entrySet()) 
-		{
-			Integer WordID = e.getKey();
-			double tfidf =_voc.getWordIDF(WordID) *  e.getValue() / (double)NumOfTerms;
-			TFIDF_featurevector.put(WordID , tfidf);
-		}
-
-		return TFIDF_featurevector;
-	}
-
-	private Map<Integer,Double> Indexed2TF_Map(Map<Integer, Integer> indexed ) throws Exception {
-		Map<Integer,Double> TFIDF_featurevector=new TreeMap<Integer,Double>();
-
-		//First pass calculate total number of words.
-		int NumOfTerms = 0;
-		for (Map.Entry<Integer, Integer> e : indexed.entrySet()) 
-			NumOfTerms+= e.getValue();
+	public String CreateBinary(String input) throws Exception
+	{
+		String2TF(input);
+		int[] ids = _tf.sortedKeys();
 
-		//Second pass 
-		for (Map.Entry<Integer, Integer> e : indexed.entrySet()) 
-		{
-			Integer WordID = e.getKey();
-			double tfidf = e.getValue() / (double)NumOfTerms;
-			TFIDF_featurevector.put(WordID , tfidf);
-		}
+		StringBuffer Bin_featurevector=new StringBuffer(1000);
+		for(int k=0; k<ids.length; k++)
+			Bin_featurevector.append(ids[k]).append(":1.0 ");
 
-		return TFIDF_featurevector;
+		return Bin_featurevector.toString();
 	}
 
 
 	/**
-	 * index a phrase. 
+	 * Index a phrase in a single pass: tokenize, stem, remove stop words and
+	 * look up the word IDs, counting them in _tf. No String is created per word.
 	 *
-	 * Returns: The indexed version of input.
+	 * Returns: The number of words of input in the vocabulary.
 	 */
-	private Map<Integer, Integer> String2TF(String input) throws Exception {
-		//Keeps record of the instances of each word in input String.
-		Map<Integer, Integer> wordfreq = new TreeMap<Integer, Integer>(); 
-		String tokens[] = input.split("\\s");		
-
-		Integer freq;
-		for (int t=0;t<tokens.length;t++) {							//For each word
-			Integer w = _voc.getWordID(tokens[t]);
-			if(w==null)		// Word not in Vocabulary--> Ignore it
-				continue; 	
-
-			freq = wordfreq.get(w);
-			wordfreq.put(w, (freq == null) ? 1 : freq + 1);	//Increase number of instances of this word
-		}
-
-		return wordfreq;
-	}
-
-	/**
-	 * Binary representation of Input string
-	 * @param input
-	 * @return
-	 * @throws Exception
-	 */
-	private Map<Integer, Integer> String2Bin(String input) throws Exception {
-		//Keeps record of the instances of each word in input String.
-		Map<Integer, Integer> wordfreq = new TreeMap<Integer, Integer>(); 
-		String tokens[] = input.split("\\s");		
-
-		for (int t=0;t<tokens.length;t++) {							//For each word
-			Integer w = _voc.getWordID(tokens[t]);
-			if(w==null)		// Word not in Vocabulary--> Ignore it
-				continue; 	
-
-			wordfreq.put(w, 1);
+	private int String2TF(String input) throws Exception {
+		_tf.clear();
+		int NumOfTerms = 0;
+		for(int pos=0; (pos = _pre.nextStem(input, pos)) >= 0; )		//For each word
+		{
+			if(_hashed!=null)	//Every word has an ID, and a sign
+			{
+				int h = NGHashedVoc.hash(_pre.getStemBuffer(), 0, _pre.getStemLength());
+				_tf.add(_hashed.getFeatureID(h), NGHashedVoc.getSign(h));
+				NumOfTerms++;
+				continue;
+			}
+
+			int w = _voc.getWordID(_pre.getStemBuffer(), 0, _pre.getStemLength());
+			if(w<0)		// Word not in Vocabulary--> Ignore it
+				continue;
+
+			_tf.add(w, 1);	//Increase number of instances of this word
+			NumOfTerms++;
 		}
 
-		return wordfreq;
+		return NumOfTerms;
 	}
 }
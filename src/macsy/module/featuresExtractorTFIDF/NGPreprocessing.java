@@ -14,7 +14,9 @@ package macsy.module.featuresExtractorTFIDF;
 import java.io.IOException;
 //import java.util.ArrayList;
 import java.io.*;
-import java.util.TreeSet;
+
+import macsy.lib.CharsIntHashMap;
+import macsy.lib.StemCache;
 
 
 public class NGPreprocessing {
@@ -24,17 +26,53 @@ public class NGPreprocessing {
 	
 
 	
-	private TreeSet<String> m_StopWords;
+	private CharsIntHashMap m_StopWords;
 
 	private Stemmer m_stemmer;	//Stemmer object
 
+	private char[] m_Word = new char[MAX_WORD_LENGTH];	//Word being scanned by nextStem()
+
+	private StemCache m_Cache;	//Null to stem every word
+	private char[] m_Stem;		//Last stem, of the stemmer or of the cache
+	private int m_StemLength = 0;
+	private int m_CacheHits = 0;	//Not yet added to m_Cache
+	private int m_CacheMisses = 0;
+	private static final int CACHE_STATS_BATCH = 1024;
+
 
 	public NGPreprocessing(String stopwords_filename) {
 		m_stemmer = new Stemmer();	//stemmer;
 		//	System.out.print("Loading stop words...");
-		m_StopWords = new TreeSet<String>();
+		m_StopWords = new CharsIntHashMap();
 		if(stopwords_filename!=null)
 			LoadStopWords(stopwords_filename);
+		m_Cache = StemCache.getShared(stopwords_filename);
+		m_Stem = m_stemmer.getResultBuffer();
+	}
+
+	/**
+	 * By default all NGPreprocessing with the same stop words share a cache.
+	 * @param cache A cache for these stop words only, or null for no cache.
+	 */
+	public void setStemCache(StemCache cache) {
+		flushStats();
+		m_Cache = cache;
+	}
+
+	public StemCache getStemCache() {
+		return m_Cache;
+	}
+
+	/**
+	 * Adds the lookups not yet counted to the stats of the cache. They are
+	 * added every CACHE_STATS_BATCH lookups; call this when done, before
+	 * reading the stats.
+	 */
+	public void flushStats() {
+		if(m_Cache!=null && m_CacheHits + m_CacheMisses > 0)
+			m_Cache.addStats(m_CacheHits, m_CacheMisses);
+		m_CacheHits = 0;
+		m_CacheMisses = 0;
 	}
 	
 	public NGPreprocessing(String stopwords_filename, int minWorldLength) {
@@ -63,50 +101,89 @@ public class NGPreprocessing {
 	 * Uses Porter stemmer and stop world removal. 
 	 */
 	public String doPreprocess(String inp) {
-		String input =  inp+" ";
-		char[] w  =  new char[MAX_WORD_LENGTH];	//MAX wordlength
-		int input_size = input.length();
-		char[] buf_in = input.toCharArray();
-
 		StringBuffer buf_out = new StringBuffer(1000);
+		for(int pos=0; (pos = nextStem(inp, pos)) >= 0; )
+			buf_out.append(getStemBuffer(), 0, getStemLength()).append(' ');
+		return buf_out.toString().trim();
+	}
 
-		try {
-
-			int k=0; //word pointer;
-			for(int i=0;i<input_size;i++)	//Char in input pointer
+	/**
+	 * Streaming version of doPreprocess() that creates no Strings.
+	 * Scans input from pos to the next word that is not a stop word and stems
+	 * it. The stem is in getStemBuffer()/getStemLength() until the next call:
+	 *
+	 * for(int pos=0; (pos = pre.nextStem(input, pos)) >= 0; ) ...
+	 *
+	 * @return The position to continue from, or -1 if there are no more words.
+	 */
+	public int nextStem(String input, int pos) {
+		int input_size = input.length();
+		int k=0; //word pointer;
+		for(; pos<=input_size; pos++)	//Char in input pointer; input ends with a space
+		{
+			char c = (pos < input_size) ? input.charAt(pos) : ' ';
+			if ( IsAcceptedLetter(c) )
 			{
-				if ( IsAcceptedLetter(buf_in[i]) )
-				{
-					if(k < MAX_WORD_LENGTH -1 )	//Cut word if too large
-					{
-						w[k++]=Character.toLowerCase(buf_in[i]);
-					}
-				}
-				else 
+				if(k < MAX_WORD_LENGTH -1 )	//Cut word if too large
+					m_Word[k++] = (char) (c | 0x20);	//Lower case of a-z, A-Z
+			}
+			else 
+			{
+				if (k>=MIN_WORD_LENGTH)	//MIN LENGTH OF A WORD 
 				{
-					if (k>=MIN_WORD_LENGTH)	//MIN LENGTH OF A WORD 
-					{
-						m_stemmer.add(w, k);
-						m_stemmer.stem();
-						//REMOVE IF IS A STOP WORD!!!
-						if(!m_StopWords.contains(m_stemmer.toString()))
-						{
-							//	System.out.print( s.toString()+" " );
-							buf_out.append(m_stemmer.toString()+" ");
-						}
-
-						//	dic.add(s.toString());
-					}
-					k=0;
+					//REMOVE IF IS A STOP WORD!!!
+					if(stem(m_Word, k))
+						return pos+1;
 				}
-
+				k=0;
 			}
 		}
-		catch(Exception e) {
-			//System.out.printf("Exception in Preprocessing. Maybe too big word (>100)!. "+e.toString());
+		return -1;
+	}
+
+	/**
+	 * @return The buffer with the last stem found by nextStem(). Read only.
+	 */
+	public char[] getStemBuffer() {
+		return m_Stem;
+	}
+
+	public int getStemLength() {
+		return m_StemLength;
+	}
+
+	/**
+	 * Stems word[0..k) to m_Stem, from the cache if possible.
+	 * @return False if the stem is a stop word.
+	 */
+	private boolean stem(char[] word, int k) {
+		StemCache.Entry e = (m_Cache==null) ? null : m_Cache.get(word, k);
+		if(e==null)
+		{
+			m_stemmer.add(word, k);
+			m_stemmer.stem();
+			m_Stem = m_stemmer.getResultBuffer();
+			m_StemLength = m_stemmer.getResultLength();
+			boolean isStopWord = m_StopWords.containsKey(m_Stem, 0, m_StemLength);
+			if(m_Cache!=null)
+			{
+				m_Cache.put(word, k, m_Stem, m_StemLength, isStopWord);
+				m_CacheMisses++;
+				countCacheLookup();
+			}
+			return !isStopWord;
 		}
-		return buf_out.toString().trim();
 
+		m_CacheHits++;
+		countCacheLookup();
+		m_Stem = e.stem;
+		m_StemLength = e.stem.length;
+		return !e.isStopWord;
+	}
+
+	private void countCacheLookup() {
+		if(m_CacheHits + m_CacheMisses >= CACHE_STATS_BATCH)
+			flushStats();
 	}
 
 	private void LoadStopWords(String stop_words_filename) 
@@ -121,7 +198,7 @@ public class NGPreprocessing {
 			while (( line = input.readLine()) != null){
 				s.add(line.toCharArray(), line.length());
 				s.stem();
-				m_StopWords.add(s.toString());
+				m_StopWords.put(s.toString(), 1);
 				//	System.out.println(line +"->"+s.toString());
 			}
 			//	System.out.println("DONE");
@@ -8,29 +8,113 @@ IDF: Number of documents processed so far to create IDFs
 package macsy.module.featuresExtractorTFIDF;
 
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.util.Iterator;
-import java.util.TreeMap;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 
-//READ ONLY
+/**
+ * READ ONLY vocabulary: word <-> ID and IDF of each ID.
+ *
+ * All data is in one buffer, read in place:
+ *
+ * int     MAGIC
+ * int     VERSION
+ * int     NumOfDocuments
+ * int     currentID (number of IDs, with the special one)
+ * int     slots of the hash index (a power of 2)
+ * int     bytes of the string table
+ * int[2]  unused
+ * double[currentID]   IDF of each ID
+ * int[currentID]      hash of each word
+ * int[currentID+1]    offset of each word in the string table
+ * int[slots]          hash index: ID of a word, or 0 for an empty slot
+ * byte[]              string table: the words in UTF-8, in ID order
+ *
+ * A text vocabulary (see LoadVocabulary) is converted to this layout in the
+ * heap. save() writes it to a binary file, which is memory mapped when loaded,
+ * so it starts without parsing and its pages are shared by all the processes
+ * that use it. getShared() shares a vocabulary among the modules of a JVM.
+ */
 public class NGVoc   {
 
-	private TreeMap<String, Integer> m_Word2ID = null;	//Word to ID
-	private double[] m_ID2IDF = null;
+	public static final int MAGIC = 0x4E475643;	// "NGVC"
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 32;
+
+	private ByteBuffer m_Data = null;	//The whole layout
+	private DoubleBuffer m_ID2IDF = null;
+	private IntBuffer m_Hashes = null;
+	private IntBuffer m_Offsets = null;
+	private IntBuffer m_Index = null;
+	private int m_IndexMask = 0;
+	private int m_StringsStart = 0;
 
 	public int currentID = 0; //Number of words in Vocabulary (with the special one)
 							// THe next number is the first available WordID
-	
+
 	private int m_NumOfDocuments = 0;
 
-		
+
 	private int MIN_DF_VALUE = 3;
 
+	private static final Map<String,NGVoc> s_Shared = new HashMap<String,NGVoc>();
+	private static final Map<String,Long> s_SharedVersion = new HashMap<String,Long>();
+
+	/**
+	 * Loads a vocabulary file, text or binary (see save()).
+	 */
 	public NGVoc(String voc_filename)  throws Exception {
-		LoadVocabulary(voc_filename);
+		if(isBinary(voc_filename))
+			map(voc_filename);
+		else
+			LoadVocabulary(voc_filename);
+	}
+
+	/**
+	 * For vocabularies that find IDs in other ways, e.g. NGHashedVoc.
+	 */
+	protected NGVoc() {
+	}
+
+	/**
+	 * Returns the vocabulary of a file, loading it only the first time; the
+	 * modules of a JVM that use the same file share one NGVoc. It is loaded
+	 * again if the file changes.
+	 */
+	public static NGVoc getShared(String voc_filename) throws Exception {
+		File f = new File(voc_filename);
+		String key = f.getCanonicalPath();
+		long version = f.lastModified() ^ (f.length() << 32);
+		synchronized(s_Shared) {
+			NGVoc voc = s_Shared.get(key);
+			if(voc==null || s_SharedVersion.get(key)!=version)
+			{
+				voc = new NGVoc(voc_filename);
+				s_Shared.put(key, voc);
+				s_SharedVersion.put(key, version);
+			}
+			return voc;
+		}
 	}
 
 	/**
@@ -39,20 +123,38 @@ public class NGVoc   {
 	 * @return
 	 */
 	public Integer getWordID(String word) {
-		return m_Word2ID.get(word);
+		char[] c = word.toCharArray();
+		int WordID = getWordID(c, 0, c.length);
+		return (WordID<0) ? null : WordID;
 	}
 
 	/**
-	 * Return the IDF of a word or 0 if there isn't such word 
+	 * Return the ID of the word buf[off..off+len) or -1 if unknown word.
+	 * Creates no objects.
+	 */
+	public int getWordID(char[] buf, int off, int len) {
+		int h = hash(buf, off, len);
+		for(int s = slot(h); ; s = (s + 1) & m_IndexMask)
+		{
+			int WordID = m_Index.get(s);
+			if(WordID==0)
+				return -1;
+			if(m_Hashes.get(WordID)==h && equal(WordID, buf, off, len))
+				return WordID;
+		}
+	}
+
+	/**
+	 * Return the IDF of a word or 0 if there isn't such word
 	 * @param word
 	 * @return
 	 */
 	public double getWordIDF(String word) throws Exception {
 		Integer WordID = getWordID(word);
-		
+
 		if(WordID==null)
 			return 0;
-		
+
 		return getWordIDF(WordID);
 	}
 
@@ -61,46 +163,211 @@ public class NGVoc   {
 	 * @param word
 	 * @return
 	 */
-	public Double getWordIDF(int WordID) throws Exception {
-		return m_ID2IDF[WordID];
+	public double getWordIDF(int WordID) throws Exception {
+		return m_ID2IDF.get(WordID);
 	}
 
 	/**
-	 * Warning. IT IS SLOW
+	 * Return the word of an ID, or null if there is no such ID.
 	 * @param WordID
 	 * @return
 	 */
 	public String getWord(int WordID)
 	{
-		if(m_Word2ID.containsValue(WordID))
+		if(WordID<=0 || WordID>=currentID)
+			return null;
+		int start = m_Offsets.get(WordID);
+		int end = m_Offsets.get(WordID + 1);
+		if(start==end)
+			return null;
+		byte[] utf = new byte[end - start];
+		for(int i=0; i<utf.length; i++)
+			utf[i] = m_Data.get(m_StringsStart + start + i);
+		try {
+			return new String(utf, "UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes the vocabulary in binary; it is memory mapped when loaded.
+	 * The file is written to a new temporary file in the same directory, which
+	 * then replaces binFilename atomically; readers see the old or the new
+	 * vocabulary, never a part of it.
+	 */
+	public void save(String binFilename) throws IOException {
+		Path target = new File(binFilename).getAbsoluteFile().toPath();
+		Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		boolean moved = false;
+		try {
+			FileOutputStream fos = new FileOutputStream(tmp.toFile());
+			try {
+				BufferedOutputStream out = new BufferedOutputStream(fos, 1 << 16);
+				for(int i=0; i<m_Data.capacity(); i++)
+					out.write(m_Data.get(i));
+				out.flush();
+				fos.getFD().sync();
+			}
+			finally {
+				fos.close();
+			}
+			try {	//createTempFile makes it private, but other processes map it
+				Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-r--r--"));
+			}
+			catch(UnsupportedOperationException e) {
+				//Not a POSIX file system
+			}
+			Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		}
+		finally {
+			if(!moved)
+				Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * @return True if the file exists and is a binary vocabulary.
+	 */
+	public static boolean isBinary(String voc_filename) {
+		File f = new File(voc_filename);
+		if(!f.isFile() || f.length() < HEADER_SIZE)
+			return false;
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(f));
+			try {
+				return in.readInt()==MAGIC;
+			}
+			finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Same as String.hashCode(), mixed, as the index uses the low bits.
+	 * Stored in binary files, so it must not change.
+	 */
+	private static int hash(char[] buf, int off, int len) {
+		int h = 0;
+		for(int i=off; i<off+len; i++)
+			h = 31 * h + buf[i];
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private int slot(int h) {
+		return h & m_IndexMask;
+	}
+
+	/**
+	 * True if the word of WordID is buf[off..off+len). Decodes UTF-8 to
+	 * UTF-16 as it goes; stems are ASCII, one byte per char.
+	 */
+	private boolean equal(int WordID, char[] buf, int off, int len) {
+		int p = m_StringsStart + m_Offsets.get(WordID);
+		int end = m_StringsStart + m_Offsets.get(WordID + 1);
+		int i = off;
+		int last = off + len;
+		while(p < end)
 		{
-			Iterator<String> iter = m_Word2ID.keySet().iterator();
-			
-			while(iter.hasNext())
+			int b = m_Data.get(p++);
+			if(b >= 0)	//ASCII
+			{
+				if(i==last || buf[i++]!=b)
+					return false;
+				continue;
+			}
+			int c;
+			if((b & 0xE0)==0xC0)
+				c = ((b & 0x1F) << 6) | (m_Data.get(p++) & 0x3F);
+			else if((b & 0xF0)==0xE0)
+			{
+				c = ((b & 0x0F) << 12) | ((m_Data.get(p) & 0x3F) << 6) | (m_Data.get(p+1) & 0x3F);
+				p += 2;
+			}
+			else	//4 bytes, a surrogate pair
 			{
-				String key = iter.next() ;
-				if(m_Word2ID.get( key ) == WordID)
-					return key;
+				c = ((b & 0x07) << 18) | ((m_Data.get(p) & 0x3F) << 12)
+						| ((m_Data.get(p+1) & 0x3F) << 6) | (m_Data.get(p+2) & 0x3F);
+				p += 3;
+				c -= 0x10000;
+				if(i==last || buf[i++]!=(char) (0xD800 + (c >>> 10)))
+					return false;
+				c = 0xDC00 + (c & 0x3FF);
 			}
-			
+			if(i==last || buf[i++]!=(char) c)
+				return false;
+		}
+		return i==last;
+	}
+
+	/**
+	 * Maps a binary vocabulary in memory, read-only.
+	 */
+	private void map(String voc_filename) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(voc_filename, "r");
+		try {
+			setData(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()), voc_filename);
+		}
+		finally {
+			raf.close();	// The mapping stays valid
 		}
-		return null;
 	}
-	
-	
+
+	/**
+	 * Sets the views of the layout.
+	 */
+	private void setData(ByteBuffer data, String voc_filename) throws IOException
+	{
+		if(data.getInt(0)!=MAGIC)
+			throw new IOException(voc_filename + " is not a binary vocabulary");
+		if(data.getInt(4)!=VERSION)
+			throw new IOException(voc_filename + ": unknown vocabulary version " + data.getInt(4));
+
+		m_Data = data;
+		m_NumOfDocuments = data.getInt(8);
+		currentID = data.getInt(12);
+		int slots = data.getInt(16);
+		m_IndexMask = slots - 1;
+
+		int p = HEADER_SIZE;
+		m_ID2IDF = view(data, p).asDoubleBuffer();
+		p += 8 * currentID;
+		m_Hashes = view(data, p).asIntBuffer();
+		p += 4 * currentID;
+		m_Offsets = view(data, p).asIntBuffer();
+		p += 4 * (currentID + 1);
+		m_Index = view(data, p).asIntBuffer();
+		p += 4 * slots;
+		m_StringsStart = p;
+	}
+
+	private static ByteBuffer view(ByteBuffer data, int position)
+	{
+		ByteBuffer b = data.duplicate();
+		b.position(position);
+		return b.slice();
+	}
+
+
 /**
  * Load a vocabulary and calculates IDFs
- * 
+ *
  * The vocabulary is formated:
  * 1st line Header
  * 2nd - N line WORD <Tab> TERM_FREQUENCY
- * 
- * 
- * 
+ *
+ *
+ *
  * @param voc_filename
  * @throws Exception
  */
-	private void LoadVocabulary(String voc_filename) throws Exception 
+	private void LoadVocabulary(String voc_filename) throws Exception
 	{
 		File vocFile = new File(voc_filename);
 
@@ -109,30 +376,85 @@ public class NGVoc   {
 		//LOAD HEADER
 		String line = input.readLine();  //First line = HEADER OF VOC
 		String[] tokens = line.split("\t");
-		m_NumOfDocuments = Integer.parseInt(tokens[1]);
-		currentID = Integer.parseInt(tokens[3]) + 1;
+		int NumOfDocuments = Integer.parseInt(tokens[1]);
+		int NumOfIDs = Integer.parseInt(tokens[3]) + 1;
 
 		//Initialize structures
-		m_Word2ID = new TreeMap<String, Integer>();
-		m_ID2IDF = new double[currentID];	//Skip 0 as WordID
+		double[] idf = new double[NumOfIDs];	//Skip 0 as WordID
+		int[] hashes = new int[NumOfIDs];
+		int[] offsets = new int[NumOfIDs + 1];
+		ByteArrayOutputStream strings = new ByteArrayOutputStream(8 * NumOfIDs);
+
+		idf[0] = NumOfDocuments;
 
-		m_ID2IDF[0] = m_NumOfDocuments;
-		
 		int NextWordID = 1;
 		double dfvalue = 0;
 		//Start reading words
 		while (( line = input.readLine()) != null)
 		{
-			tokens = line.split("\t");
-			m_Word2ID.put(tokens[0], NextWordID);
-			dfvalue = Double.parseDouble(tokens[1]);
-			m_ID2IDF[NextWordID]  = (dfvalue<=MIN_DF_VALUE? 0 : Math.log( m_NumOfDocuments / (double)dfvalue));
+			int tab = line.indexOf('\t');
+			String word = line.substring(0, tab);
+			if(NextWordID + 1 >= offsets.length)	//More words than the header says
+			{
+				idf = Arrays.copyOf(idf, 2 * NextWordID);
+				hashes = Arrays.copyOf(hashes, 2 * NextWordID);
+				offsets = Arrays.copyOf(offsets, 2 * NextWordID + 1);
+			}
+
+			dfvalue = Double.parseDouble(line.substring(tab + 1).split("\t")[0]);
+			idf[NextWordID]  = (dfvalue<=MIN_DF_VALUE? 0 : Math.log( NumOfDocuments / (double)dfvalue));
+			char[] c = word.toCharArray();
+			hashes[NextWordID] = hash(c, 0, c.length);
+			offsets[NextWordID] = strings.size();
+			byte[] utf = word.getBytes("UTF-8");
+			strings.write(utf, 0, utf.length);
+
+		//	System.out.println("ID="+NextWordID+" idf="+idf[NextWordID]);
 
-		//	System.out.println("ID="+NextWordID+" idf="+m_ID2IDF[NextWordID]);
-			
 			NextWordID++;
 		}
 		input.close();
+
+		NumOfIDs = Math.max(NumOfIDs, NextWordID);
+		for(int id=NextWordID; id<=NumOfIDs; id++)	//IDs without words, if any
+			offsets[id] = strings.size();
+
+		int slots = 4;
+		while(slots < 2 * NumOfIDs)
+			slots <<= 1;
+		int[] index = new int[slots];
+		for(int id=1; id<NextWordID; id++)
+		{
+			int s = hashes[id] & (slots - 1);
+			while(index[s]!=0)
+				s = (s + 1) & (slots - 1);
+			index[s] = id;
+		}
+
+		ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + 8 * NumOfIDs + 4 * NumOfIDs
+				+ 4 * (NumOfIDs + 1) + 4 * slots + strings.size());
+		data.putInt(MAGIC).putInt(VERSION).putInt(NumOfDocuments).putInt(NumOfIDs)
+			.putInt(slots).putInt(strings.size()).putInt(0).putInt(0);
+		for(int id=0; id<NumOfIDs; id++)
+			data.putDouble(idf[id]);
+		for(int id=0; id<NumOfIDs; id++)
+			data.putInt(hashes[id]);
+		for(int id=0; id<=NumOfIDs; id++)
+			data.putInt(offsets[id]);
+		for(int s=0; s<slots; s++)
+			data.putInt(index[s]);
+		data.put(strings.toByteArray());
+		setData(data, voc_filename);
+	}
+
+	/**
+	 * Converts a text vocabulary to binary.
+	 *
+	 * @param args Text vocabulary file, binary vocabulary file.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		new NGVoc(args[0]).save(args[1]);
 	}
 
 }
@@ -5,6 +5,7 @@ import java.util.*;
 
 import macsy.blackBoardsSystem.*;
 import macsy.lib.DataPoint;
+import macsy.lib.FeaturesCodec;
 import macsy.module.BaseModule;
 import macsy.module.featuresExtractorTFIDF.NGIndexer;
 
@@ -114,15 +115,14 @@ public class InnerProduct  extends BaseModule {
 		{
 			dataRead++;
 			
-			@SuppressWarnings("unchecked")
 			//take the already calculated tf-idf of the docs in BB
-			List<Double> tf_idf = (List<Double>) s.getField(MODULE_INPUT_FIELDS);
+			Object tf_idf = s.getField(MODULE_INPUT_FIELDS);
 			// check if the list is null
 			if(tf_idf==null)
 				continue;
 			
 			//	transform x into point
-			DataPoint x = new DataPoint(tf_idf);
+			DataPoint x = FeaturesCodec.decode(tf_idf);
 			
 			double res = (isFunctionInnerProduct ?  x.getDotProduct(w) : x.getCosineSimilarity(w) );	//Compact form
 			
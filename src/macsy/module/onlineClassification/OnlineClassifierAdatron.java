@@ -11,7 +11,9 @@ import java.util.*;
 import macsy.blackBoardsSystem.BBDoc;
 import macsy.blackBoardsSystem.BBDocSet;
 import macsy.blackBoardsSystem.BlackBoardDateBased;
+import macsy.lib.ArrayLinearModel;
 import macsy.lib.DataPoint;
+import macsy.lib.FeaturesCodec;
 import macsy.lib.LinearModel;
 import macsy.lib.Results;
 import macsy.lib.onlineLearning.OnlineAdatron;
@@ -56,6 +58,9 @@ import macsy.module.BaseModule;
  * at the beginning and store them after termination.
  * PERFORMANCE=The boolean flag to specify if we want a large file with the performance
  * of the classifier per document
+ * LINEAR_MODEL=Optional. The model that holds the weights: BASIC (default) for a
+ * BasicLinearModel or ARRAY for an ArrayLinearModel, which keeps the weights in an
+ * array and is faster for hashed features. Both read and write the same model file.
  *
  * Output:
  * OUTPUT_BLACKBOARD=Output BlackBoard
@@ -90,6 +95,7 @@ public class OnlineClassifierAdatron extends BaseModule {
     static final String PROPERTY_UPDATE_LEARNING_FACTOR = "UPDATE_LEARNING_FACTOR";
     static final String PROPERTY_PERFORMANCE = "PERFORMANCE";
     static final String PROPERTY_MODEL_LAST_DATE_FILENAME = "MODEL_LAST_DATE_FILENAME";
+    static final String PROPERTY_LINEAR_MODEL = "LINEAR_MODEL";
     // Define the positions of positive (0) and negative (1) tags in the tag list
     static final int POSITIVE_INDEX = 1;
     static final int NEGATIVE_INDEX = -1;
@@ -190,7 +196,8 @@ public class OnlineClassifierAdatron extends BaseModule {
         }
 
         OnlineLearning onlineLearning =
-                new OnlineAdatron(fileName);
+                new OnlineAdatron(fileName,
+                newLinearModel(this.getProperty(PROPERTY_LINEAR_MODEL)));
         
         // take the meta info file from the settings file
         File metaFile = new File(fileName + ".log");
@@ -241,9 +248,12 @@ public class OnlineClassifierAdatron extends BaseModule {
             formattedDate = formatDate(lastDate);
 
             //get articles per day
+            // only the features and the learning fields are needed
             BBDocSet DocSet = storageLayer.getDocSetWithTags(lastDate, dtToDate,
                     inputTag_List,
-                    this.MODULE_DATA_PROCESS_LIMIT);
+                    this.MODULE_DATA_PROCESS_LIMIT,
+                    Arrays.asList(this.getProperty(PROPERTY_INPUT_FEATURES_FIELDSNAME),
+                            MODULE_INPUT_FIELDS));
 
             BBDoc s;
 
@@ -259,14 +269,13 @@ public class OnlineClassifierAdatron extends BaseModule {
                 @SuppressWarnings("unchecked")
                 List<Integer> f = (List<Integer>) s.getField(
                         this.getProperty(PROPERTY_INPUT_FEATURES_FIELDSNAME));
-                @SuppressWarnings("unchecked")
-                List<Double> tf_idf_x_i = (List<Double>) s.getField(MODULE_INPUT_FIELDS);
+                Object tf_idf_x_i = s.getField(MODULE_INPUT_FIELDS);
 
                 if ((f != null) && (tf_idf_x_i != null)) {
                   
                     boolean trainingsample = false;
                     // create a new DataPoint with these tf-idf values
-                    DataPoint sample = new DataPoint(deseriliseFeatures(tf_idf_x_i));
+                    DataPoint sample = FeaturesCodec.decode(tf_idf_x_i);
 
                     //assign labels to the samples
 
@@ -372,6 +381,23 @@ public class OnlineClassifierAdatron extends BaseModule {
         this.saveModuleResults(dataRead, dataProcessed);
     }
 
+    /**
+     * Returns the LinearModel named by the LINEAR_MODEL property
+     *
+     * @param type:BASIC, ARRAY or null
+     * @return An empty ArrayLinearModel, or null for the default BasicLinearModel
+     * @throws Exception for an unknown type
+     */
+    private LinearModel newLinearModel(String type) throws Exception {
+        if (type == null || type.equals("BASIC")) {
+            return null;
+        } else if (type.equals("ARRAY")) {
+            return new ArrayLinearModel();
+        }
+        throw new Exception("Unknown " + PROPERTY_LINEAR_MODEL + ": " + type
+                + " (use BASIC or ARRAY)");
+    }
+
     /**
      * This function returns the date that the file was modified
      *
@@ -11,11 +11,15 @@ import java.util.*;
 import macsy.blackBoardsSystem.BBDoc;
 import macsy.blackBoardsSystem.BBDocSet;
 import macsy.blackBoardsSystem.BlackBoardDateBased;
+import macsy.lib.ArrayLinearModel;
 import macsy.lib.DataPoint;
+import macsy.lib.FeaturesCodec;
 import macsy.lib.LinearModel;
+import macsy.lib.ParallelScorer;
 import macsy.lib.Results;
 import macsy.lib.onlineLearning.OnlineLearning;
 import macsy.lib.onlineLearning.OnlinePerceptron;
+import macsy.lib.onlineLearning.ParallelTraining;
 import macsy.module.BaseModule;
 
 
@@ -56,6 +60,20 @@ import macsy.module.BaseModule;
  * at the beginning and store them after termination.
  * PERFORMANCE=The boolean flag to specify if we want a large file with the performance
  * of the classifier per document
+ * SNAPSHOT_INTERVAL=Optional. The documents are read in blocks of this size (default 1).
+ * All the documents of a block are scored with a snapshot of the model taken before
+ * the block, and then they are used for training in order. With 1 every document is
+ * scored with the model trained on all the documents before it.
+ * SCORING_THREADS=Optional. The number of threads that score a block (default 1). The
+ * scores do not depend on it.
+ * LINEAR_MODEL=Optional. The model that holds the weights: BASIC (default) for a
+ * BasicLinearModel or ARRAY for an ArrayLinearModel, which keeps the weights in an
+ * array and is faster for hashed features. Both read and write the same model file.
+ * TRAINING_THREADS=Optional. The number of threads that train (default 1). With more
+ * than 1, the training documents of a block are trained together, by averaging models
+ * trained on shards of them (see ParallelTraining), and the statistics are printed once
+ * per block. For backfills, use it with a large SNAPSHOT_INTERVAL. It needs
+ * LINEAR_MODEL=ARRAY; with the BASIC model the training uses 1 thread.
  *
  * Output:
  * OUTPUT_BLACKBOARD=Output BlackBoard
@@ -90,6 +108,10 @@ public class OnlineClassifierPerceptron extends BaseModule {
     static final String PROPERTY_UPDATE_LEARNING_FACTOR = "UPDATE_LEARNING_FACTOR";
     static final String PROPERTY_PERFORMANCE = "PERFORMANCE";
     static final String PROPERTY_MODEL_LAST_DATE_FILENAME = "MODEL_LAST_DATE_FILENAME";
+    static final String PROPERTY_SNAPSHOT_INTERVAL = "SNAPSHOT_INTERVAL";
+    static final String PROPERTY_SCORING_THREADS = "SCORING_THREADS";
+    static final String PROPERTY_TRAINING_THREADS = "TRAINING_THREADS";
+    static final String PROPERTY_LINEAR_MODEL = "LINEAR_MODEL";
     // Define the positions of positive (0) and negative (1) tags in the tag list
     static final int POSITIVE_INDEX = 1;
     static final int NEGATIVE_INDEX = -1;
@@ -190,7 +212,8 @@ public class OnlineClassifierPerceptron extends BaseModule {
         }
 
         OnlineLearning onlineLearning =
-                new OnlinePerceptron(fileName);
+                new OnlinePerceptron(fileName,
+                newLinearModel(this.getProperty(PROPERTY_LINEAR_MODEL)));
         // take the meta info file from the settings file
         File metaFile = new File(fileName + ".log");
         if (!metaFile.exists()) {
@@ -228,6 +251,18 @@ public class OnlineClassifierPerceptron extends BaseModule {
         LinearModel model = onlineLearning.getLinearModel();
         model.wordCloudSetVocabulary(voc_filename);
 
+        // documents scored with one snapshot of the model, and scoring threads
+        int snapshotInterval = (this.getProperty(PROPERTY_SNAPSHOT_INTERVAL) == null) ? 1
+                : Math.max(1, Integer.parseInt(this.getProperty(PROPERTY_SNAPSHOT_INTERVAL)));
+        ParallelScorer scorer = new ParallelScorer(
+                (this.getProperty(PROPERTY_SCORING_THREADS) == null) ? 1
+                : Integer.parseInt(this.getProperty(PROPERTY_SCORING_THREADS)));
+        // threads that train on the training docs of a block
+        ParallelTraining training = new ParallelTraining(onlineLearning,
+                (this.getProperty(PROPERTY_TRAINING_THREADS) == null) ? 1
+                : Integer.parseInt(this.getProperty(PROPERTY_TRAINING_THREADS)),
+                ParallelTraining.DEFAULT_ROUND_SIZE);
+
         //process articles on a daily basis
         while (dtToDate.before(toDay.getTime())) {
             System.out.println(dtToDate + "----" + toDay.getTime());
@@ -240,112 +275,131 @@ public class OnlineClassifierPerceptron extends BaseModule {
             formattedDate = formatDate(lastDate);
 
             //get articles per day
+            // only the features and the learning fields are needed
             BBDocSet DocSet = storageLayer.getDocSetWithTags(lastDate, dtToDate,
                     inputTag_List,
-                    this.MODULE_DATA_PROCESS_LIMIT);
-
-            BBDoc s;
-
-            while ((s = DocSet.getNext()) != null) {
-              
-
-                onlineLearning.incrementN_overall(1);
-                if (dataRead++ % 1000 == 0) {
-                    System.out.printf("%d processed (%.2f%%)\n",
-                            dataRead, dataRead * 100.0 / this.MODULE_DATA_PROCESS_LIMIT);
-                    System.out.println("Now will process date: "
-                            + s.getIDasDate() + " ID=" + s.getID());
-                }
-                @SuppressWarnings("unchecked")
-                List<Integer> f = (List<Integer>) s.getField(
-                        this.getProperty(PROPERTY_INPUT_FEATURES_FIELDSNAME));
-                @SuppressWarnings("unchecked")
-                List<Double> tf_idf_x_i = (List<Double>) s.getField(MODULE_INPUT_FIELDS);
-
-                if ((f != null) && (tf_idf_x_i != null)) {
-                  
-                    boolean trainingsample = false;
-                    // create a new DataPoint with these tf-idf values
-                    DataPoint sample = new DataPoint(deseriliseFeatures(tf_idf_x_i));
-
-                    //assign labels to the samples
-                  
-
-                    for (Integer negFeedID : inputNegLearnFeedIDs) {
-                        for (Integer posFeedID : inputPosLearnFeedIDs) {
-                            if (f.contains(negFeedID) && (f.contains(posFeedID))) {
-                                //do not set the label
-                            } else if (f.contains(negFeedID) && !(f.contains(posFeedID))) {
-                                sample.setRealLabel(NEGATIVE_INDEX);
-                                trainingsample = true;
-                            } else if (f.contains(posFeedID) && !(f.contains(negFeedID))) {
-                                sample.setRealLabel(POSITIVE_INDEX);
-                                trainingsample = true;
-                            }
-                        }
-
-                    }
-
-
-                    sample.setID(s.getID());
-
-                    // Add the result of the classifier in a new field
-                    if (outputField != null) {
-                        storageLayer.addFieldToDoc(sample.getID(),
-                                outputField,
-                                prediction(sample, onlineLearning));
+                    this.MODULE_DATA_PROCESS_LIMIT,
+                    Arrays.asList(this.getProperty(PROPERTY_INPUT_FEATURES_FIELDSNAME),
+                            MODULE_INPUT_FIELDS));
+
+            BBDoc s = DocSet.getNext();
+
+            while (s != null) {
+                // read a block of documents; they are all scored with the
+                // same snapshot of the model, published before the block,
+                // and then they are used for training one by one
+                List<BBDoc> block = new ArrayList<BBDoc>();
+                List<DataPoint> samples = new ArrayList<DataPoint>();
+                List<DataPoint> toScore = new ArrayList<DataPoint>();
+                List<DataPoint> toTrain = new ArrayList<DataPoint>();
+                while (s != null && block.size() < snapshotInterval) {
+                    Object tf_idf_x_i = s.getField(MODULE_INPUT_FIELDS);
+                    DataPoint sample = null;
+                    if ((s.getField(this.getProperty(PROPERTY_INPUT_FEATURES_FIELDSNAME)) != null)
+                            && (tf_idf_x_i != null)) {
+                        // create a new DataPoint with these tf-idf values
+                        sample = FeaturesCodec.decode(tf_idf_x_i);
+                        toScore.add(sample);
                     }
-
-                    // Only for positive instances add a new tag
-                    if (outputTags.size() > 1) {
-                        if (prediction(sample, onlineLearning)
-                                >= onlineLearning.getDecisionThreshold()) {
-                            storageLayer.addTagsToDoc(s.getID(),
-                                    outputTags.get(1)); // Positive prediction tag
-                        }														// must be second in list!
+                    block.add(s);
+                    samples.add(sample);
+                    s = DocSet.getNext();
+                }
+                // with a block of one document the model itself is used
+                scorer.predict((snapshotInterval == 1) ? model : model.snapshot(),
+                        toScore);
+
+                for (int i = 0; i < block.size(); i++) {
+                    BBDoc doc = block.get(i);
+                    DataPoint sample = samples.get(i);
+
+                    onlineLearning.incrementN_overall(1);
+                    if (dataRead++ % 1000 == 0) {
+                        System.out.printf("%d processed (%.2f%%)\n",
+                                dataRead, dataRead * 100.0 / this.MODULE_DATA_PROCESS_LIMIT);
+                        System.out.println("Now will process date: "
+                                + doc.getIDasDate() + " ID=" + doc.getID());
                     }
-                    if (trainingsample) {
-                        dataProcessed++;
-                        System.out.println("Trainining Procedure...");
-                        training(sample, onlineLearning);
+                    @SuppressWarnings("unchecked")
+                    List<Integer> f = (List<Integer>) doc.getField(
+                            this.getProperty(PROPERTY_INPUT_FEATURES_FIELDSNAME));
+
+                    if (sample != null) {
+
+                        boolean trainingsample = false;
+                        // the score of the snapshot, before training
+                        double score = sample.getPredictedLabel_Value();
+
+                        //assign labels to the samples
+
+
+                        for (Integer negFeedID : inputNegLearnFeedIDs) {
+                            for (Integer posFeedID : inputPosLearnFeedIDs) {
+                                if (f.contains(negFeedID) && (f.contains(posFeedID))) {
+                                    //do not set the label
+                                } else if (f.contains(negFeedID) && !(f.contains(posFeedID))) {
+                                    sample.setRealLabel(NEGATIVE_INDEX);
+                                    trainingsample = true;
+                                } else if (f.contains(posFeedID) && !(f.contains(negFeedID))) {
+                                    sample.setRealLabel(POSITIVE_INDEX);
+                                    trainingsample = true;
+                                }
+                            }
 
-                        // display on the screen the statistical information
-                        onlineLearning.statsPrintConfusionMatrix();
+                        }
 
-                        double N_hat_Pos = onlineLearning.expMovAvGetPositives();
-                        double N_hat_Neg = onlineLearning.expMovAvGetNegatives();
-                        double display_ALL = N_hat_Pos + N_hat_Neg;
 
-                        // information on the screen
-                        String str = "\t #POS \t #NEG \t #ALL \n" + "\t " + N_hat_Pos + "\t "
-                                + N_hat_Neg + "\t " + display_ALL + "\t";
-                        System.out.println(str);
+                        sample.setID(doc.getID());
 
-                        //calculate precision, recall and f-measure
-                        str = calculatePrintStatistics(onlineLearning);
+                        // Add the result of the classifier in a new field
+                        if (outputField != null) {
+                            storageLayer.addFieldToDoc(sample.getID(),
+                                    outputField,
+                                    score);
+                        }
 
-                        // if we wish to have a performance file
+                        // Only for positive instances add a new tag
+                        if (outputTags.size() > 1) {
+                            if (score
+                                    >= onlineLearning.getDecisionThreshold()) {
+                                storageLayer.addTagsToDoc(doc.getID(),
+                                        outputTags.get(1)); // Positive prediction tag
+                            }														// must be second in list!
+                        }
+                        if (trainingsample && training.getNumThreads() > 1) {
+                            // trained with the other training docs of the block
+                            dataProcessed++;
+                            toTrain.add(sample);
+                        } else if (trainingsample) {
+                            dataProcessed++;
+                            System.out.println("Trainining Procedure...");
+                            training(sample, onlineLearning);
+
+                            printStatistics(onlineLearning, performance,
+                                    header, learningResults);
+                        }
                         if (performance == true) {
-                            // because in file the header is printed only on the beginning
-                            System.out.println(header);
-                            // inform the file which holds the corresponding statistical info
-                            writingStatisticsInFile(onlineLearning,
-                                    learningResults,
-                                    str);
+                            learningResults.Flush();
                         }
+                    }
+                    storageLayer.removeTagsFromDoc(doc.getID(),
+                            inputTag_List);
 
+                    storageLayer.addTagsToDoc(doc.getID(),
+                            outputTags.get(0));
 
-                    }
+                }
+                if (!toTrain.isEmpty()) {
+                    System.out.println("Trainining Procedure ("
+                            + toTrain.size() + " docs)...");
+                    training.train(toTrain);
+
+                    printStatistics(onlineLearning, performance,
+                            header, learningResults);
                     if (performance == true) {
                         learningResults.Flush();
                     }
                 }
-                storageLayer.removeTagsFromDoc(s.getID(),
-                        inputTag_List);
-
-                storageLayer.addTagsToDoc(s.getID(),
-                        outputTags.get(0));
-
             }
             System.out.println("TRAINING DONE");
 
@@ -365,6 +419,8 @@ public class OnlineClassifierPerceptron extends BaseModule {
 
             saveLastDate(lastDateFilename, dtToDate);
         }
+        scorer.close();
+        training.close();
         if (performance == true) {
             learningResults.SaveOutput();
         }
@@ -372,6 +428,23 @@ public class OnlineClassifierPerceptron extends BaseModule {
         this.saveModuleResults(dataRead, dataProcessed);
     }
 
+    /**
+     * Returns the LinearModel named by the LINEAR_MODEL property
+     *
+     * @param type:BASIC, ARRAY or null
+     * @return An empty ArrayLinearModel, or null for the default BasicLinearModel
+     * @throws Exception for an unknown type
+     */
+    private LinearModel newLinearModel(String type) throws Exception {
+        if (type == null || type.equals("BASIC")) {
+            return null;
+        } else if (type.equals("ARRAY")) {
+            return new ArrayLinearModel();
+        }
+        throw new Exception("Unknown " + PROPERTY_LINEAR_MODEL + ": " + type
+                + " (use BASIC or ARRAY)");
+    }
+
     /**
      * This function returns the date that the file was modified
      *
@@ -627,17 +700,6 @@ public class OnlineClassifierPerceptron extends BaseModule {
         return feat;
     }
 
-    /**
-     * Predicts the output of the model given the specific DataPoint
-     * @param sample:The DataPoint we want to classify
-     * @return The number calculated for the input DataPoint given the model
-     * @throws Exception
-     */
-    double prediction(DataPoint sample, OnlineLearning onlineLearning) throws Exception {
-        sample.setPredictedLabel_Value(onlineLearning.predict(sample));
-        return sample.getPredictedLabel_Value();
-    }
-
     /**
      * Training the model with the specific DataPoint
      * @param sample:The DataPoint we want the model to be trained of
@@ -649,6 +711,43 @@ public class OnlineClassifierPerceptron extends BaseModule {
         onlineLearning.train(sample);
     }
 
+    /**
+     * This function prints the statistical information after training, and writes it
+     * in the performance file if we wish to have one
+     * @param onlineLearning:The object which hold the information of interest
+     * @param performance:If we wish to have a performance file
+     * @param header:The header of the performance file
+     * @param learningResults:The performance file
+     * @throws Exception
+     */
+    private void printStatistics(OnlineLearning onlineLearning, boolean performance,
+            String header, Results learningResults) throws Exception {
+        // display on the screen the statistical information
+        onlineLearning.statsPrintConfusionMatrix();
+
+        double N_hat_Pos = onlineLearning.expMovAvGetPositives();
+        double N_hat_Neg = onlineLearning.expMovAvGetNegatives();
+        double display_ALL = N_hat_Pos + N_hat_Neg;
+
+        // information on the screen
+        String str = "\t #POS \t #NEG \t #ALL \n" + "\t " + N_hat_Pos + "\t "
+                + N_hat_Neg + "\t " + display_ALL + "\t";
+        System.out.println(str);
+
+        //calculate precision, recall and f-measure
+        str = calculatePrintStatistics(onlineLearning);
+
+        // if we wish to have a performance file
+        if (performance == true) {
+            // because in file the header is printed only on the beginning
+            System.out.println(header);
+            // inform the file which holds the corresponding statistical info
+            writingStatisticsInFile(onlineLearning,
+                    learningResults,
+                    str);
+        }
+    }
+
     /**
      * This function calculates precision, recall and f-measure according to TP,FP,TN,FN
      * @param onlineLearning:The object which hold the information of interest
@@ -8,6 +8,7 @@ import java.io.FileWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -18,7 +19,9 @@ import java.util.TreeMap;
 import macsy.blackBoardsSystem.BBDoc;
 import macsy.blackBoardsSystem.BBDocSet;
 import macsy.blackBoardsSystem.BlackBoardDateBased;
+import macsy.lib.ArrayLinearModel;
 import macsy.lib.DataPoint;
+import macsy.lib.FeaturesCodec;
 import macsy.lib.LinearModel;
 import macsy.lib.Results;
 import macsy.lib.onlineLearning.OnlineLearning;
@@ -60,6 +63,9 @@ import macsy.module.BaseModule;
  * at the beginning and store them after termination.
  * PERFORMANCE=The boolean flag to specify if we want a large file with the performance
  * of the classifier per document
+ * LINEAR_MODEL=Optional. The model that holds the weights: BASIC (default) for a
+ * BasicLinearModel or ARRAY for an ArrayLinearModel, which keeps the weights in an
+ * array and is faster for hashed features. Both read and write the same model file.
  *
  * Output:
  * OUTPUT_BLACKBOARD=Output BlackBoard
@@ -94,6 +100,7 @@ public class OnlineClassifierPocket extends BaseModule {
     static final String PROPERTY_UPDATE_LEARNING_FACTOR = "UPDATE_LEARNING_FACTOR";
     static final String PROPERTY_PERFORMANCE = "PERFORMANCE";
     static final String PROPERTY_MODEL_LAST_DATE_FILENAME = "MODEL_LAST_DATE_FILENAME";
+    static final String PROPERTY_LINEAR_MODEL = "LINEAR_MODEL";
 
     //File to store the pocket parameters. Specify the file path.
     static final String pocket_parameters_file = "";
@@ -184,7 +191,8 @@ public class OnlineClassifierPocket extends BaseModule {
         Date lastDate = readLastDate(lastDateFilename);
 
         OnlineLearning onlineLearning =
-                new PocketPerceptron(fileName);
+                new PocketPerceptron(fileName,
+                newLinearModel(this.getProperty(PROPERTY_LINEAR_MODEL)));
 
         PocketPerceptron pocket_perceptron = new PocketPerceptron();
         // take the meta info file from the settings file
@@ -279,9 +287,12 @@ public class OnlineClassifierPocket extends BaseModule {
             calToDate = (Calendar) cal;
             dtToDate = calToDate.getTime();
             System.out.println(lastDate + "----" + dtToDate);
+            // only the features and the learning fields are needed
             BBDocSet DocSet = storageLayer.getDocSetWithTags(lastDate, dtToDate,
                     inputTag_List,
-                    this.MODULE_DATA_PROCESS_LIMIT);
+                    this.MODULE_DATA_PROCESS_LIMIT,
+                    Arrays.asList(this.getProperty(PROPERTY_INPUT_FEATURES_FIELDSNAME),
+                            MODULE_INPUT_FIELDS));
 
             //setting counters for pocket perceptron
             pocket_perceptron.setRun_p(0);
@@ -302,14 +313,13 @@ public class OnlineClassifierPocket extends BaseModule {
                 @SuppressWarnings("unchecked")
                 List<Integer> f = (List<Integer>) s.getField(
                         this.getProperty(PROPERTY_INPUT_FEATURES_FIELDSNAME));
-                @SuppressWarnings("unchecked")
-                List<Double> tf_idf_x_i = (List<Double>) s.getField(MODULE_INPUT_FIELDS);
+                Object tf_idf_x_i = s.getField(MODULE_INPUT_FIELDS);
 
                 if ((f != null) && (tf_idf_x_i != null)) {
 
                     boolean trainingsample = false;
                     // create a new DataPoint with these tf-idf values
-                    DataPoint sample = new DataPoint(deseriliseFeatures(tf_idf_x_i));
+                    DataPoint sample = FeaturesCodec.decode(tf_idf_x_i);
 
 
                     //assign labels to the samples
@@ -445,6 +455,23 @@ public class OnlineClassifierPocket extends BaseModule {
         this.saveModuleResults(dataRead, dataProcessed);
     }
 
+    /**
+     * Returns the LinearModel named by the LINEAR_MODEL property
+     *
+     * @param type:BASIC, ARRAY or null
+     * @return An empty ArrayLinearModel, or null for the default BasicLinearModel
+     * @throws Exception for an unknown type
+     */
+    private LinearModel newLinearModel(String type) throws Exception {
+        if (type == null || type.equals("BASIC")) {
+            return null;
+        } else if (type.equals("ARRAY")) {
+            return new ArrayLinearModel();
+        }
+        throw new Exception("Unknown " + PROPERTY_LINEAR_MODEL + ": " + type
+                + " (use BASIC or ARRAY)");
+    }
+
     /**
      * This function returns the date that the file was modified
      *
@@ -98,6 +98,30 @@ public class OnlineClassifier_StorageLayer {
 				null, 
 				limit);
 	}	
+
+	/**
+	 * Get the set of docs with the specified tags and the specified period of days,
+	 * reading only the specified fields (plus ID and tags) of each doc
+	 * @param inputTag_List
+	 * @param limit
+	 * @param returnFields The fields the module needs
+	 * @return
+	 * @throws Exception
+	 */
+	public BBDocSet getDocSetWithTags(Date fromDate, Date toDate,
+			List<Integer> inputTag_List, 
+			int limit,
+			List<String> returnFields) throws Exception
+	{
+		return inputbb.findDocsByFieldsTagsSet(fromDate, 
+				toDate, 
+				null, 
+				null, 
+				inputTag_List, 
+				null, 
+				limit,
+				returnFields);
+	}	
 	
 	/**
 	 * Find in the database the documents in the specific period of time
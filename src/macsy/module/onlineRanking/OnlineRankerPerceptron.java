@@ -11,11 +11,14 @@ import java.util.*;
 import macsy.blackBoardsSystem.BBDoc;
 import macsy.blackBoardsSystem.BBDocSet;
 import macsy.blackBoardsSystem.BlackBoardDateBased;
+import macsy.lib.ArrayLinearModel;
 import macsy.lib.DataPoint;
+import macsy.lib.FeaturesCodec;
 import macsy.lib.LinearModel;
 import macsy.lib.Results;
 import macsy.lib.onlineLearning.OnlineLearning;
 import macsy.lib.onlineLearning.OnlinePerceptron;
+import macsy.lib.onlineLearning.RankingTrainer;
 import macsy.module.BaseModule;
 
 /**
@@ -50,6 +53,14 @@ import macsy.module.BaseModule;
  * MODEL_LAST_DATE_FILENAME=The name of the file storing the last date that the model is updated.
  * PERFORMANCE=The boolean flag to specify if we want a large file with the performance
  * of the classifier per document
+ * RANKING_PAIRS_PER_POSITIVE=Optional. The number of documents x_j that each document x_i
+ * is compared with, per day (default 0, for all of them). The statistics are printed once
+ * per day.
+ * RANKING_HARD_NEGATIVES=Optional. If TRUE the x_j with the highest scores are chosen
+ * instead of random ones (see RankingTrainer).
+ * LINEAR_MODEL=Optional. The model that holds the weights: BASIC (default) for a
+ * BasicLinearModel or ARRAY for an ArrayLinearModel, which keeps the weights in an
+ * array and is faster for hashed features. Both read and write the same model file.
  *
  * Output:
  * OUTPUT_BLACKBOARD=Output BlackBoard
@@ -81,6 +92,9 @@ public class OnlineRankerPerceptron extends BaseModule {
     static final String PROPERTY_UPDATE_LEARNING_FACTOR = "UPDATE_LEARNING_FACTOR";
     static final String PROPERTY_VOCABULARY = "VOCABULARY";
     static final String PROPERTY_PERFORMANCE = "PERFORMANCE";
+    static final String PROPERTY_RANKING_PAIRS_PER_POSITIVE = "RANKING_PAIRS_PER_POSITIVE";
+    static final String PROPERTY_RANKING_HARD_NEGATIVES = "RANKING_HARD_NEGATIVES";
+    static final String PROPERTY_LINEAR_MODEL = "LINEAR_MODEL";
     private BlackBoardDateBased inputBB;
     private BlackBoardDateBased outputBB;
     private OnlineRanker_StorageLayer storageLayer = null; 	// object used for communicate with the database
@@ -149,7 +163,8 @@ public class OnlineRankerPerceptron extends BaseModule {
 
 
         OnlineLearning onlineLearning =
-                new OnlinePerceptron(fileName);
+                new OnlinePerceptron(fileName,
+                newLinearModel(this.getProperty(PROPERTY_LINEAR_MODEL)));
 
         File logFile = new File(fileName + ".log");
         if (!logFile.exists()) {
@@ -181,6 +196,12 @@ public class OnlineRankerPerceptron extends BaseModule {
 
         onlineLearning.setUpdateLearningFactor(
                 this.getProperty(PROPERTY_UPDATE_LEARNING_FACTOR).equals("TRUE"));
+        RankingTrainer rankingTrainer = new RankingTrainer(onlineLearning,
+                (this.getProperty(PROPERTY_RANKING_PAIRS_PER_POSITIVE) == null)
+                ? RankingTrainer.ALL_PAIRS
+                : Integer.parseInt(this.getProperty(PROPERTY_RANKING_PAIRS_PER_POSITIVE)),
+                "TRUE".equals(this.getProperty(PROPERTY_RANKING_HARD_NEGATIVES)),
+                new Random());
         // a boolean value for holding info if we wish to have a performance file or not
 
 
@@ -237,9 +258,7 @@ public class OnlineRankerPerceptron extends BaseModule {
             while ((doc = docSet.getNext()) != null) {
                 dataRead++;
                 d = doc.getIDasDate();
-                @SuppressWarnings("unchecked")
-                List<Double> tf_idf_x_i =
-                        (List<Double>) doc.getField(MODULE_INPUT_FIELDS);
+                Object tf_idf_x_i = doc.getField(MODULE_INPUT_FIELDS);
 
                 if (tf_idf_x_i != null) {
                     if (dataProcessed++ % 1000 == 0) {
@@ -280,6 +299,7 @@ public class OnlineRankerPerceptron extends BaseModule {
                 trainingProcedure(list_x_i,
                         list_x_j,
                         onlineLearning,
+                        rankingTrainer,
                         performance,
                         learningResults,
                         header, d);
@@ -336,6 +356,23 @@ public class OnlineRankerPerceptron extends BaseModule {
         return dtDate;
     }
 
+    /**
+     * Returns the LinearModel named by the LINEAR_MODEL property
+     *
+     * @param type:BASIC, ARRAY or null
+     * @return An empty ArrayLinearModel, or null for the default BasicLinearModel
+     * @throws Exception for an unknown type
+     */
+    private LinearModel newLinearModel(String type) throws Exception {
+        if (type == null || type.equals("BASIC")) {
+            return null;
+        } else if (type.equals("ARRAY")) {
+            return new ArrayLinearModel();
+        }
+        throw new Exception("Unknown " + PROPERTY_LINEAR_MODEL + ": " + type
+                + " (use BASIC or ARRAY)");
+    }
+
     /**
      * This function returns the date that the file was modified
      *
@@ -464,10 +501,9 @@ public class OnlineRankerPerceptron extends BaseModule {
      *
      * @throws Exception
      */
-    private double predict(List<Double> tf_idf_x_i,
+    private double predict(Object tf_idf_x_i,
             OnlineLearning onlineLearning, Object ID) throws Exception {
-        DataPoint sample = new DataPoint(
-                deseriliseFeatures(tf_idf_x_i));
+        DataPoint sample = FeaturesCodec.decode(tf_idf_x_i);
         sample.setID(ID);
         // training with the specified instance
         return onlineLearning.predict(sample);
@@ -487,15 +523,14 @@ public class OnlineRankerPerceptron extends BaseModule {
      * @param list_x_j:The list with the documents tagged as TAG1_AND_NOT_TAG2.
      * @throws Exception
      */
-    private void createList(List<Double> tf_idf_x_i,
+    private void createList(Object tf_idf_x_i,
             BBDoc s,
             List<Integer> docFieldId,
             List<Integer> withFieldValues,
             List<Integer> tagForCombination,
             List<DataPoint> list_x_i,
             List<DataPoint> list_x_j) throws Exception {
-        DataPoint sample = new DataPoint(
-                deseriliseFeatures(tf_idf_x_i));
+        DataPoint sample = FeaturesCodec.decode(tf_idf_x_i);
 
         if (docFieldId != null) {
             for (Integer e : withFieldValues) {
@@ -525,96 +560,47 @@ public class OnlineRankerPerceptron extends BaseModule {
      * @param list_x_i:The list with the documents tagged as TAG1_AND_TAG2.
      * @param list_x_j:The list with the documents tagged as TAG1_AND_NOT_TAG2.
      * @param onlinelearning:The model of interest (used for the training procedure).
+     * @param rankingTrainer:Chooses the pairs (x_i, x_j) and trains onlinelearning on them.
      *
      * @throws Exception
      */
     private void trainingProcedure(List<DataPoint> list_x_i,
             List<DataPoint> list_x_j, OnlineLearning onlinelearning,
+            RankingTrainer rankingTrainer,
             boolean performance, Results learningResults, String header, Date d)
             throws Exception {
-        for (DataPoint x_i : list_x_i) {
+        // training on the differences x_i - x_j (or x_j - x_i)
+        long pairs = rankingTrainer.train(list_x_i, list_x_j);
 
-            for (DataPoint x_j : list_x_j) {
+        // display on the screen the statistical information
+        onlinelearning.statsPrintConfusionMatrix();
 
-                if (Math.random() >= 0.5) {
-                    Training(x_i, x_j, onlinelearning, 1);
-                } else {
-                    Training(x_j, x_i, onlinelearning, -1);
-
-                }
-                // display on the screen the statistical information
-                onlinelearning.statsPrintConfusionMatrix();
-
-                double N_hat_Pos = onlinelearning.expMovAvGetPositives();
-                double N_hat_Neg = onlinelearning.expMovAvGetNegatives();
-                double display_ALL = N_hat_Pos + N_hat_Neg;
-
-                // information on the screen
-                String str = "\t #POS \t #NEG \t #ALL \n" + "\t " + N_hat_Pos
-                        + "\t " + N_hat_Neg + "\t " + display_ALL + "\t";
-                System.out.println(str);
-
-                // calculate precision, recall and f-measure
+        double N_hat_Pos = onlinelearning.expMovAvGetPositives();
+        double N_hat_Neg = onlinelearning.expMovAvGetNegatives();
+        double display_ALL = N_hat_Pos + N_hat_Neg;
 
-                str = calculatePrintStatistics(onlinelearning);
+        // information on the screen
+        String str = "\t #POS \t #NEG \t #ALL \n" + "\t " + N_hat_Pos
+                + "\t " + N_hat_Neg + "\t " + display_ALL + "\t";
+        System.out.println(str);
 
-                // if we wish to have a performance file
-                if (performance == true) {
+        // calculate precision, recall and f-measure
 
-                    // because in file the header is printed only on the
-                    // beginning
+        str = calculatePrintStatistics(onlinelearning);
 
-                    System.out.println(header);
-                    // inform the file which holds the corresponding statistical
-                    // info
-                    writingStatisticsInFile(onlinelearning, learningResults,
-                            str, d);
-                }
-            }
-            if (performance == true) {
-                learningResults.Flush();
-            }
-        }
-    }
-
-    /**
-     * This function is called for the training procedure performed on the difference of
-     * the input DataPoints.
-     *
-     * @param x_i:The first DataPoint of interest that we want the training to perform
-     * @param x_j:The second DataPoint of interest that we want the training to perform
-     * @param onlineLearning:The model of interest.
-     * @param desired_output:The actual label of the difference of the input DataPoints
-     * @throws Exception
-     */
-    private void Training(DataPoint x_i, DataPoint x_j,
-            OnlineLearning onlineLearning,
-            int desired_output) throws Exception {
-        DataPoint sample = DataPoint.difference(x_i, x_j);
-        sample.setRealLabel(desired_output);
-        // training with the specified instance
-        onlineLearning.train(sample);
+        // if we wish to have a performance file
+        if (performance == true) {
 
-    }
+            // because in file the header is printed only on the
+            // beginning
 
-    /**
-     * Transforms the input features to a features Map based on TF-IDF.
-     *
-     * @param featuresAsString the string text that you wand to transform into a Map based on TF
-     * @return the map  of the words' IDs and their TF-IDF
-     * @throws InterruptedException
-     */
-    private Map<Integer, Double> deseriliseFeatures(List<Double> features_list) throws Exception {
-
-        Map<Integer, Double> feat = new TreeMap<Integer, Double>();
-        int index;
-        double value;
-        for (int f = 0; f < features_list.size(); f += 2) {
-            index = (int) Math.round(features_list.get(f));
-            value = features_list.get(f + 1);
-            feat.put(index, value);
+            System.out.println(header);
+            // inform the file which holds the corresponding statistical
+            // info
+            writingStatisticsInFile(onlinelearning, learningResults,
+                    str, d);
+            learningResults.Flush();
         }
-        return feat;
     }
 
     /**
@@ -0,0 +1,90 @@
+package macsy.module.vocabularyBuilder;
+
+import java.util.Arrays;
+
+import macsy.lib.CharsIntHashMap;
+import macsy.lib.CountMinSketch;
+import macsy.module.featuresExtractorTFIDF.NGPreprocessing;
+
+/**
+ * Counts the document frequencies of the stems of the docs of one thread, so
+ * threads never share a map. VocabularyDF adds the counters of all threads.
+ *
+ * Stems of the previous vocabulary are counted exactly from the start. Any
+ * other stem is counted in the shared CountMinSketch until its estimate
+ * reaches minDF; only then it gets an exact counter here. So the maps hold
+ * the frequent stems, not the long tail of stems seen in a few docs.
+ */
+class DFCounter {
+
+	private NGPreprocessing pre;
+	private CharsIntHashMap prevWords;	//Shared, read only
+	private CountMinSketch sketch;		//Shared, null to count all stems exactly
+	private int minDF;
+
+	private CharsIntHashMap docStems = new CharsIntHashMap(256);	//Stems of the current doc
+
+	int numDocs = 0;
+	int[] prevDF;			//DF of each word of the previous vocabulary, by index
+	CharsIntHashMap newWords = new CharsIntHashMap(1024);	//Stem -> index of newDF
+	int[] newDF = new int[1024];
+
+	/**
+	 * @param stopwordsFilename
+	 * @param prevWords Words of the previous vocabulary -> their index.
+	 * @param sketch Shared by all counters; null to count all stems exactly.
+	 * @param minDF Estimated DF from which a stem is counted exactly.
+	 */
+	DFCounter(String stopwordsFilename, CharsIntHashMap prevWords, CountMinSketch sketch, int minDF)
+	{
+		this.pre = new NGPreprocessing(stopwordsFilename);
+		this.prevWords = prevWords;
+		this.sketch = sketch;
+		this.minDF = minDF;
+		this.prevDF = new int[prevWords.size()];
+	}
+
+	/**
+	 * Counts each distinct stem of a doc once.
+	 */
+	void addDoc(String text)
+	{
+		numDocs++;
+		docStems.clear();
+		for(int pos=0; (pos = pre.nextStem(text, pos)) >= 0; )
+		{
+			char[] buf = pre.getStemBuffer();
+			int len = pre.getStemLength();
+			if(docStems.containsKey(buf, 0, len))
+				continue;
+			docStems.put(buf, 0, len, 1);
+
+			int w = prevWords.get(buf, 0, len, -1);
+			if(w >= 0)
+			{
+				prevDF[w]++;
+				continue;
+			}
+
+			w = newWords.get(buf, 0, len, -1);
+			if(w >= 0)
+				newDF[w]++;
+			else if(sketch==null || sketch.add(buf, 0, len) >= minDF)
+			{
+				w = newWords.size();
+				if(w==newDF.length)
+					newDF = Arrays.copyOf(newDF, 2 * w);
+				newWords.put(buf, 0, len, w);
+				newDF[w] = 1;
+			}
+		}
+	}
+
+	/**
+	 * Adds the stem cache lookups not yet counted to its stats.
+	 */
+	void flushStats()
+	{
+		pre.flushStats();
+	}
+}
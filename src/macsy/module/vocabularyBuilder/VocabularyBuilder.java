@@ -0,0 +1,134 @@
+package macsy.module.vocabularyBuilder;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import macsy.blackBoardsSystem.BBDocSet;
+import macsy.blackBoardsSystem.BlackBoardDateBased;
+import macsy.module.BaseModule;
+
+/**
+ * Module that builds the vocabulary with document frequencies used by
+ * FeaturesExtractorTFIDF (see NGVoc), from the docs of a period. Text is
+ * preprocessed as by the indexer: stop word removal and stemming.
+ *
+ * To follow the language of new docs without reading all docs again, give
+ * the previous vocabulary and the period of the new docs only: its words keep
+ * their IDs and DFs, which are increased, and new words are added after them.
+ *
+ * Input:
+ * INPUT_BLACKBOARD=The BlackBoard of the docs.
+ * INPUT_FIELDS=Comma separated text-fields that are concatenated, as in FeaturesExtractorTFIDF.
+ * INPUT_TAGS=Optional. Comma separated tags that docs should have.
+ * START_DATE=Optional. The first day of interest (dd-MM-yyyy).
+ * STOP_DATE=Optional. The last day of interest, included (dd-MM-yyyy).
+ * PROCESS_LIMIT=The max number of docs. Set to zero to get all.
+ * INPUT_STOPWORDS_FILENAME=The path and name of the file that stores stopwords that will be removed.
+ * INPUT_VOCABULARY_FILENAME=Optional. The vocabulary to update with the docs. It must be text:
+ * a binary vocabulary (see NGVoc.main()) keeps IDFs only.
+ * MIN_DF=Optional. New words found in fewer docs are not kept (default 4; NGVoc gives
+ * zero IDF to words in up to 3 docs). Rare words are counted approximately in a fixed
+ * size count-min sketch, so memory does not grow with them.
+ * SKETCH_WIDTH=Optional. Counters per row of the sketch (default 2^22, 4 rows, 64MB).
+ * BUILDER_THREADS=Optional. Number of threads that count words in parallel (default 1).
+ *
+ * Output:
+ * OUTPUT_VOCABULARY_FILENAME=The vocabulary file to write. It can be INPUT_VOCABULARY_FILENAME.
+ */
+public class VocabularyBuilder extends BaseModule {
+
+	static final String PROPERTY_START_DATE = "START_DATE";
+	static final String PROPERTY_STOP_DATE = "STOP_DATE";
+	static final String PROPERTY_INPUT_STOPWORDS_FILENAME = "INPUT_STOPWORDS_FILENAME";
+	static final String PROPERTY_INPUT_VOCABULARY_FILENAME = "INPUT_VOCABULARY_FILENAME";
+	static final String PROPERTY_OUTPUT_VOCABULARY_FILENAME = "OUTPUT_VOCABULARY_FILENAME";
+	static final String PROPERTY_MIN_DF = "MIN_DF";
+	static final String PROPERTY_SKETCH_WIDTH = "SKETCH_WIDTH";
+	static final String PROPERTY_BUILDER_THREADS = "BUILDER_THREADS";
+
+	static final int DEFAULT_MIN_DF = 4;
+	static final int DEFAULT_SKETCH_WIDTH = 1 << 22;
+
+	public VocabularyBuilder(String propertiesFilename) throws Exception
+	{
+		super(propertiesFilename);
+	}
+
+	@Override
+	public void runModuleCore() throws Exception
+	{
+		BlackBoardDateBased bb = _bbAPI.blackBoardLoadDateBased( MODULE_INPUT_BLACKBOARD );
+
+		//Input Fields
+		List<String> inputFields = new ArrayList<String>();
+		for(String f : MODULE_INPUT_FIELDS.split(","))
+			inputFields.add(f);
+
+		//Input Tags
+		List<Integer> inputTags = new LinkedList<Integer>();
+		if(MODULE_INPUT_TAGS!=null)
+			for(String tagName : MODULE_INPUT_TAGS.split(","))
+			{
+				if(tagName.equals(""))
+					continue;
+				int tagID = bb.getTagID(tagName);
+				if(tagID==0)
+					throw new Exception("Unknown input tag: " + tagName);
+				inputTags.add(tagID);
+			}
+
+		//Period
+		DateFormat df = new SimpleDateFormat("dd-MM-yyyy");
+		Date fromDate = (getProperty(PROPERTY_START_DATE)==null) ? null : df.parse(getProperty(PROPERTY_START_DATE));
+		Date toDate = null;
+		if(getProperty(PROPERTY_STOP_DATE)!=null)	//Include the whole last day
+		{
+			Calendar c = Calendar.getInstance();
+			c.setTime(df.parse(getProperty(PROPERTY_STOP_DATE)));
+			c.add(Calendar.DAY_OF_MONTH, 1);
+			toDate = c.getTime();
+		}
+
+		String outputFilename = getProperty(PROPERTY_OUTPUT_VOCABULARY_FILENAME);
+		if(outputFilename==null)
+			throw new Exception(PROPERTY_OUTPUT_VOCABULARY_FILENAME + " is not set");
+
+		System.out.print("Reading Vocabulary...");
+		VocabularyDF voc = new VocabularyDF(
+				getProperty(PROPERTY_INPUT_VOCABULARY_FILENAME),
+				getProperty(PROPERTY_INPUT_STOPWORDS_FILENAME),
+				getIntProperty(PROPERTY_MIN_DF, DEFAULT_MIN_DF),
+				getIntProperty(PROPERTY_SKETCH_WIDTH, DEFAULT_SKETCH_WIDTH),
+				getIntProperty(PROPERTY_BUILDER_THREADS, 1));
+		System.out.println("\t[ DONE ]");
+
+		System.out.println("Counting words...");
+		BBDocSet docs = bb.findDocsByFieldsTagsSet(fromDate, toDate, null, null,
+				inputTags, null, MODULE_DATA_PROCESS_LIMIT, inputFields);
+		int docsRead = voc.count(docs, inputFields);
+
+		int words = voc.write(outputFilename);
+
+		saveModuleResults(docsRead, words);
+	}
+
+	private int getIntProperty(String name, int defaultValue)
+	{
+		String value = getProperty(name);
+		return (value==null) ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * @param args The settings file that contains I/O and parameters info.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		VocabularyBuilder module = new VocabularyBuilder(args[0]);
+		module.run();
+	}
+}
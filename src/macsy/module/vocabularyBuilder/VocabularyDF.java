@@ -0,0 +1,295 @@
+package macsy.module.vocabularyBuilder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import macsy.blackBoardsSystem.BBDoc;
+import macsy.blackBoardsSystem.BBDocSet;
+import macsy.lib.CharsIntHashMap;
+import macsy.lib.CountMinSketch;
+import macsy.module.featuresExtractorTFIDF.NGVoc;
+
+/**
+ * Document frequencies of stems, counted by several threads and written as a
+ * vocabulary file of NGVoc:
+ *
+ * NumOfDocuments <Tab> N <Tab> NumOfWords <Tab> V
+ * WORD <Tab> DF
+ * ...
+ *
+ * The ID of a word in NGVoc is its line, so to keep the features of a
+ * previous vocabulary valid its words are written first, in their order, with
+ * their DFs increased by the new docs; they are never removed. New words
+ * follow in alphabetical order.
+ *
+ * A new word is counted exactly only after CountMinSketch estimates it in
+ * minDF docs, so its DF is its exact count plus minDF-1 for the docs before.
+ * The estimate only over-counts, so no word in minDF docs or more is missed;
+ * a word admitted early due to collisions gets at most minDF-1 extra.
+ */
+class VocabularyDF {
+
+	/**
+	 * Number of docs buffered for the counters, per thread.
+	 */
+	static final int DEFAULT_QUEUE_DEPTH = 200;
+
+	static final int SKETCH_DEPTH = 4;
+
+	private static final String END = new String("END");
+
+	private int prevNumDocs = 0;
+	private List<String> prevWords = new ArrayList<String>();
+	private CharsIntHashMap prevIndex = new CharsIntHashMap();
+	private int[] prevDF = new int[0];
+
+	private String stopwordsFilename;
+	private int minDF;
+	private int numThreads;
+	private CountMinSketch sketch;
+
+	private List<DFCounter> counters = new ArrayList<DFCounter>();
+	private volatile Throwable error = null;
+
+	/**
+	 * @param prevVocFilename Text vocabulary to update, or null to start a new one.
+	 * @param stopwordsFilename
+	 * @param minDF New words in fewer docs (estimated) are not kept.
+	 * @param sketchWidth Counters per row of the sketch.
+	 * @param numThreads Number of counting threads.
+	 */
+	VocabularyDF(String prevVocFilename, String stopwordsFilename, int minDF,
+			int sketchWidth, int numThreads) throws Exception
+	{
+		if(prevVocFilename!=null)
+			load(prevVocFilename);
+		this.stopwordsFilename = stopwordsFilename;
+		this.minDF = Math.max(1, minDF);
+		this.numThreads = Math.max(1, numThreads);
+		this.sketch = (this.minDF > 1) ? new CountMinSketch(SKETCH_DEPTH, sketchWidth) : null;
+	}
+
+	private void load(String vocFilename) throws Exception
+	{
+		if(NGVoc.isBinary(vocFilename))	//It keeps IDFs, not DFs
+			throw new Exception(vocFilename + " is a binary vocabulary; only a text vocabulary can be updated");
+
+		BufferedReader input = new BufferedReader( new FileReader(new File(vocFilename)) );
+
+		String line = input.readLine();	//Header
+		String[] tokens = line.split("\t");
+		prevNumDocs = Integer.parseInt(tokens[1]);
+		prevDF = new int[Integer.parseInt(tokens[3])];
+
+		while (( line = input.readLine()) != null)
+		{
+			tokens = line.split("\t");
+			if(prevWords.size()==prevDF.length)
+				prevDF = Arrays.copyOf(prevDF, 2 * prevDF.length + 1);
+			prevIndex.put(tokens[0], prevWords.size());
+			prevDF[prevWords.size()] = (int) Math.round(Double.parseDouble(tokens[1]));
+			prevWords.add(tokens[0]);
+		}
+		input.close();
+	}
+
+	/**
+	 * Counts the stems of the given fields of the docs.
+	 *
+	 * @param docs Closed at the end.
+	 * @param inputFields Text fields, concatenated.
+	 * @return The number of docs read.
+	 * @throws Exception The first error of any thread.
+	 */
+	int count(BBDocSet docs, List<String> inputFields) throws Exception
+	{
+		if(numThreads==1)	//No need for threads
+		{
+			DFCounter counter = newCounter();
+			int i = 0;
+			try {
+				BBDoc doc;
+				while((doc = docs.getNext())!=null)
+				{
+					counter.addDoc(getDocText(doc, inputFields));
+					progress(++i);
+				}
+			}
+			finally {
+				counter.flushStats();
+				docs.close();
+			}
+			return i;
+		}
+
+		final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(DEFAULT_QUEUE_DEPTH * numThreads);
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int t=0; t<numThreads; t++)
+		{
+			final DFCounter counter = newCounter();
+			Thread thread = new Thread("VocabularyBuilder counter " + t) {
+				public void run()
+				{
+					try {
+						String text;
+						while((text = queue.take())!=END)
+							counter.addDoc(text);
+						counter.flushStats();
+					}
+					catch(InterruptedException e) {
+						//Stopped
+					}
+					catch(Throwable e) {	//Also Errors, so that the reader does not wait forever
+						synchronized(VocabularyDF.this) {
+							if(error==null)
+								error = e;
+						}
+					}
+				}
+			};
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+
+		int i = 0;
+		try {
+			BBDoc doc;
+			while((doc = docs.getNext())!=null)
+			{
+				String text = getDocText(doc, inputFields);
+				while(!queue.offer(text, 100, TimeUnit.MILLISECONDS))
+					checkError();
+				progress(++i);
+			}
+			for(int t=0; t<numThreads; t++)
+				while(!queue.offer(END, 100, TimeUnit.MILLISECONDS))
+					checkError();
+			for(Thread thread : threads)
+				thread.join();
+			checkError();
+		}
+		finally {
+			for(Thread thread : threads)
+				thread.interrupt();
+			docs.close();
+		}
+		return i;
+	}
+
+	/**
+	 * Throws the error of a counter thread, if any.
+	 */
+	private void checkError() throws Exception
+	{
+		Throwable e = error;
+		if(e==null)
+			return;
+		if(e instanceof Exception)
+			throw (Exception) e;
+		if(e instanceof Error)
+			throw (Error) e;
+		throw new Exception(e);
+	}
+
+	private DFCounter newCounter()
+	{
+		DFCounter counter = new DFCounter(stopwordsFilename, prevIndex, sketch, minDF);
+		counters.add(counter);
+		return counter;
+	}
+
+	private static void progress(int i)
+	{
+		if(i%10000==0)
+			System.out.println("Docs: " + i);
+	}
+
+	/**
+	 * The text of the input fields of a doc, concatenated, as indexed by
+	 * FeaturesExtractorTFIDF.
+	 */
+	static String getDocText(BBDoc doc, List<String> inputFields) throws Exception
+	{
+		StringBuilder text = new StringBuilder();
+		for(String field : inputFields)
+		{
+			String t = (String) doc.getField(field);
+			if(t!=null)
+				text.append(t).append(". ");
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Adds the counts of all threads and writes the vocabulary. It is written
+	 * to a temporary file that then replaces vocFilename atomically, so
+	 * vocFilename can be the previous vocabulary.
+	 *
+	 * @return The number of words written.
+	 */
+	int write(String vocFilename) throws Exception
+	{
+		int numDocs = prevNumDocs;
+		int[] df = Arrays.copyOf(prevDF, prevWords.size());
+		CharsIntHashMap newDF = new CharsIntHashMap();
+		for(DFCounter c : counters)
+		{
+			numDocs += c.numDocs;
+			for(int w=0; w<df.length; w++)
+				df[w] += c.prevDF[w];
+			for(int s=0; s<c.newWords.capacity(); s++)
+				if(c.newWords.isUsed(s))
+				{
+					String word = c.newWords.keyAt(s);
+					newDF.put(word, newDF.get(word, 0) + c.newDF[c.newWords.valueAt(s)]);
+				}
+		}
+
+		String[] newWords = new String[newDF.size()];
+		int n = 0;
+		for(int s=0; s<newDF.capacity(); s++)
+			if(newDF.isUsed(s))
+				newWords[n++] = newDF.keyAt(s);
+		Arrays.sort(newWords);
+
+		File target = new File(vocFilename).getAbsoluteFile();
+		File tmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		boolean moved = false;
+		try {
+			BufferedWriter out = new BufferedWriter(new FileWriter(tmp));
+			try {
+				out.write("NumOfDocuments\t" + numDocs + "\tNumOfWords\t" + (df.length + newWords.length) + "\n");
+				for(int w=0; w<df.length; w++)
+					out.write(prevWords.get(w) + "\t" + df[w] + "\n");
+				for(String word : newWords)
+					out.write(word + "\t" + (newDF.get(word, 0) + minDF - 1) + "\n");
+			}
+			finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		}
+		finally {
+			if(!moved)
+				tmp.delete();
+		}
+
+		System.out.println("Vocabulary: " + df.length + " previous words, " + newWords.length + " new words, "
+				+ numDocs + " docs" + (sketch==null ? "" : ", sketch of " + (sketch.memoryBytes() >> 20) + "MB"));
+		return df.length + newWords.length;
+	}
+}
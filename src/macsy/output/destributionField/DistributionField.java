@@ -5,19 +5,20 @@ import java.io.File;
 import java.io.FileWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
-import macsy.blackBoardsSystem.BBDoc;
-import macsy.blackBoardsSystem.BBDocSet;
+import macsy.blackBoardsSystem.BBFieldStats;
 import macsy.blackBoardsSystem.BlackBoardDateBased;
 import macsy.module.BaseModule;
 
 /**
  * Exports the distribution of a given Field and exports a histogram (optional)
+ * The values are binned by the DB, between the min and max value of the field.
  * 
  * Input:
  * INPUT_BLACKBOARD=The name of the BlackBoard that will be populated by the data points.
@@ -59,12 +60,12 @@ public class DistributionField extends BaseModule {
 			// see if the user wants the results to be displayed or not
 			boolean onScreen= false;
 			String onScreen_str = this.getProperty(PROPERTY_ON_SCREEN);
-			if(onScreen_str.equals("TRUE"))
+			if("TRUE".equals(onScreen_str))
 				onScreen = true;
 			
 			boolean Hist= false;
 			String Hist_str = this.getProperty(PROPERTY_HISTOGRAM);
-			if(Hist_str.equals("TRUE"))
+			if("TRUE".equals(Hist_str))
 				Hist = true;
 
 			// check whether the user also wants txt output file
@@ -77,10 +78,8 @@ public class DistributionField extends BaseModule {
 			
 			String numBins = this.getProperty(PROPERTY_NUM_BINS);
 			int numberOfBins = 5;
-			double offset;
 			if(numBins!=null)
 				numberOfBins = Integer.parseInt(numBins);
-			offset = 1 / numberOfBins;
 
 
 			//Load Black Board of interest (with data based)
@@ -111,64 +110,45 @@ public class DistributionField extends BaseModule {
 			Date fromDate = df.parse(this.getProperty(PROPERTY_ON_START_DATE));
 			Date toDate = df.parse(this.getProperty(PROPERTY_ON_STOP_DATE));
 			
-			BBDocSet DocSet = bb.findDocsByFieldsTagsSet(fromDate, toDate, null, null, Tag_List, null, this.MODULE_DATA_PROCESS_LIMIT);
+			// the last day is included
+			Calendar calLastDate = Calendar.getInstance();
+			calLastDate.setTime(toDate);
+			calLastDate.add(Calendar.DATE, 1);
+			toDate = calLastDate.getTime();
 			
-			// get the next doc int the BBDocSet
-			BBDoc s = DocSet.getNext();
+			List<Integer> withTags = Tag_List.isEmpty() ? null : Tag_List;
 			
-			// create a map: <# of words in the title, # articles>
-			HashMap<Double,Integer> value_counts = new HashMap<Double,Integer>();
-				
-			List<Double> keyList = new LinkedList<Double>();
-			while(s!=null)
+			// first pass on the DB: the range of the field's values
+			BBFieldStats range = bb.getFieldStats(fromDate, toDate, MODULE_INPUT_FIELDS, 
+					withTags, null, BlackBoardDateBased.BUCKET_NONE, 0, 0, 0).firstEntry().getValue();
+			
+			// second pass on the DB: a unified quantization of the values in numberOfBins bins
+			double binWidth = (range.getMax() - range.getMin()) / numberOfBins;
+			if(!(binWidth > 0))
+				binWidth = 1;
+			BBFieldStats stats = bb.getFieldStats(fromDate, toDate, MODULE_INPUT_FIELDS, 
+					withTags, null, BlackBoardDateBased.BUCKET_NONE, range.getMin(), binWidth, 
+					numberOfBins).firstEntry().getValue();
+			
+			dataRead = (int) stats.getCount();
+			dataProcessed = dataRead;
+			
+			// create a map: <start of bin, # articles>
+			TreeMap<Double,Long> value_counts = new TreeMap<Double,Long>();
+			if(stats.getCount() > 0)
 			{
-				// increase the number of the data that were read
-				dataRead++;
-				
-				// get the field's value (double value)
-				Double dValue = s.getFieldDouble(MODULE_INPUT_FIELDS);
-				
-				// check if it's null
-				if(dValue==null){
-					// get the next article
-					s = DocSet.getNext();
-					continue;
-				}
-				dValue = mapValue(dValue,offset,numberOfBins);
-				
-				// increase the number of the data tat were proceed
-				dataProcessed++;
-				 			 
-				// if the number of words already exists in the map
-				if(value_counts.containsKey(dValue)==true){
-					// increase the value by one
-					int c = ((Integer)value_counts.get(dValue)).intValue();
-					value_counts.put(dValue, c + 1);
-				}
-				else
-					// put the new key - number of words
-					value_counts.put(dValue, 1);
-				
-				// save the output in the desired field in the database
-				s.setField(this.MODULE_OUTPUT_FIELDS, dValue);
-				
-				// get the next doc int the BBDocSet
-				s = DocSet.getNext();
+				long[] bins = stats.getHistogram();
+				for(int i = 0; i < bins.length; i++)
+					value_counts.put(stats.getBinStart(i), bins[i]);
 			}
 			
-			int maxMapValue = 0;
-			int maxKeyValue = 0;
 			// get information of the map / histogram
-	        for (Map.Entry<Double,Integer> entry : value_counts.entrySet()) {
-	        	if(entry.getValue()>maxMapValue)
-	        		maxMapValue = entry.getValue();
-	        	keyList.add(entry.getKey());
+	        for (Map.Entry<Double,Long> entry : value_counts.entrySet()) {
 	        	String str = entry.getKey() + ":" + entry.getValue() + " "; 
 				if(onScreen)
 					System.out.print(str);
 				if(outputBuffer!=null)
 					outputBuffer.append(str);
-				maxKeyValue = entry.getKey().intValue();
 	        }
 	        
 	        // if the user chose them to be displayed, print them
@@ -225,16 +205,6 @@ public class DistributionField extends BaseModule {
 			this.saveModuleResults(dataRead, dataProcessed);
 		}
 		
-		double mapValue(double dValue, double offset, int NumberOfBins){
-			dValue = dValue*10;
-			int temp = (int) Math.ceil(dValue);
-			int BinNum = 0;
-			for(int i = 0; i < NumberOfBins; i++){
-				if(i*offset*10 > temp)
-					BinNum = i; 
-			}
-			return ( offset*(BinNum-1) );
-		}
 		/**
 		 * 
 		 * @param args The settings file that contains I/O and parameters info.
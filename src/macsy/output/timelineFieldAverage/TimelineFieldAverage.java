@@ -8,7 +8,8 @@ import java.util.*;
 import macsy.blackBoardsSystem.*;
 import macsy.module.BaseModule;
 /**
- * Calculates the average of a field's values of interest to the dates in a specified period of days
+ * Calculates the average of a field's values of interest to the dates in a specified period of days.
+ * The averages are computed by the DB in one pass per year.
  * 
  * Input:
  * INPUT_BLACKBOARD=The name of the BlackBoard that will be populated by the data points.
@@ -44,7 +45,7 @@ public class TimelineFieldAverage extends BaseModule {
 		// see if you want the results to be displayed or not
 		boolean onScreen= false;
 		String onScreen_str = this.getProperty(PROPERTY_ON_SCREEN);
-		if(onScreen_str.equals("TRUE"))
+		if("TRUE".equals(onScreen_str))
 			onScreen = true;
 
 		// check whether you also want txt output file
@@ -79,69 +80,30 @@ public class TimelineFieldAverage extends BaseModule {
 		Date fromDate = dateFormat.parse(this.getProperty(PROPERTY_ON_START_DATE));
 		Date toDate = dateFormat.parse(this.getProperty(PROPERTY_ON_STOP_DATE));
 		
-		// set the beginning of the period
-		Calendar calCurrentDate = Calendar.getInstance();
-		calCurrentDate.setTime(fromDate);
-		
-		// each time add one day in the beginning
+		// the last day is included
 		Calendar calLastDate = Calendar.getInstance();
 		calLastDate.setTime(toDate);
 		calLastDate.add(Calendar.DATE, 1);
-				
-		String str = dateFormat.format(calCurrentDate.getTime());
-		
-		Date dtFromDate = calCurrentDate.getTime();
-		
-		calCurrentDate.add(Calendar.DATE, 1);
-		Date dtToDate = calCurrentDate.getTime();
 		
-		// find the documents in a desired period of time with the Tag list of interest 
-		BBDocSet DocSet;
-		BBDoc s;
 		// in order to calculate the average we need both the sum of the field's value 
-		// and the number of docs
-		int count=0;
-		double sum = 0;
+		// and the number of docs, which the DB computes for each day in one pass per year
+		TreeMap<Date,BBFieldStats> dayStats = bb.getFieldStats(fromDate, calLastDate.getTime(), 
+				MODULE_INPUT_FIELDS, inputTagIDs.isEmpty() ? null : inputTagIDs, null, 
+				BlackBoardDateBased.BUCKET_DAY, 0, 0, 0);
 		
-		// do the same for the rest of the days
-		while(calCurrentDate.before(calLastDate))
+		for(Map.Entry<Date,BBFieldStats> e : dayStats.entrySet())
 		{			
-			str = dateFormat.format(dtFromDate.getTime());
-
-			// find the documents in a desired period of time with the Tag list of interest 
-			DocSet = bb.findDocsByFieldsTagsSet(dtFromDate, dtToDate, null, null, null, null, this.MODULE_DATA_PROCESS_LIMIT);
-
-			s = DocSet.getNext();
-
-			count=0;
-			sum = 0;
-			while(s!=null){
-				if((inputTagIDs!=null) && (s.getTagIDs()!=null) && (s.getAllTagIDs().containsAll(inputTagIDs) ))
-				{
-					Double temp = s.getFieldDouble(MODULE_INPUT_FIELDS);
-					// check if it's null
-					if(temp!=null){
-						count++;
-						sum = sum + temp;
-					}
-				}
-				s = DocSet.getNext();
-
-			}
-
-			if(count == 0 )
+			String str = dateFormat.format(e.getKey());
+			
+			if(e.getValue().getCount() == 0 )
 				str = str + "\t" + Double.toString(0.0) + "\n";
 			else
-				str = str + "\t" + Double.toString(sum/count) + "\n";
+				str = str + "\t" + Double.toString(e.getValue().getMean()) + "\n";
 			
 			if(onScreen)
 				System.out.print(str);
 			if(outputBuffer!=null)
 				outputBuffer.append(str);
-			
-			dtFromDate = calCurrentDate.getTime();
-			calCurrentDate.add(Calendar.DATE, 1);
-			dtToDate = calCurrentDate.getTime();
 		}
 		
 		if(outputBuffer!=null)
@@ -9,6 +9,8 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import macsy.blackBoardsSystem.BlackBoardDateBased;
 import macsy.module.BaseModule;
@@ -16,8 +18,8 @@ import macsy.module.BaseModule;
 /**
  * This module calculates the number of the documents in a specified period of time that
  * have a Tag name of interest. 
- * The result is the distribution of this specific tag per day, and can be displayed on
- * the screen if necessary.
+ * The result is the distribution of this specific tag per day (or hour, or week), and can be 
+ * displayed on the screen if necessary. The counts are computed by the DB in one pass per year.
  * 
  * Input:
  * INPUT_BLACKBOARD=The name of the BlackBoard that will be populated by the data points.
@@ -25,6 +27,7 @@ import macsy.module.BaseModule;
  * INPUT_START_DATE=The first day of interest.
  * INPUT_STOP_DATE=The last day of interest
  * PROCESS_LIMIT=The max number of documents. Set to zero to get all
+ * BUCKET=HOUR, DAY or WEEK. The period of each count (Optional, default DAY)
  * 
  * Output:
  * TXT_FILENAME=The path to a text file that will be REPLACED with module output.(Optional)
@@ -40,6 +43,7 @@ public class TimelineTagsCount extends BaseModule{
 	static final String PROPERTY_ON_SCREEN = "ON_SCREEN";
 	static final String PROPERTY_ON_START_DATE = "START_DATE";
 	static final String PROPERTY_ON_STOP_DATE = "STOP_DATE";
+	static final String PROPERTY_BUCKET = "BUCKET";
 	
 	
 	public TimelineTagsCount(String propertiesFilename ) throws Exception 
@@ -52,7 +56,7 @@ public class TimelineTagsCount extends BaseModule{
 		// see if you want the results to be displayed or not
 		boolean onScreen= false;
 		String onScreen_str = this.getProperty(PROPERTY_ON_SCREEN);
-		if(onScreen_str.equals("TRUE"))
+		if("TRUE".equals(onScreen_str))
 			onScreen = true;
 
 		// check whether you also want txt output file
@@ -93,47 +97,41 @@ public class TimelineTagsCount extends BaseModule{
 		Date fromDate = dateFormat.parse(this.getProperty(PROPERTY_ON_START_DATE));
 		Date toDate = dateFormat.parse(this.getProperty(PROPERTY_ON_STOP_DATE));
 		
-		// set the beginning of the period
-		Calendar calCurrentDate = Calendar.getInstance();
-		calCurrentDate.setTime(fromDate);
-		
-		// each time add one day in the beginning
+		// the last day is included
 		Calendar calLastDate = Calendar.getInstance();
 		calLastDate.setTime(toDate);
 		calLastDate.add(Calendar.DATE, 1);
 		
-		// this counter holds the number of documents in the database 
-		// that have the tag of interest
-		long count;
-		
-		String str = dateFormat.format(calCurrentDate.getTime());
+		// size of each bucket of the timeline (DAY by default)
+		int bucket = BlackBoardDateBased.BUCKET_DAY;
+		String bucket_str = this.getProperty(PROPERTY_BUCKET);
+		if("HOUR".equals(bucket_str))
+			bucket = BlackBoardDateBased.BUCKET_HOUR;
+		else if("WEEK".equals(bucket_str))
+			bucket = BlackBoardDateBased.BUCKET_WEEK;
+		if(bucket == BlackBoardDateBased.BUCKET_HOUR)
+			dateFormat = new SimpleDateFormat("dd-MM-yyyy HH:mm");
 		
-		Date dtFromDate = calCurrentDate.getTime();
+		// the number of documents with the tags of interest in each bucket,
+		// counted by the DB in one pass per year
+		TreeMap<Date,Long> histogram = bb.countDocsHistogram(fromDate, calLastDate.getTime(), 
+				Tag_List.isEmpty() ? null : Tag_List, null, bucket);
 		
-		calCurrentDate.add(Calendar.DATE, 1);
-		Date dtToDate = calCurrentDate.getTime();
-			
-		while(calCurrentDate.before(calLastDate))
+		for(Map.Entry<Date,Long> e : histogram.entrySet())
 		{
-			str = dateFormat.format(dtFromDate.getTime()) + " to " + 
-					dateFormat.format(dtToDate.getTime());
-			// check if the tag list of names is empty
-			if(Tag_List.isEmpty())
-				count = bb.countDocs(dtFromDate, dtToDate,null, null);
-			else
-				count = bb.countDocs2(dtFromDate, dtToDate,Tag_List, null);
+			Date dtFromDate = e.getKey();
+			Date dtToDate = histogram.higherKey(dtFromDate);
+			if(dtToDate==null || dtToDate.after(calLastDate.getTime()))
+				dtToDate = calLastDate.getTime();
 			
-			str = str + " : " + count;
+			String str = dateFormat.format(dtFromDate) + " to " + 
+					dateFormat.format(dtToDate) + " : " + e.getValue();
 			// display on screen or write in a file if necessary
 			if(onScreen)
 				System.out.println(str);
 			if(outputBuffer!=null)
-				outputBuffer.append(str);
-			dataRead = dataRead + (int) count;
-			
-			dtFromDate = calCurrentDate.getTime();
-			calCurrentDate.add(Calendar.DATE, 1);
-			dtToDate = calCurrentDate.getTime();
+				outputBuffer.append(str + "\n");
+			dataRead = dataRead + e.getValue().intValue();
 		}
 		
 		if(onScreen)